@@ -3,64 +3,373 @@ package gitlet;
 import static gitlet.Utils.*;
 import static gitlet.MyUtils.*;
 
-import java.io.File;
-import java.io.IOException;
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.*;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.Inflater;
+import java.util.zip.InflaterInputStream;
 
-public class Blob implements Dumpable {
-    /** The contents of this Blob */
-    private final byte[] contents;
-    /** The source file */
+/**
+ * Represents the contents of a file.
+ * A Blob never holds the whole contents in memory: the id is hashed and the
+ * object file is written chunk by chunk, and the contents are streamed back
+ * out of the object file when they are checked out.
+ *
+ * Files larger than CHUNKED_THRESHOLD are split into content-defined chunks
+ * (see {@link Chunker}), which are stored once however many versions and
+ * files contain them, so an edit only stores the chunks around it. The
+ * chunks are stored uncompressed under CHUNKS_DIR, so checkout copies them
+ * to the working file without passing them through the JVM.
+ *
+ * Object file format:
+ * "blob <size> <fileName>\0" | deflate stream of the contents
+ * or, for chunked blobs,
+ * "chunked <size> <fileName>\0" | chunk count (int)
+ * | (chunk id (20 bytes) | chunk length (int))*
+ */
+public class Blob {
+    /** The size of the chunks files are read and written in */
+    private static final int CHUNK_SIZE = 64 * 1024;
+    /** Files larger than this are stored as content-defined chunks */
+    static final long CHUNKED_THRESHOLD = 1024 * 1024;
+    /** The kind of a blob stored as a whole */
+    private static final String WHOLE = "blob";
+    /** The kind of a blob stored as chunks */
+    private static final String CHUNKED = "chunked";
+
+    /** The source file, null if the Blob was loaded from the object store */
     private final File source;
     /** The object file */
     private final File file;
     /** The filename */
-    private String fileName;
+    private final String fileName;
+    /** The size of the contents in bytes */
+    private final long size;
+    /** Whether the contents are stored as chunks */
+    private final boolean chunked;
     /** The sha1 ID */
-    private String id;
+    private final String id;
 
     /**
      * The Blob constructor from source file
-     * 
+     *
      * @param source source file
      */
     public Blob(File source) {
         this.source = source;
         this.fileName = this.source.getName();
-        this.contents = readContents(source);
-        this.id = sha1(fileName, contents);
+        this.size = this.source.length();
+        this.chunked = size > CHUNKED_THRESHOLD;
+        this.id = idOf(source);
+        this.file = newBlobFile(id);
+    }
+
+    private Blob(String id, String fileName, long size, boolean chunked) {
+        this.source = null;
+        this.fileName = fileName;
+        this.size = size;
+        this.chunked = chunked;
+        this.id = id;
         this.file = newBlobFile(id);
     }
 
     /**
-     * Load the Blob instance from a Object File
-     * 
+     * Compute the id the Blob of the given source file would have, without
+     * creating the Blob. The file is hashed in fixed-size chunks.
+     *
+     * @param source source file
+     * @return Blob ID
+     */
+    public static String idOf(File source) {
+        try (FileChannel in = FileChannel.open(source.toPath(), StandardOpenOption.READ)) {
+            MessageDigest md = MessageDigest.getInstance("SHA-1");
+            md.update(source.getName().getBytes(StandardCharsets.UTF_8));
+            ByteBuffer buffer = ByteBuffer.allocate(CHUNK_SIZE);
+            while (in.read(buffer) > 0) {
+                buffer.flip();
+                md.update(buffer);
+                buffer.clear();
+            }
+            return toHex(md.digest());
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        } catch (NoSuchAlgorithmException excp) {
+            throw new IllegalArgumentException("System does not support SHA-1");
+        }
+    }
+
+    /**
+     * Load the Blob instance from a Object File. Only the header is read, the
+     * contents stay in the object file until they are needed.
+     *
      * @param id ID of the Object File
      * @return Blob instance
      */
     public static Blob fromFile(String id) {
-        File file = newBlobFile(id);
-        if (!file.exists()) {
-            exit("No blob with that id exists.");
+        Blob cached = ObjectCache.get(id, Blob.class);
+        if (cached != null) {
+            return cached;
+        }
+        try (InputStream in = openObject(id)) {
+            if (in == null) {
+                exit("No blob with that id exists.");
+            }
+            Blob blob = readHeader(in, id);
+            ObjectCache.put(id, blob, header(WHOLE, blob.size, blob.fileName).length);
+            return blob;
+        } catch (IOException excp) {
+            throw error("Cannot read blob %s.", id);
         }
-        return readObject(file, Blob.class);
     }
 
     /**
-     * Save the Blob instance to a Object File
+     * Check if the Blob with the given id is stored, loose or packed.
+     *
+     * @param id ID of the Blob
+     * @return true if the Blob exists
+     */
+    public static boolean exists(String id) {
+        return newBlobFile(id).exists() || Pack.contains(id);
+    }
+
+    /**
+     * Save the Blob instance to a Object File. The source file is compressed
+     * chunk by chunk into a temporary file, which is then renamed.
      */
     public void saveBlob() throws IOException {
+        if (source == null) {
+            throw error("Blob %s has no source file.", id);
+        }
         // if the parent directory does not exist, create it
-        if (!file.exists()) {
-            file.getParentFile().mkdirs();
-            file.createNewFile();
+        file.getParentFile().mkdirs();
+        if (chunked) {
+            saveChunks();
+            return;
+        }
+
+        File tmp = new File(file.getPath() + ".tmp");
+        try (FileChannel in = FileChannel.open(source.toPath(), StandardOpenOption.READ);
+                OutputStream fileOut = new FileOutputStream(tmp)) {
+            fileOut.write(header(WHOLE, size, fileName));
+            DeflaterOutputStream out = new DeflaterOutputStream(fileOut,
+                    new Deflater(), CHUNK_SIZE);
+            ByteBuffer buffer = ByteBuffer.allocate(CHUNK_SIZE);
+            int n;
+            while ((n = in.read(buffer)) > 0) {
+                out.write(buffer.array(), 0, n);
+                buffer.clear();
+            }
+            out.finish();
+        }
+        Files.move(tmp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING,
+                StandardCopyOption.ATOMIC_MOVE);
+        Journal.wroteObject(file);
+    }
+
+    /**
+     * Split the source file into chunks, save the chunks not stored yet, and
+     * save the list of chunks as the object file.
+     */
+    private void saveChunks() throws IOException {
+        ByteArrayOutputStream manifest = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(manifest);
+        int count = 0;
+        try (FileChannel in = FileChannel.open(source.toPath(), StandardOpenOption.READ)) {
+            Chunker chunker = new Chunker(in);
+            MessageDigest md = MessageDigest.getInstance("SHA-1");
+            ByteBuffer chunk;
+            while ((chunk = chunker.next()) != null) {
+                md.update(chunk.duplicate());
+                byte[] rawId = md.digest();
+                File chunkFile = chunkFile(toHex(rawId));
+                if (!chunkFile.exists()) {
+                    chunkFile.getParentFile().mkdirs();
+                    File tmp = new File(chunkFile.getPath() + ".tmp");
+                    try (FileChannel chunkOut = FileChannel.open(tmp.toPath(),
+                            StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                            StandardOpenOption.TRUNCATE_EXISTING)) {
+                        ByteBuffer data = chunk.duplicate();
+                        while (data.hasRemaining()) {
+                            chunkOut.write(data);
+                        }
+                    }
+                    Files.move(tmp.toPath(), chunkFile.toPath(),
+                            StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+                    Journal.wroteObject(chunkFile);
+                }
+                out.write(rawId);
+                out.writeInt(chunk.remaining());
+                count++;
+            }
+        } catch (NoSuchAlgorithmException excp) {
+            throw new IllegalArgumentException("System does not support SHA-1");
+        }
+
+        File tmp = new File(file.getPath() + ".tmp");
+        try (DataOutputStream fileOut = new DataOutputStream(new FileOutputStream(tmp))) {
+            fileOut.write(header(CHUNKED, size, fileName));
+            fileOut.writeInt(count);
+            manifest.writeTo(fileOut);
+        }
+        Files.move(tmp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING,
+                StandardCopyOption.ATOMIC_MOVE);
+        Journal.wroteObject(file);
+    }
+
+    /**
+     * Save the given contents as a Blob object file, e.g. for a blob stored
+     * by an older version of gitlet.
+     *
+     * @param id       ID of the Blob
+     * @param fileName the source file name
+     * @param contents the contents
+     */
+    static void saveContents(String id, String fileName, byte[] contents) throws IOException {
+        File file = newBlobFile(id);
+        file.getParentFile().mkdirs();
+
+        File tmp = new File(file.getPath() + ".tmp");
+        try (OutputStream fileOut = new FileOutputStream(tmp)) {
+            fileOut.write(header(WHOLE, contents.length, fileName));
+            DeflaterOutputStream out = new DeflaterOutputStream(fileOut,
+                    new Deflater(), CHUNK_SIZE);
+            out.write(contents);
+            out.finish();
+        }
+        Files.move(tmp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING,
+                StandardCopyOption.ATOMIC_MOVE);
+        Journal.wroteObject(file);
+        ObjectCache.remove(id);
+    }
+
+    /**
+     * Write the contents of this Blob to the given file, chunk by chunk.
+     *
+     * @param target the file to write
+     */
+    public void writeTo(File target) {
+        if (target.isDirectory()) {
+            throw new IllegalArgumentException("cannot overwrite directory");
+        }
+        if (chunked) {
+            writeChunksTo(target);
+            return;
+        }
+        try (InputStream in = openContents();
+                FileChannel out = FileChannel.open(target.toPath(),
+                        StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                        StandardOpenOption.TRUNCATE_EXISTING)) {
+            byte[] chunk = new byte[CHUNK_SIZE];
+            int n;
+            while ((n = in.read(chunk)) > 0) {
+                ByteBuffer buffer = ByteBuffer.wrap(chunk, 0, n);
+                while (buffer.hasRemaining()) {
+                    out.write(buffer);
+                }
+            }
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+    }
+
+    /**
+     * Write the chunks to the given file, letting the file system copy them
+     * with FileChannel.transferTo instead of reading them into memory.
+     */
+    private void writeChunksTo(File target) {
+        try (FileChannel out = FileChannel.open(target.toPath(),
+                StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                StandardOpenOption.TRUNCATE_EXISTING)) {
+            for (File chunkFile : chunkFiles()) {
+                try (FileChannel in = FileChannel.open(chunkFile.toPath(),
+                        StandardOpenOption.READ)) {
+                    long length = in.size();
+                    long position = 0;
+                    while (position < length) {
+                        position += in.transferTo(position, length - position, out);
+                    }
+                }
+            }
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+    }
+
+    /**
+     * Read the list of chunk files of a chunked blob, in order.
+     */
+    private List<File> chunkFiles() throws IOException {
+        try (InputStream in = openObject(id)) {
+            if (in == null) {
+                throw error("No blob with that id exists.");
+            }
+            readHeader(in, id);
+            DataInputStream manifest = new DataInputStream(in);
+            int count = manifest.readInt();
+            List<File> files = new ArrayList<File>(count);
+            byte[] rawId = new byte[ObjectIndex.ID_BYTES];
+            for (int k = 0; k < count; k++) {
+                manifest.readFully(rawId);
+                manifest.readInt(); // length
+                files.add(chunkFile(toHex(rawId)));
+            }
+            return files;
+        }
+    }
+
+    /**
+     * Open a stream over the contents of this Blob.
+     *
+     * @return the stream of the contents
+     */
+    public InputStream openContents() throws IOException {
+        if (chunked) {
+            Iterator<File> chunkFiles = chunkFiles().iterator();
+            return new SequenceInputStream(new Enumeration<InputStream>() {
+                @Override
+                public boolean hasMoreElements() {
+                    return chunkFiles.hasNext();
+                }
+
+                @Override
+                public InputStream nextElement() {
+                    try {
+                        return new FileInputStream(chunkFiles.next());
+                    } catch (FileNotFoundException excp) {
+                        throw error("Missing chunk of blob %s.", id);
+                    }
+                }
+            });
+        }
+        InputStream in = openObject(id);
+        if (in == null) {
+            throw error("No blob with that id exists.");
         }
+        readHeader(in, id);
+        return in;
+    }
 
-        writeObject(file, this);
+    /**
+     * Check if the contents of this Blob are stored as chunks
+     *
+     * @return true if the Blob is chunked
+     */
+    public boolean isChunked() {
+        return chunked;
     }
 
     /**
      * Get the source file name of this Blob
-     * 
+     *
      * @return source file name
      */
     public String getFileName() {
@@ -69,7 +378,7 @@ public class Blob implements Dumpable {
 
     /**
      * Get the contents of this Blob
-     * 
+     *
      * @return Blob ID
      */
     public String getId() {
@@ -77,17 +386,35 @@ public class Blob implements Dumpable {
     }
 
     /**
-     * Get the contents of this Blob
-     * 
+     * Get the size of the contents of this Blob
+     *
+     * @return size in bytes
+     */
+    public long getSize() {
+        return size;
+    }
+
+    /**
+     * Get the contents of this Blob. This reads the whole contents into
+     * memory, prefer {@link #writeTo} and {@link #openContents} for large
+     * files.
+     *
      * @return Blob contents in Bytes
      */
     public byte[] getContents() {
-        return contents;
+        if (source != null) {
+            return readContents(source);
+        }
+        try (InputStream in = openContents()) {
+            return in.readAllBytes();
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
     }
 
     /**
      * Get the Object File of this Blob
-     * 
+     *
      * @return the Object File
      */
     public File getFile() {
@@ -96,11 +423,11 @@ public class Blob implements Dumpable {
 
     /**
      * Get the contents of this Blob
-     * 
+     *
      * @return Blob contents in String
      */
     public String getContentsAsString() {
-        return new String(contents);
+        return new String(getContents(), StandardCharsets.UTF_8);
     }
 
     /**
@@ -113,7 +440,6 @@ public class Blob implements Dumpable {
         return String.format("Blob [%s] [%s]\n%s\n", id, fileName, getContentsAsString());
     }
 
-    @Override
     /**
      * Dump the contents of this Blob
      */
@@ -121,6 +447,131 @@ public class Blob implements Dumpable {
         System.out.println(this);
     }
 
+    /**
+     * Check if the given object file is a blob.
+     *
+     * @param file the object file
+     * @return true if the file starts with a blob header
+     */
+    static boolean isBlobFile(File file) {
+        try (InputStream in = new FileInputStream(file)) {
+            byte[] magic = new byte[8];
+            String start = new String(magic, 0, Math.max(in.read(magic), 0),
+                    StandardCharsets.UTF_8);
+            return start.startsWith(WHOLE + " ") || start.startsWith(CHUNKED + " ");
+        } catch (IOException excp) {
+            return false;
+        }
+    }
+
+    /**
+     * Load a blob from a loose object file, e.g. for dumping it.
+     *
+     * @param file the object file
+     * @return Blob instance
+     */
+    static Blob fromObjectFile(File file) {
+        String id = file.getParentFile().getName() + file.getName();
+        try (InputStream in = new BufferedInputStream(new FileInputStream(file))) {
+            return readHeader(in, id);
+        } catch (IOException excp) {
+            throw error("Cannot read blob %s.", id);
+        }
+    }
+
+    /**
+     * Read the chunk ids of a loose chunked blob.
+     *
+     * @param file the object file
+     * @return the chunk ids in order, or null if the blob is stored whole
+     */
+    static List<String> chunkIdsOf(File file) throws IOException {
+        String id = file.getParentFile().getName() + file.getName();
+        try (DataInputStream in = new DataInputStream(
+                new BufferedInputStream(new FileInputStream(file)))) {
+            if (!readHeader(in, id).chunked) {
+                return null;
+            }
+            int count = in.readInt();
+            List<String> chunkIds = new ArrayList<String>(count);
+            byte[] rawId = new byte[ObjectIndex.ID_BYTES];
+            for (int k = 0; k < count; k++) {
+                in.readFully(rawId);
+                in.readInt(); // length
+                chunkIds.add(toHex(rawId));
+            }
+            return chunkIds;
+        }
+    }
+
+    /**
+     * Read the uncompressed form of a loose blob, the header followed by the
+     * contents, as stored in the pack.
+     *
+     * @param file the object file
+     * @return the uncompressed blob
+     */
+    static byte[] readUncompressed(File file) throws IOException {
+        try (InputStream in = new BufferedInputStream(new FileInputStream(file))) {
+            Blob blob = readHeader(in, file.getParentFile().getName() + file.getName());
+            if (blob.chunked) {
+                throw error("Chunked blob %s cannot be packed.", blob.id);
+            }
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            out.write(header(WHOLE, blob.size, blob.fileName));
+            new InflaterInputStream(in).transferTo(out);
+            return out.toByteArray();
+        }
+    }
+
+    /**
+     * Open the object with the given id, loose or packed. The loose stream
+     * inflates the contents after the header, the packed one inflates the
+     * whole entry (header included) as it is read.
+     *
+     * @return the stream starting at the header, or null if there is no such
+     *         blob
+     */
+    private static InputStream openObject(String id) throws IOException {
+        File file = newBlobFile(id);
+        if (file.exists()) {
+            return new BlobInputStream(new BufferedInputStream(new FileInputStream(file)));
+        }
+        InputStream packed = Pack.open(id);
+        return packed == null ? null : new BufferedInputStream(packed);
+    }
+
+    /**
+     * Read the header, leaving the stream at the contents.
+     */
+    private static Blob readHeader(InputStream in, String id) throws IOException {
+        ByteArrayOutputStream header = new ByteArrayOutputStream();
+        int b;
+        while ((b = in.read()) > 0) {
+            header.write(b);
+        }
+        String[] fields = header.toString(StandardCharsets.UTF_8).split(" ", 3);
+        if (b < 0 || fields.length != 3
+                || !fields[0].equals(WHOLE) && !fields[0].equals(CHUNKED)) {
+            throw error("Corrupted blob %s.", id);
+        }
+        boolean chunked = fields[0].equals(CHUNKED);
+        // the list of chunks is not compressed
+        if (!chunked && in instanceof BlobInputStream) {
+            ((BlobInputStream) in).startContents();
+        }
+        return new Blob(id, fields[2], Long.parseLong(fields[1]), chunked);
+    }
+
+    private static byte[] header(String kind, long size, String fileName) {
+        return String.format("%s %d %s\0", kind, size, fileName)
+                .getBytes(StandardCharsets.UTF_8);
+    }
+
+    private static File chunkFile(String chunkId) {
+        return join(Repository.CHUNKS_DIR, chunkId.substring(0, 2), chunkId.substring(2));
+    }
+
     private static File newBlobFile(String id) {
         String dir = blobDir(id);
         String fileName = blobFileName(id);
@@ -135,4 +586,17 @@ public class Blob implements Dumpable {
         return id.substring(2);
     }
 
+    /**
+     * A stream over a loose object file, which switches to inflating once the
+     * uncompressed header has been read.
+     */
+    private static class BlobInputStream extends FilterInputStream {
+        BlobInputStream(InputStream in) {
+            super(in);
+        }
+
+        void startContents() {
+            in = new InflaterInputStream(in, new Inflater(), CHUNK_SIZE);
+        }
+    }
 }
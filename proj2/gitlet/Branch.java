@@ -4,6 +4,9 @@ import java.io.File;
 import java.io.IOException;
 
 public class Branch implements Dumpable {
+    /** The serialization version, kept so older branch files stay readable */
+    private static final long serialVersionUID = 5210226957887642980L;
+
     /** The name of the reference. */
     private final String name;
     /** The file that stores the reference. */
@@ -24,16 +27,11 @@ public class Branch implements Dumpable {
     }
 
     public void saveBranch() throws IOException {
-        if (!file.exists()) {
-            file.getParentFile().mkdirs();
-            file.createNewFile();
-        }
-
-        Utils.writeObject(file, this);
+        Journal.write(file, encode());
     }
 
-    public void deleteBranch() {
-        file.delete();
+    public void deleteBranch() throws IOException {
+        Journal.delete(file);
     }
 
     public static Branch fromFile(String name) {
@@ -41,7 +39,36 @@ public class Branch implements Dumpable {
         if (!file.exists()) {
             MyUtils.exit("No such branch exists.");
         }
-        return Utils.readObject(file, Branch.class);
+        return decode(Utils.readContents(file));
+    }
+
+    /**
+     * Encode the branch (see {@link Codec}) as
+     * name | commit id
+     * An abbreviated commit id is stored as the full id.
+     *
+     * @return the encoded branch
+     */
+    byte[] encode() {
+        Codec.Encoder out = new Codec.Encoder(Codec.BRANCH);
+        out.writeString(name);
+        out.writeId(Commit.storedIdOf(commitId));
+        return out.toByteArray();
+    }
+
+    /**
+     * Decode a branch, either encoded or written by Java serialization.
+     *
+     * @param data the stored branch
+     * @return the branch
+     */
+    static Branch decode(byte[] data) {
+        if (Codec.isSerialized(data)) {
+            return Utils.deserialize(data, Branch.class);
+        }
+        Codec.Decoder in = new Codec.Decoder(data, Codec.BRANCH);
+        String name = in.readString();
+        return new Branch(name, in.readId());
     }
 
     /**
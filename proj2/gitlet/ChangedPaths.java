@@ -0,0 +1,229 @@
+package gitlet;
+
+import java.io.*;
+import java.util.*;
+
+/**
+ * Represents the changed-path filters of commits: for every commit, a Bloom
+ * filter of the names of the files it changed against its first parent, so
+ * a path-limited log skips the commits which definitely did not change the
+ * path without loading their trees.
+ *
+ * A filter has BITS_PER_PATH bits per changed file, and sets HASHES bits
+ * per file, derived from the SHA-1 of the file name by double hashing, for
+ * a false positive rate below 1%. A commit changing no file has a single
+ * zero byte (nothing matches), and a commit changing more than MAX_PATHS
+ * files has a single 0xff byte (everything matches), since its filter
+ * would be larger than it is worth.
+ *
+ * The file is appended to whenever a commit is saved, next to the commit
+ * graph. As there, a torn record at the end of the file is ignored on load
+ * and cut off by the next append.
+ *
+ * File format:
+ * magic (4 bytes) | version (int) | record*
+ * where a record is
+ * id (20 bytes) | filter length (int) | filter bytes
+ */
+public class ChangedPaths {
+    /** The magic number of a changed-paths file */
+    private static final int MAGIC = 0x47435046; // "GCPF"
+    /** The version of the changed-paths format */
+    private static final int VERSION = 1;
+    /** The number of filter bits per changed file */
+    private static final int BITS_PER_PATH = 10;
+    /** The number of bits set per changed file */
+    private static final int HASHES = 7;
+    /** The maximal number of changed files with a real filter */
+    private static final int MAX_PATHS = 512;
+
+    /** The cached filters */
+    private static ChangedPaths cached;
+    /** The modification stamp of the cached filters */
+    private static String cachedStamp;
+
+    /** The [id:filter] map */
+    private final Map<String, byte[]> filters;
+    /** The length of the file up to the end of the last complete record */
+    private long length;
+
+    private ChangedPaths() {
+        this.filters = new HashMap<String, byte[]>();
+    }
+
+    /**
+     * Load the filters from the changed-paths file.
+     *
+     * @return the filters
+     */
+    public static ChangedPaths fromFile() {
+        File file = Repository.CHANGED_PATHS_FILE;
+        String stamp = file.exists() ? file.lastModified() + ":" + file.length() : "";
+        if (cached != null && stamp.equals(cachedStamp)) {
+            return cached;
+        }
+
+        ChangedPaths paths = new ChangedPaths();
+        if (file.exists()) {
+            try (DataInputStream in = new DataInputStream(
+                    new BufferedInputStream(new FileInputStream(file)))) {
+                paths.readRecords(in);
+            } catch (IOException excp) {
+                throw Utils.error("Cannot read changed-paths file.");
+            }
+        }
+
+        cached = paths;
+        cachedStamp = stamp;
+        return paths;
+    }
+
+    /**
+     * Read the header and the complete records of the changed-paths file.
+     */
+    private void readRecords(DataInputStream in) throws IOException {
+        try {
+            if (in.readInt() != MAGIC || in.readInt() != VERSION) {
+                throw Utils.error("Corrupted changed-paths file.");
+            }
+        } catch (EOFException excp) {
+            return;
+        }
+        length = 8;
+        byte[] raw = new byte[ObjectIndex.ID_BYTES];
+        while (true) {
+            byte[] filter;
+            try {
+                in.readFully(raw);
+                filter = new byte[in.readInt()];
+                in.readFully(filter);
+            } catch (EOFException | NegativeArraySizeException excp) {
+                break;
+            }
+            filters.put(MyUtils.toHex(raw), filter);
+            length += raw.length + 4 + filter.length;
+        }
+    }
+
+    /**
+     * Compute the filter of the commit, from the files changed against its
+     * first parent, and append it to the changed-paths file. Abbreviated
+     * parent ids are resolved, and a commit whose parent is not stored gets
+     * a filter which matches every file.
+     *
+     * @param commit the commit
+     */
+    public void addCommit(Commit commit) throws IOException {
+        if (filters.containsKey(commit.getId())) {
+            return;
+        }
+        List<String> parentIds = commit.getParentIds();
+        String parentId = parentIds.isEmpty() ? null : Commit.fullIdOf(parentIds.get(0));
+        byte[] filter;
+        if (parentIds.isEmpty()) {
+            filter = filterOf(commit.getTree().changedFileNames(Tree.empty()));
+        } else if (parentId == null) {
+            // the parent is not stored, so any file may have changed
+            filter = new byte[] {(byte) 0xff};
+        } else {
+            Tree parentTree = Commit.fromFile(parentId).getTree();
+            filter = filterOf(commit.getTree().changedFileNames(parentTree));
+        }
+
+        ByteArrayOutputStream record = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(record);
+        if (length == 0) {
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+        }
+        out.write(ObjectIndex.toRaw(commit.getId()));
+        out.writeInt(filter.length);
+        out.write(filter);
+
+        File file = Repository.CHANGED_PATHS_FILE;
+        if (!file.exists()) {
+            file.getParentFile().mkdirs();
+        } else if (file.length() != length) {
+            Journal.truncate(file, length);
+        }
+        Journal.append(file, record.toByteArray());
+        length += record.size();
+        filters.put(commit.getId(), filter);
+
+        cached = this;
+        cachedStamp = file.lastModified() + ":" + file.length();
+    }
+
+    /**
+     * Check if the commit has a filter.
+     *
+     * @param commitId the commit id
+     * @return true if the commit has a filter
+     */
+    public boolean contains(String commitId) {
+        return filters.containsKey(commitId);
+    }
+
+    /**
+     * Check if the commit may have changed the file. False positives are
+     * possible, false negatives are not.
+     *
+     * @param commitId the commit id
+     * @param pathHash the hash of the file name, see {@link #hashOf}
+     * @return false if the commit definitely did not change the file, true
+     *         if it may have, or if the commit has no filter
+     */
+    public boolean mayHaveChanged(String commitId, long pathHash) {
+        byte[] filter = filters.get(commitId);
+        if (filter == null) {
+            return true;
+        }
+        long bits = filter.length * 8L;
+        long h1 = pathHash >>> 32;
+        long h2 = pathHash & 0xffffffffL;
+        for (int i = 0; i < HASHES; i++) {
+            long bit = Math.floorMod(h1 + i * h2, bits);
+            if ((filter[(int) (bit >>> 3)] & (1 << (bit & 7))) == 0) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Hash the file name for the filters. The hash is computed once per
+     * query and checked against every filter.
+     *
+     * @param fileName the file name
+     * @return the hash
+     */
+    public static long hashOf(String fileName) {
+        byte[] raw = ObjectIndex.toRaw(Utils.sha1(fileName));
+        long hash = 0;
+        for (int k = 0; k < 8; k++) {
+            hash = hash << 8 | (raw[k] & 0xff);
+        }
+        return hash;
+    }
+
+    /**
+     * Build the filter of the changed files.
+     */
+    private static byte[] filterOf(Set<String> fileNames) {
+        if (fileNames.size() > MAX_PATHS) {
+            return new byte[] {(byte) 0xff};
+        }
+        byte[] filter = new byte[Math.max(1, (fileNames.size() * BITS_PER_PATH + 7) / 8)];
+        long bits = filter.length * 8L;
+        for (String fileName : fileNames) {
+            long pathHash = hashOf(fileName);
+            long h1 = pathHash >>> 32;
+            long h2 = pathHash & 0xffffffffL;
+            for (int i = 0; i < HASHES; i++) {
+                long bit = Math.floorMod(h1 + i * h2, bits);
+                filter[(int) (bit >>> 3)] |= 1 << (bit & 7);
+            }
+        }
+        return filter;
+    }
+}
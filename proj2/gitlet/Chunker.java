@@ -0,0 +1,127 @@
+package gitlet;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.ReadableByteChannel;
+import java.util.Random;
+
+/**
+ * Splits a stream into content-defined chunks with FastCDC: a cut point is
+ * placed where a rolling gear hash of the last bytes matches a mask, so an
+ * edit only changes the chunks around it, and the chunks before and after
+ * it are found again (and shared) however the bytes around them shifted.
+ *
+ * Cut points are never closer than MIN_SIZE and never further than
+ * MAX_SIZE apart. Chunks are normalized around AVG_SIZE by a harder mask
+ * before it and an easier mask after it.
+ */
+public class Chunker {
+    /** The minimal chunk size */
+    static final int MIN_SIZE = 16 * 1024;
+    /** The average chunk size */
+    static final int AVG_SIZE = 64 * 1024;
+    /** The maximal chunk size */
+    static final int MAX_SIZE = 256 * 1024;
+
+    /**
+     * The mask before AVG_SIZE, with more bits than log2(AVG_SIZE). The high
+     * bits of the hash are used, they depend on the last 64 bytes.
+     */
+    private static final long MASK_SMALL = -1L << (64 - 18);
+    /** The mask after AVG_SIZE, with fewer bits than log2(AVG_SIZE) */
+    private static final long MASK_LARGE = -1L << (64 - 14);
+    /** The random value of each byte, fixed so cut points never change */
+    private static final long[] GEAR = new long[256];
+
+    static {
+        Random random = new Random(0x67697466L);
+        for (int i = 0; i < GEAR.length; i++) {
+            GEAR[i] = random.nextLong();
+        }
+    }
+
+    /** The input */
+    private final ReadableByteChannel in;
+    /** The buffered input */
+    private final byte[] buf;
+    /** The start of the unread input in buf */
+    private int start;
+    /** The end of the buffered input in buf */
+    private int end;
+    /** Whether the end of the input was reached */
+    private boolean eof;
+
+    /**
+     * Create a chunker over the input.
+     *
+     * @param in the input
+     */
+    public Chunker(ReadableByteChannel in) {
+        this.in = in;
+        this.buf = new byte[MAX_SIZE];
+    }
+
+    /**
+     * Get the next chunk.
+     *
+     * @return the chunk, valid until the next call, or null at the end of
+     *         the input
+     */
+    public ByteBuffer next() throws IOException {
+        if (end - start < MAX_SIZE && !eof) {
+            fill();
+        }
+        if (start == end) {
+            return null;
+        }
+        int length = cutPoint(buf, start, end - start);
+        ByteBuffer chunk = ByteBuffer.wrap(buf, start, length);
+        start += length;
+        return chunk;
+    }
+
+    /**
+     * Move the unread input to the front of the buffer, and fill the rest.
+     */
+    private void fill() throws IOException {
+        System.arraycopy(buf, start, buf, 0, end - start);
+        end -= start;
+        start = 0;
+        ByteBuffer buffer = ByteBuffer.wrap(buf, end, buf.length - end);
+        while (buffer.hasRemaining()) {
+            if (in.read(buffer) < 0) {
+                eof = true;
+                break;
+            }
+        }
+        end = buffer.position();
+    }
+
+    /**
+     * Find the length of the first chunk of data[offset:offset+length].
+     *
+     * @return the chunk length
+     */
+    static int cutPoint(byte[] data, int offset, int length) {
+        if (length <= MIN_SIZE) {
+            return length;
+        }
+        int normal = Math.min(AVG_SIZE, length);
+        int limit = Math.min(MAX_SIZE, length);
+        long hash = 0;
+        int i = MIN_SIZE;
+        for (; i < normal; i++) {
+            hash = (hash << 1) + GEAR[data[offset + i] & 0xff];
+            if ((hash & MASK_SMALL) == 0) {
+                return i + 1;
+            }
+        }
+        for (; i < limit; i++) {
+            hash = (hash << 1) + GEAR[data[offset + i] & 0xff];
+            if ((hash & MASK_LARGE) == 0) {
+                return i + 1;
+            }
+        }
+        return limit;
+    }
+}
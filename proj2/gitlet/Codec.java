@@ -0,0 +1,262 @@
+package gitlet;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+/**
+ * Encodes the metadata objects (commits, the stage, branches and HEAD) in a
+ * compact, versioned binary format, which is much smaller and faster to read
+ * and write than Java serialization: there are no class descriptors, and no
+ * reflection.
+ *
+ * Format:
+ * "GL" (2 bytes) | type (byte) | version (byte) | body
+ * where the body of each type is built from
+ * varint: 7 bits per byte, low bits first, the high bit set if more follow
+ * string: length (varint) | UTF-8 bytes
+ * id: RAW_ID (byte) | 20-byte SHA-1, or TEXT_ID (byte) | string for ids
+ * which are not SHA-1s
+ *
+ * Files written with Java serialization by older versions start with
+ * 0xACED, and are still read (see {@link #isSerialized}), until they are
+ * rewritten by {@link Migration}.
+ */
+public class Codec {
+    /** The type of a commit */
+    static final byte COMMIT = 1;
+    /** The type of the stage */
+    static final byte STAGE = 2;
+    /** The type of a branch */
+    static final byte BRANCH = 3;
+    /** The type of HEAD */
+    static final byte HEAD = 4;
+
+    /** The first magic byte, 'G' */
+    private static final byte MAGIC0 = 0x47;
+    /** The second magic byte, 'L' */
+    private static final byte MAGIC1 = 0x4c;
+    /** The version of the format */
+    private static final byte VERSION = 1;
+    /** The length of the header */
+    private static final int HEADER_LENGTH = 4;
+    /** An id stored as a raw SHA-1 */
+    private static final byte RAW_ID = 0;
+    /** An id stored as a string */
+    private static final byte TEXT_ID = 1;
+
+    /**
+     * Check if the data was written with Java serialization.
+     *
+     * @param data the file contents
+     * @return true if the data starts with the serialization stream magic
+     */
+    static boolean isSerialized(byte[] data) {
+        return data.length >= 2 && data[0] == (byte) 0xac && data[1] == (byte) 0xed;
+    }
+
+    /**
+     * Get the type of the encoded data.
+     *
+     * @param data the file contents
+     * @return the type, or 0 if the data is not in this format
+     */
+    static byte typeOf(byte[] data) {
+        if (data.length < HEADER_LENGTH || data[0] != MAGIC0 || data[1] != MAGIC1) {
+            return 0;
+        }
+        return data[2];
+    }
+
+    /**
+     * Writes the encoding of one object.
+     */
+    static class Encoder {
+        /** The encoded bytes */
+        private byte[] buf;
+        /** The number of encoded bytes */
+        private int count;
+
+        /**
+         * Start the encoding of an object of the given type.
+         *
+         * @param type the object type
+         */
+        Encoder(byte type) {
+            this.buf = new byte[64];
+            writeByte(MAGIC0);
+            writeByte(MAGIC1);
+            writeByte(type);
+            writeByte(VERSION);
+        }
+
+        void writeByte(int b) {
+            ensureCapacity(1);
+            buf[count++] = (byte) b;
+        }
+
+        void writeVarLong(long value) {
+            ensureCapacity(10);
+            while ((value & ~0x7fL) != 0) {
+                buf[count++] = (byte) ((value & 0x7f) | 0x80);
+                value >>>= 7;
+            }
+            buf[count++] = (byte) value;
+        }
+
+        void writeVarInt(int value) {
+            writeVarLong(value & 0xffffffffL);
+        }
+
+        void writeString(String s) {
+            // most names are ASCII, which is copied without an encoder
+            int length = s.length();
+            boolean ascii = true;
+            for (int k = 0; k < length && ascii; k++) {
+                ascii = s.charAt(k) < 0x80;
+            }
+            if (!ascii) {
+                byte[] bytes = s.getBytes(StandardCharsets.UTF_8);
+                writeVarInt(bytes.length);
+                ensureCapacity(bytes.length);
+                System.arraycopy(bytes, 0, buf, count, bytes.length);
+                count += bytes.length;
+                return;
+            }
+            writeVarInt(length);
+            ensureCapacity(length);
+            for (int k = 0; k < length; k++) {
+                buf[count++] = (byte) s.charAt(k);
+            }
+        }
+
+        void writeId(String id) {
+            // the id is checked while it is converted, in a single pass
+            if (id.length() == Utils.UID_LENGTH) {
+                ensureCapacity(1 + ObjectIndex.ID_BYTES);
+                buf[count] = RAW_ID;
+                int k = 0;
+                for (; k < Utils.UID_LENGTH; k += 2) {
+                    int high = hexValue(id.charAt(k));
+                    int low = hexValue(id.charAt(k + 1));
+                    if ((high | low) < 0) {
+                        break;
+                    }
+                    buf[count + 1 + k / 2] = (byte) (high << 4 | low);
+                }
+                if (k == Utils.UID_LENGTH) {
+                    count += 1 + ObjectIndex.ID_BYTES;
+                    return;
+                }
+            }
+            writeByte(TEXT_ID);
+            writeString(id);
+        }
+
+        byte[] toByteArray() {
+            return Arrays.copyOf(buf, count);
+        }
+
+        private void ensureCapacity(int n) {
+            if (count + n > buf.length) {
+                buf = Arrays.copyOf(buf, Math.max(buf.length * 2, count + n));
+            }
+        }
+    }
+
+    /**
+     * Get the value of a lowercase hex digit, or -1 if C is not one.
+     */
+    private static int hexValue(char c) {
+        if (c >= '0' && c <= '9') {
+            return c - '0';
+        }
+        if (c >= 'a' && c <= 'f') {
+            return c - 'a' + 10;
+        }
+        return -1;
+    }
+
+    /**
+     * Reads the encoding of one object.
+     */
+    static class Decoder {
+        /** The encoded bytes */
+        private final byte[] data;
+        /** The read position */
+        private int pos;
+
+        /**
+         * Start decoding an object of the given type.
+         *
+         * @param data the encoded bytes
+         * @param type the expected object type
+         */
+        Decoder(byte[] data, byte type) {
+            if (typeOf(data) != type) {
+                throw Utils.error("Corrupted object: expected type %d.", type);
+            }
+            if (data[3] != VERSION) {
+                throw Utils.error("Unsupported object version %d.", data[3]);
+            }
+            this.data = data;
+            this.pos = HEADER_LENGTH;
+        }
+
+        byte readByte() {
+            checkAvailable(1);
+            return data[pos++];
+        }
+
+        long readVarLong() {
+            long value = 0;
+            for (int shift = 0; shift < 64; shift += 7) {
+                byte b = readByte();
+                value |= (long) (b & 0x7f) << shift;
+                if (b >= 0) {
+                    return value;
+                }
+            }
+            throw Utils.error("Corrupted object: varint too long.");
+        }
+
+        int readVarInt() {
+            long value = readVarLong();
+            if (value < 0 || value > Integer.MAX_VALUE) {
+                throw Utils.error("Corrupted object: bad length.");
+            }
+            return (int) value;
+        }
+
+        String readString() {
+            int length = readVarInt();
+            checkAvailable(length);
+            String s = new String(data, pos, length, StandardCharsets.UTF_8);
+            pos += length;
+            return s;
+        }
+
+        String readId() {
+            byte kind = readByte();
+            if (kind == TEXT_ID) {
+                return readString();
+            }
+            if (kind != RAW_ID) {
+                throw Utils.error("Corrupted object: bad id.");
+            }
+            checkAvailable(ObjectIndex.ID_BYTES);
+            char[] hex = new char[Utils.UID_LENGTH];
+            for (int k = 0; k < ObjectIndex.ID_BYTES; k++) {
+                int b = data[pos++];
+                hex[2 * k] = Character.forDigit((b >> 4) & 0xf, 16);
+                hex[2 * k + 1] = Character.forDigit(b & 0xf, 16);
+            }
+            return new String(hex);
+        }
+
+        private void checkAvailable(int n) {
+            if (n > data.length - pos) {
+                throw Utils.error("Corrupted object: truncated.");
+            }
+        }
+    }
+}
@@ -0,0 +1,105 @@
+package gitlet;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.*;
+import java.util.function.Function;
+import java.util.function.Supplier;
+
+/**
+ * Compare the Codec with Java serialization for commits and the stage:
+ * encode and decode throughput, and the encoded size.
+ * Usage: java gitlet.CodecBenchmark [number of staged files] [iterations]
+ *
+ * Every measurement is repeated ITERATIONS times after as many warm-up
+ * rounds, so the JIT has compiled both paths.
+ */
+public class CodecBenchmark {
+    private static void printTimingTable(List<String> names, List<double[]> results) {
+        System.out.printf("%-20s %14s %14s %12s\n",
+                "object/codec", "encode us/op", "decode us/op", "bytes");
+        System.out.printf("----------------------------------------------------------------\n");
+        for (int i = 0; i < names.size(); i += 1) {
+            double[] result = results.get(i);
+            System.out.printf("%-20s %14.2f %14.2f %12d\n",
+                    names.get(i), result[0], result[1], (long) result[2]);
+        }
+    }
+
+    public static void main(String[] args) throws IOException {
+        int nfile = args.length > 0 ? Integer.parseInt(args[0]) : 10000;
+        int iterations = args.length > 1 ? Integer.parseInt(args[1]) : 200;
+
+        Commit commit = new Commit("A commit message of a typical length.",
+                List.of(Utils.sha1("parent")), Tree.empty());
+        Stage stage = generateStage(nfile);
+
+        List<String> names = new ArrayList<String>();
+        List<double[]> results = new ArrayList<double[]>();
+        names.add("commit/codec");
+        results.add(measure(commit::encode, Commit::decode, iterations * 100));
+        names.add("commit/serializable");
+        results.add(measure(() -> Utils.serialize(commit),
+                data -> Utils.deserialize(data, Commit.class), iterations * 100));
+        names.add("stage/codec");
+        results.add(measure(stage::encode, Stage::decode, iterations));
+        names.add("stage/serializable");
+        results.add(measure(() -> Utils.serialize(stage),
+                data -> Utils.deserialize(data, Stage.class), iterations));
+
+        printTimingTable(names, results);
+    }
+
+    /**
+     * Time ITERATIONS encodings and decodings.
+     *
+     * @return encode and decode time in microseconds per operation, and the
+     *         encoded size
+     */
+    private static double[] measure(Supplier<byte[]> encoder,
+            Function<byte[], Object> decoder, int iterations) {
+        byte[] data = encoder.get();
+        for (int i = 0; i < iterations; i++) {
+            decoder.apply(encoder.get());
+        }
+
+        long start = System.nanoTime();
+        for (int i = 0; i < iterations; i++) {
+            data = encoder.get();
+        }
+        double encodeTime = (System.nanoTime() - start) / 1e3 / iterations;
+
+        start = System.nanoTime();
+        for (int i = 0; i < iterations; i++) {
+            decoder.apply(data);
+        }
+        double decodeTime = (System.nanoTime() - start) / 1e3 / iterations;
+        return new double[] {encodeTime, decodeTime, data.length};
+    }
+
+    /**
+     * Create a stage with NFILE tracked and stat-cached files, using small
+     * files in a temporary directory. Nothing is written to a repository.
+     */
+    private static Stage generateStage(int nfile) throws IOException {
+        File dir = Files.createTempDirectory("gitlet-bench").toFile();
+        List<File> files = new ArrayList<File>();
+        try {
+            for (int i = 0; i < nfile; i++) {
+                File file = Utils.join(dir, "file" + i + ".txt");
+                Utils.writeContents(file, "contents " + i + "\n");
+                files.add(file);
+            }
+            Stage stage = new Stage();
+            Map<String, String> blobIds = stage.blobIdsOf(files, MyUtils.DEFAULT_JOBS);
+            stage.clearForCheckoutCommit(new Commit("bench", List.of(), blobIds));
+            return stage;
+        } finally {
+            for (File file : files) {
+                file.delete();
+            }
+            dir.delete();
+        }
+    }
+}
@@ -1,10 +1,9 @@
 package gitlet;
 
+import static gitlet.Utils.deserialize;
 import static gitlet.Utils.join;
-import static gitlet.Utils.plainFilenamesIn;
-import static gitlet.Utils.readObject;
+import static gitlet.Utils.readContents;
 import static gitlet.Utils.sha1;
-import static gitlet.Utils.writeObject;
 
 import java.io.File;
 import java.io.IOException;
@@ -25,18 +24,30 @@ public class Commit implements Dumpable {
      * variable is used. We've provided one example for `message`.
      */
 
+    /** The serialization version, kept so older commit objects stay readable */
+    private static final long serialVersionUID = -46569443703806073L;
+
     /** The date */
     private final Date date;
     /** The message */
     private final String message;
     /** The parents */
     private final List<String> parentIds;
-    /** The map[path:id] of tracked files */
+    /**
+     * The map[path:id] of tracked files, only set in commits made before
+     * trees existed
+     */
     private final Map<String, String> trackedFiles;
+    /** The id of the tree of tracked files */
+    private final String treeId;
     /** The ID */
     private final String id;
     /** The object file */
     private final File file;
+    /** The tree of tracked files, loaded lazily */
+    private transient Tree tree;
+    /** The map[path:id] of tracked files, loaded lazily from the tree */
+    private transient Map<String, String> trackedFilesCache;
 
     /**
      * defualt construct, used to create the first commit.
@@ -44,7 +55,9 @@ public class Commit implements Dumpable {
     public Commit() {
         this.date = new Date(0);
         this.message = "initial commit";
-        this.trackedFiles = new HashMap<String, String>();
+        this.trackedFiles = null;
+        this.tree = Tree.empty();
+        this.treeId = tree.getId();
         this.parentIds = new LinkedList<String>();
         this.id = sha1(this.message);
         this.file = join(Repository.OBJECTS_DIR, this.id);
@@ -58,40 +71,136 @@ public class Commit implements Dumpable {
      * @param trackedFiles
      */
     public Commit(String message, List<String> parentIds, Map<String, String> trackedFiles) {
+        this(message, parentIds, Tree.fromMap(trackedFiles));
+    }
+
+    /**
+     * constructor with message, parents and the tree of tracked files
+     * 
+     * @param message
+     * @param parentIds
+     * @param tree
+     */
+    public Commit(String message, List<String> parentIds, Tree tree) {
         this.date = new Date();
         this.message = message;
         this.parentIds = parentIds;
-        this.trackedFiles = trackedFiles;
-        this.id = sha1(getTimestamp(), message, parentIds.toString(), trackedFiles.toString());
+        this.trackedFiles = null;
+        this.tree = tree;
+        this.treeId = tree.getId();
+        this.id = sha1(getTimestamp(), message, parentIds.toString(), treeId);
+        this.file = join(Repository.OBJECTS_DIR, this.id);
+    }
+
+    private Commit(String id, Date date, String message, List<String> parentIds,
+            String treeId) {
+        this.date = date;
+        this.message = message;
+        this.parentIds = parentIds;
+        this.trackedFiles = null;
+        this.treeId = treeId;
+        this.id = id;
         this.file = join(Repository.OBJECTS_DIR, this.id);
     }
 
     /**
-     * Load the Commit instance from a object file.
+     * Load the Commit instance from a object file, or from the object cache.
+     * Only the header is deserialized, the tree of tracked files is loaded
+     * when it is first needed.
      * 
      * @param id ID of the Object File
      * @return
      */
     public static Commit fromFile(String commitId) {
         commitId = findCommitIdWithPrefix(commitId);
+        Commit cached = ObjectCache.get(commitId, Commit.class);
+        if (cached != null) {
+            return cached;
+        }
         File file = join(Repository.OBJECTS_DIR, commitId);
-        if (!file.exists()) {
+        byte[] data = file.exists() ? readContents(file) : Pack.read(commitId);
+        if (data == null) {
             MyUtils.exit("No commit with that id exists.");
         }
-        return readObject(file, Commit.class);
+        Commit commit = decode(data);
+        ObjectCache.put(commitId, commit, data.length);
+        return commit;
+    }
+
+    /**
+     * Check if the Commit with the given id is stored, loose or packed.
+     * 
+     * @param commitId the full commit id
+     * @return true if the Commit exists
+     */
+    public static boolean exists(String commitId) {
+        if (commitId.length() != Utils.UID_LENGTH) {
+            return false;
+        }
+        return join(Repository.OBJECTS_DIR, commitId).exists() || Pack.contains(commitId);
     }
 
     /**
-     * Save the Commit instance to a object file.
+     * Save the Commit instance to a object file, and record it in the commit
+     * graph, the changed-path filters, the commit index and the commit log.
+     * Only the tree objects which are not saved yet are written.
      */
     public void saveCommit() throws IOException {
-        // if the parent directory does not exist, create it
-        if (!file.exists()) {
-            file.getParentFile().mkdirs();
-            file.createNewFile();
+        getTree().save();
+
+        byte[] data = encode();
+        Journal.writeObject(file, data);
+        ObjectCache.put(id, this, data.length);
+        CommitGraph.fromFile().addCommit(this);
+        ChangedPaths.fromFile().addCommit(this);
+        CommitIndex.addCommit(id);
+        CommitLog.addCommit(this);
+    }
+
+    /**
+     * Encode this Commit (see {@link Codec}) as
+     * id | time (varint) | parent count (varint) | parent ids | message
+     * | tree id
+     * A commit made before trees existed is encoded with the id of the tree
+     * of its tracked files, so the tree must be saved too. Abbreviated parent
+     * ids are stored as the full ids.
+     *
+     * @return the encoded Commit
+     */
+    byte[] encode() {
+        Codec.Encoder out = new Codec.Encoder(Codec.COMMIT);
+        out.writeId(id);
+        out.writeVarLong(date.getTime());
+        out.writeVarInt(parentIds.size());
+        for (String parentId : parentIds) {
+            out.writeId(storedIdOf(parentId));
         }
+        out.writeString(message);
+        out.writeId(treeId != null ? treeId : getTree().getId());
+        return out.toByteArray();
+    }
 
-        writeObject(file, this);
+    /**
+     * Decode a Commit, either encoded or written by Java serialization.
+     *
+     * @param data the stored Commit
+     * @return the Commit
+     */
+    static Commit decode(byte[] data) {
+        if (Codec.isSerialized(data)) {
+            return deserialize(data, Commit.class);
+        }
+        Codec.Decoder in = new Codec.Decoder(data, Codec.COMMIT);
+        String id = in.readId();
+        Date date = new Date(in.readVarLong());
+        int parentCount = in.readVarInt();
+        List<String> parentIds = new ArrayList<String>(parentCount);
+        for (int k = 0; k < parentCount; k++) {
+            parentIds.add(in.readId());
+        }
+        String message = in.readString();
+        String treeId = in.readId();
+        return new Commit(id, date, message, parentIds, treeId);
     }
 
     /**
@@ -131,12 +240,40 @@ public class Commit implements Dumpable {
     }
 
     /**
-     * Get the tracked files of this Commit
+     * Get the tracked files of this Commit. This loads the whole tree, prefer
+     * {@link #getTree} to look up or compare files.
      * 
      * @return Commit tracked files
      */
     public Map<String, String> getTrackedFiles() {
-        return trackedFiles;
+        if (trackedFiles != null) {
+            return trackedFiles;
+        }
+        if (trackedFilesCache == null) {
+            trackedFilesCache = getTree().toMap();
+        }
+        return trackedFilesCache;
+    }
+
+    /**
+     * Get the tree of tracked files of this Commit
+     * 
+     * @return Commit tree
+     */
+    public Tree getTree() {
+        if (tree == null) {
+            tree = treeId != null ? Tree.fromFile(treeId) : Tree.fromMap(trackedFiles);
+        }
+        return tree;
+    }
+
+    /**
+     * Get the id of the tree of this Commit, without loading the tree
+     *
+     * @return the tree id, or null for a commit made before trees existed
+     */
+    String getTreeId() {
+        return treeId;
     }
 
     /**
@@ -145,7 +282,7 @@ public class Commit implements Dumpable {
      * @return
      */
     public Set<String> getTrackedFileNames() {
-        return trackedFiles.keySet();
+        return getTrackedFiles().keySet();
     }
 
     /**
@@ -170,6 +307,20 @@ public class Commit implements Dumpable {
      * that of the merged-in branch. This is as in regular Git.
      */
     public String toString() {
+        return format(id, parentIds, date.getTime(), message);
+    }
+
+    /**
+     * String representation of a commit with the given fields, see
+     * {@link #toString}.
+     * 
+     * @param id        the commit id
+     * @param parentIds the parent ids
+     * @param time      the commit time, in milliseconds since the epoch
+     * @param message   the commit message
+     * @return the string representation
+     */
+    static String format(String id, List<String> parentIds, long time, String message) {
         StringBuilder sb = new StringBuilder();
 
         // commit <id>
@@ -185,7 +336,7 @@ public class Commit implements Dumpable {
         }
 
         // Date: <date>
-        sb.append("Date: ").append(getTimestamp()).append("\n");
+        sb.append("Date: ").append(timestampOf(time)).append("\n");
         // <message>
         sb.append(message).append("\n");
 
@@ -232,17 +383,76 @@ public class Commit implements Dumpable {
         return this.date.compareTo(otherCommit.date) > 0;
     }
 
+    /**
+     * Get the time of this Commit
+     * 
+     * @return milliseconds since the epoch
+     */
+    public long getTime() {
+        return date.getTime();
+    }
+
     /**
      * Get the timestamp of this Commit
      * 
      * @return
      */
     private String getTimestamp() {
+        return timestampOf(date.getTime());
+    }
+
+    private static String timestampOf(long time) {
         // Thu Jan 1 00:00:00 1970 +0000
         DateFormat dateFormat = new SimpleDateFormat("EEE MMM d HH:mm:ss yyyy Z", Locale.ENGLISH);
-        return dateFormat.format(date);
+        return dateFormat.format(new Date(time));
     }
 
+    /**
+     * Get the full id of the commit with the given id, which may be
+     * abbreviated, e.g. a parent id recorded after a reset to an abbreviated
+     * id by an older version.
+     *
+     * @param commitId the full or abbreviated commit id
+     * @return the full commit id, or null if no single commit matches
+     */
+    public static String fullIdOf(String commitId) {
+        if (exists(commitId)) {
+            return commitId;
+        }
+        if (commitId.length() < 4 || commitId.length() >= Utils.UID_LENGTH) {
+            return null;
+        }
+        List<String> commitIds = commitIdsWithPrefix(commitId);
+        return commitIds.size() == 1 ? commitIds.get(0) : null;
+    }
+
+    /**
+     * Get the id to store for a parent or a ref. An abbreviated id is stored
+     * as the full id, so no record depends on resolving it again, and an
+     * abbreviated id which matches no single commit is rejected. Ids which
+     * cannot be abbreviations (too short, or not hex) are kept as they are.
+     *
+     * @param commitId the commit id
+     * @return the id to store
+     */
+    static String storedIdOf(String commitId) {
+        if (commitId.length() < 4 || commitId.length() >= Utils.UID_LENGTH
+                || !ObjectIndex.isHex(commitId)) {
+            return commitId;
+        }
+        String fullId = fullIdOf(commitId);
+        if (fullId == null) {
+            throw Utils.error("Cannot store abbreviated commit id %s.", commitId);
+        }
+        return fullId;
+    }
+
+    /**
+     * Resolve an abbreviated commit id with the commit index.
+     * 
+     * @param idPrefix the abbreviated commit id
+     * @return the full commit id, or idPrefix if no commit matches
+     */
     private static String findCommitIdWithPrefix(String idPrefix) {
         if (idPrefix.length() == 40) {
             return idPrefix;
@@ -251,13 +461,31 @@ public class Commit implements Dumpable {
             MyUtils.exit("pathspec '%s' did not match any file(s) known to git.", idPrefix);
         }
 
-        List<String> commitIds = plainFilenamesIn(Repository.OBJECTS_DIR);
-        for (String id : commitIds) {
-            if (id.startsWith(idPrefix)) {
-                return id;
-            }
+        List<String> commitIds = commitIdsWithPrefix(idPrefix);
+        if (commitIds.size() > 1) {
+            MyUtils.exit("Commit id prefix %s is ambiguous.", idPrefix);
+        }
+        if (!commitIds.isEmpty()) {
+            return commitIds.get(0);
         }
 
-        return null;
+        return idPrefix;
+    }
+
+    /**
+     * Find the ids of the commits with the given prefix in the commit index.
+     * If nothing matches and the index misses commits, it is rebuilt once.
+     */
+    private static List<String> commitIdsWithPrefix(String idPrefix) {
+        List<String> commitIds = CommitIndex.commitIdsWithPrefix(idPrefix);
+        if (commitIds.isEmpty() && CommitIndex.isStale()) {
+            try {
+                CommitIndex.rebuild();
+            } catch (IOException excp) {
+                throw Utils.error("Cannot write commit index.");
+            }
+            commitIds = CommitIndex.commitIdsWithPrefix(idPrefix);
+        }
+        return commitIds;
     }
 }
@@ -0,0 +1,307 @@
+package gitlet;
+
+import java.io.*;
+import java.util.*;
+
+/**
+ * Represents the commit-graph file, a compact record of the commit DAG.
+ * Every commit is stored with the positions of its parents and its
+ * generation number (1 for a root commit, 1 + the maximal generation of its
+ * parents otherwise), so ancestry questions can be answered without
+ * deserializing any commit object.
+ *
+ * The file is appended to whenever a commit is saved. Parents are always
+ * saved before their children, so a parent position is always smaller than
+ * the position of the child. A torn record at the end of the file, left by
+ * an interrupted append, is ignored on load and cut off by the next append.
+ *
+ * File format:
+ * magic (4 bytes) | version (int) | record*
+ * where a record is
+ * id (20 bytes) | generation (int) | time (long) | parent count (byte)
+ * | parent positions (ints)
+ */
+public class CommitGraph {
+    /** The magic number of a commit-graph file */
+    private static final int MAGIC = 0x47475048; // "GGPH"
+    /** The version of the commit-graph format */
+    private static final int VERSION = 1;
+
+    /** Flag of commits reachable from the first commit */
+    private static final int PARENT1 = 1;
+    /** Flag of commits reachable from the second commit */
+    private static final int PARENT2 = 2;
+
+    /** The cached commit graph */
+    private static CommitGraph cached;
+    /** The modification stamp of the cached commit graph */
+    private static String cachedStamp;
+
+    /** The [id:position] map */
+    private final Map<String, Integer> positions;
+    /** The ids by position */
+    private final List<String> ids;
+    /** The generation numbers by position */
+    private final List<Integer> generations;
+    /** The commit times by position */
+    private final List<Long> times;
+    /** The parent positions by position */
+    private final List<int[]> parents;
+    /** The length of the file up to the end of the last complete record */
+    private long length;
+
+    private CommitGraph() {
+        this.positions = new HashMap<String, Integer>();
+        this.ids = new ArrayList<String>();
+        this.generations = new ArrayList<Integer>();
+        this.times = new ArrayList<Long>();
+        this.parents = new ArrayList<int[]>();
+    }
+
+    /**
+     * Load the commit graph from the commit-graph file.
+     *
+     * @return the commit graph
+     */
+    public static CommitGraph fromFile() {
+        File file = Repository.COMMIT_GRAPH_FILE;
+        String stamp = file.exists() ? file.lastModified() + ":" + file.length() : "";
+        if (cached != null && stamp.equals(cachedStamp)) {
+            return cached;
+        }
+
+        CommitGraph graph = new CommitGraph();
+        if (file.exists()) {
+            try (DataInputStream in = new DataInputStream(
+                    new BufferedInputStream(new FileInputStream(file)))) {
+                graph.readRecords(in);
+            } catch (IOException excp) {
+                throw Utils.error("Cannot read commit-graph file.");
+            }
+        }
+
+        cached = graph;
+        cachedStamp = stamp;
+        return graph;
+    }
+
+    /**
+     * Read the header and the complete records of the commit-graph file.
+     */
+    private void readRecords(DataInputStream in) throws IOException {
+        try {
+            if (in.readInt() != MAGIC || in.readInt() != VERSION) {
+                throw Utils.error("Corrupted commit-graph file.");
+            }
+        } catch (EOFException excp) {
+            return;
+        }
+        length = 8;
+        byte[] raw = new byte[ObjectIndex.ID_BYTES];
+        while (true) {
+            int generation;
+            long time;
+            int[] parentPositions;
+            try {
+                in.readFully(raw);
+                generation = in.readInt();
+                time = in.readLong();
+                parentPositions = new int[in.readByte()];
+                for (int k = 0; k < parentPositions.length; k++) {
+                    parentPositions[k] = in.readInt();
+                }
+            } catch (EOFException | NegativeArraySizeException excp) {
+                break;
+            }
+            put(MyUtils.toHex(raw), generation, time, parentPositions);
+            length += raw.length + 4 + 8 + 1 + 4 * parentPositions.length;
+        }
+    }
+
+    /**
+     * Add the commit to the commit graph and append it to the commit-graph
+     * file. Parents missing from the graph (e.g. in repositories created
+     * before the commit graph existed) are added first. Abbreviated parent
+     * ids are resolved to the full ids of the parents.
+     *
+     * @param commit the commit
+     */
+    public void addCommit(Commit commit) throws IOException {
+        if (positions.containsKey(commit.getId())) {
+            return;
+        }
+
+        // walk down to the commits already in the graph, then add the
+        // missing ones parents first
+        Map<String, Commit> loaded = new HashMap<String, Commit>();
+        Deque<Commit> stack = new ArrayDeque<Commit>();
+        loaded.put(commit.getId(), commit);
+        stack.push(commit);
+        while (!stack.isEmpty()) {
+            Commit c = stack.peek();
+            boolean parentsAdded = true;
+            for (String parentId : c.getParentIds()) {
+                parentId = fullIdOf(parentId);
+                if (parentId == null || positions.containsKey(parentId)) {
+                    continue;
+                }
+                parentsAdded = false;
+                if (!loaded.containsKey(parentId)) {
+                    Commit parent = Commit.fromFile(parentId);
+                    loaded.put(parentId, parent);
+                    stack.push(parent);
+                }
+            }
+            if (parentsAdded) {
+                stack.pop();
+                if (!positions.containsKey(c.getId())) {
+                    append(c);
+                }
+            }
+        }
+    }
+
+    /**
+     * Get the lowest common ancestor of the two commits.
+     * Both sides are walked at the same time, always expanding the commit with
+     * the highest generation number first. The first commit reached from both
+     * sides is therefore a common ancestor with the maximal generation, and
+     * no commit below its generation is ever visited.
+     *
+     * @param id1 the id of the first commit
+     * @param id2 the id of the second commit
+     * @return the id of the lowest common ancestor, or null if there is none
+     */
+    public String lowestCommonAncestor(String id1, String id2) {
+        int pos1 = positionOf(id1);
+        int pos2 = positionOf(id2);
+        if (pos1 == pos2) {
+            return id1;
+        }
+
+        Map<Integer, Integer> flags = new HashMap<Integer, Integer>();
+        PriorityQueue<Integer> queue = new PriorityQueue<Integer>(
+                Comparator.comparingInt((Integer p) -> generations.get(p)).reversed()
+                        .thenComparing(Comparator.comparingLong((Integer p) -> times.get(p))
+                                .reversed()));
+        flags.put(pos1, PARENT1);
+        flags.put(pos2, PARENT2);
+        queue.add(pos1);
+        queue.add(pos2);
+
+        while (!queue.isEmpty()) {
+            int pos = queue.poll();
+            int flag = flags.get(pos);
+            if (flag == (PARENT1 | PARENT2)) {
+                return ids.get(pos);
+            }
+            for (int parent : parents.get(pos)) {
+                int parentFlag = flags.getOrDefault(parent, 0);
+                if ((parentFlag | flag) == parentFlag) {
+                    continue;
+                }
+                if (parentFlag != 0) {
+                    // re-insert with the merged flags
+                    queue.remove(parent);
+                }
+                flags.put(parent, parentFlag | flag);
+                queue.add(parent);
+            }
+        }
+
+        return null;
+    }
+
+    /**
+     * Get the generation number of the commit.
+     *
+     * @param id the commit id
+     * @return the generation number
+     */
+    public int generationOf(String id) {
+        return generations.get(positionOf(id));
+    }
+
+    /**
+     * Check if the commit graph contains the commit.
+     *
+     * @param id the commit id
+     * @return true if the commit is in the commit graph
+     */
+    public boolean contains(String id) {
+        return positions.containsKey(id);
+    }
+
+    /**
+     * Get the position of the commit, adding it to the graph if necessary.
+     */
+    private int positionOf(String id) {
+        if (!positions.containsKey(id)) {
+            try {
+                addCommit(Commit.fromFile(id));
+            } catch (IOException excp) {
+                throw Utils.error("Cannot write commit-graph file.");
+            }
+        }
+        return positions.get(id);
+    }
+
+    /**
+     * Append the commit, whose parents are already in the graph.
+     */
+    private void append(Commit commit) throws IOException {
+        List<Integer> parentList = new ArrayList<Integer>();
+        int generation = 1;
+        for (String parentId : commit.getParentIds()) {
+            String fullId = fullIdOf(parentId);
+            Integer parent = fullId == null ? null : positions.get(fullId);
+            if (parent != null) {
+                parentList.add(parent);
+                generation = Math.max(generation, generations.get(parent) + 1);
+            }
+        }
+        int[] parentPositions = parentList.stream().mapToInt(Integer::intValue).toArray();
+
+        ByteArrayOutputStream record = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(record);
+        if (length == 0) {
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+        }
+        out.write(ObjectIndex.toRaw(commit.getId()));
+        out.writeInt(generation);
+        out.writeLong(commit.getTime());
+        out.writeByte(parentPositions.length);
+        for (int parent : parentPositions) {
+            out.writeInt(parent);
+        }
+
+        File file = Repository.COMMIT_GRAPH_FILE;
+        if (!file.exists()) {
+            file.getParentFile().mkdirs();
+        } else if (file.length() != length) {
+            Journal.truncate(file, length);
+        }
+        Journal.append(file, record.toByteArray());
+        length += record.size();
+        put(commit.getId(), generation, commit.getTime(), parentPositions);
+
+        cached = this;
+        cachedStamp = file.lastModified() + ":" + file.length();
+    }
+
+    /**
+     * Get the full id of the parent, or null if there is no such commit.
+     */
+    private String fullIdOf(String parentId) {
+        return positions.containsKey(parentId) ? parentId : Commit.fullIdOf(parentId);
+    }
+
+    private void put(String id, int generation, long time, int[] parentPositions) {
+        positions.put(id, ids.size());
+        ids.add(id);
+        generations.add(generation);
+        times.add(time);
+        parents.add(parentPositions);
+    }
+}
@@ -0,0 +1,126 @@
+package gitlet;
+
+import java.io.IOException;
+import java.util.*;
+
+/**
+ * Represents the commit index, a sorted list of all commit ids, loose or
+ * packed. It has the same format as the index of the pack (see
+ * {@link ObjectIndex}), so resolving an abbreviated commit id is a binary
+ * search instead of a scan over the objects directory.
+ *
+ * The index is updated whenever a commit is saved, through its overflow file
+ * (see {@link OverflowIndex}), so a commit does not rewrite the whole index.
+ * If it is missing (e.g. in repositories created before the index existed)
+ * it is rebuilt from the objects directory and the pack.
+ */
+public class CommitIndex {
+    /** The commit index */
+    private static final OverflowIndex INDEX = new OverflowIndex(
+            Repository.COMMIT_INDEX_FILE, Repository.COMMIT_INDEX_OVERFLOW_FILE);
+
+    /**
+     * Find the ids of all commits with the given prefix.
+     *
+     * @param prefix the id prefix
+     * @return the matched commit ids in order
+     */
+    public static List<String> commitIdsWithPrefix(String prefix) {
+        return index().idsWithPrefix(prefix, Pack.COMMIT);
+    }
+
+    /**
+     * Get the ids of all commits.
+     *
+     * @return the commit ids in order
+     */
+    public static List<String> commitIds() {
+        return index().ids(Pack.COMMIT);
+    }
+
+    /**
+     * Add the commit id to the index and save it to the overflow.
+     *
+     * @param commitId the full commit id
+     */
+    public static void addCommit(String commitId) throws IOException {
+        addCommits(List.of(commitId));
+    }
+
+    /**
+     * Add the commit ids to the index and save them to the overflow at once,
+     * e.g. for the commits fetched from a remote.
+     *
+     * @param commitIds the full commit ids
+     */
+    public static void addCommits(Collection<String> commitIds) throws IOException {
+        OverflowIndex current = index();
+        for (String commitId : commitIds) {
+            if (!current.contains(commitId)) {
+                current.put(commitId, new ObjectIndex.Entry(Pack.COMMIT, 0));
+            }
+        }
+        current.save();
+    }
+
+    /**
+     * Rebuild the index from the loose and packed commits and save it.
+     *
+     * @return the number of indexed commits
+     */
+    public static int rebuild() throws IOException {
+        Map<String, ObjectIndex.Entry> entries = new HashMap<String, ObjectIndex.Entry>();
+        List<String> commitIds = new ArrayList<String>(Pack.looseCommitIds());
+        commitIds.addAll(Pack.commitIds());
+        for (String commitId : commitIds) {
+            entries.put(commitId, new ObjectIndex.Entry(Pack.COMMIT, 0));
+        }
+        ObjectIndex rebuilt = new ObjectIndex(entries);
+        INDEX.replace(rebuilt);
+        return rebuilt.size();
+    }
+
+    /**
+     * Check if the index misses commits, e.g. saved by an interrupted
+     * command, by comparing the number of indexed commits with the number of
+     * loose and packed commits. Only the names of the loose commits are
+     * listed, no file is read or stat'ed.
+     *
+     * @return true if the index should be rebuilt
+     */
+    public static boolean isStale() {
+        int count = Pack.commitIds().size();
+        String[] names = Repository.OBJECTS_DIR.list();
+        if (names != null) {
+            for (String name : names) {
+                if (ObjectIndex.isFullId(name) && !Pack.contains(name)) {
+                    count++;
+                }
+            }
+        }
+        return count != index().ids(Pack.COMMIT).size();
+    }
+
+    /**
+     * Merge the overflow of the index into the index, e.g. on `gc`.
+     */
+    public static void merge() throws IOException {
+        if (Repository.COMMIT_INDEX_FILE.exists()) {
+            INDEX.merge();
+        }
+    }
+
+    /**
+     * Get the index, rebuilding it if there is none.
+     */
+    private static OverflowIndex index() {
+        if (!INDEX.exists()) {
+            try {
+                rebuild();
+            } catch (IOException excp) {
+                throw Utils.error("Cannot write commit index.");
+            }
+        }
+        return INDEX;
+    }
+}
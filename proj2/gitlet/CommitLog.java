@@ -0,0 +1,382 @@
+package gitlet;
+
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.util.*;
+import java.util.function.Consumer;
+
+/**
+ * Represents the commit log, an append-only record of the metadata of every
+ * commit, so `global-log` and `find` never deserialize a commit object.
+ *
+ * The messages are kept in a separate file, in the same order as the
+ * records. The message index maps the SHA-1 of a message to the last record
+ * with that message, and every record points back to the previous record
+ * with the same message, so `find` only reads the matching records. Both
+ * files are appended through the {@link Journal}, and a torn record at the
+ * end of the log, left by an interrupted append, is ignored on load and cut
+ * off, with its message, by the next append. New
+ * entries of the message index go to its overflow file (see
+ * {@link OverflowIndex}), so a commit does not rewrite the whole index.
+ *
+ * Log format:
+ * magic (4 bytes) | version (int) | record*
+ * where a record is
+ * id (20 bytes) | time (long) | parent count (byte) | parent ids (20 bytes
+ * each) | message offset (long) | message length (int)
+ * | offset of the previous record with the same message (long, -1 if none)
+ */
+public class CommitLog {
+    /** The magic number of a commit log */
+    private static final int MAGIC = 0x474c4f47; // "GLOG"
+    /** The version of the commit log format */
+    private static final int VERSION = 1;
+    /** The type of entries in the message index */
+    private static final byte MESSAGE = 1;
+
+    /** The length of a record without its parent ids */
+    private static final int RECORD_BYTES = ObjectIndex.ID_BYTES + 8 + 1 + 8 + 4 + 8;
+
+    /** The length of the log up to the end of the last complete record */
+    private static long logLength;
+    /** The length of the messages of the complete records */
+    private static long messagesLength;
+    /** The modification stamp of the log when its lengths were read */
+    private static String logStamp;
+
+    /** The message index */
+    private static final OverflowIndex MESSAGE_INDEX = new OverflowIndex(
+            Repository.MESSAGE_INDEX_FILE, Repository.MESSAGE_OVERFLOW_FILE);
+
+    /**
+     * Append the commit to the commit log. If there is no log yet, it is
+     * built from all commits in the repository instead.
+     *
+     * @param commit the commit, already saved
+     */
+    public static void addCommit(Commit commit) throws IOException {
+        addCommits(List.of(commit));
+    }
+
+    /**
+     * Append the commits to the commit log, in the given order, and save the
+     * message index once. If there is no log yet, it is built from all
+     * commits in the repository instead.
+     *
+     * @param commits the commits, already saved
+     */
+    public static void addCommits(List<Commit> commits) throws IOException {
+        if (Repository.COMMIT_LOG_FILE.length() < 8) {
+            rebuild();
+            return;
+        }
+        readLengths();
+        ByteArrayOutputStream log = new ByteArrayOutputStream();
+        ByteArrayOutputStream messages = new ByteArrayOutputStream();
+        for (Commit commit : commits) {
+            append(commit, log, messages);
+        }
+
+        // cut off a torn record, then append the messages before the records
+        // which point at them
+        File logFile = Repository.COMMIT_LOG_FILE;
+        File messagesFile = Repository.COMMIT_MESSAGES_FILE;
+        if (messagesFile.length() != messagesLength) {
+            Journal.truncate(messagesFile, messagesLength);
+        }
+        if (logFile.length() != logLength) {
+            Journal.truncate(logFile, logLength);
+        }
+        Journal.append(messagesFile, messages.toByteArray());
+        Journal.append(logFile, log.toByteArray());
+        logLength += log.size();
+        messagesLength += messages.size();
+        logStamp = stampOf(logFile);
+        MESSAGE_INDEX.save();
+    }
+
+    /**
+     * Rebuild the commit log and the message index from all commits, in the
+     * order they were made.
+     *
+     * @return the number of logged commits
+     */
+    public static int rebuild() throws IOException {
+        List<Commit> commits = new ArrayList<Commit>(MyUtils.commits());
+        commits.sort(Comparator.comparingLong(Commit::getTime));
+
+        ByteArrayOutputStream log = new ByteArrayOutputStream();
+        ByteArrayOutputStream messages = new ByteArrayOutputStream();
+        DataOutputStream header = new DataOutputStream(log);
+        header.writeInt(MAGIC);
+        header.writeInt(VERSION);
+        logLength = 0;
+        messagesLength = 0;
+        MESSAGE_INDEX.replace(new ObjectIndex(new HashMap<String, ObjectIndex.Entry>()));
+        for (Commit commit : commits) {
+            append(commit, log, messages);
+        }
+
+        Repository.INFO_DIR.mkdirs();
+        Journal.write(Repository.COMMIT_MESSAGES_FILE, messages.toByteArray());
+        Journal.write(Repository.COMMIT_LOG_FILE, log.toByteArray());
+        logLength = log.size();
+        messagesLength = messages.size();
+        logStamp = stampOf(Repository.COMMIT_LOG_FILE);
+        MESSAGE_INDEX.merge();
+        return commits.size();
+    }
+
+    /**
+     * Merge the overflow of the message index into the index, e.g. on `gc`.
+     */
+    public static void mergeMessageIndex() throws IOException {
+        if (Repository.COMMIT_LOG_FILE.exists()) {
+            MESSAGE_INDEX.merge();
+        }
+    }
+
+    /**
+     * Stream all records of the commit log, in the order they were appended.
+     *
+     * @param action the action on each record
+     */
+    public static void forEach(Consumer<Record> action) {
+        ensureLog();
+        try (DataInputStream log = new DataInputStream(new BufferedInputStream(
+                new FileInputStream(Repository.COMMIT_LOG_FILE)));
+                DataInputStream messages = new DataInputStream(new BufferedInputStream(
+                        new FileInputStream(Repository.COMMIT_MESSAGES_FILE)))) {
+            readHeader(log);
+            // the messages are appended in the same order as the records, so
+            // both files are read sequentially
+            long position = 0;
+            while (true) {
+                Record record;
+                try {
+                    record = readRecord(log);
+                    messages.skipBytes((int) (record.messageOffset - position));
+                    record.readMessage(messages);
+                } catch (EOFException excp) {
+                    break;
+                }
+                position = record.messageOffset + record.messageLength;
+                action.accept(record);
+            }
+        } catch (IOException excp) {
+            throw Utils.error("Cannot read commit log.");
+        }
+    }
+
+    /**
+     * Find the ids of all commits with the given message, newest first.
+     *
+     * @param message the commit message
+     * @return the matched commit ids
+     */
+    public static List<String> findByMessage(String message) {
+        ensureLog();
+        List<String> ids = new ArrayList<String>();
+        ObjectIndex.Entry last = MESSAGE_INDEX.get(Utils.sha1(message));
+        if (last == null) {
+            return ids;
+        }
+
+        try (RandomAccessFile log = new RandomAccessFile(Repository.COMMIT_LOG_FILE, "r");
+                RandomAccessFile messages = new RandomAccessFile(
+                        Repository.COMMIT_MESSAGES_FILE, "r")) {
+            long offset = last.value;
+            while (offset >= 0) {
+                log.seek(offset);
+                Record record = readRecord(log);
+                messages.seek(record.messageOffset);
+                record.readMessage(messages);
+                // guard against SHA-1 collisions of messages
+                if (record.message.equals(message)) {
+                    ids.add(record.id);
+                }
+                offset = record.previous;
+            }
+        } catch (IOException excp) {
+            throw Utils.error("Cannot read commit log.");
+        }
+        return ids;
+    }
+
+    /**
+     * Build the log if there is none, e.g. in repositories created before the
+     * commit log existed.
+     */
+    private static void ensureLog() {
+        // a log without its header has no record left either
+        if (Repository.COMMIT_LOG_FILE.length() >= 8) {
+            return;
+        }
+        try {
+            rebuild();
+        } catch (IOException excp) {
+            throw Utils.error("Cannot write commit log.");
+        }
+    }
+
+    /**
+     * Append the record of the commit and its message to the buffers of the
+     * log and the message file, which are written at the current lengths of
+     * the files, and point the message index at the new record. The message
+     * index is not saved.
+     */
+    private static void append(Commit commit, ByteArrayOutputStream log,
+            ByteArrayOutputStream messages) throws IOException {
+        byte[] message = commit.getMessage().getBytes(StandardCharsets.UTF_8);
+        String messageId = Utils.sha1(commit.getMessage());
+        ObjectIndex.Entry last = MESSAGE_INDEX.get(messageId);
+        long previous = last == null ? -1 : last.value;
+
+        long messageOffset = messagesLength + messages.size();
+        messages.write(message);
+
+        List<String> parentIds = new ArrayList<String>();
+        for (String parentId : commit.getParentIds()) {
+            if (ObjectIndex.isFullId(parentId)) {
+                parentIds.add(parentId);
+            }
+        }
+        long offset = logLength + log.size();
+        DataOutputStream out = new DataOutputStream(log);
+        out.write(ObjectIndex.toRaw(commit.getId()));
+        out.writeLong(commit.getTime());
+        out.writeByte(parentIds.size());
+        for (String parentId : parentIds) {
+            out.write(ObjectIndex.toRaw(parentId));
+        }
+        out.writeLong(messageOffset);
+        out.writeInt(message.length);
+        out.writeLong(previous);
+
+        MESSAGE_INDEX.put(messageId, new ObjectIndex.Entry(MESSAGE, offset));
+    }
+
+    /**
+     * Read the lengths of the log and the message file up to the end of the
+     * last complete record, unless the log is unchanged since they were read.
+     */
+    private static void readLengths() throws IOException {
+        File file = Repository.COMMIT_LOG_FILE;
+        String stamp = stampOf(file);
+        if (stamp.equals(logStamp)) {
+            return;
+        }
+        logLength = 8;
+        messagesLength = 0;
+        try (DataInputStream log = new DataInputStream(
+                new BufferedInputStream(new FileInputStream(file)))) {
+            readHeader(log);
+            while (true) {
+                Record record;
+                try {
+                    record = readRecord(log);
+                } catch (EOFException excp) {
+                    break;
+                }
+                logLength += RECORD_BYTES + ObjectIndex.ID_BYTES * record.parentIds.size();
+                messagesLength = record.messageOffset + record.messageLength;
+            }
+        }
+        logStamp = stamp;
+    }
+
+    private static String stampOf(File file) {
+        return file.exists() ? file.lastModified() + ":" + file.length() : "";
+    }
+
+    private static void readHeader(DataInput log) throws IOException {
+        if (log.readInt() != MAGIC || log.readInt() != VERSION) {
+            throw Utils.error("Corrupted commit log.");
+        }
+    }
+
+    /**
+     * Read the record at the current position of LOG, without its message.
+     */
+    private static Record readRecord(DataInput log) throws IOException {
+        byte[] raw = new byte[ObjectIndex.ID_BYTES];
+        log.readFully(raw);
+        String id = MyUtils.toHex(raw);
+        long time = log.readLong();
+        List<String> parentIds = new ArrayList<String>();
+        int parentCount = log.readByte();
+        for (int k = 0; k < parentCount; k++) {
+            log.readFully(raw);
+            parentIds.add(MyUtils.toHex(raw));
+        }
+        long messageOffset = log.readLong();
+        int messageLength = log.readInt();
+        long previous = log.readLong();
+        return new Record(id, time, parentIds, messageOffset, messageLength, previous);
+    }
+
+    /**
+     * Represents one commit in the commit log.
+     */
+    public static class Record {
+        /** The commit id */
+        private final String id;
+        /** The commit time, in milliseconds since the epoch */
+        private final long time;
+        /** The parent ids */
+        private final List<String> parentIds;
+        /** The offset of the message in the message file */
+        private final long messageOffset;
+        /** The length of the message in bytes */
+        private final int messageLength;
+        /** The offset of the previous record with the same message */
+        private final long previous;
+        /** The message, read separately from the message file */
+        private String message;
+
+        Record(String id, long time, List<String> parentIds, long messageOffset,
+                int messageLength, long previous) {
+            this.id = id;
+            this.time = time;
+            this.parentIds = parentIds;
+            this.messageOffset = messageOffset;
+            this.messageLength = messageLength;
+            this.previous = previous;
+        }
+
+        /**
+         * Read the message of this record, MESSAGES must be positioned at it.
+         */
+        private void readMessage(DataInput messages) throws IOException {
+            byte[] bytes = new byte[messageLength];
+            messages.readFully(bytes);
+            message = new String(bytes, StandardCharsets.UTF_8);
+        }
+
+        /**
+         * Get the commit id
+         *
+         * @return commit id
+         */
+        public String getId() {
+            return id;
+        }
+
+        /**
+         * Get the message of the commit
+         *
+         * @return commit message
+         */
+        public String getMessage() {
+            return message;
+        }
+
+        /**
+         * String representation of the commit, the same as that of the
+         * Commit instance.
+         */
+        public String toString() {
+            return Commit.format(id, parentIds, time, message);
+        }
+    }
+}
@@ -0,0 +1,204 @@
+package gitlet;
+
+import java.io.*;
+import java.net.StandardProtocolFamily;
+import java.net.UnixDomainSocketAddress;
+import java.nio.channels.Channels;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.file.Files;
+
+/**
+ * Represents the gitlet daemon, a long-running process which executes the
+ * commands of a repository in a warm JVM: the JIT has compiled the hot
+ * paths, and the caches of objects, the stage, the commit graph, the commit
+ * log and the pack survive from one command to the next.
+ *
+ * The daemon listens on a Unix domain socket in the .gitlet directory, and
+ * Main forwards every command to it when it is running. It executes one
+ * command at a time, and holds the repository {@link Lock} only while a
+ * command runs, so commands executed by other processes are serialized with
+ * the commands of the daemon exactly as with each other. Every cache is
+ * validated against the files it was loaded from, so changes made by other
+ * processes are seen.
+ *
+ * Request format:
+ * argument count (int) | arguments (UTF)
+ * Response format:
+ * exit status (int) | output length (int) | output bytes
+ */
+public class Daemon {
+    /** The exit status of a command which failed with an exception */
+    private static final int FAILED = 1;
+
+    /** Whether this process is a daemon serving commands */
+    private static volatile boolean serving;
+    /** Whether the daemon was asked to stop */
+    private static volatile boolean stopping;
+
+    /**
+     * Thrown by {@link MyUtils#exit} in a daemon, to end the command instead
+     * of the process. The message is already printed.
+     */
+    static class CommandExit extends RuntimeException {
+        CommandExit() {
+            super(null, null, false, false);
+        }
+    }
+
+    /**
+     * Check if this process is a daemon serving commands.
+     *
+     * @return true in a daemon
+     */
+    public static boolean isServing() {
+        return serving;
+    }
+
+    /**
+     * Serve the commands of clients until the `daemon stop` command.
+     */
+    public static void serve() throws IOException {
+        File socketFile = Repository.DAEMON_SOCKET_FILE;
+        if (socketFile.exists()) {
+            if (connect() != null) {
+                MyUtils.exit("A gitlet daemon is already running.");
+            }
+            // left by a daemon which did not exit cleanly
+            Files.delete(socketFile.toPath());
+        }
+
+        UnixDomainSocketAddress address = UnixDomainSocketAddress.of(socketFile.toPath());
+        try (ServerSocketChannel server = ServerSocketChannel.open(StandardProtocolFamily.UNIX)) {
+            server.bind(address);
+            Runtime.getRuntime().addShutdownHook(new Thread(socketFile::delete));
+            serving = true;
+            stopping = false;
+            while (!stopping) {
+                try (SocketChannel client = server.accept()) {
+                    handle(client);
+                } catch (IOException excp) {
+                    // the client went away, the daemon goes on
+                }
+            }
+        } finally {
+            serving = false;
+            socketFile.delete();
+        }
+    }
+
+    /**
+     * Forward the command to the running daemon, and print its output.
+     * Exits with the status of the command if it failed.
+     *
+     * @param args the command line
+     * @return false if no daemon is running, and the command must be
+     *         executed by this process
+     */
+    public static boolean forward(String[] args) {
+        if (!Repository.DAEMON_SOCKET_FILE.exists()) {
+            return false;
+        }
+        SocketChannel channel = connect();
+        if (channel == null) {
+            return false;
+        }
+        int status;
+        try (channel) {
+            DataOutputStream out = new DataOutputStream(
+                    new BufferedOutputStream(Channels.newOutputStream(channel)));
+            out.writeInt(args.length);
+            for (String arg : args) {
+                out.writeUTF(arg);
+            }
+            out.flush();
+
+            DataInputStream in = new DataInputStream(
+                    new BufferedInputStream(Channels.newInputStream(channel)));
+            status = in.readInt();
+            byte[] output = new byte[in.readInt()];
+            in.readFully(output);
+            System.out.write(output);
+            System.out.flush();
+        } catch (IOException excp) {
+            throw Utils.error("Lost the connection to the gitlet daemon: %s",
+                    excp.getMessage());
+        }
+        if (status != 0) {
+            System.exit(status);
+        }
+        return true;
+    }
+
+    /**
+     * Connect to the daemon.
+     *
+     * @return the connection, or null if no daemon is listening
+     */
+    private static SocketChannel connect() {
+        try {
+            UnixDomainSocketAddress address =
+                    UnixDomainSocketAddress.of(Repository.DAEMON_SOCKET_FILE.toPath());
+            return SocketChannel.open(address);
+        } catch (IOException excp) {
+            return null;
+        }
+    }
+
+    /**
+     * Read one command from the client, execute it and send its output.
+     */
+    private static void handle(SocketChannel client) throws IOException {
+        DataInputStream in = new DataInputStream(
+                new BufferedInputStream(Channels.newInputStream(client)));
+        String[] args = new String[in.readInt()];
+        for (int i = 0; i < args.length; i++) {
+            args[i] = in.readUTF();
+        }
+
+        ByteArrayOutputStream output = new ByteArrayOutputStream();
+        int status = execute(args, new PrintStream(output, true));
+
+        DataOutputStream out = new DataOutputStream(
+                new BufferedOutputStream(Channels.newOutputStream(client)));
+        out.writeInt(status);
+        out.writeInt(output.size());
+        output.writeTo(out);
+        out.flush();
+    }
+
+    /**
+     * Execute the command as Main would, printing to OUT. The lock is
+     * released when the command ends, and an unfinished command is rolled
+     * back, as when a gitlet process exits.
+     *
+     * @return the exit status
+     */
+    private static int execute(String[] args, PrintStream out) {
+        PrintStream stdout = System.out;
+        System.setOut(out);
+        try {
+            if (args.length == 0) {
+                MyUtils.exit("Please Enter a command");
+            } else if (args[0].equals("daemon")) {
+                if (args.length == 2 && args[1].equals("stop")) {
+                    stopping = true;
+                    MyUtils.exit("Stopped the gitlet daemon.");
+                }
+                MyUtils.exit("A gitlet daemon is already running.");
+            }
+            Main.excuteCmd(args);
+        } catch (CommandExit excp) {
+            // the message is printed already
+        } catch (IOException excp) {
+            out.println(excp.getMessage());
+        } catch (RuntimeException excp) {
+            excp.printStackTrace(out);
+            return FAILED;
+        } finally {
+            Lock.release();
+            System.setOut(stdout);
+        }
+        return 0;
+    }
+}
@@ -0,0 +1,180 @@
+package gitlet;
+
+import java.io.ByteArrayOutputStream;
+import java.util.Arrays;
+
+/**
+ * Content deltas between two versions of an object, used by the pack to store
+ * a blob as the difference to a similar, previously packed blob.
+ *
+ * A delta is a sequence of instructions which rebuild the target from the
+ * base:
+ * varint baseLength | varint targetLength | instruction*
+ * where an instruction is either
+ * COPY varint offset varint length (copy bytes from the base), or
+ * INSERT varint length bytes (copy literal bytes from the delta).
+ */
+class Delta {
+    /** Copy bytes from the base */
+    private static final int COPY = 0;
+    /** Insert literal bytes */
+    private static final int INSERT = 1;
+    /** The block size used to find matches in the base */
+    private static final int BLOCK = 16;
+    /** The maximum number of candidate blocks tried at one position */
+    private static final int MAX_PROBES = 8;
+
+    /**
+     * Create the delta which rebuilds TARGET from BASE.
+     *
+     * @param base   the base contents
+     * @param target the target contents
+     * @return the delta
+     */
+    static byte[] create(byte[] base, byte[] target) {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        writeVarint(out, base.length);
+        writeVarint(out, target.length);
+
+        // index every block of the base by its hash, open addressing
+        int capacity = Integer.highestOneBit(Math.max(base.length / BLOCK, 1) * 2) * 2;
+        int[] table = new int[capacity];
+        Arrays.fill(table, -1);
+        for (int off = 0; off + BLOCK <= base.length; off += BLOCK) {
+            int slot = blockHash(base, off) & (capacity - 1);
+            for (int probe = 0; table[slot] != -1 && probe < MAX_PROBES; probe++) {
+                slot = (slot + 1) & (capacity - 1);
+            }
+            if (table[slot] == -1) {
+                table[slot] = off;
+            }
+        }
+
+        int literalStart = 0;
+        int pos = 0;
+        while (pos + BLOCK <= target.length) {
+            int bestOff = -1;
+            int bestLen = 0;
+            int slot = blockHash(target, pos) & (capacity - 1);
+            for (int probe = 0; table[slot] != -1 && probe <= MAX_PROBES;
+                    probe++, slot = (slot + 1) & (capacity - 1)) {
+                int len = matchLength(base, table[slot], target, pos);
+                if (len > bestLen) {
+                    bestLen = len;
+                    bestOff = table[slot];
+                }
+            }
+            if (bestLen < BLOCK) {
+                pos++;
+                continue;
+            }
+            // extend the match backwards into the pending literal bytes
+            while (bestOff > 0 && pos > literalStart
+                    && base[bestOff - 1] == target[pos - 1]) {
+                bestOff--;
+                pos--;
+                bestLen++;
+            }
+            writeInsert(out, target, literalStart, pos);
+            out.write(COPY);
+            writeVarint(out, bestOff);
+            writeVarint(out, bestLen);
+            pos += bestLen;
+            literalStart = pos;
+        }
+        writeInsert(out, target, literalStart, target.length);
+
+        return out.toByteArray();
+    }
+
+    /**
+     * Rebuild the target from BASE and DELTA.
+     *
+     * @param base  the base contents
+     * @param delta the delta created by {@link #create}
+     * @return the target contents
+     */
+    static byte[] apply(byte[] base, byte[] delta) {
+        int[] pos = {0};
+        int baseLength = readVarint(delta, pos);
+        int targetLength = readVarint(delta, pos);
+        if (baseLength != base.length) {
+            throw Utils.error("Delta does not match its base.");
+        }
+
+        byte[] target = new byte[targetLength];
+        int t = 0;
+        while (pos[0] < delta.length) {
+            int op = delta[pos[0]++];
+            if (op == COPY) {
+                int offset = readVarint(delta, pos);
+                int length = readVarint(delta, pos);
+                System.arraycopy(base, offset, target, t, length);
+                t += length;
+            } else {
+                int length = readVarint(delta, pos);
+                System.arraycopy(delta, pos[0], target, t, length);
+                pos[0] += length;
+                t += length;
+            }
+        }
+        if (t != targetLength) {
+            throw Utils.error("Corrupted delta.");
+        }
+        return target;
+    }
+
+    private static void writeInsert(ByteArrayOutputStream out, byte[] target,
+            int from, int to) {
+        if (from >= to) {
+            return;
+        }
+        out.write(INSERT);
+        writeVarint(out, to - from);
+        out.write(target, from, to - from);
+    }
+
+    private static int matchLength(byte[] base, int baseOff, byte[] target, int targetOff) {
+        int len = 0;
+        while (baseOff + len < base.length && targetOff + len < target.length
+                && base[baseOff + len] == target[targetOff + len]) {
+            len++;
+        }
+        return len;
+    }
+
+    private static int blockHash(byte[] data, int off) {
+        int h = 0;
+        for (int k = 0; k < BLOCK; k++) {
+            h = h * 31 + data[off + k];
+        }
+        return h ^ (h >>> 16);
+    }
+
+    /**
+     * Write a non-negative int as a little endian base-128 varint.
+     */
+    static void writeVarint(ByteArrayOutputStream out, int value) {
+        while ((value & ~0x7f) != 0) {
+            out.write((value & 0x7f) | 0x80);
+            value >>>= 7;
+        }
+        out.write(value);
+    }
+
+    /**
+     * Read a varint from DATA at POS[0], advancing POS[0].
+     */
+    static int readVarint(byte[] data, int[] pos) {
+        int value = 0;
+        int shift = 0;
+        while (true) {
+            int b = data[pos[0]++] & 0xff;
+            value |= (b & 0x7f) << shift;
+            if ((b & 0x80) == 0) {
+                return value;
+            }
+            shift += 7;
+        }
+    }
+}
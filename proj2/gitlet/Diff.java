@@ -0,0 +1,243 @@
+package gitlet;
+
+import java.util.*;
+
+/**
+ * Computes the difference between two sequences of ints (e.g. line ids)
+ * with the linear space variant of Myers' O(ND) algorithm: the middle snake
+ * of the shortest edit script is found by searching forward and backward at
+ * the same time, and both halves are solved recursively.
+ *
+ * Only int arrays are used while searching, so long inputs are compared
+ * without boxing. The result is the list of changed regions (hunks).
+ */
+public class Diff {
+    /** The first sequence */
+    private final int[] a;
+    /** The second sequence */
+    private final int[] b;
+    /** Whether a[i] is deleted */
+    private final boolean[] deleted;
+    /** Whether b[j] is inserted */
+    private final boolean[] inserted;
+    /** The furthest x on each diagonal of the forward search */
+    private final int[] fd;
+    /** The furthest x on each diagonal of the backward search */
+    private final int[] bd;
+    /** The offset of diagonal 0 in fd and bd */
+    private final int diagOffset;
+
+    private Diff(int[] a, int[] b) {
+        this.a = a;
+        this.b = b;
+        this.deleted = new boolean[a.length];
+        this.inserted = new boolean[b.length];
+        this.fd = new int[a.length + b.length + 3];
+        this.bd = new int[a.length + b.length + 3];
+        this.diagOffset = b.length + 1;
+    }
+
+    /**
+     * Compute the hunks which turn A into B.
+     *
+     * @param a the first sequence
+     * @param b the second sequence
+     * @return the hunks in order
+     */
+    public static List<Hunk> diff(int[] a, int[] b) {
+        Diff diff = new Diff(a, b);
+        diff.compare(0, a.length, 0, b.length);
+        return diff.hunks();
+    }
+
+    /**
+     * Mark the deleted and inserted elements of a[xoff:xlim] and
+     * b[yoff:ylim].
+     */
+    private void compare(int xoff, int xlim, int yoff, int ylim) {
+        // skip the common prefix and suffix
+        while (xoff < xlim && yoff < ylim && a[xoff] == b[yoff]) {
+            xoff++;
+            yoff++;
+        }
+        while (xlim > xoff && ylim > yoff && a[xlim - 1] == b[ylim - 1]) {
+            xlim--;
+            ylim--;
+        }
+
+        if (xoff == xlim) {
+            Arrays.fill(inserted, yoff, ylim, true);
+        } else if (yoff == ylim) {
+            Arrays.fill(deleted, xoff, xlim, true);
+        } else {
+            long mid = middleSnake(xoff, xlim, yoff, ylim);
+            int xmid = (int) (mid >>> 32);
+            int ymid = (int) mid;
+            compare(xoff, xmid, yoff, ymid);
+            compare(xmid, xlim, ymid, ylim);
+        }
+    }
+
+    /**
+     * Find a point on the middle snake of the shortest edit script of
+     * a[xoff:xlim] and b[yoff:ylim].
+     *
+     * @return the point, x in the high and y in the low 32 bits
+     */
+    private long middleSnake(int xoff, int xlim, int yoff, int ylim) {
+        int dmin = xoff - ylim;
+        int dmax = xlim - yoff;
+        int fmid = xoff - yoff;
+        int bmid = xlim - ylim;
+        int fmin = fmid;
+        int fmax = fmid;
+        int bmin = bmid;
+        int bmax = bmid;
+        boolean odd = ((fmid - bmid) & 1) != 0;
+
+        fd[diagOffset + fmid] = xoff;
+        bd[diagOffset + bmid] = xlim;
+        while (true) {
+            // extend the forward search by one edit
+            if (fmin > dmin) {
+                fd[diagOffset + --fmin - 1] = -1;
+            } else {
+                fmin++;
+            }
+            if (fmax < dmax) {
+                fd[diagOffset + ++fmax + 1] = -1;
+            } else {
+                fmax--;
+            }
+            for (int d = fmax; d >= fmin; d -= 2) {
+                int tlo = fd[diagOffset + d - 1];
+                int thi = fd[diagOffset + d + 1];
+                int x = tlo >= thi ? tlo + 1 : thi;
+                int y = x - d;
+                while (x < xlim && y < ylim && a[x] == b[y]) {
+                    x++;
+                    y++;
+                }
+                fd[diagOffset + d] = x;
+                if (odd && bmin <= d && d <= bmax && bd[diagOffset + d] <= x) {
+                    return ((long) x << 32) | y;
+                }
+            }
+
+            // extend the backward search by one edit
+            if (bmin > dmin) {
+                bd[diagOffset + --bmin - 1] = Integer.MAX_VALUE;
+            } else {
+                bmin++;
+            }
+            if (bmax < dmax) {
+                bd[diagOffset + ++bmax + 1] = Integer.MAX_VALUE;
+            } else {
+                bmax--;
+            }
+            for (int d = bmax; d >= bmin; d -= 2) {
+                int tlo = bd[diagOffset + d - 1];
+                int thi = bd[diagOffset + d + 1];
+                int x = tlo < thi ? tlo : thi - 1;
+                int y = x - d;
+                while (x > xoff && y > yoff && a[x - 1] == b[y - 1]) {
+                    x--;
+                    y--;
+                }
+                bd[diagOffset + d] = x;
+                if (!odd && fmin <= d && d <= fmax && x <= fd[diagOffset + d]) {
+                    return ((long) x << 32) | y;
+                }
+            }
+        }
+    }
+
+    /**
+     * Collect the marked elements into hunks.
+     */
+    private List<Hunk> hunks() {
+        List<Hunk> hunks = new ArrayList<Hunk>();
+        int i = 0;
+        int j = 0;
+        while (i < a.length || j < b.length) {
+            if (i < a.length && j < b.length && !deleted[i] && !inserted[j]) {
+                i++;
+                j++;
+                continue;
+            }
+            int aStart = i;
+            int bStart = j;
+            while (i < a.length && deleted[i]) {
+                i++;
+            }
+            while (j < b.length && inserted[j]) {
+                j++;
+            }
+            hunks.add(new Hunk(aStart, i, bStart, j));
+        }
+        return hunks;
+    }
+
+    /**
+     * Represents a changed region: a[aStart:aEnd] is replaced by
+     * b[bStart:bEnd]. Either side may be empty.
+     */
+    public static class Hunk {
+        /** The start of the region in the first sequence */
+        final int aStart;
+        /** The end (exclusive) of the region in the first sequence */
+        final int aEnd;
+        /** The start of the region in the second sequence */
+        final int bStart;
+        /** The end (exclusive) of the region in the second sequence */
+        final int bEnd;
+
+        Hunk(int aStart, int aEnd, int bStart, int bEnd) {
+            this.aStart = aStart;
+            this.aEnd = aEnd;
+            this.bStart = bStart;
+            this.bEnd = bEnd;
+        }
+
+        /**
+         * Get the start of the region in the first sequence
+         *
+         * @return the start index
+         */
+        public int getAStart() {
+            return aStart;
+        }
+
+        /**
+         * Get the end (exclusive) of the region in the first sequence
+         *
+         * @return the end index
+         */
+        public int getAEnd() {
+            return aEnd;
+        }
+
+        /**
+         * Get the start of the region in the second sequence
+         *
+         * @return the start index
+         */
+        public int getBStart() {
+            return bStart;
+        }
+
+        /**
+         * Get the end (exclusive) of the region in the second sequence
+         *
+         * @return the end index
+         */
+        public int getBEnd() {
+            return bEnd;
+        }
+
+        @Override
+        public String toString() {
+            return String.format("[%d,%d) -> [%d,%d)", aStart, aEnd, bStart, bEnd);
+        }
+    }
+}
@@ -0,0 +1,202 @@
+package gitlet;
+
+import java.util.*;
+
+/**
+ * Merges two versions of a text with their common ancestor line by line.
+ * Both versions are diffed against the ancestor, and overlapping (or
+ * touching) hunks of the two sides are grouped. A group changed on one side
+ * only takes that side, a group changed in the same way on both sides takes
+ * either, and anything else is a conflict, marked like
+ *
+ * <<<<<<< HEAD
+ * current lines
+ * =======
+ * other lines
+ * >>>>>>>
+ *
+ * Lines are compared as int ids, equal lines get equal ids.
+ */
+public class Diff3 {
+    /** The [line:id] map of all lines seen */
+    private final Map<String, Integer> lineIds;
+    /** The lines of the common ancestor */
+    private final List<String> baseLines;
+    /** The lines of the current version */
+    private final List<String> curLines;
+    /** The lines of the other version */
+    private final List<String> otherLines;
+    /** The line ids of the common ancestor */
+    private final int[] base;
+    /** The line ids of the current version */
+    private final int[] cur;
+    /** The line ids of the other version */
+    private final int[] other;
+    /** The merged text */
+    private final StringBuilder merged;
+    /** The number of conflicts */
+    private int conflicts;
+
+    private Diff3(String base, String current, String other) {
+        this.lineIds = new HashMap<String, Integer>();
+        this.baseLines = splitLines(base);
+        this.curLines = splitLines(current);
+        this.otherLines = splitLines(other);
+        this.base = toIds(lineIds, baseLines);
+        this.cur = toIds(lineIds, curLines);
+        this.other = toIds(lineIds, otherLines);
+        this.merged = new StringBuilder();
+    }
+
+    /**
+     * Merge the two versions of a text.
+     *
+     * @param base    the common ancestor, empty if there is none
+     * @param current the current version
+     * @param other   the other version
+     * @return the merge result
+     */
+    public static Result merge(String base, String current, String other) {
+        Diff3 diff3 = new Diff3(base, current, other);
+        diff3.merge();
+        return new Result(diff3.merged.toString(), diff3.conflicts);
+    }
+
+    private void merge() {
+        List<Diff.Hunk> curHunks = Diff.diff(base, cur);
+        List<Diff.Hunk> otherHunks = Diff.diff(base, other);
+
+        int basePos = 0;
+        // the offsets between the base and the two versions before basePos
+        int curShift = 0;
+        int otherShift = 0;
+        int i = 0;
+        int j = 0;
+        while (i < curHunks.size() || j < otherHunks.size()) {
+            // start a group with the first hunk, then absorb every hunk of
+            // either side which overlaps or touches the group
+            int start = Math.min(
+                    i < curHunks.size() ? curHunks.get(i).aStart : Integer.MAX_VALUE,
+                    j < otherHunks.size() ? otherHunks.get(j).aStart : Integer.MAX_VALUE);
+            int end = start;
+            int curGrowth = 0;
+            int otherGrowth = 0;
+            boolean curChanged = false;
+            boolean otherChanged = false;
+            boolean absorbed = true;
+            while (absorbed) {
+                absorbed = false;
+                if (i < curHunks.size() && curHunks.get(i).aStart <= end) {
+                    Diff.Hunk hunk = curHunks.get(i++);
+                    end = Math.max(end, hunk.aEnd);
+                    curGrowth += (hunk.bEnd - hunk.bStart) - (hunk.aEnd - hunk.aStart);
+                    curChanged = true;
+                    absorbed = true;
+                }
+                if (j < otherHunks.size() && otherHunks.get(j).aStart <= end) {
+                    Diff.Hunk hunk = otherHunks.get(j++);
+                    end = Math.max(end, hunk.aEnd);
+                    otherGrowth += (hunk.bEnd - hunk.bStart) - (hunk.aEnd - hunk.aStart);
+                    otherChanged = true;
+                    absorbed = true;
+                }
+            }
+
+            appendLines(baseLines, basePos, start);
+            int curStart = start + curShift;
+            int curEnd = end + curShift + curGrowth;
+            int otherStart = start + otherShift;
+            int otherEnd = end + otherShift + otherGrowth;
+            if (!otherChanged) {
+                appendLines(curLines, curStart, curEnd);
+            } else if (!curChanged || Arrays.equals(cur, curStart, curEnd,
+                    other, otherStart, otherEnd)) {
+                appendLines(otherLines, otherStart, otherEnd);
+            } else {
+                conflicts++;
+                merged.append("<<<<<<< HEAD\n");
+                appendLines(curLines, curStart, curEnd);
+                merged.append("=======\n");
+                appendLines(otherLines, otherStart, otherEnd);
+                merged.append(">>>>>>>\n");
+            }
+
+            basePos = end;
+            curShift += curGrowth;
+            otherShift += otherGrowth;
+        }
+        appendLines(baseLines, basePos, baseLines.size());
+    }
+
+    private void appendLines(List<String> lines, int from, int to) {
+        for (int k = from; k < to; k++) {
+            merged.append(lines.get(k));
+        }
+    }
+
+    /**
+     * Map the lines to ids, giving new lines the next free id.
+     */
+    static int[] toIds(Map<String, Integer> lineIds, List<String> lines) {
+        int[] ids = new int[lines.size()];
+        for (int k = 0; k < ids.length; k++) {
+            Integer id = lineIds.get(lines.get(k));
+            if (id == null) {
+                id = lineIds.size();
+                lineIds.put(lines.get(k), id);
+            }
+            ids[k] = id;
+        }
+        return ids;
+    }
+
+    /**
+     * Split the text into lines, each keeping its line terminator, so the
+     * lines concatenate back to the text. A line which is not terminated by
+     * '\n' is therefore different from the same line with a terminator.
+     */
+    static List<String> splitLines(String text) {
+        List<String> lines = new ArrayList<String>();
+        int start = 0;
+        while (start < text.length()) {
+            int end = text.indexOf('\n', start);
+            end = end < 0 ? text.length() : end + 1;
+            lines.add(text.substring(start, end));
+            start = end;
+        }
+        return lines;
+    }
+
+    /**
+     * Represents the result of a merge.
+     */
+    public static class Result {
+        /** The merged text, with conflict markers */
+        private final String contents;
+        /** The number of conflicts */
+        private final int conflicts;
+
+        Result(String contents, int conflicts) {
+            this.contents = contents;
+            this.conflicts = conflicts;
+        }
+
+        /**
+         * Get the merged text
+         *
+         * @return the merged text
+         */
+        public String getContents() {
+            return contents;
+        }
+
+        /**
+         * Whether the merge has conflicts
+         *
+         * @return true if there are conflicts
+         */
+        public boolean hasConflicts() {
+            return conflicts > 0;
+        }
+    }
+}
@@ -5,7 +5,9 @@ import java.io.File;
 /** A debugging class whose main program may be invoked as follows:
  *      java gitlet.DumpObj FILE...
  *  where each FILE is a file produced by Utils.writeObject (or any file
- *  containing a serialized object).  This will simply read FILE,
+ *  containing a serialized object), a commit, stage, branch or HEAD file
+ *  encoded with Codec, or a blob object file produced by
+ *  Blob.saveBlob.  This will simply read FILE,
  *  deserialize it, and call the dump method on the resulting Object.
  *  The object must implement the gitlet.Dumpable interface for this
  *  to work.  For example, you might define your class like this:
@@ -33,8 +35,31 @@ public class DumpObj {
      *  in FILES. */
     public static void main(String... files) {
         for (String fileName : files) {
-            Dumpable obj = Utils.readObject(new File(fileName),
-                                            Dumpable.class);
+            File file = new File(fileName);
+            if (Blob.isBlobFile(file)) {
+                Blob.fromObjectFile(file).dump();
+                System.out.println("---");
+                continue;
+            }
+            byte[] data = Utils.readContents(file);
+            Dumpable obj;
+            switch (Codec.typeOf(data)) {
+                case Codec.COMMIT:
+                    obj = Commit.decode(data);
+                    break;
+                case Codec.STAGE:
+                    obj = Stage.decode(data);
+                    break;
+                case Codec.BRANCH:
+                    obj = Branch.decode(data);
+                    break;
+                case Codec.HEAD:
+                    obj = Head.decode(data);
+                    break;
+                default:
+                    obj = Utils.deserialize(data, Dumpable.class);
+                    break;
+            }
             obj.dump();
             System.out.println("---");
         }
@@ -0,0 +1,74 @@
+package gitlet;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.*;
+
+/**
+ * Measure how hashing a working tree scales with the number of workers.
+ * Usage: java gitlet.HashBenchmark [number of files] [file size in bytes]
+ *
+ * A synthetic tree is generated in a temporary directory, then hashed from
+ * scratch (an empty stat cache) once per worker count.
+ */
+public class HashBenchmark {
+    private static void printTimingTable(List<Integer> jobs, List<Double> times, int nfile) {
+        System.out.printf("%12s %12s %12s %12s %12s\n",
+                "jobs", "time (s)", "# files", "microsec/op", "speedup");
+        System.out.printf("----------------------------------------------------------------\n");
+        for (int i = 0; i < jobs.size(); i += 1) {
+            double time = times.get(i);
+            System.out.printf("%12d %12.2f %12d %12.2f %12.2f\n",
+                    jobs.get(i), time, nfile, time / nfile * 1e6, times.get(0) / time);
+        }
+    }
+
+    public static void main(String[] args) throws IOException {
+        int nfile = args.length > 0 ? Integer.parseInt(args[0]) : 100000;
+        int fileSize = args.length > 1 ? Integer.parseInt(args[1]) : 4096;
+
+        File dir = Files.createTempDirectory("gitlet-bench").toFile();
+        try {
+            List<File> files = generateTree(dir, nfile, fileSize);
+
+            List<Integer> jobs = new ArrayList<Integer>();
+            List<Double> times = new ArrayList<Double>();
+            for (int n = 1; n <= MyUtils.DEFAULT_JOBS; n *= 2) {
+                Map<String, String> blobIds = null;
+                long start = System.nanoTime();
+                blobIds = new Stage().blobIdsOf(files, n);
+                double time = (System.nanoTime() - start) / 1e9;
+                if (blobIds.size() != nfile) {
+                    throw new IllegalStateException("missing hashes");
+                }
+
+                jobs.add(n);
+                times.add(time);
+            }
+
+            printTimingTable(jobs, times, nfile);
+        } finally {
+            for (File file : dir.listFiles()) {
+                file.delete();
+            }
+            dir.delete();
+        }
+    }
+
+    /**
+     * Write NFILE files of FILESIZE random bytes into DIR.
+     */
+    private static List<File> generateTree(File dir, int nfile, int fileSize) {
+        Random random = new Random(61);
+        byte[] contents = new byte[fileSize];
+        List<File> files = new ArrayList<File>();
+        for (int i = 0; i < nfile; i++) {
+            random.nextBytes(contents);
+            File file = Utils.join(dir, "file" + i + ".txt");
+            Utils.writeContents(file, contents);
+            files.add(file);
+        }
+        return files;
+    }
+}
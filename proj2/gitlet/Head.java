@@ -1,8 +1,12 @@
 package gitlet;
 
 import java.io.File;
+import java.io.IOException;
 
 public class Head implements Dumpable {
+    /** The serialization version, kept so older head files stay readable */
+    private static final long serialVersionUID = 251649733730313589L;
+
     /** The file that stores the head reference. */
     private static final File FILE = Repository.HEAD_FILE;
     /** The head reference */
@@ -30,14 +34,44 @@ public class Head implements Dumpable {
      * @return Head instance
      */
     public static Head fromFile() {
-        return Utils.readObject(FILE, Head.class);
+        return decode(Utils.readContents(FILE));
+    }
+
+    /**
+     * Encode the head reference (see {@link Codec}) as
+     * branch name
+     *
+     * @return the encoded head reference
+     */
+    byte[] encode() {
+        Codec.Encoder out = new Codec.Encoder(Codec.HEAD);
+        out.writeString(branchName);
+        return out.toByteArray();
+    }
+
+    /**
+     * Decode a head reference, either encoded or written by Java
+     * serialization.
+     *
+     * @param data the stored head reference
+     * @return the head reference
+     */
+    static Head decode(byte[] data) {
+        if (Codec.isSerialized(data)) {
+            return Utils.deserialize(data, Head.class);
+        }
+        return new Head(new Codec.Decoder(data, Codec.HEAD).readString());
     }
 
     /**
      * Save the head reference to a Object File
      */
     public void saveHead() {
-        Utils.writeObject(FILE, this);
+        try {
+            Journal.write(FILE, encode());
+        } catch (IOException excp) {
+            throw Utils.error("Cannot save the head: %s", excp.getMessage());
+        }
     }
 
     /**
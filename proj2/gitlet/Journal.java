@@ -0,0 +1,342 @@
+package gitlet;
+
+import java.io.*;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.*;
+import java.util.zip.CRC32;
+
+/**
+ * Makes the updates of refs and the stage by one command atomic.
+ * Every file is replaced by writing a temporary file and renaming it, so a
+ * single file is never left half written. Between begin() and commit(), the
+ * old state of every file is first saved to a rollback journal, so a command
+ * interrupted half way (e.g. between writing the branch and the stage of a
+ * merge) is undone as a whole, either when the process exits or by
+ * recover() on the next run.
+ *
+ * The new files are not synced one by one: commit() syncs them in one batch
+ * before the journal is deleted, the journal being the only file synced on
+ * every write. New objects (commits, trees and blobs) are synced in the same
+ * batch, so no ref is made durable while the objects it points to are not.
+ *
+ * Journal format:
+ * record*, where a record is
+ * length (int) | payload | CRC32 of payload (long)
+ * and a payload is
+ * path (UTF) | MISSING (byte)
+ * | path (UTF) | CONTENTS (byte) | old contents length (int) | old contents
+ * | path (UTF) | LENGTH (byte) | old length (long), for appended files
+ */
+public class Journal {
+    /** The old file did not exist */
+    private static final byte MISSING = 0;
+    /** The old file is saved as a whole */
+    private static final byte CONTENTS = 1;
+    /** The old file is only appended to, its old length is saved */
+    private static final byte LENGTH = 2;
+
+    /** Whether a transaction is active */
+    private static boolean active;
+    /** The files already saved to the journal in this transaction */
+    private static Set<File> journaled = new HashSet<File>();
+    /** The files written in this transaction, to be synced by commit */
+    private static Set<File> written = Collections.synchronizedSet(new LinkedHashSet<File>());
+
+    /**
+     * Begin a transaction.
+     */
+    public static void begin() {
+        active = true;
+        journaled.clear();
+        written.clear();
+    }
+
+    /**
+     * Commit the transaction: sync all written files, then delete the
+     * journal.
+     */
+    public static void commit() throws IOException {
+        if (!active) {
+            return;
+        }
+        Set<File> dirs = new LinkedHashSet<File>();
+        for (File file : written) {
+            if (file.exists()) {
+                sync(file);
+            }
+            dirs.add(file.getParentFile());
+        }
+        for (File dir : dirs) {
+            sync(dir);
+        }
+        sync(Repository.GITLET_DIR);
+        Files.deleteIfExists(Repository.JOURNAL_FILE.toPath());
+        active = false;
+        journaled.clear();
+        written.clear();
+    }
+
+    /**
+     * Undo the active transaction, if any.
+     */
+    public static void rollback() {
+        if (!active) {
+            return;
+        }
+        active = false;
+        recover();
+        journaled.clear();
+        written.clear();
+    }
+
+    /**
+     * Undo an interrupted transaction left by an earlier process.
+     */
+    public static void recover() {
+        File journal = Repository.JOURNAL_FILE;
+        if (!journal.exists()) {
+            return;
+        }
+        try {
+            // restore the oldest state of every file
+            List<byte[]> records = readRecords(journal);
+            Collections.reverse(records);
+            for (byte[] record : records) {
+                restore(record);
+            }
+            sync(Repository.GITLET_DIR);
+            Files.delete(journal.toPath());
+        } catch (IOException excp) {
+            throw Utils.error("Cannot recover from the journal: %s", excp.getMessage());
+        }
+    }
+
+    /**
+     * Replace the contents of the file.
+     *
+     * @param file     the file
+     * @param contents the new contents
+     */
+    public static void write(File file, byte[] contents) throws IOException {
+        if (active) {
+            saveOldState(file, false);
+        }
+        file.getParentFile().mkdirs();
+        File tmp = File.createTempFile("tmp-" + file.getName(), ".tmp", Repository.GITLET_DIR);
+        try (FileOutputStream out = new FileOutputStream(tmp)) {
+            out.write(contents);
+            if (!active) {
+                out.getFD().sync();
+            }
+        }
+        Files.move(tmp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING,
+                StandardCopyOption.ATOMIC_MOVE);
+        if (active) {
+            written.add(file);
+        }
+    }
+
+    /**
+     * Write a new object file, by writing a temporary file and renaming it.
+     * Objects are never changed, so nothing is saved to the journal.
+     *
+     * @param file     the object file
+     * @param contents the contents
+     */
+    public static void writeObject(File file, byte[] contents) throws IOException {
+        file.getParentFile().mkdirs();
+        File tmp = File.createTempFile("tmp-" + file.getName(), ".tmp", file.getParentFile());
+        try (FileOutputStream out = new FileOutputStream(tmp)) {
+            out.write(contents);
+        }
+        Files.move(tmp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING,
+                StandardCopyOption.ATOMIC_MOVE);
+        wroteObject(file);
+    }
+
+    /**
+     * Record a new object file, written by rename: it is synced with the
+     * other files of the transaction, or at once outside a transaction. It
+     * may be called from several threads, e.g. by parallel `add`.
+     *
+     * @param file the object file
+     */
+    public static void wroteObject(File file) {
+        if (active) {
+            written.add(file);
+        } else {
+            sync(file);
+            sync(file.getParentFile());
+        }
+    }
+
+    /**
+     * Append to the file.
+     *
+     * @param file     the file
+     * @param contents the contents to append
+     */
+    public static void append(File file, byte[] contents) throws IOException {
+        if (active) {
+            saveOldState(file, true);
+        }
+        try (FileOutputStream out = new FileOutputStream(file, true)) {
+            out.write(contents);
+            if (!active) {
+                out.getFD().sync();
+            }
+        }
+        if (active) {
+            written.add(file);
+        }
+    }
+
+    /**
+     * Truncate the file, e.g. to drop a torn record at its end.
+     *
+     * @param file   the file
+     * @param length the new length
+     */
+    public static void truncate(File file, long length) throws IOException {
+        if (active) {
+            saveOldState(file, true);
+        }
+        try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.WRITE)) {
+            channel.truncate(length);
+            if (!active) {
+                channel.force(true);
+            }
+        }
+        if (active) {
+            written.add(file);
+        }
+    }
+
+    /**
+     * Delete the file.
+     *
+     * @param file the file
+     */
+    public static void delete(File file) throws IOException {
+        if (!file.exists()) {
+            return;
+        }
+        if (active) {
+            saveOldState(file, false);
+        }
+        Files.delete(file.toPath());
+    }
+
+    /**
+     * Save the state of the file before its first change in this
+     * transaction, and sync the journal before the file is changed.
+     */
+    private static void saveOldState(File file, boolean appending) throws IOException {
+        if (!journaled.add(file)) {
+            return;
+        }
+        ByteArrayOutputStream payload = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(payload);
+        out.writeUTF(file.getAbsolutePath());
+        if (!file.exists()) {
+            out.writeByte(MISSING);
+        } else if (appending) {
+            out.writeByte(LENGTH);
+            out.writeLong(file.length());
+        } else {
+            byte[] old = Utils.readContents(file);
+            out.writeByte(CONTENTS);
+            out.writeInt(old.length);
+            out.write(old);
+        }
+        out.flush();
+
+        CRC32 crc = new CRC32();
+        crc.update(payload.toByteArray());
+        try (FileOutputStream fileOut = new FileOutputStream(Repository.JOURNAL_FILE, true);
+                DataOutputStream journal = new DataOutputStream(fileOut)) {
+            journal.writeInt(payload.size());
+            payload.writeTo(journal);
+            journal.writeLong(crc.getValue());
+            journal.flush();
+            fileOut.getFD().sync();
+        }
+    }
+
+    /**
+     * Read the complete records of the journal. A torn last record belongs to
+     * a file which was not changed yet, and is ignored.
+     */
+    private static List<byte[]> readRecords(File journal) throws IOException {
+        List<byte[]> records = new ArrayList<byte[]>();
+        try (DataInputStream in = new DataInputStream(
+                new BufferedInputStream(new FileInputStream(journal)))) {
+            while (true) {
+                byte[] payload;
+                long checksum;
+                try {
+                    payload = new byte[in.readInt()];
+                    in.readFully(payload);
+                    checksum = in.readLong();
+                } catch (EOFException | NegativeArraySizeException excp) {
+                    break;
+                }
+                CRC32 crc = new CRC32();
+                crc.update(payload);
+                if (crc.getValue() != checksum) {
+                    break;
+                }
+                records.add(payload);
+            }
+        }
+        return records;
+    }
+
+    /**
+     * Restore a file to the state saved in the record.
+     */
+    private static void restore(byte[] record) throws IOException {
+        DataInputStream in = new DataInputStream(new ByteArrayInputStream(record));
+        File file = new File(in.readUTF());
+        byte kind = in.readByte();
+        if (kind == MISSING) {
+            Files.deleteIfExists(file.toPath());
+        } else if (kind == LENGTH) {
+            long length = in.readLong();
+            if (file.exists()) {
+                try (FileChannel channel = FileChannel.open(file.toPath(),
+                        StandardOpenOption.WRITE)) {
+                    channel.truncate(length);
+                    channel.force(true);
+                }
+            }
+        } else {
+            byte[] old = new byte[in.readInt()];
+            in.readFully(old);
+            File tmp = File.createTempFile("tmp-" + file.getName(), ".tmp", Repository.GITLET_DIR);
+            try (FileOutputStream out = new FileOutputStream(tmp)) {
+                out.write(old);
+                out.getFD().sync();
+            }
+            file.getParentFile().mkdirs();
+            Files.move(tmp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING,
+                    StandardCopyOption.ATOMIC_MOVE);
+        }
+    }
+
+    /**
+     * Sync the file or directory to the disk.
+     *
+     * @param file the file or directory
+     */
+    static void sync(File file) {
+        try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+            channel.force(true);
+        } catch (IOException excp) {
+            // some platforms cannot sync directories, the rename is still atomic
+        }
+    }
+}
@@ -0,0 +1,88 @@
+package gitlet;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.FileAlreadyExistsException;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Represents the lock of a repository, held by one command at a time.
+ * The lock is a file created exclusively, so two processes can never both
+ * hold it. It is released when the process exits (or, in a {@link Daemon},
+ * when the command ends), after an unfinished transaction of the
+ * {@link Journal} is rolled back. A command transferring objects to or from
+ * a {@link Remote} holds the lock of the remote too.
+ */
+public class Lock {
+    /** Whether this process holds the lock */
+    private static boolean held;
+    /** Whether the shutdown hook releasing the lock is registered */
+    private static boolean hooked;
+    /** The lock files of other repositories (remotes) held by this process */
+    private static final List<File> otherLocks = new ArrayList<File>();
+
+    /**
+     * Acquire the lock, and recover from an interrupted command if
+     * necessary. Exits if another process holds the lock.
+     */
+    public static void acquire() {
+        if (held) {
+            return;
+        }
+        try {
+            Files.createFile(Repository.LOCK_FILE.toPath());
+        } catch (FileAlreadyExistsException excp) {
+            MyUtils.exit("Unable to lock the repository: %s exists. Another gitlet "
+                    + "process seems to be running; if not, remove the file.",
+                    Repository.LOCK_FILE.getPath());
+        } catch (IOException excp) {
+            MyUtils.exit("Unable to lock the repository: %s", excp.getMessage());
+        }
+        held = true;
+        if (!hooked) {
+            // a daemon acquires the lock once per command
+            Runtime.getRuntime().addShutdownHook(new Thread(Lock::release));
+            hooked = true;
+        }
+
+        Journal.recover();
+    }
+
+    /**
+     * Acquire the lock of another repository, e.g. a remote, until the lock
+     * of this repository is released. Exits if another process holds it.
+     *
+     * @param lockFile the lock file of the other repository
+     */
+    public static synchronized void acquireOther(File lockFile) {
+        try {
+            Files.createFile(lockFile.toPath());
+        } catch (FileAlreadyExistsException excp) {
+            MyUtils.exit("Unable to lock the remote repository: %s exists. Another "
+                    + "gitlet process seems to be running; if not, remove the file.",
+                    lockFile.getPath());
+        } catch (IOException excp) {
+            MyUtils.exit("Unable to lock the remote repository: %s", excp.getMessage());
+        }
+        otherLocks.add(lockFile);
+    }
+
+    /**
+     * Roll back the unfinished transaction, if any, and release the lock,
+     * and the locks of other repositories.
+     */
+    public static synchronized void release() {
+        for (File lockFile : otherLocks) {
+            lockFile.delete();
+        }
+        otherLocks.clear();
+        if (!held) {
+            return;
+        }
+        Journal.rollback();
+        Repository.LOCK_FILE.delete();
+        held = false;
+    }
+}
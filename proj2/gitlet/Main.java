@@ -1,6 +1,9 @@
 package gitlet;
 
 import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
 
 /**
  * Driver class for Gitlet, a subset of the Git version-control system.
@@ -19,6 +22,10 @@ public class Main {
             MyUtils.exit("Please Enter a command");
         }
 
+        // a running daemon executes the command in its warm JVM
+        if (Daemon.forward(args)) {
+            return;
+        }
         try {
             excuteCmd(args);
         } catch (IOException e) {
@@ -26,12 +33,18 @@ public class Main {
         }
     }
 
-    private static void excuteCmd(String[] args) throws IOException {
+    static void excuteCmd(String[] args) throws IOException {
         String command = args[0];
         // what if not in an initialized gitlet directory?
         if (!command.equals("init") && !Repository.isInitialized()) {
             MyUtils.exit("Not in an initialized Gitlet directory.");
         }
+        if (!command.equals("init") && !command.equals("daemon")) {
+            // refs and the stage change together or not at all
+            Lock.acquire();
+            Migration.migrateIfNeeded();
+            Journal.begin();
+        }
 
         switch (command) {
             case "init": {
@@ -42,11 +55,13 @@ public class Main {
                 break;
             }
             case "add": {
-                // handle the `add [file name]` command
+                // handle the `add [--jobs N] [file name]` command
+                int jobs = jobsOption(args);
+                args = withoutJobsOption(args);
                 validateArgs(args, 2);
 
                 String fileName = args[1];
-                Repository.add(fileName);
+                Repository.add(fileName, jobs);
                 break;
             }
             case "rm": {
@@ -66,10 +81,16 @@ public class Main {
                 break;
             }
             case "log": {
-                // handle the `log` command
-                validateArgs(args, 1);
+                if (args.length == 3 && args[1].equals("--")) {
+                    // handle the `log -- [file name]` command
+                    String fileName = args[2];
+                    Repository.log(fileName);
+                } else {
+                    // handle the `log` command
+                    validateArgs(args, 1);
 
-                Repository.log();
+                    Repository.log();
+                }
                 break;
             }
             case "global-log": {
@@ -88,10 +109,12 @@ public class Main {
                 break;
             }
             case "status": {
-                // handle the `status` command
+                // handle the `status [--jobs N]` command
+                int jobs = jobsOption(args);
+                args = withoutJobsOption(args);
                 validateArgs(args, 1);
 
-                Repository.status();
+                Repository.status(jobs);
                 break;
             }
             case "checkout": {
@@ -145,11 +168,134 @@ public class Main {
                 Repository.merge(branchName);
                 break;
             }
+            case "gc": {
+                // handle the `gc` command
+                validateArgs(args, 1);
+
+                Repository.gc();
+                break;
+            }
+            case "diff": {
+                if (args.length == 2 && args[1].equals("--cached")) {
+                    // handle the `diff --cached` command
+                    Repository.diffCached();
+                } else if (args.length == 3) {
+                    // handle the `diff [commit id] [commit id]` command
+                    Repository.diff(args[1], args[2]);
+                } else if (args.length == 2) {
+                    // handle the `diff [commit id]` command
+                    Repository.diff(args[1]);
+                } else {
+                    // handle the `diff` command
+                    validateArgs(args, 1);
+
+                    Repository.diff();
+                }
+                break;
+            }
+            case "sparse-checkout": {
+                if (args.length >= 3 && args[1].equals("set")) {
+                    // handle the `sparse-checkout set [pattern]...` command
+                    List<String> patterns = Arrays.asList(args).subList(2, args.length);
+                    Repository.sparseCheckout(patterns);
+                } else {
+                    // handle the `sparse-checkout disable` command
+                    validateArgs(args, 2);
+                    if (!args[1].equals("disable")) {
+                        MyUtils.exit("Incorrect operands.");
+                    }
+
+                    Repository.sparseCheckout(new ArrayList<String>());
+                }
+                break;
+            }
+            case "add-remote": {
+                // handle the `add-remote [remote name] [remote directory]` command
+                validateArgs(args, 3);
+
+                Repository.addRemote(args[1], args[2]);
+                break;
+            }
+            case "rm-remote": {
+                // handle the `rm-remote [remote name]` command
+                validateArgs(args, 2);
+
+                Repository.rmRemote(args[1]);
+                break;
+            }
+            case "fetch": {
+                // handle the `fetch [remote name] [remote branch name]` command
+                validateArgs(args, 3);
+
+                Repository.fetch(args[1], args[2]);
+                break;
+            }
+            case "push": {
+                // handle the `push [remote name] [remote branch name]` command
+                validateArgs(args, 3);
+
+                Repository.push(args[1], args[2]);
+                break;
+            }
+            case "pull": {
+                // handle the `pull [remote name] [remote branch name]` command
+                validateArgs(args, 3);
+
+                Repository.pull(args[1], args[2]);
+                break;
+            }
+            case "daemon": {
+                if (args.length == 2 && args[1].equals("stop")) {
+                    // handle the `daemon stop` command, with no daemon running
+                    MyUtils.exit("No gitlet daemon is running.");
+                }
+                // handle the `daemon` command
+                validateArgs(args, 1);
+
+                Daemon.serve();
+                break;
+            }
             default: {
                 MyUtils.exit("No command with that name exists.");
                 break;
             }
         }
+        Journal.commit();
+    }
+
+    /**
+     * Get the number of workers given by the `--jobs N` option.
+     * 
+     * @return N, or the default number of workers without the option
+     */
+    private static int jobsOption(String[] args) {
+        for (int i = 1; i < args.length; i++) {
+            if (args[i].equals("--jobs")) {
+                try {
+                    int jobs = Integer.parseInt(args[i + 1]);
+                    if (jobs >= 1) {
+                        return jobs;
+                    }
+                } catch (NumberFormatException | ArrayIndexOutOfBoundsException excp) {
+                    // reported below
+                }
+                MyUtils.exit("Incorrect operands.");
+            }
+        }
+        return MyUtils.DEFAULT_JOBS;
+    }
+
+    /**
+     * Remove the `--jobs N` option from the arguments.
+     */
+    private static String[] withoutJobsOption(String[] args) {
+        List<String> rest = new ArrayList<String>(Arrays.asList(args));
+        int i = rest.indexOf("--jobs");
+        if (i > 0) {
+            rest.remove(i + 1);
+            rest.remove(i);
+        }
+        return rest.toArray(new String[0]);
     }
 
     private static void validateArgs(String[] args, int length) {
@@ -18,8 +18,11 @@ public class MergeHandler {
     /** The split point commit */
     private static Commit splitCommit;
 
-    /** The [path:blobId] of tracked files in merged commit */
-    private static Map<String, String> trackedFiles;
+    /**
+     * The [path:blobId] of files in merged commit which differ from the
+     * current commit
+     */
+    private static Map<String, String> changedFiles;
     /** The fileNames to be removed */
     private static Set<String> removedFileNames;
     /**
@@ -27,6 +30,11 @@ public class MergeHandler {
      * tracked files
      */
     private static Map<String, String> conflictFiles;
+    /**
+     * The [path:contents] of files changed on both sides which were merged
+     * line by line without conflicts
+     */
+    private static Map<String, String> mergedFiles;
 
     /**
      * Merge the given branch into the current branch.
@@ -43,6 +51,9 @@ public class MergeHandler {
         curCommit = curBranch.dereference();
         otherCommit = otherBranch.dereference();
         splitCommit = MyUtils.splitCommitOf(curCommit, otherCommit);
+        if (splitCommit == null) {
+            MyUtils.exit("Given branch has no common ancestor with the current branch.");
+        }
 
         if (specialMergeIfPossible()) {
             return;
@@ -53,8 +64,8 @@ public class MergeHandler {
 
         // check if there are untracked files are overwritten
         Set<String> untrackedFileNames = MyUtils.untrackedFileNames();
-        Set<String> allMergedFileNames = MyUtils.unionSet(
-                trackedFiles.keySet(), conflictFiles.keySet());
+        Set<String> allMergedFileNames = MyUtils.unionSet(changedFiles.keySet(),
+                MyUtils.unionSet(conflictFiles.keySet(), mergedFiles.keySet()));
         if (MyUtils.intersectionSet(allMergedFileNames, untrackedFileNames).size() > 0) {
             MyUtils.exit("There is an untracked file in the way; delete it, "
                     + "or add and commit it first.");
@@ -91,53 +102,54 @@ public class MergeHandler {
     }
 
     /**
-     * Create the tracked, removed, and conflicted files for the merge.
+     * Create the changed, removed, and conflicted files for the merge.
+     * Only files changed since the split commit on either side are visited,
+     * subtrees which are the same as in the split commit are skipped.
      */
     private static void createMergeFiles() {
-        trackedFiles = new HashMap<String, String>();
+        changedFiles = new HashMap<String, String>();
         removedFileNames = new HashSet<String>();
         conflictFiles = new HashMap<String, String>();
+        mergedFiles = new HashMap<String, String>();
 
-        Map<String, String> cFiles = curCommit.getTrackedFiles();
-        Map<String, String> oFiles = otherCommit.getTrackedFiles();
-        Map<String, String> sFiles = splitCommit.getTrackedFiles();
-        Set<String> allFiles = MyUtils.unionSet(cFiles.keySet(), oFiles.keySet());
+        Tree cTree = curCommit.getTree();
+        Tree oTree = otherCommit.getTree();
+        Tree sTree = splitCommit.getTree();
+        Set<String> allFiles = MyUtils.unionSet(sTree.changedFileNames(cTree),
+                sTree.changedFileNames(oTree));
 
         for (String fileName : allFiles) {
-            String sId = sFiles.get(fileName) == null ? "" : sFiles.get(fileName);
-            String cId = cFiles.get(fileName) == null ? "" : cFiles.get(fileName);
-            String oId = oFiles.get(fileName) == null ? "" : oFiles.get(fileName);
+            String sId = sTree.get(fileName) == null ? "" : sTree.get(fileName);
+            String cId = cTree.get(fileName) == null ? "" : cTree.get(fileName);
+            String oId = oTree.get(fileName) == null ? "" : oTree.get(fileName);
 
-            if (sId.equals(cId) && sId.equals(oId)) {
-                // file in all three commits is the same
-                // nothing to do
-                continue;
-            } else if (sId.equals(cId)) {
+            if (sId.equals(cId)) {
                 // file in split and current commit is the same
                 if (oId.equals("")) {
                     // other commit removed this file
                     removedFileNames.add(fileName);
                 } else {
                     // other commit modified this file
-                    trackedFiles.put(fileName, oId);
-                }
-            } else if (sId.equals(oId)) {
-                // file in split and other commit is the same
-                if (cId.equals("")) {
-                    // current commit removed this file
-                    continue;
-                } else {
-                    // current commit modified this file
-                    trackedFiles.put(fileName, cId);
+                    changedFiles.put(fileName, oId);
                 }
-            } else if (cId.equals(oId)) {
-                // file in current and other commit is the same
-                trackedFiles.put(fileName, cId);
-            } else {
-                // file in all three commits is different
-                // handle conflict
+            } else if (sId.equals(oId) || cId.equals(oId)) {
+                // only the current commit changed this file, or both commits
+                // changed it in the same way, keep the current version
+                continue;
+            } else if (cId.equals("") || oId.equals("")) {
+                // one commit removed the file the other one modified
                 String contents = conflictContents(cId, oId);
                 conflictFiles.put(fileName, contents);
+            } else {
+                // file in all three commits is different
+                // merge the lines, only overlapping changes conflict
+                Diff3.Result result = Diff3.merge(contentsOf(sId), contentsOf(cId),
+                        contentsOf(oId));
+                if (result.hasConflicts()) {
+                    conflictFiles.put(fileName, result.getContents());
+                } else {
+                    mergedFiles.put(fileName, result.getContents());
+                }
             }
         }
     }
@@ -148,23 +160,30 @@ public class MergeHandler {
      * @throws IOException if an I/O error occurs.
      */
     private static void commitMerge() throws IOException {
-        // write conflict contents to blob, add them to trackedFiles
-        for (String fileName : conflictFiles.keySet()) {
+        // checkout changed files, the others are the same as in the current
+        // commit, and the files outside the sparse checkout are not written
+        SparseCheckout sparse = SparseCheckout.fromFile();
+        for (String fileName : changedFiles.keySet()) {
+            if (!sparse.includes(fileName)) {
+                continue;
+            }
+            String blobId = changedFiles.get(fileName);
+            Blob blob = Blob.fromFile(blobId);
+            File fileToWrite = new File(fileName);
+            blob.writeTo(fileToWrite);
+        }
+
+        // write merged and conflict contents to blob, add them to changedFiles
+        Map<String, String> writtenFiles = new HashMap<String, String>(mergedFiles);
+        writtenFiles.putAll(conflictFiles);
+        for (String fileName : writtenFiles.keySet()) {
             File fileToWrite = new File(fileName);
-            String contents = conflictFiles.get(fileName);
+            String contents = writtenFiles.get(fileName);
             writeContents(fileToWrite, contents.getBytes());
 
             Blob blob = new Blob(fileToWrite);
             blob.saveBlob();
-            trackedFiles.put(fileName, blob.getId());
-        }
-        // checkout added files
-        for (String fileName : trackedFiles.keySet()) {
-            String blobId = trackedFiles.get(fileName);
-            Blob blob = Blob.fromFile(blobId);
-            byte[] contents = blob.getContents();
-            File fileToWrite = new File(fileName);
-            writeContents(fileToWrite, contents);
+            changedFiles.put(fileName, blob.getId());
         }
 
         // delete files
@@ -179,7 +198,8 @@ public class MergeHandler {
         LinkedList<String> parentIds = new LinkedList<String>();
         parentIds.add(curCommit.getId());
         parentIds.add(otherCommit.getId());
-        Commit commit = new Commit(message, parentIds, trackedFiles);
+        Tree tree = curCommit.getTree().withChanges(changedFiles, removedFileNames);
+        Commit commit = new Commit(message, parentIds, tree);
         commit.saveCommit();
 
         // update the current branch
@@ -200,22 +220,24 @@ public class MergeHandler {
      * @return
      */
     private static String conflictContents(String curBlobId, String otherBlobId) {
-        String curContents = "";
-        if (!curBlobId.equals("")) {
-            Blob curBlob = Blob.fromFile(curBlobId);
-            curContents = new String(curBlob.getContents());
-        }
-        String otherContents = "";
-        if (!otherBlobId.equals("")) {
-            Blob otherBlob = Blob.fromFile(otherBlobId);
-            otherContents = new String(otherBlob.getContents());
-        }
-
         String contents = String.format("<<<<<<< HEAD\n%s=======\n%s>>>>>>>\n",
-                curContents, otherContents);
+                contentsOf(curBlobId), contentsOf(otherBlobId));
         return contents;
     }
 
+    /**
+     * Get the contents of the given blob.
+     * 
+     * @param blobId the blob id, or "" for a missing file.
+     * @return the contents, or "" for a missing file.
+     */
+    private static String contentsOf(String blobId) {
+        if (blobId.equals("")) {
+            return "";
+        }
+        return new String(Blob.fromFile(blobId).getContents());
+    }
+
     /**
      * Clear the fields.
      */
@@ -225,8 +247,9 @@ public class MergeHandler {
         curCommit = null;
         otherCommit = null;
         splitCommit = null;
-        trackedFiles = null;
+        changedFiles = null;
         removedFileNames = null;
         conflictFiles = null;
+        mergedFiles = null;
     }
 }
@@ -0,0 +1,118 @@
+package gitlet;
+
+import static gitlet.Utils.join;
+import static gitlet.Utils.readContents;
+
+import java.io.*;
+import java.util.*;
+
+/**
+ * Migrates a repository written by an older version of gitlet, which stored
+ * every object with Java serialization, to the current formats:
+ * blobs become compressed blob objects, commits are encoded with
+ * {@link Codec} and get a tree instead of their inline tracked files, and
+ * the branches, the stage and HEAD are encoded with {@link Codec}.
+ *
+ * Every file is replaced atomically, and HEAD is migrated last: a repository
+ * whose HEAD is encoded is fully migrated, and an interrupted migration is
+ * simply run again. Packed commits are not rewritten, they are still read
+ * with Java serialization.
+ */
+public class Migration {
+    /**
+     * Migrate the repository if it was written by an older version.
+     *
+     * @return true if the repository was migrated
+     */
+    public static boolean migrateIfNeeded() throws IOException {
+        if (!Codec.isSerialized(readContents(Repository.HEAD_FILE))) {
+            return false;
+        }
+        migrate();
+        return true;
+    }
+
+    private static void migrate() throws IOException {
+        // blobs first, commits refer to them through their trees
+        File[] dirs = Repository.OBJECTS_DIR.listFiles(File::isDirectory);
+        for (File dir : dirs) {
+            if (dir.getName().length() != 2) {
+                continue;
+            }
+            for (File file : dir.listFiles(File::isFile)) {
+                byte[] data = readContents(file);
+                if (Codec.isSerialized(data)) {
+                    migrateBlob(dir.getName() + file.getName(), data);
+                }
+            }
+        }
+
+        for (String commitId : Pack.looseCommitIds()) {
+            File file = join(Repository.OBJECTS_DIR, commitId);
+            byte[] data = readContents(file);
+            if (Codec.isSerialized(data)) {
+                Commit commit = Commit.decode(data);
+                commit.getTree().save();
+                Journal.write(file, commit.encode());
+                ObjectCache.remove(commitId);
+            }
+        }
+
+        List<String> branchNames = Utils.plainFilenamesIn(Repository.REFS_DIR);
+        for (String branchName : branchNames) {
+            Branch.fromFile(branchName).saveBranch();
+        }
+        Stage.fromFile().compactStage();
+        Head.fromFile().saveHead();
+    }
+
+    /**
+     * Rewrite a blob stored with Java serialization as a blob object.
+     */
+    private static void migrateBlob(String id, byte[] data) throws IOException {
+        LegacyBlob blob;
+        try (ObjectInputStream in = new LegacyInputStream(new ByteArrayInputStream(data))) {
+            blob = (LegacyBlob) in.readObject();
+        } catch (ClassNotFoundException | ClassCastException excp) {
+            throw Utils.error("Cannot migrate blob %s.", id);
+        }
+        Blob.saveContents(id, blob.fileName, blob.contents);
+    }
+
+    /**
+     * Represents a blob as older versions serialized it. Only the field
+     * names and types have to match the stream.
+     */
+    private static class LegacyBlob implements Serializable {
+        /** The contents */
+        private byte[] contents;
+        /** The source file */
+        private File source;
+        /** The object file */
+        private File file;
+        /** The filename */
+        private String fileName;
+        /** The sha1 ID */
+        private String id;
+    }
+
+    /**
+     * Reads serialized blobs as LegacyBlob instances, whatever version of
+     * the Blob class wrote them.
+     */
+    private static class LegacyInputStream extends ObjectInputStream {
+        LegacyInputStream(InputStream in) throws IOException {
+            super(in);
+        }
+
+        @Override
+        protected ObjectStreamClass readClassDescriptor()
+                throws IOException, ClassNotFoundException {
+            ObjectStreamClass desc = super.readClassDescriptor();
+            if (desc.getName().equals("gitlet.Blob")) {
+                return ObjectStreamClass.lookup(LegacyBlob.class);
+            }
+            return desc;
+        }
+    }
+}
@@ -1,6 +1,10 @@
 package gitlet;
 
 import java.util.*;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.function.IntConsumer;
+import java.util.stream.IntStream;
 
 import static gitlet.Utils.join;
 import static gitlet.Utils.plainFilenamesIn;
@@ -8,11 +12,67 @@ import static gitlet.Utils.plainFilenamesIn;
 import java.io.*;
 
 public class MyUtils {
+    /** The default number of workers for parallel hashing */
+    public static final int DEFAULT_JOBS = Runtime.getRuntime().availableProcessors();
+
     public static void exit(String msg, Object... args) {
         System.out.printf(msg + "\n", args);
+        if (Daemon.isServing()) {
+            // only the command ends, not the daemon
+            throw new Daemon.CommandExit();
+        }
         System.exit(0);
     }
 
+    /**
+     * Convert raw bytes to a hex string, e.g. a raw SHA-1 to its 40-digit id.
+     * 
+     * @param raw the raw bytes
+     * @return the hex string
+     */
+    public static String toHex(byte[] raw) {
+        StringBuilder sb = new StringBuilder(raw.length * 2);
+        for (byte b : raw) {
+            sb.append(Character.forDigit((b >> 4) & 0xf, 16));
+            sb.append(Character.forDigit(b & 0xf, 16));
+        }
+        return sb.toString();
+    }
+
+    /**
+     * Run BODY for every index in [0, N) with a pool of JOBS workers, and wait
+     * until all of them are done. With a single job the indices are visited
+     * in order on the calling thread.
+     * 
+     * @param n    the number of indices
+     * @param jobs the number of workers
+     * @param body the work for one index
+     */
+    public static void parallelFor(int n, int jobs, IntConsumer body) {
+        if (jobs <= 1 || n <= 1) {
+            for (int i = 0; i < n; i++) {
+                body.accept(i);
+            }
+            return;
+        }
+
+        ForkJoinPool pool = new ForkJoinPool(jobs);
+        try {
+            pool.submit(() -> IntStream.range(0, n).parallel().forEach(body)).get();
+        } catch (InterruptedException excp) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException(excp);
+        } catch (ExecutionException excp) {
+            Throwable cause = excp.getCause();
+            if (cause instanceof RuntimeException) {
+                throw (RuntimeException) cause;
+            }
+            throw new IllegalStateException(cause);
+        } finally {
+            pool.shutdown();
+        }
+    }
+
     /**
      * The intersection of two sets
      * 
@@ -104,12 +164,10 @@ public class MyUtils {
      * @return all commits in the repository.
      */
     public static Set<Commit> commits() {
-        // Search commit files in the objects directory
-        List<String> commitIds = plainFilenamesIn(Repository.OBJECTS_DIR);
+        // All commits, loose or packed, are in the commit index
         Set<Commit> commits = new HashSet<Commit>();
-        for (String commitId : commitIds) {
-            Commit commit = Commit.fromFile(commitId);
-            commits.add(Commit.fromFile(commit.getId()));
+        for (String commitId : CommitIndex.commitIds()) {
+            commits.add(Commit.fromFile(commitId));
         }
 
         return commits;
@@ -120,39 +178,13 @@ public class MyUtils {
      * 
      * @param commit1 the first commit.
      * @param commit2 the second commit.
-     * @return the split commit.
+     * @return the split commit, or null if the commits have no common
+     *         ancestor.
      */
     public static Commit splitCommitOf(Commit commit1, Commit commit2) {
-        Set<Commit> prevCommits1 = prevCommitsOf(commit1);
-        Set<Commit> prevCommits2 = prevCommitsOf(commit2);
-
-        Set<Commit> commonCommit = MyUtils.intersectionSet(prevCommits1, prevCommits2);
-        Commit lcaCommit = null; // last common ancestor commit
-        for (Commit commit : commonCommit) {
-            if (lcaCommit == null || commit.dateAfter(lcaCommit)) {
-                lcaCommit = commit;
-            }
-        }
-
-        return lcaCommit;
-    }
-
-    /**
-     * Find all previous commits of the given commit.
-     * 
-     * @param commit the given commit.
-     * @return
-     */
-    private static Set<Commit> prevCommitsOf(Commit commit) {
-        Set<Commit> commits = new HashSet<Commit>();
-        commits.add(commit);
-
-        for (String parentId : commit.getParentIds()) {
-            Commit parentCommit = Commit.fromFile(parentId);
-            commits.addAll(prevCommitsOf(parentCommit));
-        }
-
-        return commits;
+        CommitGraph graph = CommitGraph.fromFile();
+        String lcaId = graph.lowestCommonAncestor(commit1.getId(), commit2.getId());
+        return lcaId == null ? null : Commit.fromFile(lcaId);
     }
 
     /**
@@ -163,7 +195,8 @@ public class MyUtils {
      */
     public static boolean branchExists(String branchName) {
         File file = Utils.join(Repository.REFS_DIR, branchName);
-        if (!file.exists()) {
+        // the branches fetched from a remote R are stored under the R directory
+        if (!file.isFile()) {
             return false;
         }
         return true;
@@ -176,9 +209,11 @@ public class MyUtils {
      * @return
      */
     public static boolean isCurrentBranch(String branchName) {
-        Branch branch = Branch.fromFile(branchName);
-        Branch curBranch = currentBranch();
-        return branch.equals(curBranch);
+        // branches are equal by name, so only HEAD has to be read
+        if (!branchExists(branchName)) {
+            exit("No such branch exists.");
+        }
+        return Head.fromFile().getBranchName().equals(branchName);
     }
 
     /**
@@ -217,16 +252,51 @@ public class MyUtils {
      * @return all [path:blobId] of files
      */
     public static Map<String, String> workingFiles() {
-        Map<String, String> workingFiles = new HashMap<String, String>();
+        return workingFiles(DEFAULT_JOBS);
+    }
+
+    /**
+     * Find all file names in the given file, hashing them with JOBS workers.
+     * 
+     * @param jobs the number of workers
+     * @return all [path:blobId] of files
+     */
+    public static Map<String, String> workingFiles(int jobs) {
         Set<String> fileNames = workingFileNames(Repository.CWD);
-        for (String fileName : fileNames) {
-            File file = join(Repository.CWD, fileName);
-            Blob blob = new Blob(file);
-            workingFiles.put(fileName, blob.getId());
+        Stage stage = Stage.fromFile();
+        Map<String, String> workingFiles = stage.blobIdsOf(filesOf(fileNames), jobs);
+
+        // remember the hashes, so unchanged files are not hashed next time
+        stage.retainStatCache(fileNames);
+        if (stage.isStatCacheChanged()) {
+            stage.saveStage();
         }
         return workingFiles;
     }
 
+    /**
+     * Get the working files with the given names.
+     * 
+     * @param fileNames the file names.
+     * @return the files in the current working directory.
+     */
+    public static List<File> filesOf(Set<String> fileNames) {
+        List<File> files = new ArrayList<File>();
+        for (String fileName : fileNames) {
+            files.add(join(Repository.CWD, fileName));
+        }
+        return files;
+    }
+
+    /**
+     * Find all file names in the current working directory.
+     * 
+     * @return all file names in the current working directory.
+     */
+    public static Set<String> workingFileNames() {
+        return workingFileNames(Repository.CWD);
+    }
+
     /**
      * Find all file names in the given file.
      * 
@@ -0,0 +1,127 @@
+package gitlet;
+
+import java.util.*;
+
+/**
+ * Represents the process-wide cache of loaded objects (commits, trees and
+ * blob headers), keyed by object id. Objects are immutable once stored, so a
+ * cached object never goes stale.
+ *
+ * The cache is bounded by the total size of the cached objects, measured as
+ * the size of their stored encoding. The least recently used objects are
+ * evicted first.
+ */
+public class ObjectCache {
+    /** The default capacity in bytes */
+    static final long DEFAULT_CAPACITY = 32L << 20;
+
+    /** The [id:object] map, in access order */
+    private static final LinkedHashMap<String, Object> objects =
+            new LinkedHashMap<String, Object>(256, 0.75f, true);
+    /** The [id:size] map of the cached objects */
+    private static final Map<String, Long> sizes = new HashMap<String, Long>();
+    /** The capacity in bytes */
+    private static long capacity = DEFAULT_CAPACITY;
+    /** The total size of the cached objects */
+    private static long totalSize;
+    /** The number of lookups which found the object */
+    private static long hits;
+    /** The number of lookups which did not */
+    private static long misses;
+
+    /**
+     * Get the cached object with the given id.
+     *
+     * @param id   the object id
+     * @param type the expected type of the object
+     * @return the object, or null if it is not cached (or of another type)
+     */
+    public static synchronized <T> T get(String id, Class<T> type) {
+        Object object = objects.get(id);
+        if (!type.isInstance(object)) {
+            misses++;
+            return null;
+        }
+        hits++;
+        return type.cast(object);
+    }
+
+    /**
+     * Cache the object, evicting the least recently used objects if the cache
+     * is full. Objects larger than the whole cache are not cached.
+     *
+     * @param id     the object id
+     * @param object the object
+     * @param size   the size of the stored object in bytes
+     */
+    public static synchronized void put(String id, Object object, long size) {
+        remove(id);
+        if (size > capacity) {
+            return;
+        }
+        objects.put(id, object);
+        sizes.put(id, size);
+        totalSize += size;
+        evict();
+    }
+
+    /**
+     * Drop the object with the given id, e.g. when it is deleted.
+     *
+     * @param id the object id
+     */
+    public static synchronized void remove(String id) {
+        if (objects.remove(id) != null) {
+            totalSize -= sizes.remove(id);
+        }
+    }
+
+    /**
+     * Drop all cached objects, e.g. when another repository is opened.
+     */
+    public static synchronized void clear() {
+        objects.clear();
+        sizes.clear();
+        totalSize = 0;
+    }
+
+    /**
+     * Set the capacity, evicting objects if necessary.
+     *
+     * @param bytes the capacity in bytes
+     */
+    public static synchronized void setCapacity(long bytes) {
+        capacity = bytes;
+        evict();
+    }
+
+    /**
+     * Evict the least recently used objects until the cache fits.
+     */
+    private static void evict() {
+        Iterator<Map.Entry<String, Object>> eldest = objects.entrySet().iterator();
+        while (totalSize > capacity) {
+            String eldestId = eldest.next().getKey();
+            eldest.remove();
+            totalSize -= sizes.remove(eldestId);
+        }
+    }
+
+    /**
+     * Get the total size of the cached objects
+     *
+     * @return the size in bytes
+     */
+    public static synchronized long size() {
+        return totalSize;
+    }
+
+    /**
+     * Get the hit and miss counts since the process started, for benchmarks
+     *
+     * @return the counts, hits first
+     */
+    public static synchronized long[] stats() {
+        return new long[] {hits, misses};
+    }
+}
@@ -0,0 +1,370 @@
+package gitlet;
+
+import java.io.*;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.*;
+
+/**
+ * A sorted index of object ids, in the spirit of git's .idx files.
+ * Ids are kept as raw 20-byte SHA-1s in one sorted array, and a 256-entry
+ * fanout table narrows every lookup to the ids sharing the first byte, so
+ * both exact and prefix lookups are a binary search.
+ * Each id carries a one byte type and a long value (e.g. a pack offset).
+ *
+ * File format:
+ * magic (4 bytes) | version (int) | count (int) | fanout (256 ints)
+ * | ids (count * 20 bytes) | types (count bytes) | values (count longs)
+ */
+class ObjectIndex {
+    /** The magic number of an index file */
+    private static final int MAGIC = 0x47494458; // "GIDX"
+    /** The version of the index format */
+    private static final int VERSION = 1;
+    /** The length of a raw SHA-1 id */
+    static final int ID_BYTES = Utils.UID_LENGTH / 2;
+
+    /** fanout[b] = number of ids whose first byte is <= b */
+    private final int[] fanout;
+    /** The sorted raw ids */
+    private final byte[] ids;
+    /** The types of ids */
+    private final byte[] types;
+    /** The values of ids */
+    private final long[] values;
+    /** The number of ids */
+    private final int size;
+
+    /**
+     * Create an index from the given entries.
+     *
+     * @param entries the [id:entry] map, in any order
+     */
+    ObjectIndex(Map<String, Entry> entries) {
+        List<String> sorted = new ArrayList<String>(entries.keySet());
+        Collections.sort(sorted);
+
+        this.size = sorted.size();
+        this.fanout = new int[256];
+        this.ids = new byte[size * ID_BYTES];
+        this.types = new byte[size];
+        this.values = new long[size];
+        for (int i = 0; i < size; i++) {
+            String id = sorted.get(i);
+            Entry entry = entries.get(id);
+            System.arraycopy(toRaw(id), 0, ids, i * ID_BYTES, ID_BYTES);
+            types[i] = entry.type;
+            values[i] = entry.value;
+            fanout[ids[i * ID_BYTES] & 0xff]++;
+        }
+        for (int b = 1; b < 256; b++) {
+            fanout[b] += fanout[b - 1];
+        }
+    }
+
+    private ObjectIndex(int[] fanout, byte[] ids, byte[] types, long[] values) {
+        this.fanout = fanout;
+        this.ids = ids;
+        this.types = types;
+        this.values = values;
+        this.size = types.length;
+    }
+
+    /**
+     * Load the index from the given file.
+     *
+     * @param file the index file
+     * @return the index, or an empty index if the file does not exist
+     */
+    static ObjectIndex fromFile(File file) {
+        if (!file.exists()) {
+            return new ObjectIndex(new HashMap<String, Entry>());
+        }
+        // map the file and copy each table with one bulk get
+        try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+            ByteBuffer in = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            if (in.getInt() != MAGIC || in.getInt() != VERSION) {
+                throw Utils.error("Corrupted index file %s.", file.getName());
+            }
+            int count = in.getInt();
+            int[] fanout = new int[256];
+            in.asIntBuffer().get(fanout);
+            in.position(in.position() + 256 * 4);
+            byte[] ids = new byte[count * ID_BYTES];
+            in.get(ids);
+            byte[] types = new byte[count];
+            in.get(types);
+            long[] values = new long[count];
+            in.asLongBuffer().get(values);
+            return new ObjectIndex(fanout, ids, types, values);
+        } catch (IOException | BufferUnderflowException excp) {
+            throw Utils.error("Cannot read index file %s.", file.getName());
+        }
+    }
+
+    /**
+     * Save the index to the given file. The index is written to a temporary
+     * file first and then renamed, so readers never see a half written index.
+     * The file and its directory are synced before this returns, so the
+     * objects it indexes may be deleted from elsewhere right after.
+     *
+     * @param file the index file
+     */
+    void saveIndex(File file) throws IOException {
+        File tmp = new File(file.getPath() + ".tmp");
+        FileOutputStream fileOut = new FileOutputStream(tmp);
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(fileOut))) {
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            out.writeInt(size);
+            for (int b = 0; b < 256; b++) {
+                out.writeInt(fanout[b]);
+            }
+            out.write(ids);
+            out.write(types);
+            for (int i = 0; i < size; i++) {
+                out.writeLong(values[i]);
+            }
+            out.flush();
+            fileOut.getFD().sync();
+        }
+        Files.move(tmp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING,
+                StandardCopyOption.ATOMIC_MOVE);
+        Journal.sync(file.getParentFile());
+    }
+
+    /**
+     * Create a copy of this index with one more id, or with a new entry for
+     * an id already in the index. The id is inserted at its sorted position,
+     * so this costs a single pass over the index instead of sorting all ids
+     * again.
+     *
+     * @param id    the full hex id
+     * @param entry the entry of the id
+     * @return the new index
+     */
+    ObjectIndex withEntry(String id, Entry entry) {
+        byte[] raw = toRaw(id);
+        int pos = lowerBound(raw, ID_BYTES);
+        if (pos < size && compareAt(pos, raw, ID_BYTES) == 0) {
+            byte[] newTypes = types.clone();
+            long[] newValues = values.clone();
+            newTypes[pos] = entry.type;
+            newValues[pos] = entry.value;
+            return new ObjectIndex(fanout, ids, newTypes, newValues);
+        }
+
+        byte[] newIds = new byte[(size + 1) * ID_BYTES];
+        System.arraycopy(ids, 0, newIds, 0, pos * ID_BYTES);
+        System.arraycopy(raw, 0, newIds, pos * ID_BYTES, ID_BYTES);
+        System.arraycopy(ids, pos * ID_BYTES, newIds, (pos + 1) * ID_BYTES,
+                (size - pos) * ID_BYTES);
+
+        byte[] newTypes = new byte[size + 1];
+        System.arraycopy(types, 0, newTypes, 0, pos);
+        newTypes[pos] = entry.type;
+        System.arraycopy(types, pos, newTypes, pos + 1, size - pos);
+
+        long[] newValues = new long[size + 1];
+        System.arraycopy(values, 0, newValues, 0, pos);
+        newValues[pos] = entry.value;
+        System.arraycopy(values, pos, newValues, pos + 1, size - pos);
+
+        int[] newFanout = fanout.clone();
+        for (int b = raw[0] & 0xff; b < 256; b++) {
+            newFanout[b]++;
+        }
+        return new ObjectIndex(newFanout, newIds, newTypes, newValues);
+    }
+
+    /**
+     * Get the position of the given id.
+     *
+     * @param id the full hex id
+     * @return the position of id, or -1 if id is not in the index
+     */
+    int find(String id) {
+        if (!isFullId(id)) {
+            return -1;
+        }
+        byte[] raw = toRaw(id);
+        int lo = lowerBound(raw, ID_BYTES);
+        if (lo < size && compareAt(lo, raw, ID_BYTES) == 0) {
+            return lo;
+        }
+        return -1;
+    }
+
+    /**
+     * Check whether the index contains the given id.
+     *
+     * @param id the full hex id
+     * @return true if the index contains the id
+     */
+    boolean contains(String id) {
+        return find(id) >= 0;
+    }
+
+    /**
+     * Find all ids of the given type which start with the given hex prefix.
+     *
+     * @param prefix the hex prefix, at least 2 characters
+     * @param type   the type of the ids
+     * @return the matched ids in order
+     */
+    List<String> idsWithPrefix(String prefix, byte type) {
+        List<String> result = new ArrayList<String>();
+        if (prefix.length() < 2 || !isHex(prefix)) {
+            return result;
+        }
+        // compare the whole bytes of the prefix with binary search, and the
+        // trailing odd nibble (if any) while scanning
+        int evenLength = prefix.length() / 2;
+        byte[] raw = toRaw(prefix.substring(0, evenLength * 2));
+        for (int i = lowerBound(raw, evenLength); i < size; i++) {
+            if (compareAt(i, raw, evenLength) != 0) {
+                break;
+            }
+            String id = idAt(i);
+            if (types[i] == type && id.startsWith(prefix)) {
+                result.add(id);
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Get all ids of the given type.
+     *
+     * @param type the type of ids
+     * @return the ids in order
+     */
+    List<String> ids(byte type) {
+        List<String> result = new ArrayList<String>();
+        for (int i = 0; i < size; i++) {
+            if (types[i] == type) {
+                result.add(idAt(i));
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Get all entries of the index.
+     *
+     * @return the [id:entry] map
+     */
+    Map<String, Entry> entries() {
+        Map<String, Entry> entries = new HashMap<String, Entry>();
+        for (int i = 0; i < size; i++) {
+            entries.put(idAt(i), new Entry(types[i], values[i]));
+        }
+        return entries;
+    }
+
+    /**
+     * Get the hex id at the given position.
+     */
+    String idAt(int pos) {
+        return MyUtils.toHex(Arrays.copyOfRange(ids, pos * ID_BYTES, (pos + 1) * ID_BYTES));
+    }
+
+    /**
+     * Get the type at the given position.
+     */
+    byte typeAt(int pos) {
+        return types[pos];
+    }
+
+    /**
+     * Get the value at the given position.
+     */
+    long valueAt(int pos) {
+        return values[pos];
+    }
+
+    /**
+     * Get the number of ids in the index.
+     */
+    int size() {
+        return size;
+    }
+
+    /**
+     * Find the first position whose first LENGTH bytes are >= KEY.
+     */
+    private int lowerBound(byte[] key, int length) {
+        int first = key[0] & 0xff;
+        int lo = first == 0 ? 0 : fanout[first - 1];
+        int hi = fanout[first];
+        while (lo < hi) {
+            int mid = (lo + hi) >>> 1;
+            if (compareAt(mid, key, length) < 0) {
+                lo = mid + 1;
+            } else {
+                hi = mid;
+            }
+        }
+        return lo;
+    }
+
+    /**
+     * Compare the first LENGTH bytes of the id at POS with KEY.
+     */
+    private int compareAt(int pos, byte[] key, int length) {
+        int base = pos * ID_BYTES;
+        for (int k = 0; k < length; k++) {
+            int diff = (ids[base + k] & 0xff) - (key[k] & 0xff);
+            if (diff != 0) {
+                return diff;
+            }
+        }
+        return 0;
+    }
+
+    /**
+     * Check whether the id is a full 40-digit hex SHA-1.
+     */
+    static boolean isFullId(String id) {
+        return id != null && id.length() == Utils.UID_LENGTH && isHex(id);
+    }
+
+    static boolean isHex(String s) {
+        for (int i = 0; i < s.length(); i++) {
+            if (Character.digit(s.charAt(i), 16) < 0) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Convert an even length hex string to raw bytes.
+     */
+    static byte[] toRaw(String hex) {
+        byte[] raw = new byte[hex.length() / 2];
+        for (int k = 0; k < raw.length; k++) {
+            raw[k] = (byte) Integer.parseInt(hex.substring(2 * k, 2 * k + 2), 16);
+        }
+        return raw;
+    }
+
+    /**
+     * Represent the type and value of an indexed id.
+     */
+    static class Entry {
+        /** The object type */
+        final byte type;
+        /** The value, e.g. the offset in a pack */
+        final long value;
+
+        Entry(byte type, long value) {
+            this.type = type;
+            this.value = value;
+        }
+    }
+}
@@ -38,6 +38,31 @@ public class ObjectTest {
         file.delete();
     }
 
+    @Test
+    /** Test a Blob larger than one chunk is streamed back unchanged */
+    public void testBlobWriteTo() throws IOException {
+        StringBuilder sb = new StringBuilder();
+        for (int i = 0; i < 50000; i++) {
+            sb.append("line ").append(i).append("\n");
+        }
+        String contents = sb.toString();
+        File file = new File("test.txt");
+        writeContents(file, contents);
+
+        Blob blob = new Blob(file);
+        blob.saveBlob();
+        assertEquals("Should be the same", Blob.idOf(file), blob.getId());
+
+        file.delete();
+        Blob blob2 = Blob.fromFile(blob.getId());
+        assertEquals("Should be the same", "test.txt", blob2.getFileName());
+        assertEquals("Should be the same", contents.length(), blob2.getSize());
+        blob2.writeTo(file);
+        assertEquals("Should be the same", contents, Utils.readContentsAsString(file));
+
+        file.delete();
+    }
+
     @Test
     /** Test file creation, fromFile, saveCommit, getId and getMessage */
     public void testCommitSimple() throws IOException {
@@ -252,4 +277,205 @@ public class ObjectTest {
             file.delete();
         }
     }
+
+    @Test
+    /** Test the stat cache of Stage gives the ids of the current contents */
+    public void testStageStatCache() throws IOException {
+        File file = new File("test.txt");
+        writeContents(file, "Hello, world!\n");
+
+        Stage stage = new Stage();
+        stage.saveStage();
+        stage = Stage.fromFile();
+        assertEquals("Should be the same", new Blob(file).getId(), stage.blobIdOf(file));
+        assertTrue("Should be changed", stage.isStatCacheChanged());
+        stage.saveStage();
+
+        // unchanged file, the cached id is used
+        stage = Stage.fromFile();
+        assertEquals("Should be the same", new Blob(file).getId(), stage.blobIdOf(file));
+
+        // modified file, the file is hashed again
+        writeContents(file, "Hello, gitlet!\n Hello, java!\n");
+        assertEquals("Should be the same", new Blob(file).getId(), stage.blobIdOf(file));
+
+        file.delete();
+    }
+
+    @Test
+    /** Test prefix lookups in an ObjectIndex, before and after an insertion */
+    public void testObjectIndexPrefix() {
+        String id1 = "abcd" + "0".repeat(36);
+        String id2 = "abcd" + "1".repeat(36);
+        String id3 = "ff" + "2".repeat(38);
+        Map<String, ObjectIndex.Entry> entries = new HashMap<String, ObjectIndex.Entry>();
+        entries.put(id3, new ObjectIndex.Entry(Pack.COMMIT, 0));
+        entries.put(id1, new ObjectIndex.Entry(Pack.COMMIT, 0));
+        ObjectIndex index = new ObjectIndex(entries);
+
+        assertEquals("Should be the same", List.of(id1), index.idsWithPrefix("abcd", Pack.COMMIT));
+        assertEquals("Should be the same", List.of(id3), index.idsWithPrefix("ff2", Pack.COMMIT));
+
+        // the new id is inserted in order, and makes the prefix ambiguous
+        index = index.withEntry(id2, new ObjectIndex.Entry(Pack.COMMIT, 0));
+        assertEquals("Should be the same", List.of(id1, id2),
+                index.idsWithPrefix("abcd", Pack.COMMIT));
+        assertEquals("Should be the same", List.of(id2), index.idsWithPrefix("abcd1", Pack.COMMIT));
+        assertEquals("Should be the same", List.of(id1, id2, id3), index.ids(Pack.COMMIT));
+        assertTrue("Should be found", index.contains(id3));
+    }
+
+    @Test
+    /** Test Tree changes share unchanged subtrees and keep a canonical shape */
+    public void testTree() throws IOException {
+        Map<String, String> files = new HashMap<String, String>();
+        for (int i = 0; i < 1000; i++) {
+            files.put("file" + i, "blob" + i);
+        }
+        Tree tree = Tree.fromMap(files);
+        tree.save();
+        Set<String> savedTrees = new HashSet<String>(
+                Utils.plainFilenamesIn(Repository.TREES_DIR));
+
+        // modify one file, add one and remove one
+        files.put("file1", "blob1'");
+        files.put("new", "blob");
+        files.remove("file2");
+        Tree newTree = Tree.fromFile(tree.getId()).withChanges(
+                Map.of("file1", "blob1'", "new", "blob"), Set.of("file2"));
+        assertEquals("Should be the same", Tree.fromMap(files).getId(), newTree.getId());
+        assertEquals("Should be the same", files, newTree.toMap());
+        assertEquals("Should be the same", "blob1'", newTree.get("file1"));
+        assertEquals("Should be the same", null, newTree.get("file2"));
+        assertEquals("Should be the same", Set.of("file1", "file2", "new"),
+                tree.changedFileNames(newTree));
+
+        // only the nodes along the changed paths are written
+        newTree.save();
+        Set<String> newTrees = new HashSet<String>(
+                Utils.plainFilenamesIn(Repository.TREES_DIR));
+        newTrees.removeAll(savedTrees);
+        assertTrue("Should be small", newTrees.size() < 20);
+        assertEquals("Should be the same", files, Tree.fromFile(newTree.getId()).toMap());
+
+        // removing most files collapses the tree back into a leaf
+        Set<String> removed = new HashSet<String>(files.keySet());
+        removed.remove("new");
+        Tree small = newTree.withChanges(new HashMap<String, String>(), removed);
+        assertEquals("Should be the same", Tree.fromMap(Map.of("new", "blob")).getId(),
+                small.getId());
+    }
+
+    @Test
+    /** Test Diff3 merges separate changes and marks only overlapping ones */
+    public void testDiff3() {
+        String base = "1\n2\n3\n4\n5\n6\n7\n";
+        String cur = "1\ntwo\n3\n4\n5\nsix\n7\n";
+        String other = "1\n2\n3\nfour\n5\nSIX\n7\n8\n";
+
+        Diff3.Result result = Diff3.merge(base, cur, other);
+        assertTrue("Should conflict", result.hasConflicts());
+        assertEquals("Should be the same", "1\ntwo\n3\nfour\n5\n"
+                + "<<<<<<< HEAD\nsix\n=======\nSIX\n>>>>>>>\n7\n8\n", result.getContents());
+
+        // the same change on both sides is not a conflict
+        result = Diff3.merge(base, cur, cur);
+        assertEquals("Should be the same", cur, result.getContents());
+        assertTrue("Should not conflict", !result.hasConflicts());
+    }
+
+    @Test
+    /** Test the ObjectCache evicts the least recently used objects by size */
+    public void testObjectCache() {
+        ObjectCache.clear();
+        ObjectCache.setCapacity(100);
+        try {
+            ObjectCache.put("a", "A", 40);
+            ObjectCache.put("b", "B", 40);
+            // touch a, so b is the least recently used
+            assertEquals("Should be the same", "A", ObjectCache.get("a", String.class));
+            ObjectCache.put("c", "C", 40);
+            assertEquals("Should be evicted", null, ObjectCache.get("b", String.class));
+            assertEquals("Should be the same", "A", ObjectCache.get("a", String.class));
+            assertEquals("Should be the same", "C", ObjectCache.get("c", String.class));
+            assertEquals("Should be the same", 80, ObjectCache.size());
+
+            // objects larger than the cache are not cached
+            ObjectCache.put("d", "D", 200);
+            assertEquals("Should not be cached", null, ObjectCache.get("d", String.class));
+            assertEquals("Should not be the type", null, ObjectCache.get("a", Integer.class));
+        } finally {
+            ObjectCache.setCapacity(ObjectCache.DEFAULT_CAPACITY);
+            ObjectCache.clear();
+        }
+    }
+
+    @Test
+    /** Test Commit, Stage, Branch and Head round trip through the Codec */
+    public void testCodec() throws IOException {
+        Commit commit = new Commit("codec", List.of("commit_id0", Utils.sha1("parent")),
+                Tree.empty());
+        Commit decoded = Commit.decode(commit.encode());
+        assertEquals("Should be the same", commit.getId(), decoded.getId());
+        assertEquals("Should be the same", commit.getParentIds(), decoded.getParentIds());
+        assertEquals("Should be the same", commit.getMessage(), decoded.getMessage());
+        assertEquals("Should be the same", commit.getTime(), decoded.getTime());
+        assertTrue("Should be the same", Arrays.equals(commit.encode(), decoded.encode()));
+        // a Java-serialized commit is still read
+        assertEquals("Should be the same", commit.getId(),
+                Commit.decode(Utils.serialize(commit)).getId());
+
+        File file = new File("test.txt");
+        writeContents(file, "Hello, codec!\n");
+        Stage stage = new Stage();
+        stage.addFile(file);
+        Stage decodedStage = Stage.decode(stage.encode());
+        assertEquals("Should be the same", stage.getAddedFiles(), decodedStage.getAddedFiles());
+        assertEquals("Should be the same", stage.blobIdOf(file), decodedStage.blobIdOf(file));
+        file.delete();
+
+        Branch branch = Branch.decode(new Branch("dev", "123").encode());
+        assertEquals("Should be the same", "dev", branch.getBranchName());
+        assertEquals("Should be the same", "123", branch.getCommitId());
+        assertEquals("Should be the same", "dev", Head.decode(new Head("dev").encode())
+                .getBranchName());
+    }
+
+    @Test
+    /** Test a large Blob is chunked, and an edit only stores new chunks around it */
+    public void testChunkedBlob() throws IOException {
+        byte[] contents = new byte[3 * 1024 * 1024];
+        new Random(61).nextBytes(contents);
+        File file = new File("big.bin");
+        writeContents(file, contents);
+        Blob blob = new Blob(file);
+        blob.saveBlob();
+        assertTrue("Should be chunked", Blob.fromFile(blob.getId()).isChunked());
+        int chunks = countFiles(Repository.CHUNKS_DIR);
+
+        // insert a few bytes in the middle, shifting the rest of the file
+        byte[] edited = new byte[contents.length + 10];
+        System.arraycopy(contents, 0, edited, 0, 1000000);
+        System.arraycopy(contents, 1000000, edited, 1000010, contents.length - 1000000);
+        writeContents(file, edited);
+        Blob editedBlob = new Blob(file);
+        editedBlob.saveBlob();
+        assertTrue("Should share chunks", countFiles(Repository.CHUNKS_DIR) - chunks <= 3);
+
+        file.delete();
+        Blob.fromFile(editedBlob.getId()).writeTo(file);
+        assertTrue("Should be the same", Arrays.equals(edited, Utils.readContents(file)));
+        assertTrue("Should be the same", Arrays.equals(contents,
+                Blob.fromFile(blob.getId()).getContents()));
+        file.delete();
+    }
+
+    private static int countFiles(File dir) {
+        int count = 0;
+        File[] files = dir.listFiles();
+        for (File file : files == null ? new File[0] : files) {
+            count += file.isDirectory() ? countFiles(file) : 1;
+        }
+        return count;
+    }
 }
@@ -0,0 +1,264 @@
+package gitlet;
+
+import java.io.*;
+import java.util.*;
+
+/**
+ * A sorted index (see {@link ObjectIndex}) with an append-only overflow file
+ * of the entries added since the index was last written. Adding an entry
+ * appends one small record instead of rewriting the whole index. The
+ * overflow is merged into the index once it grows past a fraction of the
+ * index, so the rewrites cost O(1) per entry on average, or on `gc`.
+ *
+ * Entries of the overflow take precedence over those of the index. A torn
+ * record at the end of the overflow, left by an interrupted append, is
+ * ignored on load and cut off by the next append.
+ *
+ * Overflow format:
+ * record*, where a record is
+ * id (20 bytes) | type (byte) | value (long)
+ */
+class OverflowIndex {
+    /** The length of an overflow record */
+    private static final int RECORD_BYTES = ObjectIndex.ID_BYTES + 1 + 8;
+    /** The minimal number of overflow entries before they are merged */
+    private static final int MIN_MERGE_ENTRIES = 256;
+
+    /** The index file */
+    private final File file;
+    /** The overflow file */
+    private final File overflowFile;
+
+    /** The cached index */
+    private ObjectIndex index;
+    /** The modification stamp of the cached index */
+    private String indexStamp;
+    /** The cached [id:entry] map of the overflow */
+    private TreeMap<String, ObjectIndex.Entry> overflow;
+    /** The modification stamp of the cached overflow */
+    private String overflowStamp;
+    /** The length of the overflow up to the end of the last complete record */
+    private long overflowLength;
+    /** The entries added but not saved yet */
+    private final ByteArrayOutputStream pending = new ByteArrayOutputStream();
+
+    /**
+     * Create an index backed by the given files.
+     *
+     * @param file         the index file
+     * @param overflowFile the overflow file
+     */
+    OverflowIndex(File file, File overflowFile) {
+        this.file = file;
+        this.overflowFile = overflowFile;
+    }
+
+    /**
+     * Check whether the index file exists.
+     *
+     * @return true if the index file exists
+     */
+    boolean exists() {
+        return file.exists();
+    }
+
+    /**
+     * Get the entry of the given id.
+     *
+     * @param id the full hex id
+     * @return the entry, or null if id is not in the index
+     */
+    ObjectIndex.Entry get(String id) {
+        ObjectIndex.Entry entry = overflow().get(id);
+        if (entry != null) {
+            return entry;
+        }
+        ObjectIndex current = index();
+        int pos = current.find(id);
+        return pos < 0 ? null : new ObjectIndex.Entry(current.typeAt(pos), current.valueAt(pos));
+    }
+
+    /**
+     * Check whether the index contains the given id.
+     *
+     * @param id the full hex id
+     * @return true if the index contains the id
+     */
+    boolean contains(String id) {
+        return overflow().containsKey(id) || index().contains(id);
+    }
+
+    /**
+     * Find all ids of the given type which start with the given hex prefix.
+     *
+     * @param prefix the hex prefix, at least 2 characters
+     * @param type   the type of the ids
+     * @return the matched ids in order
+     */
+    List<String> idsWithPrefix(String prefix, byte type) {
+        List<String> ids = index().idsWithPrefix(prefix, type);
+        TreeMap<String, ObjectIndex.Entry> entries = overflow();
+        if (entries.isEmpty() || prefix.length() < 2) {
+            return ids;
+        }
+        SortedSet<String> result = new TreeSet<String>(ids);
+        for (Map.Entry<String, ObjectIndex.Entry> entry
+                : entries.tailMap(prefix, true).entrySet()) {
+            if (!entry.getKey().startsWith(prefix)) {
+                break;
+            }
+            if (entry.getValue().type == type) {
+                result.add(entry.getKey());
+            } else {
+                result.remove(entry.getKey());
+            }
+        }
+        return new ArrayList<String>(result);
+    }
+
+    /**
+     * Get all ids of the given type.
+     *
+     * @param type the type of ids
+     * @return the ids in order
+     */
+    List<String> ids(byte type) {
+        List<String> ids = index().ids(type);
+        TreeMap<String, ObjectIndex.Entry> entries = overflow();
+        if (entries.isEmpty()) {
+            return ids;
+        }
+        SortedSet<String> result = new TreeSet<String>(ids);
+        for (Map.Entry<String, ObjectIndex.Entry> entry : entries.entrySet()) {
+            if (entry.getValue().type == type) {
+                result.add(entry.getKey());
+            } else {
+                result.remove(entry.getKey());
+            }
+        }
+        return new ArrayList<String>(result);
+    }
+
+    /**
+     * Add or replace the entry of the id. The entry is visible at once, and
+     * written to the overflow by {@link #save}.
+     *
+     * @param id    the full hex id
+     * @param entry the entry of the id
+     */
+    void put(String id, ObjectIndex.Entry entry) {
+        overflow().put(id, entry);
+        try {
+            DataOutputStream out = new DataOutputStream(pending);
+            out.write(ObjectIndex.toRaw(id));
+            out.writeByte(entry.type);
+            out.writeLong(entry.value);
+        } catch (IOException excp) {
+            throw Utils.error("Cannot write index file %s.", file.getName());
+        }
+    }
+
+    /**
+     * Append the added entries to the overflow, or merge them all into the
+     * index if the overflow has grown too large.
+     */
+    void save() throws IOException {
+        if (pending.size() == 0) {
+            return;
+        }
+        if (overflow().size() > Math.max(MIN_MERGE_ENTRIES, index().size() / 8)) {
+            merge();
+            return;
+        }
+        if (!overflowFile.exists()) {
+            overflowFile.getParentFile().mkdirs();
+        } else if (overflowFile.length() != overflowLength) {
+            Journal.truncate(overflowFile, overflowLength);
+        }
+        Journal.append(overflowFile, pending.toByteArray());
+        overflowLength += pending.size();
+        pending.reset();
+        overflowStamp = stampOf(overflowFile);
+    }
+
+    /**
+     * Merge the overflow into the index, and delete the overflow.
+     */
+    void merge() throws IOException {
+        TreeMap<String, ObjectIndex.Entry> entries = overflow();
+        if (entries.isEmpty()) {
+            return;
+        }
+        Map<String, ObjectIndex.Entry> merged = index().entries();
+        merged.putAll(entries);
+        replace(new ObjectIndex(merged));
+    }
+
+    /**
+     * Replace the whole index, e.g. when it is rebuilt, and delete the
+     * overflow.
+     *
+     * @param newIndex the new index
+     */
+    void replace(ObjectIndex newIndex) throws IOException {
+        file.getParentFile().mkdirs();
+        // the index is written before the overflow is deleted, so a crash in
+        // between only leaves entries which are in both
+        newIndex.saveIndex(file);
+        Journal.delete(overflowFile);
+        index = newIndex;
+        indexStamp = stampOf(file);
+        overflow = new TreeMap<String, ObjectIndex.Entry>();
+        overflowStamp = stampOf(overflowFile);
+        overflowLength = 0;
+        pending.reset();
+    }
+
+    /**
+     * Get the index, reloading it if the index file has changed.
+     */
+    private ObjectIndex index() {
+        String stamp = stampOf(file);
+        if (index == null || !stamp.equals(indexStamp)) {
+            index = ObjectIndex.fromFile(file);
+            indexStamp = stamp;
+        }
+        return index;
+    }
+
+    /**
+     * Get the overflow entries, reloading them if the overflow file has
+     * changed. Entries added but not saved are dropped on reload.
+     */
+    private TreeMap<String, ObjectIndex.Entry> overflow() {
+        String stamp = stampOf(overflowFile);
+        if (overflow != null && stamp.equals(overflowStamp)) {
+            return overflow;
+        }
+        overflow = new TreeMap<String, ObjectIndex.Entry>();
+        overflowLength = 0;
+        pending.reset();
+        if (overflowFile.exists()) {
+            byte[] records = Utils.readContents(overflowFile);
+            DataInputStream in = new DataInputStream(new ByteArrayInputStream(records));
+            byte[] raw = new byte[ObjectIndex.ID_BYTES];
+            try {
+                for (int k = 0; k < records.length / RECORD_BYTES; k++) {
+                    in.readFully(raw);
+                    byte type = in.readByte();
+                    long value = in.readLong();
+                    overflow.put(MyUtils.toHex(raw), new ObjectIndex.Entry(type, value));
+                }
+            } catch (IOException excp) {
+                throw Utils.error("Cannot read index file %s.", overflowFile.getName());
+            }
+            overflowLength = records.length / RECORD_BYTES * RECORD_BYTES;
+        }
+        overflowStamp = stamp;
+        return overflow;
+    }
+
+    private static String stampOf(File file) {
+        return file.exists() ? file.lastModified() + ":" + file.length() : "";
+    }
+}
@@ -0,0 +1,633 @@
+package gitlet;
+
+import static gitlet.Utils.join;
+import static gitlet.Utils.plainFilenamesIn;
+import static gitlet.Utils.readContents;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.*;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+/**
+ * Represents the packed object store.
+ * `gitlet gc` rolls the loose objects under .gitlet/objects into one
+ * append-only pack file and rewrites the sorted index of the pack, so the
+ * objects no longer cost a file (and a directory lookup) each. Successive
+ * versions of a file are stored as deltas against the previous version.
+ *
+ * Pack format:
+ * magic (4 bytes) | version (int) | entry*
+ * where an entry is
+ * type (byte) | encoding (byte) | [base offset (long), if delta]
+ * | raw length (int) | deflated length (int) | deflated bytes
+ */
+public class Pack {
+    /** The type of commit objects */
+    static final byte COMMIT = 1;
+    /** The type of blob objects */
+    static final byte BLOB = 2;
+    /** The type of tree objects */
+    static final byte TREE = 3;
+
+    /** The magic number of a pack file */
+    private static final int MAGIC = 0x4750414b; // "GPAK"
+    /** The version of the pack format */
+    private static final int VERSION = 1;
+    /** The encoding of an entry stored as a whole */
+    private static final byte FULL = 0;
+    /** The encoding of an entry stored as a delta against another entry */
+    private static final byte DELTA = 1;
+    /** The maximum length of a delta chain, which bounds the cost of a read */
+    private static final int MAX_DEPTH = 16;
+    /** Blobs larger than this stay loose, so gc never holds them in memory */
+    static final long MAX_PACKED_BLOB_SIZE = 32 * 1024 * 1024;
+
+    /** The cached index of the pack */
+    private static ObjectIndex index;
+    /** The modification stamp of the cached index */
+    private static String indexStamp;
+    /** The cached mapping of the pack file, null if it is too large to map */
+    private static ByteBuffer mapped;
+    /** The modification stamp of the cached mapping */
+    private static String mappedStamp;
+
+    /**
+     * Check if the pack contains the object with the given id.
+     *
+     * @param id the object id
+     * @return true if the object is packed
+     */
+    public static boolean contains(String id) {
+        return index().contains(id);
+    }
+
+    /**
+     * Read the raw bytes of a packed object: the contents of the loose object
+     * file for commits and trees, and the uncompressed blob for blobs.
+     *
+     * @param id the object id
+     * @return the raw bytes, or null if the object is not packed
+     */
+    public static byte[] read(String id) {
+        int pos = index().find(id);
+        if (pos < 0) {
+            return null;
+        }
+        ByteBuffer pack = mapped();
+        if (pack == null) {
+            return readUnmapped(id);
+        }
+        return readEntry(pack, index().valueAt(pos));
+    }
+
+    /**
+     * Open a stream over the raw bytes of a packed object. An entry stored
+     * as a whole is inflated straight from the mapped pack as the stream is
+     * read, so e.g. reading the header of a blob does not inflate the
+     * contents.
+     *
+     * @param id the object id
+     * @return the stream, or null if the object is not packed
+     */
+    public static InputStream open(String id) {
+        int pos = index().find(id);
+        if (pos < 0) {
+            return null;
+        }
+        ByteBuffer pack = mapped();
+        if (pack == null) {
+            return new ByteArrayInputStream(readUnmapped(id));
+        }
+        int offset = (int) index().valueAt(pos);
+        if (pack.get(offset + 1) == DELTA) {
+            return new ByteArrayInputStream(readEntry(pack, offset));
+        }
+        int deflatedLength = pack.getInt(offset + 6);
+        ByteBuffer deflated = pack.duplicate();
+        deflated.position(offset + 10).limit(offset + 10 + deflatedLength);
+        return new EntryInputStream(deflated);
+    }
+
+    /**
+     * Read the raw bytes of a packed object with file reads instead of the
+     * mapping, for packs too large to map.
+     *
+     * @param id the object id
+     * @return the raw bytes, or null if the object is not packed
+     */
+    static byte[] readUnmapped(String id) {
+        int pos = index().find(id);
+        if (pos < 0) {
+            return null;
+        }
+        try (RandomAccessFile pack = new RandomAccessFile(Repository.PACK_FILE, "r")) {
+            return readEntry(pack, index().valueAt(pos));
+        } catch (IOException excp) {
+            throw Utils.error("Cannot read pack: %s", excp.getMessage());
+        }
+    }
+
+    /**
+     * Find the ids of packed commits with the given prefix.
+     *
+     * @param prefix the id prefix
+     * @return the matched commit ids
+     */
+    public static List<String> commitIdsWithPrefix(String prefix) {
+        return index().idsWithPrefix(prefix, COMMIT);
+    }
+
+    /**
+     * Get the ids of all packed commits.
+     *
+     * @return the packed commit ids
+     */
+    public static List<String> commitIds() {
+        return index().ids(COMMIT);
+    }
+
+    /**
+     * Move all loose objects into the pack, then rewrite the index and delete
+     * the loose files.
+     *
+     * @return the number of packed objects
+     */
+    public static int repack() throws IOException {
+        Map<String, ObjectIndex.Entry> entries = index().entries();
+        List<String> commitIds = looseCommitIds();
+        List<String> treeIds = looseTreeIds();
+        List<File> blobFiles = looseBlobFiles();
+        if (commitIds.isEmpty() && treeIds.isEmpty() && blobFiles.isEmpty()) {
+            return 0;
+        }
+
+        Repository.PACK_DIR.mkdirs();
+        boolean newPack = !Repository.PACK_FILE.exists();
+        long offset = newPack ? 0 : Repository.PACK_FILE.length();
+        FileOutputStream fileOut = new FileOutputStream(Repository.PACK_FILE, true);
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(fileOut))) {
+            if (newPack) {
+                out.writeInt(MAGIC);
+                out.writeInt(VERSION);
+                offset += 8;
+            }
+
+            for (String id : commitIds) {
+                if (entries.containsKey(id)) {
+                    continue;
+                }
+                byte[] raw = readContents(join(Repository.OBJECTS_DIR, id));
+                entries.put(id, new ObjectIndex.Entry(COMMIT, offset));
+                offset += writeEntry(out, COMMIT, -1, raw);
+            }
+
+            for (String id : treeIds) {
+                if (entries.containsKey(id)) {
+                    continue;
+                }
+                byte[] raw = readContents(join(Repository.TREES_DIR, id));
+                entries.put(id, new ObjectIndex.Entry(TREE, offset));
+                offset += writeEntry(out, TREE, -1, raw);
+            }
+
+            // deltify successive versions of the same file against each other
+            Map<Long, Integer> depths = new HashMap<Long, Integer>();
+            for (List<File> versions : blobVersions(blobFiles, entries.keySet()).values()) {
+                byte[] prevRaw = null;
+                long prevOffset = -1;
+                for (File file : versions) {
+                    byte[] raw = Blob.readUncompressed(file);
+                    int depth = 0;
+                    long base = -1;
+                    byte[] data = raw;
+                    if (prevRaw != null && depths.get(prevOffset) < MAX_DEPTH) {
+                        byte[] delta = Delta.create(prevRaw, raw);
+                        if (delta.length < raw.length / 2) {
+                            base = prevOffset;
+                            data = delta;
+                            depth = depths.get(prevOffset) + 1;
+                        }
+                    }
+                    entries.put(looseBlobId(file), new ObjectIndex.Entry(BLOB, offset));
+                    depths.put(offset, depth);
+                    prevOffset = offset;
+                    prevRaw = raw;
+                    offset += writeEntry(out, BLOB, base, data);
+                }
+            }
+
+            out.flush();
+            fileOut.getFD().sync();
+        }
+
+        // the objects stay loose until the new index is durably in place
+        new ObjectIndex(entries).saveIndex(Repository.PACK_INDEX_FILE);
+        for (String id : commitIds) {
+            join(Repository.OBJECTS_DIR, id).delete();
+        }
+        for (String id : treeIds) {
+            join(Repository.TREES_DIR, id).delete();
+        }
+        int packed = commitIds.size() + treeIds.size();
+        for (File file : blobFiles) {
+            if (!entries.containsKey(looseBlobId(file))) {
+                continue; // too large to pack
+            }
+            File dir = file.getParentFile();
+            file.delete();
+            dir.delete(); // only succeeds once the directory is empty
+            packed++;
+        }
+
+        return packed;
+    }
+
+    /**
+     * Get the index of the pack, reloading it if the index file has changed.
+     */
+    private static ObjectIndex index() {
+        File file = Repository.PACK_INDEX_FILE;
+        String stamp = file.exists() ? file.lastModified() + ":" + file.length() : "";
+        if (index == null || !stamp.equals(indexStamp)) {
+            index = ObjectIndex.fromFile(file);
+            indexStamp = stamp;
+        }
+        return index;
+    }
+
+    /**
+     * Get the mapping of the pack, remapping it if the pack has changed.
+     *
+     * @return the read-only mapping, or null if the pack is larger than a
+     *         mapping can be
+     */
+    private static ByteBuffer mapped() {
+        File file = Repository.PACK_FILE;
+        String stamp = file.lastModified() + ":" + file.length();
+        if (!stamp.equals(mappedStamp)) {
+            mapped = null;
+            if (file.length() <= Integer.MAX_VALUE) {
+                try (FileChannel channel = FileChannel.open(file.toPath(),
+                        StandardOpenOption.READ)) {
+                    mapped = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+                } catch (IOException excp) {
+                    throw Utils.error("Cannot read pack: %s", excp.getMessage());
+                }
+            }
+            mappedStamp = stamp;
+        }
+        return mapped;
+    }
+
+    /**
+     * Write one entry to the pack.
+     *
+     * @return the number of bytes written
+     */
+    private static int writeEntry(DataOutputStream out, byte type, long base, byte[] data)
+            throws IOException {
+        byte[] deflated = deflate(data);
+        out.writeByte(type);
+        out.writeByte(base < 0 ? FULL : DELTA);
+        int headerLength = 10;
+        if (base >= 0) {
+            out.writeLong(base);
+            headerLength += 8;
+        }
+        out.writeInt(data.length);
+        out.writeInt(deflated.length);
+        out.write(deflated);
+        return headerLength + deflated.length;
+    }
+
+    /**
+     * Read the entry at the given offset, resolving deltas.
+     */
+    private static byte[] readEntry(RandomAccessFile pack, long offset) throws IOException {
+        pack.seek(offset);
+        pack.readByte(); // type
+        byte encoding = pack.readByte();
+        long base = encoding == DELTA ? pack.readLong() : -1;
+        int rawLength = pack.readInt();
+        byte[] deflated = new byte[pack.readInt()];
+        pack.readFully(deflated);
+        byte[] data = inflate(deflated, rawLength);
+
+        if (base < 0) {
+            return data;
+        }
+        return Delta.apply(readEntry(pack, base), data);
+    }
+
+    /**
+     * Read the entry at the given offset of the mapped pack, resolving
+     * deltas. The entry header is parsed in place, and the deflated bytes
+     * are inflated straight from the mapping.
+     */
+    private static byte[] readEntry(ByteBuffer pack, long offset) {
+        int pos = (int) offset;
+        byte encoding = pack.get(pos + 1);
+        long base = -1;
+        pos += 2;
+        if (encoding == DELTA) {
+            base = pack.getLong(pos);
+            pos += 8;
+        }
+        int rawLength = pack.getInt(pos);
+        int deflatedLength = pack.getInt(pos + 4);
+        pos += 8;
+        ByteBuffer deflated = pack.duplicate();
+        deflated.position(pos).limit(pos + deflatedLength);
+
+        Inflater inflater = new Inflater();
+        inflater.setInput(deflated);
+        byte[] data = inflate(inflater, rawLength);
+        if (base < 0) {
+            return data;
+        }
+        return Delta.apply(readEntry(pack, base), data);
+    }
+
+    private static byte[] deflate(byte[] data) {
+        Deflater deflater = new Deflater();
+        deflater.setInput(data);
+        deflater.finish();
+        ByteArrayOutputStream out = new ByteArrayOutputStream(data.length / 2 + 16);
+        byte[] buffer = new byte[8192];
+        while (!deflater.finished()) {
+            out.write(buffer, 0, deflater.deflate(buffer));
+        }
+        deflater.end();
+        return out.toByteArray();
+    }
+
+    private static byte[] inflate(byte[] deflated, int rawLength) {
+        Inflater inflater = new Inflater();
+        inflater.setInput(deflated);
+        return inflate(inflater, rawLength);
+    }
+
+    private static byte[] inflate(Inflater inflater, int rawLength) {
+        byte[] data = new byte[rawLength];
+        try {
+            int n = 0;
+            while (n < rawLength && !inflater.finished()) {
+                n += inflater.inflate(data, n, rawLength - n);
+            }
+        } catch (DataFormatException excp) {
+            throw Utils.error("Corrupted pack entry.");
+        } finally {
+            inflater.end();
+        }
+        return data;
+    }
+
+    /**
+     * Group the loose blobs which are not packed yet by file name, each group
+     * ordered from the oldest version to the newest one.
+     */
+    private static Map<String, List<File>> blobVersions(List<File> blobFiles,
+            Set<String> packedIds) {
+        Map<String, List<File>> versions = new TreeMap<String, List<File>>();
+        for (File file : blobFiles) {
+            if (packedIds.contains(looseBlobId(file))) {
+                continue;
+            }
+            Blob blob = Blob.fromObjectFile(file);
+            // chunked blobs stay loose, their chunks are shared already
+            if (blob.getSize() > MAX_PACKED_BLOB_SIZE || blob.isChunked()) {
+                continue;
+            }
+            versions.computeIfAbsent(blob.getFileName(), k -> new ArrayList<File>()).add(file);
+        }
+        for (List<File> group : versions.values()) {
+            group.sort(Comparator.comparingLong(File::lastModified)
+                    .thenComparing(File::getName));
+        }
+        return versions;
+    }
+
+    /**
+     * Get the id of a loose blob from its path OBJECTS_DIR/id[0:2]/id[2:].
+     */
+    private static String looseBlobId(File file) {
+        return file.getParentFile().getName() + file.getName();
+    }
+
+    /**
+     * Find all loose commit ids, which are stored directly under OBJECTS_DIR.
+     */
+    static List<String> looseCommitIds() {
+        List<String> ids = new ArrayList<String>();
+        for (String name : plainFilenamesIn(Repository.OBJECTS_DIR)) {
+            if (ObjectIndex.isFullId(name)) {
+                ids.add(name);
+            }
+        }
+        return ids;
+    }
+
+    /**
+     * Find all loose tree ids, which are stored under TREES_DIR.
+     */
+    private static List<String> looseTreeIds() {
+        List<String> ids = new ArrayList<String>();
+        List<String> names = plainFilenamesIn(Repository.TREES_DIR);
+        if (names == null) {
+            return ids;
+        }
+        for (String name : names) {
+            if (ObjectIndex.isFullId(name)) {
+                ids.add(name);
+            }
+        }
+        return ids;
+    }
+
+    /**
+     * Find all loose blob files, which are stored under OBJECTS_DIR/id[0:2].
+     */
+    private static List<File> looseBlobFiles() {
+        List<File> files = new ArrayList<File>();
+        File[] dirs = Repository.OBJECTS_DIR.listFiles(File::isDirectory);
+        if (dirs == null) {
+            return files;
+        }
+        Arrays.sort(dirs);
+        for (File dir : dirs) {
+            if (dir.getName().length() != 2) {
+                continue;
+            }
+            for (String name : plainFilenamesIn(dir)) {
+                if (ObjectIndex.isFullId(dir.getName() + name)) {
+                    files.add(join(dir, name));
+                }
+            }
+        }
+        return files;
+    }
+
+    /**
+     * Reads the packed objects of any repository, e.g. a remote, with file
+     * reads. The pack of this repository is read through {@link #read}.
+     */
+    static class Reader implements Closeable {
+        /** The index of the pack */
+        private final ObjectIndex index;
+        /** The pack file, null if there is no pack */
+        private final RandomAccessFile pack;
+
+        /**
+         * Open the pack with the given files.
+         *
+         * @param packFile  the pack file
+         * @param indexFile the index of the pack
+         */
+        Reader(File packFile, File indexFile) throws IOException {
+            this.index = ObjectIndex.fromFile(indexFile);
+            this.pack = packFile.exists() ? new RandomAccessFile(packFile, "r") : null;
+        }
+
+        boolean contains(String id) {
+            return pack != null && index.contains(id);
+        }
+
+        /**
+         * Read the raw bytes of a packed object.
+         *
+         * @return the raw bytes, or null if the object is not packed
+         */
+        byte[] read(String id) throws IOException {
+            int pos = index.find(id);
+            if (pos < 0 || pack == null) {
+                return null;
+            }
+            return readEntry(pack, index.valueAt(pos));
+        }
+
+        @Override
+        public void close() throws IOException {
+            if (pack != null) {
+                pack.close();
+            }
+        }
+    }
+
+    /**
+     * Appends objects to the pack of any repository as whole entries. The
+     * objects become visible once the extended index is saved by
+     * {@link #finish}, so an interrupted writer leaves only unreferenced
+     * bytes at the end of the pack.
+     */
+    static class Writer implements Closeable {
+        /** The index of the pack */
+        private final File indexFile;
+        /** The [id:entry] map of the extended index */
+        private final Map<String, ObjectIndex.Entry> entries;
+        /** The pack file output */
+        private final FileOutputStream fileOut;
+        /** The buffered output */
+        private final DataOutputStream out;
+        /** The offset of the next entry */
+        private long offset;
+
+        /**
+         * Open the pack with the given files for appending, creating it if
+         * necessary.
+         *
+         * @param packFile  the pack file
+         * @param indexFile the index of the pack
+         */
+        Writer(File packFile, File indexFile) throws IOException {
+            this.indexFile = indexFile;
+            this.entries = ObjectIndex.fromFile(indexFile).entries();
+            packFile.getParentFile().mkdirs();
+            boolean newPack = !packFile.exists();
+            this.offset = newPack ? 0 : packFile.length();
+            this.fileOut = new FileOutputStream(packFile, true);
+            this.out = new DataOutputStream(new BufferedOutputStream(fileOut));
+            if (newPack) {
+                out.writeInt(MAGIC);
+                out.writeInt(VERSION);
+                offset += 8;
+            }
+        }
+
+        /**
+         * Append the object, unless the pack already contains it.
+         *
+         * @param type the object type
+         * @param id   the object id
+         * @param raw  the raw bytes, as returned by {@link #read}
+         */
+        void add(byte type, String id, byte[] raw) throws IOException {
+            if (entries.containsKey(id)) {
+                return;
+            }
+            entries.put(id, new ObjectIndex.Entry(type, offset));
+            offset += writeEntry(out, type, -1, raw);
+        }
+
+        /**
+         * Sync the pack, then save the extended index.
+         */
+        void finish() throws IOException {
+            out.flush();
+            fileOut.getFD().sync();
+            new ObjectIndex(entries).saveIndex(indexFile);
+        }
+
+        @Override
+        public void close() throws IOException {
+            out.close();
+        }
+    }
+
+    /**
+     * A stream inflating an entry straight from the mapped pack.
+     */
+    private static class EntryInputStream extends InputStream {
+        /** The inflater, with the whole deflated entry as input */
+        private final Inflater inflater;
+
+        EntryInputStream(ByteBuffer deflated) {
+            this.inflater = new Inflater();
+            inflater.setInput(deflated);
+        }
+
+        @Override
+        public int read() throws IOException {
+            byte[] b = new byte[1];
+            return read(b, 0, 1) < 0 ? -1 : b[0] & 0xff;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            if (len == 0) {
+                return 0;
+            }
+            try {
+                int n = inflater.inflate(b, off, len);
+                while (n == 0) {
+                    if (inflater.finished() || inflater.needsInput()) {
+                        return -1;
+                    }
+                    n = inflater.inflate(b, off, len);
+                }
+                return n;
+            } catch (DataFormatException excp) {
+                throw new IOException("Corrupted pack entry.");
+            }
+        }
+
+        @Override
+        public void close() {
+            inflater.end();
+        }
+    }
+}
@@ -0,0 +1,112 @@
+package gitlet;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.*;
+import java.util.function.ToIntFunction;
+
+/**
+ * Compare reading packed objects through the mapped pack with file reads.
+ * Usage: java gitlet.ReadBenchmark [number of blobs] [blob size in bytes]
+ *
+ * A repository with NBLOB packed blobs is generated in a temporary
+ * directory, which becomes the working directory of this process. Every
+ * blob is then read once per round, after a warm-up round, with the object
+ * cache disabled.
+ */
+public class ReadBenchmark {
+    /** The number of timed rounds */
+    private static final int ROUNDS = 5;
+
+    private static void printTimingTable(List<String> names, List<Double> times, int nblob) {
+        System.out.printf("%-20s %12s %12s %12s %12s\n",
+                "read", "time (s)", "# objects", "microsec/op", "speedup");
+        System.out.printf("------------------------------------------------------------------------\n");
+        for (int i = 0; i < names.size(); i += 1) {
+            double time = times.get(i);
+            System.out.printf("%-20s %12.2f %12d %12.2f %12.2f\n",
+                    names.get(i), time, nblob, time / nblob * 1e6, times.get(0) / time);
+        }
+    }
+
+    public static void main(String[] args) throws IOException {
+        int nblob = args.length > 0 ? Integer.parseInt(args[0]) : 20000;
+        int blobSize = args.length > 1 ? Integer.parseInt(args[1]) : 1024;
+
+        // Repository resolves its paths from user.dir when it is loaded
+        File dir = Files.createTempDirectory("gitlet-bench").toFile();
+        System.setProperty("user.dir", dir.getPath());
+        try {
+            Repository.init();
+            List<String> ids = generateBlobs(nblob, blobSize);
+            Pack.repack();
+            ObjectCache.setCapacity(0);
+
+            List<String> names = new ArrayList<String>();
+            List<Double> times = new ArrayList<Double>();
+            names.add("unmapped");
+            times.add(measure(ids, id -> Pack.readUnmapped(id).length));
+            names.add("mapped");
+            times.add(measure(ids, id -> Pack.read(id).length));
+            names.add("blob header");
+            times.add(measure(ids, id -> Blob.fromFile(id).getFileName().length()));
+
+            printTimingTable(names, times, nblob);
+        } finally {
+            delete(dir);
+        }
+    }
+
+    /**
+     * Time reading every object ROUNDS times.
+     *
+     * @return the mean time of a round in seconds
+     */
+    private static double measure(List<String> ids,
+            ToIntFunction<String> reader) {
+        long total = 0;
+        for (String id : ids) {
+            total += reader.applyAsInt(id);
+        }
+        long start = System.nanoTime();
+        for (int round = 0; round < ROUNDS; round++) {
+            for (String id : ids) {
+                total += reader.applyAsInt(id);
+            }
+        }
+        if (total == 0) {
+            throw new IllegalStateException("nothing read");
+        }
+        return (System.nanoTime() - start) / 1e9 / ROUNDS;
+    }
+
+    /**
+     * Store NBLOB blobs of BLOBSIZE random bytes, with distinct file names so
+     * they are not deltified.
+     *
+     * @return the blob ids
+     */
+    private static List<String> generateBlobs(int nblob, int blobSize) throws IOException {
+        Random random = new Random(0);
+        List<String> ids = new ArrayList<String>();
+        for (int i = 0; i < nblob; i++) {
+            byte[] contents = new byte[blobSize];
+            random.nextBytes(contents);
+            String id = Utils.sha1(contents);
+            Blob.saveContents(id, "file" + i + ".txt", contents);
+            ids.add(id);
+        }
+        return ids;
+    }
+
+    private static void delete(File file) {
+        File[] children = file.listFiles();
+        if (children != null) {
+            for (File child : children) {
+                delete(child);
+            }
+        }
+        file.delete();
+    }
+}
@@ -0,0 +1,445 @@
+package gitlet;
+
+import static gitlet.Utils.join;
+import static gitlet.Utils.readContents;
+import static gitlet.Utils.readContentsAsString;
+
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.*;
+
+/**
+ * Represents a remote: another gitlet repository on the local file system,
+ * registered under a name by `add-remote`.
+ *
+ * `fetch` and `push` only transfer the objects the destination is missing.
+ * The commit DAG is walked from the tip of the branch until it reaches
+ * commits the destination already has, and the trees of the new commits
+ * are walked the same way, skipping the subtrees the destination already
+ * has, so a transfer costs in proportion to the change, not to the
+ * repository. The commits, trees and blobs are appended to the pack of the
+ * destination as one stream, and become visible together when its index is
+ * saved; chunked blobs, their chunks and very large blobs are copied as
+ * loose files. The branch is updated last.
+ *
+ * Remote file format: the path of the .gitlet directory of the remote
+ */
+public class Remote {
+    /** The name */
+    private final String name;
+    /** The .gitlet directory of the remote */
+    private final File gitletDir;
+
+    private Remote(String name, File gitletDir) {
+        this.name = name;
+        this.gitletDir = gitletDir;
+    }
+
+    /**
+     * Save a new remote.
+     *
+     * @param name the remote name
+     * @param path the path of the .gitlet directory of the remote, with '/'
+     *             as separator, relative to the working directory or absolute
+     */
+    public static void add(String name, String path) throws IOException {
+        File file = join(Repository.REMOTES_DIR, name);
+        if (file.exists()) {
+            MyUtils.exit("A remote with that name already exists.");
+        }
+        path = path.replace("/", File.separator);
+        Journal.write(file, path.getBytes(StandardCharsets.UTF_8));
+    }
+
+    /**
+     * Remove the remote with the given name.
+     *
+     * @param name the remote name
+     */
+    public static void remove(String name) throws IOException {
+        File file = join(Repository.REMOTES_DIR, name);
+        if (!file.isFile()) {
+            MyUtils.exit("A remote with that name does not exist.");
+        }
+        Journal.delete(file);
+    }
+
+    /**
+     * Load the remote with the given name.
+     *
+     * @param name the remote name
+     * @return the remote
+     */
+    public static Remote fromFile(String name) {
+        File file = join(Repository.REMOTES_DIR, name);
+        if (!file.isFile()) {
+            MyUtils.exit("A remote with that name does not exist.");
+        }
+        File gitletDir = new File(readContentsAsString(file));
+        if (!gitletDir.isAbsolute()) {
+            gitletDir = join(Repository.CWD, gitletDir.getPath());
+        }
+        return new Remote(name, gitletDir);
+    }
+
+    /**
+     * Copy the commits of the remote branch which are missing here, and point
+     * the branch [remote name]/[branch name] at the remote branch.
+     *
+     * @param branchName the remote branch name
+     * @return the name of the local branch
+     */
+    public String fetch(String branchName) throws IOException {
+        lock();
+        try (Store local = new Store(Repository.GITLET_DIR);
+                Store remote = new Store(gitletDir)) {
+            String tipId = remote.tipOf(branchName);
+            if (tipId == null) {
+                MyUtils.exit("That remote does not have that branch.");
+            }
+            remote.transfer(local, tipId);
+
+            String localBranchName = name + "/" + branchName;
+            new Branch(localBranchName, tipId).saveBranch();
+            return localBranchName;
+        }
+    }
+
+    /**
+     * Copy the commits of the current branch which are missing in the remote,
+     * and point the remote branch at the current commit. The remote branch
+     * must be in the history of the current commit.
+     *
+     * @param branchName the remote branch name
+     */
+    public void push(String branchName) throws IOException {
+        lock();
+        String headId = MyUtils.currentCommit().getId();
+        try (Store local = new Store(Repository.GITLET_DIR);
+                Store remote = new Store(gitletDir)) {
+            String tipId = remote.tipOf(branchName);
+            if (tipId != null && !isAncestor(tipId, headId)) {
+                MyUtils.exit("Please pull down remote changes before pushing.");
+            }
+            local.transfer(remote, headId);
+            remote.saveTip(branchName, headId);
+        }
+    }
+
+    /**
+     * Lock the remote for the rest of the command.
+     */
+    private void lock() {
+        if (!gitletDir.isDirectory()) {
+            MyUtils.exit("Remote directory not found.");
+        }
+        Lock.acquireOther(locate(gitletDir, Repository.LOCK_FILE));
+        if (locate(gitletDir, Repository.JOURNAL_FILE).exists()) {
+            MyUtils.exit("The remote repository has an unfinished command; "
+                    + "run a gitlet command in it first.");
+        }
+    }
+
+    /**
+     * Check if the commit is in the history of the local commit HEADID.
+     */
+    private static boolean isAncestor(String commitId, String headId) {
+        if (!Commit.exists(commitId)) {
+            return false;
+        }
+        return commitId.equals(CommitGraph.fromFile().lowestCommonAncestor(commitId, headId));
+    }
+
+    /**
+     * Get the file of a repository, given the .gitlet directory of the
+     * repository and the path of the same file in this repository.
+     */
+    private static File locate(File gitletDir, File file) {
+        return gitletDir.toPath()
+                .resolve(Repository.GITLET_DIR.toPath().relativize(file.toPath()))
+                .toFile();
+    }
+
+    /**
+     * Represents the stored objects and branches of a repository, this one
+     * or a remote, read and written as files. The commits, trees and blobs
+     * read from it are not cached, and are only loaded as far as the
+     * transfer needs them.
+     */
+    private static class Store implements Closeable {
+        /** The .gitlet directory */
+        private final File gitletDir;
+        /** Whether this is the repository in the working directory */
+        private final boolean local;
+        /** The pack */
+        private final Pack.Reader pack;
+
+        Store(File gitletDir) throws IOException {
+            this.gitletDir = gitletDir;
+            this.local = gitletDir.equals(Repository.GITLET_DIR);
+            this.pack = new Pack.Reader(file(Repository.PACK_FILE),
+                    file(Repository.PACK_INDEX_FILE));
+        }
+
+        /**
+         * Get the file of this repository with the same path as the given
+         * file of the local repository.
+         */
+        private File file(File localFile) {
+            return locate(gitletDir, localFile);
+        }
+
+        private File commitFile(String id) {
+            return join(file(Repository.OBJECTS_DIR), id);
+        }
+
+        private File treeFile(String id) {
+            return join(file(Repository.TREES_DIR), id);
+        }
+
+        private File blobFile(String id) {
+            return join(file(Repository.OBJECTS_DIR), id.substring(0, 2), id.substring(2));
+        }
+
+        private File chunkFile(String id) {
+            return join(file(Repository.CHUNKS_DIR), id.substring(0, 2), id.substring(2));
+        }
+
+        boolean hasCommit(String id) {
+            return commitFile(id).exists() || pack.contains(id);
+        }
+
+        boolean hasTree(String id) {
+            return treeFile(id).exists() || pack.contains(id);
+        }
+
+        boolean hasBlob(String id) {
+            return blobFile(id).exists() || pack.contains(id);
+        }
+
+        /**
+         * Read the stored bytes of a commit or a tree, loose or packed.
+         */
+        private byte[] read(File looseFile, String id) throws IOException {
+            byte[] data = looseFile.exists() ? readContents(looseFile) : pack.read(id);
+            if (data == null) {
+                throw Utils.error("Missing object %s in %s.", id, gitletDir.getPath());
+            }
+            return data;
+        }
+
+        /**
+         * Get the commit id of the branch.
+         *
+         * @return the commit id, or null if there is no such branch
+         */
+        String tipOf(String branchName) {
+            File file = join(file(Repository.REFS_DIR), branchName);
+            if (!file.isFile()) {
+                return null;
+            }
+            return Branch.decode(readContents(file)).getCommitId();
+        }
+
+        /**
+         * Point the branch at the commit, replacing the branch file
+         * atomically.
+         */
+        void saveTip(String branchName, String commitId) throws IOException {
+            File file = join(file(Repository.REFS_DIR), branchName);
+            writeAtomically(new ByteArrayInputStream(
+                    new Branch(branchName, commitId).encode()), file);
+        }
+
+        /**
+         * Copy the commits reachable from TIPID which the target is missing,
+         * with the objects they need, and record the new commits in the
+         * commit metadata of the target.
+         *
+         * @param target the destination
+         * @param tipId  the id of the newest commit to transfer
+         */
+        void transfer(Store target, String tipId) throws IOException {
+            Map<String, byte[]> commits = missingCommits(target, tipId);
+            if (commits.isEmpty()) {
+                return;
+            }
+
+            Set<String> sent = new HashSet<String>();
+            List<Commit> newCommits = new ArrayList<Commit>();
+            try (Pack.Writer out = new Pack.Writer(target.file(Repository.PACK_FILE),
+                    target.file(Repository.PACK_INDEX_FILE))) {
+                for (Map.Entry<String, byte[]> entry : commits.entrySet()) {
+                    Commit commit = Commit.decode(entry.getValue());
+                    if (commit.getTreeId() == null) {
+                        // a commit made before trees existed lists its files
+                        for (String blobId : commit.getTrackedFiles().values()) {
+                            sendBlob(target, out, blobId, sent);
+                        }
+                    } else {
+                        sendTree(target, out, commit.getTreeId(), sent);
+                    }
+                    out.add(Pack.COMMIT, entry.getKey(), entry.getValue());
+                    newCommits.add(commit);
+                }
+                out.finish();
+            }
+            target.addCommits(newCommits);
+        }
+
+        /**
+         * Walk the commits from TIPID down to the commits the target has.
+         *
+         * @return the [id:stored commit] map of the missing commits, parents
+         *         before children
+         */
+        private Map<String, byte[]> missingCommits(Store target, String tipId)
+                throws IOException {
+            Map<String, byte[]> missing = new LinkedHashMap<String, byte[]>();
+            Map<String, Commit> loaded = new HashMap<String, Commit>();
+            Deque<String> stack = new ArrayDeque<String>();
+            if (!target.hasCommit(tipId)) {
+                stack.push(tipId);
+            }
+            while (!stack.isEmpty()) {
+                String id = stack.peek();
+                if (missing.containsKey(id)) {
+                    stack.pop();
+                    continue;
+                }
+                Commit commit = loaded.get(id);
+                if (commit == null) {
+                    commit = Commit.decode(read(commitFile(id), id));
+                    loaded.put(id, commit);
+                }
+                boolean parentsDone = true;
+                for (String parentId : commit.getParentIds()) {
+                    if (missing.containsKey(parentId) || target.hasCommit(parentId)
+                            || !hasCommit(parentId)) {
+                        continue;
+                    }
+                    parentsDone = false;
+                    stack.push(parentId);
+                }
+                if (parentsDone) {
+                    stack.pop();
+                    missing.put(id, read(commitFile(id), id));
+                }
+            }
+            return missing;
+        }
+
+        /**
+         * Send the tree and the subtrees and blobs the target is missing.
+         */
+        private void sendTree(Store target, Pack.Writer out, String treeId, Set<String> sent)
+                throws IOException {
+            Deque<String> trees = new ArrayDeque<String>();
+            trees.push(treeId);
+            while (!trees.isEmpty()) {
+                String id = trees.pop();
+                if (!sent.add(id) || target.hasTree(id)) {
+                    continue;
+                }
+                byte[] data = read(treeFile(id), id);
+                List<String> childIds = new ArrayList<String>();
+                List<String> blobIds = new ArrayList<String>();
+                Tree.referencesOf(data, childIds, blobIds);
+                for (String childId : childIds) {
+                    trees.push(childId);
+                }
+                for (String blobId : blobIds) {
+                    sendBlob(target, out, blobId, sent);
+                }
+                out.add(Pack.TREE, id, data);
+            }
+        }
+
+        /**
+         * Send the blob, unless the target has it.
+         */
+        private void sendBlob(Store target, Pack.Writer out, String blobId, Set<String> sent)
+                throws IOException {
+            if (!sent.add(blobId) || target.hasBlob(blobId)) {
+                return;
+            }
+            File file = blobFile(blobId);
+            if (!file.exists()) {
+                out.add(Pack.BLOB, blobId, read(file, blobId));
+                return;
+            }
+            List<String> chunkIds = Blob.chunkIdsOf(file);
+            if (chunkIds != null) {
+                for (String chunkId : chunkIds) {
+                    File targetChunk = target.chunkFile(chunkId);
+                    if (sent.add(chunkId) && !targetChunk.exists()) {
+                        copy(chunkFile(chunkId), targetChunk);
+                    }
+                }
+                copy(file, target.blobFile(blobId));
+            } else if (Blob.fromObjectFile(file).getSize() > Pack.MAX_PACKED_BLOB_SIZE) {
+                copy(file, target.blobFile(blobId));
+            } else {
+                out.add(Pack.BLOB, blobId, Blob.readUncompressed(file));
+            }
+        }
+
+        /**
+         * Record the new commits in the commit metadata. The metadata of a
+         * remote is left to be rebuilt by the remote itself, except for the
+         * commit index which is cheap to extend.
+         */
+        private void addCommits(List<Commit> commits) throws IOException {
+            List<String> ids = new ArrayList<String>();
+            for (Commit commit : commits) {
+                ids.add(commit.getId());
+            }
+            if (local) {
+                CommitIndex.addCommits(ids);
+                CommitLog.addCommits(commits);
+                CommitGraph.fromFile().addCommit(commits.get(commits.size() - 1));
+                return;
+            }
+
+            OverflowIndex index = new OverflowIndex(file(Repository.COMMIT_INDEX_FILE),
+                    file(Repository.COMMIT_INDEX_OVERFLOW_FILE));
+            if (index.exists()) {
+                for (String id : ids) {
+                    index.put(id, new ObjectIndex.Entry(Pack.COMMIT, 0));
+                }
+                index.save();
+            }
+            // the commit log is rebuilt when it is missing, the commit graph
+            // and the changed-path filters add missing commits on their own
+            Files.deleteIfExists(file(Repository.COMMIT_LOG_FILE).toPath());
+            Files.deleteIfExists(file(Repository.COMMIT_MESSAGES_FILE).toPath());
+            Files.deleteIfExists(file(Repository.MESSAGE_INDEX_FILE).toPath());
+            Files.deleteIfExists(file(Repository.MESSAGE_OVERFLOW_FILE).toPath());
+        }
+
+        private static void copy(File source, File target) throws IOException {
+            try (InputStream in = new FileInputStream(source)) {
+                writeAtomically(in, target);
+            }
+        }
+
+        /**
+         * Write the stream to a temporary file next to the target, then
+         * rename it.
+         */
+        private static void writeAtomically(InputStream in, File target) throws IOException {
+            target.getParentFile().mkdirs();
+            File tmp = new File(target.getPath() + ".tmp");
+            Files.copy(in, tmp.toPath(), StandardCopyOption.REPLACE_EXISTING);
+            Files.move(tmp.toPath(), target.toPath(), StandardCopyOption.REPLACE_EXISTING,
+                    StandardCopyOption.ATOMIC_MOVE);
+        }
+
+        @Override
+        public void close() throws IOException {
+            pack.close();
+        }
+    }
+}
@@ -0,0 +1,228 @@
+package gitlet;
+
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.*;
+
+/**
+ * Measure the latency of gitlet commands on synthetic repositories of
+ * several scales, to catch regressions in the object store and the merge.
+ * Usage: java gitlet.RepoBenchmark [--csv FILE] [SCALE...]
+ * where a SCALE is NFILE:SIZE:NCOMMIT, the number of files, their median
+ * size in bytes and the number of commits (default 100:1024:50,
+ * 1000:2048:200 and 5000:4096:400).
+ *
+ * Every scale is measured by a fresh JVM whose working directory is an
+ * empty temporary directory, since gitlet resolves its files against the
+ * working directory of the process. It generates the repository (see
+ * {@link SyntheticRepo}), with a topic branch merged every 10 commits, then
+ * executes every command as Main does, WARMUP times untimed and ROUNDS
+ * times timed, with their output discarded. The JVM and its caches are
+ * warm, as in the daemon, so the latency of the commands themselves is
+ * measured, not the start-up of the JVM.
+ *
+ * The results are printed as a table, and with --csv written as
+ * scale,command,rounds,mean_us,p50_us,p90_us,max_us
+ * lines.
+ */
+public class RepoBenchmark {
+    /** The untimed rounds of a command */
+    private static final int WARMUP = 5;
+    /** The timed rounds of a command */
+    private static final int ROUNDS = 20;
+    /** The default scales */
+    private static final String[] DEFAULT_SCALES = {"100:1024:50", "1000:2048:200",
+        "5000:4096:400"};
+    /** The header of the CSV output */
+    private static final String CSV_HEADER = "scale,command,rounds,mean_us,p50_us,p90_us,max_us";
+
+    private static void printTimingTable(List<String[]> rows) {
+        System.out.printf("%-16s %-12s %8s %12s %12s %12s %12s\n",
+                "scale", "command", "rounds", "mean (us)", "p50 (us)", "p90 (us)", "max (us)");
+        System.out.printf("------------------------------------------------------------"
+                + "------------------------------\n");
+        for (String[] row : rows) {
+            System.out.printf("%-16s %-12s %8s %12s %12s %12s %12s\n", (Object[]) row);
+        }
+    }
+
+    public static void main(String[] args) throws IOException, InterruptedException {
+        if (args.length > 0 && args[0].equals("--run")) {
+            run(args[1]);
+            return;
+        }
+
+        List<String> scales = new ArrayList<String>(Arrays.asList(args));
+        String csvFile = null;
+        int i = scales.indexOf("--csv");
+        if (i >= 0) {
+            csvFile = scales.get(i + 1);
+            scales.remove(i + 1);
+            scales.remove(i);
+        }
+        if (scales.isEmpty()) {
+            scales.addAll(Arrays.asList(DEFAULT_SCALES));
+        }
+
+        List<String[]> rows = new ArrayList<String[]>();
+        for (String scale : scales) {
+            System.err.println("measuring " + scale);
+            rows.addAll(measureInChild(scale));
+        }
+        printTimingTable(rows);
+
+        if (csvFile != null) {
+            StringBuilder csv = new StringBuilder(CSV_HEADER).append('\n');
+            for (String[] row : rows) {
+                csv.append(String.join(",", row)).append('\n');
+            }
+            Utils.writeContents(new File(csvFile), csv.toString());
+        }
+    }
+
+    /**
+     * Measure the scale in a JVM running in a new temporary directory.
+     *
+     * @return the CSV rows printed by the JVM
+     */
+    private static List<String[]> measureInChild(String scale)
+            throws IOException, InterruptedException {
+        File dir = Files.createTempDirectory("gitlet-bench").toFile();
+        try {
+            String java = Paths.get(System.getProperty("java.home"), "bin", "java").toString();
+            Process process = new ProcessBuilder(java, "-cp",
+                    System.getProperty("java.class.path"), RepoBenchmark.class.getName(),
+                    "--run", scale)
+                    .directory(dir)
+                    .redirectError(ProcessBuilder.Redirect.INHERIT)
+                    .start();
+            List<String[]> rows = new ArrayList<String[]>();
+            try (BufferedReader in = new BufferedReader(new InputStreamReader(
+                    process.getInputStream(), StandardCharsets.UTF_8))) {
+                String line;
+                while ((line = in.readLine()) != null) {
+                    rows.add(line.split(","));
+                }
+            }
+            // a command which exits the JVM leaves no rows
+            if (process.waitFor() != 0 || rows.isEmpty()) {
+                throw new IllegalStateException("benchmark of " + scale + " failed");
+            }
+            return rows;
+        } finally {
+            delete(dir);
+        }
+    }
+
+    /**
+     * Generate the repository of the scale in the working directory, measure
+     * every command and print one CSV row per command.
+     */
+    private static void run(String scale) throws IOException {
+        String[] parts = scale.split(":");
+        int nfile = Integer.parseInt(parts[0]);
+        int size = Integer.parseInt(parts[1]);
+        int ncommit = Integer.parseInt(parts[2]);
+
+        PrintStream stdout = System.out;
+        PrintStream devNull = new PrintStream(OutputStream.nullOutputStream());
+        System.setOut(devNull);
+        SyntheticRepo repo = new SyntheticRepo(nfile, size, ncommit, 10, 3, 5, 0);
+        repo.generate();
+
+        Map<String, long[]> times = new LinkedHashMap<String, long[]>();
+        File file = repo.fileOf(nfile - 1);
+        String[] rounds = new String[WARMUP + ROUNDS];
+        for (int i = 0; i < rounds.length; i++) {
+            rounds[i] = "bench" + i;
+        }
+
+        times.put("add", measure(i -> repo.changeLine(file), "add", file.getName()));
+        times.put("commit", measure(i -> {
+            repo.changeLine(file);
+            Repository.add(file.getName());
+        }, "commit", "bench"));
+        times.put("status", measure(i -> { }, "status"));
+        times.put("log", measure(i -> { }, "log"));
+        times.put("global-log", measure(i -> { }, "global-log"));
+        times.put("checkout", measureEach(i -> { },
+                i -> new String[] {"checkout", i % 2 == 0 ? "half" : "master"}));
+        times.put("merge", measureEach(i -> {
+            // a topic branch with one commit, and one more commit on master
+            if (!MyUtils.isCurrentBranch("master")) {
+                Repository.checkoutBranch("master");
+            }
+            Repository.branch(rounds[i]);
+            Repository.checkoutBranch(rounds[i]);
+            repo.commitChanges(0, nfile / 2);
+            Repository.checkoutBranch("master");
+            repo.commitChanges(nfile / 2, nfile);
+        }, i -> new String[] {"merge", rounds[i]}));
+
+        System.setOut(stdout);
+        for (Map.Entry<String, long[]> entry : times.entrySet()) {
+            long[] nanos = entry.getValue();
+            Arrays.sort(nanos);
+            long sum = 0;
+            for (long nano : nanos) {
+                sum += nano;
+            }
+            System.out.printf("%s,%s,%d,%.1f,%.1f,%.1f,%.1f\n", scale, entry.getKey(),
+                    nanos.length, sum / 1e3 / nanos.length, nanos[nanos.length / 2] / 1e3,
+                    nanos[nanos.length * 9 / 10] / 1e3, nanos[nanos.length - 1] / 1e3);
+        }
+    }
+
+    /** An untimed preparation of a round */
+    private interface Setup {
+        void prepare(int round) throws IOException;
+    }
+
+    /** The command line of a round */
+    private interface Command {
+        String[] argsOf(int round);
+    }
+
+    /**
+     * Time the same command line after the setup of every round.
+     */
+    private static long[] measure(Setup setup, String... args) throws IOException {
+        return measureEach(setup, i -> args);
+    }
+
+    /**
+     * Time the command line of every round after its setup.
+     *
+     * @return the times of the timed rounds, in nanoseconds
+     */
+    private static long[] measureEach(Setup setup, Command command) throws IOException {
+        long[] nanos = new long[ROUNDS];
+        for (int i = 0; i < WARMUP + ROUNDS; i++) {
+            setup.prepare(i);
+            String[] args = command.argsOf(i);
+            long start = System.nanoTime();
+            try {
+                Main.excuteCmd(args);
+            } finally {
+                Lock.release();
+            }
+            long time = System.nanoTime() - start;
+            if (i >= WARMUP) {
+                nanos[i - WARMUP] = time;
+            }
+        }
+        return nanos;
+    }
+
+    private static void delete(File file) {
+        File[] children = file.listFiles();
+        if (children != null) {
+            for (File child : children) {
+                delete(child);
+            }
+        }
+        file.delete();
+    }
+}
@@ -27,11 +27,37 @@ public class Repository {
      * | |--blob_folder (id[0:2])
      * | | |--blobs (id[2:])
      * | |--commit
+     * | |--trees
+     * | | |--trees (id)
+     * | |--chunks
+     * | | |--chunk_folder (id[0:2])
+     * | | | |--chunks (id[2:])
+     * | |--pack
+     * | | |--objects.pack
+     * | | |--objects.idx
+     * | |--info
+     * | | |--commit-graph
+     * | | |--changed-paths
+     * | | |--commit-index
+     * | | |--commit-index-overflow
+     * | | |--commit-log
+     * | | |--commit-messages
+     * | | |--message-index
+     * | | |--message-index-overflow
      * |--refs
      * | |--heads
      * | |--master
+     * | |--remote_folder (remote name)
+     * | | |--remote branches (branch name)
+     * |--remotes
+     * | |--remotes (remote name)
      * |--HEAD
      * |--stage
+     * |--stage-log
+     * |--sparse-checkout
+     * |--journal
+     * |--lock
+     * |--daemon.sock
      */
 
     /** The current working directory. */
@@ -40,12 +66,53 @@ public class Repository {
     public static final File GITLET_DIR = join(CWD, ".gitlet");
     /** The objects direcotry */
     public static final File OBJECTS_DIR = join(GITLET_DIR, "objects");
+    /** The trees directory */
+    public static final File TREES_DIR = join(OBJECTS_DIR, "trees");
+    /** The directory of chunks of large blobs */
+    public static final File CHUNKS_DIR = join(OBJECTS_DIR, "chunks");
+    /** The pack directory */
+    public static final File PACK_DIR = join(OBJECTS_DIR, "pack");
+    /** The pack file */
+    public static final File PACK_FILE = join(PACK_DIR, "objects.pack");
+    /** The index of the pack file */
+    public static final File PACK_INDEX_FILE = join(PACK_DIR, "objects.idx");
+    /** The info directory */
+    public static final File INFO_DIR = join(OBJECTS_DIR, "info");
+    /** The commit-graph file */
+    public static final File COMMIT_GRAPH_FILE = join(INFO_DIR, "commit-graph");
+    /** The changed-path filters of commits */
+    public static final File CHANGED_PATHS_FILE = join(INFO_DIR, "changed-paths");
+    /** The sorted index of all commit ids */
+    public static final File COMMIT_INDEX_FILE = join(INFO_DIR, "commit-index");
+    /** The commit ids added to the commit index since it was written */
+    public static final File COMMIT_INDEX_OVERFLOW_FILE =
+            join(INFO_DIR, "commit-index-overflow");
+    /** The append-only log of commit metadata */
+    public static final File COMMIT_LOG_FILE = join(INFO_DIR, "commit-log");
+    /** The messages of the commit log */
+    public static final File COMMIT_MESSAGES_FILE = join(INFO_DIR, "commit-messages");
+    /** The index from message to the commit log */
+    public static final File MESSAGE_INDEX_FILE = join(INFO_DIR, "message-index");
+    /** The entries of the message index added since it was written */
+    public static final File MESSAGE_OVERFLOW_FILE = join(INFO_DIR, "message-index-overflow");
     /** The refs direcotry */
     public static final File REFS_DIR = join(GITLET_DIR, "refs", "heads");
+    /** The directory of remotes */
+    public static final File REMOTES_DIR = join(GITLET_DIR, "remotes");
     /** The HEAD */
     public static final File HEAD_FILE = join(GITLET_DIR, "HEAD");
     /** The stage */
     public static final File STAGE_FILE = join(GITLET_DIR, "stage");
+    /** The log of stage changes since the STAGE file was written */
+    public static final File STAGE_LOG_FILE = join(GITLET_DIR, "stage-log");
+    /** The sparse-checkout patterns */
+    public static final File SPARSE_CHECKOUT_FILE = join(GITLET_DIR, "sparse-checkout");
+    /** The rollback journal of the current command */
+    public static final File JOURNAL_FILE = join(GITLET_DIR, "journal");
+    /** The lock of the repository */
+    public static final File LOCK_FILE = join(GITLET_DIR, "lock");
+    /** The socket of the daemon */
+    public static final File DAEMON_SOCKET_FILE = join(GITLET_DIR, "daemon.sock");
 
     public static void init() throws IOException {
         if (isInitialized()) {
@@ -53,6 +120,8 @@ public class Repository {
                     + "exists in the current directory.");
         }
 
+        // objects cached from an earlier repository are no longer stored
+        ObjectCache.clear();
         GITLET_DIR.mkdirs();
         OBJECTS_DIR.mkdirs();
         REFS_DIR.mkdirs();
@@ -91,6 +160,24 @@ public class Repository {
      * @param file the file to be added.
      */
     public static void add(String fileName) throws IOException {
+        add(fileName, MyUtils.DEFAULT_JOBS);
+    }
+
+    /**
+     * Add a file to the stage, or all files in the working directory if the
+     * file name is ".", hashing them with JOBS workers.
+     * 
+     * @param fileName the file to be added.
+     * @param jobs     the number of workers.
+     */
+    public static void add(String fileName, int jobs) throws IOException {
+        if (fileName.equals(".")) {
+            Stage stage = Stage.fromFile();
+            stage.addFiles(MyUtils.filesOf(MyUtils.workingFileNames()), jobs);
+            stage.saveStage();
+            return;
+        }
+
         File file = new File(fileName);
         if (!file.exists()) {
             MyUtils.exit("File does not exist.");
@@ -128,21 +215,23 @@ public class Repository {
 
         // commit stage changes
         Stage stage = Stage.fromFile();
+        Map<String, String> addedFiles = new HashMap<String, String>(stage.getAddedFiles());
+        Set<String> removedFileNames = new HashSet<String>(stage.getRemovedFileNames());
         if (!stage.commitChanges()) {
             MyUtils.exit("No changes added to the commit.");
         }
         stage.saveStage();
-        Map<String, String> trackedFiles = stage.getTrackedFiles();
 
         // prev Commit ID
         Head head = Head.fromFile();
         Branch branch = head.dereference();
         String prevCommitId = branch.getCommitId();
 
-        // create a new Commit
+        // create a new Commit, sharing the unchanged part of the prev tree
+        Tree tree = branch.dereference().getTree().withChanges(addedFiles, removedFileNames);
         LinkedList<String> parentIds = new LinkedList<String>();
         parentIds.add(prevCommitId);
-        Commit commit = new Commit(message, parentIds, trackedFiles);
+        Commit commit = new Commit(message, parentIds, tree);
         commit.saveCommit();
 
         // update the branch
@@ -166,15 +255,61 @@ public class Repository {
         }
     }
 
+    /**
+     * Log the commits of the current branch which changed the file, against
+     * their first parent. Commits whose changed-path filter rules the file
+     * out are skipped without loading their trees, the others are checked
+     * by looking the file up in both trees. Commits made before the filters
+     * existed get their filter on the way.
+     *
+     * @param fileName the file name
+     */
+    public static void log(String fileName) throws IOException {
+        ChangedPaths paths = ChangedPaths.fromFile();
+        long pathHash = ChangedPaths.hashOf(fileName);
+
+        CommitIterator commitIterator = new CommitIterator(currentCommit());
+        for (Commit commit : commitIterator) {
+            if (!paths.contains(commit.getId())) {
+                paths.addCommit(commit);
+            }
+            if (paths.mayHaveChanged(commit.getId(), pathHash)
+                    && changedFile(commit, fileName)) {
+                System.out.println("===");
+                System.out.println(commit);
+            }
+            if (commit.isInitCommit()) {
+                break;
+            }
+        }
+    }
+
+    /**
+     * Check if the commit changed the file against its first parent. A
+     * parent which is not stored may have had any version of the file.
+     */
+    private static boolean changedFile(Commit commit, String fileName) {
+        String blobId = commit.getTree().get(fileName);
+        List<String> parentIds = commit.getParentIds();
+        if (parentIds.isEmpty()) {
+            return blobId != null;
+        }
+        String parentId = Commit.fullIdOf(parentIds.get(0));
+        if (parentId == null) {
+            return true;
+        }
+        String parentBlobId = Commit.fromFile(parentId).getTree().get(fileName);
+        return !Objects.equals(blobId, parentBlobId);
+    }
+
     /**
      * Global log the commit history.
      */
     public static void globalLog() {
-        Set<Commit> commits = MyUtils.commits();
-        for (Commit commit : commits) {
+        CommitLog.forEach(record -> {
             System.out.println("===");
-            System.out.println(commit);
-        }
+            System.out.println(record);
+        });
     }
 
     /**
@@ -183,22 +318,26 @@ public class Repository {
      * @param message the commit message.
      */
     public static void find(String message) {
-        boolean findCommit = false;
-
-        Set<Commit> commits = MyUtils.commits();
-        for (Commit commit : commits) {
-            if (commit.getMessage().equals(message)) {
-                System.out.println(commit.getId());
-                findCommit = true;
-            }
+        List<String> commitIds = CommitLog.findByMessage(message);
+        for (String commitId : commitIds) {
+            System.out.println(commitId);
         }
 
-        if (!findCommit) {
+        if (commitIds.isEmpty()) {
             MyUtils.exit("Found no commit with that message.");
         }
     }
 
     public static void status() {
+        status(MyUtils.DEFAULT_JOBS);
+    }
+
+    /**
+     * Show the status, hashing the working files with JOBS workers.
+     * 
+     * @param jobs the number of workers.
+     */
+    public static void status(int jobs) {
         System.out.println("=== Branches ===");
         Branch curBranch = currentBranch();
         Set<Branch> branches = MyUtils.branches();
@@ -228,16 +367,18 @@ public class Repository {
 
         System.out.println("=== Modifications Not Staged For Commit ===");
         Map<String, String> trackedFiles = currentCommit().getTrackedFiles();
-        Map<String, String> workingFiles = MyUtils.workingFiles();
+        Map<String, String> workingFiles = MyUtils.workingFiles(jobs);
         Map<String, String> addedFiles = stage.getAddedFiles();
         Set<String> removedFiles = stage.getRemovedFileNames();
+        SparseCheckout sparse = SparseCheckout.fromFile();
         // changes not staged from current Commit --> working directory
         for (String fileName : trackedFiles.keySet()) {
             String cId = trackedFiles.get(fileName);
             String wId = workingFiles.get(fileName);
 
             if (wId == null) {
-                if (!removedFiles.contains(fileName)) {
+                // files outside the sparse checkout are not in the working directory
+                if (!removedFiles.contains(fileName) && sparse.includes(fileName)) {
                     System.out.println(fileName + " (deleted)");
                 }
             } else if (!cId.equals(wId)) {
@@ -327,7 +468,7 @@ public class Repository {
 
         // update Branch
         Branch branch = currentBranch();
-        branch.referTo(commitId);
+        branch.referTo(reseCommit.getId());
         branch.saveBranch();
     }
 
@@ -336,39 +477,70 @@ public class Repository {
      * Branch.
      * This is a general private method to checkout a branch, used to support the
      * public checkout [branch name] and reset [commit id] method.
+     * Only the files whose blob ids differ between the commits, which are
+     * staged, or whose working file is missing or differs from the given
+     * commit, are written or deleted; the others are already in the working
+     * directory. Files outside the sparse checkout are not written.
      * 
      * @param branch the branch
      */
     private static void checkoutCommit(Commit otherCommit) {
-        Commit curCommit = currentCommit();
-        Set<String> curTrackedFileNames = curCommit.getTrackedFileNames();
-        Set<String> otherTrackedFileNames = otherCommit.getTrackedFileNames();
+        Tree curTree = currentCommit().getTree();
+        Tree otherTree = otherCommit.getTree();
+        Stage stage = Stage.fromFile();
+        SparseCheckout sparse = SparseCheckout.fromFile();
+
+        Set<String> changedFileNames = curTree.changedFileNames(otherTree);
+        changedFileNames.addAll(stage.getAddedFileNames());
+        changedFileNames.addAll(stage.getRemovedFileNames());
+        // the working files which were edited or deleted since the current
+        // commit, found through the stat cache
+        Map<String, String> otherFiles = otherCommit.getTrackedFiles();
+        List<File> workingFiles = new ArrayList<File>();
+        for (String fileName : otherFiles.keySet()) {
+            File file = join(CWD, fileName);
+            if (!file.exists()) {
+                changedFileNames.add(fileName);
+            } else if (!changedFileNames.contains(fileName)) {
+                workingFiles.add(file);
+            }
+        }
+        for (Map.Entry<String, String> entry
+                : stage.blobIdsOf(workingFiles, MyUtils.DEFAULT_JOBS).entrySet()) {
+            if (!entry.getValue().equals(otherFiles.get(entry.getKey()))) {
+                changedFileNames.add(entry.getKey());
+            }
+        }
 
-        Set<String> unTrackedFileNames = MyUtils.untrackedFileNames();
+        Map<String, String> filesToWrite = new HashMap<String, String>();
+        Set<String> fileNamesToDelete = new HashSet<String>();
+        for (String fileName : changedFileNames) {
+            String otherId = otherTree.get(fileName);
+            if (otherId != null && sparse.includes(fileName)) {
+                filesToWrite.put(fileName, otherId);
+            } else if (curTree.get(fileName) != null) {
+                // not in the given commit, or outside the sparse checkout
+                fileNamesToDelete.add(fileName);
+            }
+        }
 
         // check if the checkout will overwrite the files
-        if (MyUtils.intersectionSet(otherTrackedFileNames, unTrackedFileNames).size() > 0) {
+        Set<String> unTrackedFileNames = MyUtils.untrackedFileNames();
+        if (MyUtils.intersectionSet(filesToWrite.keySet(), unTrackedFileNames).size() > 0) {
             MyUtils.exit("There is an untracked file in the way; delete it, "
                     + "or add and commit it first.");
         }
 
-        // checkout all the files in the given branch
-        for (String fileName : otherTrackedFileNames) {
-            File file = new File(fileName);
-            checkoutFile(otherCommit, file);
+        for (Map.Entry<String, String> entry : filesToWrite.entrySet()) {
+            Blob blob = Blob.fromFile(entry.getValue());
+            blob.writeTo(new File(entry.getKey()));
         }
-
-        // remove all the trakced files in current commit that are not present in the
-        // given branch
-        Set<String> unoverwritedTrackedFileNames = differenceSet(
-                curTrackedFileNames, otherTrackedFileNames);
-        for (String fileName : unoverwritedTrackedFileNames) {
+        for (String fileName : fileNamesToDelete) {
             File file = new File(fileName);
             file.delete();
         }
 
         // clear stage
-        Stage stage = Stage.fromFile();
         stage.clearForCheckoutCommit(otherCommit);
         stage.saveStage();
     }
@@ -384,16 +556,45 @@ public class Repository {
     private static void checkoutFile(Commit commit, File file) {
         String fileName = file.getName();
 
-        Map<String, String> trakcedFiles = commit.getTrackedFiles();
-        if (!trakcedFiles.containsKey(fileName)) {
+        String blobId = commit.getTree().get(fileName);
+        if (blobId == null) {
             MyUtils.exit("File does not exist in that commit.");
         }
 
-        String blobId = trakcedFiles.get(fileName);
         Blob blob = Blob.fromFile(blobId);
-        byte[] contents = blob.getContents();
+        blob.writeTo(file);
+    }
 
-        writeContents(file, contents);
+    /**
+     * Set the sparse-checkout patterns, and update the working directory to
+     * them: the tracked files which are now included and missing are
+     * written, the ones which are now excluded are deleted unless they are
+     * staged or modified. No pattern includes every file again.
+     * 
+     * @param patterns the glob patterns.
+     */
+    public static void sparseCheckout(List<String> patterns) throws IOException {
+        SparseCheckout sparse = SparseCheckout.save(patterns);
+        Map<String, String> trackedFiles = currentCommit().getTrackedFiles();
+        Map<String, String> workingFiles = MyUtils.workingFiles();
+        Stage stage = Stage.fromFile();
+        Set<String> stagedFileNames = MyUtils.unionSet(stage.getAddedFileNames(),
+                stage.getRemovedFileNames());
+
+        for (String fileName : trackedFiles.keySet()) {
+            if (stagedFileNames.contains(fileName)) {
+                continue;
+            }
+            String blobId = trackedFiles.get(fileName);
+            String wId = workingFiles.get(fileName);
+            if (sparse.includes(fileName)) {
+                if (wId == null) {
+                    Blob.fromFile(blobId).writeTo(new File(fileName));
+                }
+            } else if (blobId.equals(wId)) {
+                new File(fileName).delete();
+            }
+        }
     }
 
     /**
@@ -416,7 +617,7 @@ public class Repository {
      * 
      * @param branchName the branch name.
      */
-    public static void rmBranch(String branchName) {
+    public static void rmBranch(String branchName) throws IOException {
         if (!MyUtils.branchExists(branchName)) {
             MyUtils.exit("A branch with that name does not exist.");
         }
@@ -429,6 +630,56 @@ public class Repository {
         branch.deleteBranch();
     }
 
+    /**
+     * Save the remote with the given name and path.
+     *
+     * @param remoteName the remote name.
+     * @param path       the path of the .gitlet directory of the remote.
+     */
+    public static void addRemote(String remoteName, String path) throws IOException {
+        Remote.add(remoteName, path);
+    }
+
+    /**
+     * Remove the remote with the given name.
+     *
+     * @param remoteName the remote name.
+     */
+    public static void rmRemote(String remoteName) throws IOException {
+        Remote.remove(remoteName);
+    }
+
+    /**
+     * Fetch the branch of the remote into the branch
+     * [remote name]/[remote branch name].
+     *
+     * @param remoteName the remote name.
+     * @param branchName the remote branch name.
+     */
+    public static void fetch(String remoteName, String branchName) throws IOException {
+        Remote.fromFile(remoteName).fetch(branchName);
+    }
+
+    /**
+     * Push the current branch to the branch of the remote.
+     *
+     * @param remoteName the remote name.
+     * @param branchName the remote branch name.
+     */
+    public static void push(String remoteName, String branchName) throws IOException {
+        Remote.fromFile(remoteName).push(branchName);
+    }
+
+    /**
+     * Fetch the branch of the remote, and merge it into the current branch.
+     *
+     * @param remoteName the remote name.
+     * @param branchName the remote branch name.
+     */
+    public static void pull(String remoteName, String branchName) throws IOException {
+        merge(Remote.fromFile(remoteName).fetch(branchName));
+    }
+
     /**
      * Merge the branch with the given branch name.
      * 
@@ -462,6 +713,115 @@ public class Repository {
         return true;
     }
 
+    /**
+     * Show the changes in the working directory which are not staged.
+     */
+    public static void diff() throws IOException {
+        Map<String, String> stagedFiles = stagedFiles();
+        Map<String, String> workingFiles = trackedWorkingFiles(stagedFiles, stagedFiles.keySet());
+        UnifiedDiff.print(stagedFiles, workingFiles, true);
+    }
+
+    /**
+     * Show the staged changes, against the current commit.
+     */
+    public static void diffCached() throws IOException {
+        UnifiedDiff.print(currentCommit().getTrackedFiles(), stagedFiles(), false);
+    }
+
+    /**
+     * Show the changes in the working directory since the given commit.
+     * 
+     * @param commitId the commit id or branch name.
+     */
+    public static void diff(String commitId) throws IOException {
+        Map<String, String> commitFiles = new HashMap<String, String>(
+                commitOf(commitId).getTrackedFiles());
+        Map<String, String> workingFiles = trackedWorkingFiles(commitFiles,
+                stagedFiles().keySet());
+        UnifiedDiff.print(commitFiles, workingFiles, true);
+    }
+
+    /**
+     * Show the changes between the two commits. Only the subtrees which
+     * differ are visited.
+     * 
+     * @param commitId1 the old commit id or branch name.
+     * @param commitId2 the new commit id or branch name.
+     */
+    public static void diff(String commitId1, String commitId2) throws IOException {
+        Tree tree1 = commitOf(commitId1).getTree();
+        Tree tree2 = commitOf(commitId2).getTree();
+        Map<String, String> oldFiles = new HashMap<String, String>();
+        Map<String, String> newFiles = new HashMap<String, String>();
+        for (String fileName : tree1.changedFileNames(tree2)) {
+            if (tree1.get(fileName) != null) {
+                oldFiles.put(fileName, tree1.get(fileName));
+            }
+            if (tree2.get(fileName) != null) {
+                newFiles.put(fileName, tree2.get(fileName));
+            }
+        }
+        UnifiedDiff.print(oldFiles, newFiles, false);
+    }
+
+    /**
+     * Get the files of the next commit: the current commit with the staged
+     * changes.
+     * 
+     * @return the [path:blobId] of the staged files
+     */
+    private static Map<String, String> stagedFiles() {
+        Stage stage = Stage.fromFile();
+        Map<String, String> files = new HashMap<String, String>(
+                currentCommit().getTrackedFiles());
+        files.putAll(stage.getAddedFiles());
+        files.keySet().removeAll(stage.getRemovedFileNames());
+        return files;
+    }
+
+    /**
+     * Get the working files with the given names. The files outside the sparse
+     * checkout are not missing but not checked out, so they are removed from
+     * OLDFILES too, and not compared.
+     * 
+     * @param oldFiles  the [path:blobId] compared with the working files.
+     * @param fileNames the names of the tracked files.
+     * @return the [path:blobId] of the tracked files in the working directory
+     */
+    private static Map<String, String> trackedWorkingFiles(Map<String, String> oldFiles,
+            Set<String> fileNames) {
+        Map<String, String> workingFiles = MyUtils.workingFiles();
+        workingFiles.keySet().retainAll(fileNames);
+        SparseCheckout sparse = SparseCheckout.fromFile();
+        for (String fileName : differenceSet(fileNames, workingFiles.keySet())) {
+            if (!sparse.includes(fileName)) {
+                oldFiles.remove(fileName);
+            }
+        }
+        return workingFiles;
+    }
+
+    /**
+     * Get the commit with the given id, or at the tip of the given branch.
+     */
+    private static Commit commitOf(String commitIdOrBranch) {
+        if (MyUtils.branchExists(commitIdOrBranch)) {
+            return Branch.fromFile(commitIdOrBranch).dereference();
+        }
+        return Commit.fromFile(commitIdOrBranch);
+    }
+
+    /**
+     * Pack the loose objects into the pack file, and merge the overflows of
+     * the commit index and the message index into the indexes.
+     */
+    public static void gc() throws IOException {
+        Pack.repack();
+        CommitIndex.merge();
+        CommitLog.mergeMessageIndex();
+    }
+
     /**
      * Represent a Iterator of the Commit.
      * Iterator from a given Commit to the init Commit,
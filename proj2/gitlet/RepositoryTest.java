@@ -1,7 +1,11 @@
 package gitlet;
 
+import java.io.ByteArrayOutputStream;
 import java.io.File;
 import java.io.IOException;
+import java.io.PrintStream;
+import java.io.RandomAccessFile;
+import java.util.*;
 import org.junit.Test;
 
 import static gitlet.Utils.readContentsAsString;
@@ -507,6 +511,748 @@ public class RepositoryTest {
         assertEquals("Should be the same", split.getId(), split1.getId());
     }
 
+    @Test
+    /** Test findSplitCommit through a merge commit */
+    public void testFindSplitCommitAfterMerge() throws IOException {
+        removeFoler(Repository.GITLET_DIR);
+
+        int nfile = 4;
+        File[] files = new File[nfile];
+        for (int i = 0; i < nfile; i++) {
+            files[i] = new File("merge" + i + ".txt");
+            writeContents(files[i], "merge" + i);
+        }
+
+        Repository.init();
+        Repository.add(files[0].getName());
+        Repository.commit("v0");
+        Repository.branch("other");
+        Repository.add(files[1].getName());
+        Repository.commit("v1");
+
+        Repository.checkoutBranch("other");
+        Repository.add(files[2].getName());
+        Repository.commit("v2");
+        Commit merged = Branch.fromFile("other").dereference();
+
+        Repository.checkoutBranch("master");
+        Repository.merge("other");
+        assertEquals("Should be a merge commit", 2,
+                MyUtils.currentCommit().getParentIds().size());
+
+        Repository.checkoutBranch("other");
+        Repository.add(files[3].getName());
+        Repository.commit("v3");
+
+        // the split point is the commit of other merged into master
+        Commit master = Branch.fromFile("master").dereference();
+        Commit other = Branch.fromFile("other").dereference();
+        Commit split = MyUtils.splitCommitOf(master, other);
+        assertEquals("Should be the same", merged.getId(), split.getId());
+        assertTrue("Should be deeper", CommitGraph.fromFile().generationOf(master.getId())
+                > CommitGraph.fromFile().generationOf(split.getId()));
+
+        for (File file : files) {
+            file.delete();
+        }
+    }
+
+    @Test
+    /** Test merge after a reset to an abbreviated commit id */
+    public void testMergeAfterAbbreviatedReset() throws IOException {
+        removeFoler(Repository.GITLET_DIR);
+
+        File a = new File("a.txt");
+        File b = new File("b.txt");
+        File c = new File("c.txt");
+        writeContents(a, "a1");
+        Repository.init();
+        Repository.add(a.getName());
+        Repository.commit("one");
+        String one = MyUtils.currentCommit().getId();
+        Repository.branch("dev");
+        writeContents(a, "a2");
+        Repository.add(a.getName());
+        Repository.commit("two");
+
+        Repository.reset(one.substring(0, 8));
+        assertEquals("Should be the same", one, Branch.fromFile("master").getCommitId());
+        // an abbreviated parent is stored as the full id
+        Commit abbreviated = new Commit("abbreviated", List.of(one.substring(0, 8)),
+                Tree.empty());
+        assertEquals("Should be the same", List.of(one),
+                Commit.decode(abbreviated.encode()).getParentIds());
+        try {
+            new Branch("unknown", "0123abcd").encode();
+            fail("Should reject an abbreviated id which matches no commit");
+        } catch (GitletException excp) {
+            // expected
+        }
+        writeContents(b, "b");
+        Repository.add(b.getName());
+        Repository.commit("three");
+        String three = MyUtils.currentCommit().getId();
+
+        Repository.checkoutBranch("dev");
+        writeContents(c, "c");
+        Repository.add(c.getName());
+        Repository.commit("dev");
+        Repository.checkoutBranch("master");
+        assertEquals("Should be the same", one, MyUtils.splitCommitOf(
+                Commit.fromFile(three), Branch.fromFile("dev").dereference()).getId());
+        Repository.merge("dev");
+        assertEquals("Should be a merge commit", 2,
+                MyUtils.currentCommit().getParentIds().size());
+        assertEquals("Should be the same", "c", readContentsAsString(c));
+
+        a.delete();
+        b.delete();
+        c.delete();
+    }
+
+    @Test
+    /** Test a torn record at the end of the commit-graph file is dropped */
+    public void testTornCommitGraph() throws IOException {
+        removeFoler(Repository.GITLET_DIR);
+
+        File f = new File("torn.txt");
+        writeContents(f, "v1");
+        Repository.init();
+        Repository.add(f.getName());
+        Repository.commit("v1");
+        String first = MyUtils.currentCommit().getId();
+        writeContents(f, "v2");
+        Repository.add(f.getName());
+        Repository.commit("v2");
+        String second = MyUtils.currentCommit().getId();
+
+        // an interrupted append leaves part of the last record
+        File file = Repository.COMMIT_GRAPH_FILE;
+        try (RandomAccessFile raf = new RandomAccessFile(file, "rw")) {
+            raf.setLength(file.length() - 3);
+        }
+        assertTrue(CommitGraph.fromFile().contains(first));
+        assertFalse(CommitGraph.fromFile().contains(second));
+
+        writeContents(f, "v3");
+        Repository.add(f.getName());
+        Repository.commit("v3");
+        String third = MyUtils.currentCommit().getId();
+        CommitGraph graph = CommitGraph.fromFile();
+        assertEquals(graph.generationOf(first) + 1, graph.generationOf(second));
+        assertEquals(graph.generationOf(second) + 1, graph.generationOf(third));
+        assertEquals(first, graph.lowestCommonAncestor(first, third));
+
+        f.delete();
+    }
+
+    @Test
+    /** Test gc packs loose objects and they can still be read */
+    public void testGcPack() throws IOException {
+        removeFoler(Repository.GITLET_DIR);
+
+        File file = new File("test.txt");
+        StringBuilder contents = new StringBuilder();
+        for (int i = 0; i < 200; i++) {
+            contents.append("line ").append(i).append("\n");
+        }
+
+        Repository.init();
+        String[] versions = new String[5];
+        String[] commitIds = new String[5];
+        for (int i = 0; i < versions.length; i++) {
+            contents.append("version ").append(i).append("\n");
+            versions[i] = contents.toString();
+            writeContents(file, versions[i]);
+            Repository.add(file.getName());
+            Repository.commit("v" + i);
+            commitIds[i] = MyUtils.currentCommit().getId();
+        }
+
+        // new commit ids stay in the overflow of the commit index until gc
+        assertTrue(Repository.COMMIT_INDEX_OVERFLOW_FILE.exists());
+        assertEquals("Should be the same", List.of(commitIds[0]),
+                CommitIndex.commitIdsWithPrefix(commitIds[0].substring(0, 8)));
+
+        // a mistyped id does not rebuild the index, a stale index is rebuilt
+        assertNull(Commit.fullIdOf("0123abcd"));
+        assertTrue(Repository.COMMIT_INDEX_OVERFLOW_FILE.exists());
+        Repository.COMMIT_INDEX_OVERFLOW_FILE.delete();
+        assertEquals("Should be the same", commitIds[4],
+                Commit.fullIdOf(commitIds[4].substring(0, 8)));
+
+        Repository.gc();
+        assertFalse(Repository.COMMIT_INDEX_OVERFLOW_FILE.exists());
+
+        // no loose objects are left
+        assertTrue("Should be packed", Repository.PACK_FILE.exists());
+        assertEquals("Should be the same", 0,
+                Utils.plainFilenamesIn(Repository.OBJECTS_DIR).size());
+
+        // every version can be read back, also with abbreviated commit ids
+        for (int i = 0; i < versions.length; i++) {
+            Repository.checkoutFile(commitIds[i].substring(0, 8), file.getName());
+            assertEquals("Should be the same", versions[i], readContentsAsString(file));
+        }
+        assertEquals("Should be the same", versions.length + 1, MyUtils.commits().size());
+
+        // new loose objects are appended to the pack
+        writeContents(file, "new version\n");
+        Repository.add(file.getName());
+        Repository.commit("v5");
+        Repository.gc();
+        Repository.checkoutFile(commitIds[0], file.getName());
+        assertEquals("Should be the same", versions[0], readContentsAsString(file));
+        Repository.checkoutFile(MyUtils.currentCommit().getId(), file.getName());
+        assertEquals("Should be the same", "new version\n", readContentsAsString(file));
+
+        file.delete();
+    }
+
+    @Test
+    /** Test add all working files with several jobs */
+    public void testAddAllParallel() throws IOException {
+        removeFoler(Repository.GITLET_DIR);
+
+        int nfile = 50;
+        File[] files = new File[nfile];
+        for (int i = 0; i < nfile; i++) {
+            files[i] = new File("parallel" + i + ".txt");
+            writeContents(files[i], "parallel " + i);
+        }
+
+        Repository.init();
+        Repository.add(".", 4);
+
+        // the same blobs are staged as with a serial add
+        Stage stage = Stage.fromFile();
+        for (File file : files) {
+            assertEquals("Should be the same", Blob.idOf(file),
+                    stage.getAddedFiles().get(file.getName()));
+            assertTrue("Should be saved", Blob.exists(Blob.idOf(file)));
+        }
+        assertEquals("Should be the same", MyUtils.workingFileNames(),
+                stage.getAddedFileNames());
+
+        for (File file : files) {
+            file.delete();
+        }
+    }
+
+    @Test
+    /** Test find through the commit log, also after rebuilding the log */
+    public void testFindWithCommitLog() throws IOException {
+        removeFoler(Repository.GITLET_DIR);
+
+        File file = new File("log.txt");
+        Repository.init();
+        List<String> fixIds = new ArrayList<String>();
+        for (int i = 0; i < 6; i++) {
+            writeContents(file, "version " + i);
+            Repository.add(file.getName());
+            String message = i % 2 == 0 ? "fix" : "feature " + i;
+            Repository.commit(message);
+            if (i % 2 == 0) {
+                fixIds.add(0, MyUtils.currentCommit().getId());
+            }
+        }
+
+        // newest first
+        assertEquals("Should be the same", fixIds, CommitLog.findByMessage("fix"));
+        assertEquals("Should be the same", 1, CommitLog.findByMessage("feature 3").size());
+        assertTrue("Should be empty", CommitLog.findByMessage("feature").isEmpty());
+
+        // new entries of the message index stay in the overflow until gc
+        assertTrue(Repository.MESSAGE_OVERFLOW_FILE.exists());
+        Repository.gc();
+        assertFalse(Repository.MESSAGE_OVERFLOW_FILE.exists());
+        assertEquals("Should be the same", fixIds, CommitLog.findByMessage("fix"));
+
+        // every commit is logged once, with the same representation
+        Set<String> logged = new HashSet<String>();
+        CommitLog.forEach(record -> {
+            logged.add(record.getId());
+            assertEquals("Should be the same", Commit.fromFile(record.getId()).toString(),
+                    record.toString());
+        });
+        assertEquals("Should be the same", 7, logged.size());
+
+        // the log of an older repository is rebuilt on demand
+        Repository.COMMIT_LOG_FILE.delete();
+        Repository.MESSAGE_INDEX_FILE.delete();
+        assertEquals("Should be the same", fixIds, CommitLog.findByMessage("fix"));
+
+        file.delete();
+    }
+
+    @Test
+    /** Test a torn record at the end of the commit log is dropped */
+    public void testTornCommitLog() throws IOException {
+        removeFoler(Repository.GITLET_DIR);
+
+        File f = new File("torn.txt");
+        writeContents(f, "v1");
+        Repository.init();
+        Repository.add(f.getName());
+        Repository.commit("v1");
+        String first = MyUtils.currentCommit().getId();
+        writeContents(f, "v2");
+        Repository.add(f.getName());
+        Repository.commit("v2");
+
+        // an interrupted append leaves part of the last record
+        File file = Repository.COMMIT_LOG_FILE;
+        try (RandomAccessFile raf = new RandomAccessFile(file, "rw")) {
+            raf.setLength(file.length() - 5);
+        }
+        List<String> logged = new ArrayList<String>();
+        CommitLog.forEach(record -> logged.add(record.getId()));
+        assertEquals("Should be the same", 2, logged.size());
+        assertTrue(logged.contains(first));
+
+        writeContents(f, "v3");
+        Repository.add(f.getName());
+        Repository.commit("v3");
+        String third = MyUtils.currentCommit().getId();
+        logged.clear();
+        CommitLog.forEach(record -> logged.add(record.getId()));
+        assertEquals("Should be the same", 3, logged.size());
+        assertTrue(logged.contains(third));
+        assertEquals("Should be the same", List.of(third), CommitLog.findByMessage("v3"));
+
+        f.delete();
+    }
+
+    @Test
+    /** Test merge combines changes to different lines of the same file */
+    public void testMergeLines() throws IOException {
+        removeFoler(Repository.GITLET_DIR);
+
+        File file = new File("lines.txt");
+        writeContents(file, "a\nb\nc\nd\ne\n");
+        Repository.init();
+        Repository.add(file.getName());
+        Repository.commit("base");
+        Repository.branch("other");
+
+        writeContents(file, "A\nb\nc\nd\ne\n");
+        Repository.add(file.getName());
+        Repository.commit("current");
+
+        Repository.checkoutBranch("other");
+        writeContents(file, "a\nb\nc\nd\nE\n");
+        Repository.add(file.getName());
+        Repository.commit("other");
+
+        Repository.checkoutBranch("master");
+        Repository.merge("other");
+        assertEquals("Should be merged", "A\nb\nc\nd\nE\n", readContentsAsString(file));
+        assertEquals("Should be the same", "A\nb\nc\nd\nE\n", Blob.fromFile(
+                MyUtils.currentCommit().getTree().get(file.getName())).getContentsAsString());
+
+        file.delete();
+    }
+
+    @Test
+    /** Test the stage log is replayed and compacted, and a journal rollback */
+    public void testStageLogJournal() throws IOException {
+        removeFoler(Repository.GITLET_DIR);
+
+        File a = new File("a.txt");
+        File b = new File("b.txt");
+        writeContents(a, "a");
+        writeContents(b, "b");
+        Repository.init();
+        Repository.add(a.getName());
+        Repository.commit("a");
+
+        // small changes are appended to the log
+        Repository.add(b.getName());
+        Repository.rm(a.getName());
+        assertTrue(Repository.STAGE_LOG_FILE.exists());
+        Stage stage = Stage.fromFile();
+        assertEquals("Should be the same", Set.of(b.getName()), stage.getAddedFiles().keySet());
+        assertEquals("Should be the same", Set.of(a.getName()), stage.getRemovedFileNames());
+
+        // a commit compacts the log
+        Repository.commit("b");
+        assertFalse(Repository.STAGE_LOG_FILE.exists());
+        stage = Stage.fromFile();
+        assertEquals("Should be the same", 0, stage.getAddedFiles().size());
+        assertEquals("Should be the same", Set.of(b.getName()), stage.getTrackedFiles().keySet());
+
+        // a rollback undoes every change of the transaction
+        writeContents(a, "a");
+        Journal.begin();
+        Repository.branch("other");
+        Repository.add(a.getName());
+        Journal.rollback();
+        assertFalse(MyUtils.branchExists("other"));
+        assertFalse(Repository.JOURNAL_FILE.exists());
+        assertEquals("Should be the same", 0, Stage.fromFile().getAddedFiles().size());
+
+        a.delete();
+        b.delete();
+    }
+
+    @Test
+    /** Test the changed-path filters and the path-limited log */
+    public void testLogPath() throws IOException {
+        removeFoler(Repository.GITLET_DIR);
+
+        File a = new File("a.txt");
+        File b = new File("b.txt");
+        writeContents(a, "a1");
+        writeContents(b, "b1");
+        Repository.init();
+        Repository.add(a.getName());
+        Repository.add(b.getName());
+        Repository.commit("a1 b1");
+        String first = MyUtils.currentCommit().getId();
+        writeContents(b, "b2");
+        Repository.add(b.getName());
+        Repository.commit("b2");
+        String second = MyUtils.currentCommit().getId();
+
+        // filters never miss a changed file
+        ChangedPaths paths = ChangedPaths.fromFile();
+        assertTrue(paths.mayHaveChanged(first, ChangedPaths.hashOf(a.getName())));
+        assertTrue(paths.mayHaveChanged(first, ChangedPaths.hashOf(b.getName())));
+        assertTrue(paths.mayHaveChanged(second, ChangedPaths.hashOf(b.getName())));
+
+        PrintStream stdout = System.out;
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        System.setOut(new PrintStream(out));
+        try {
+            Repository.log(a.getName());
+        } finally {
+            System.setOut(stdout);
+        }
+        String log = out.toString();
+        assertTrue(log.contains(first));
+        assertFalse(log.contains(second));
+
+        // commits made before the filters existed get them on the way
+        Repository.CHANGED_PATHS_FILE.delete();
+        out.reset();
+        System.setOut(new PrintStream(out));
+        try {
+            Repository.log(b.getName());
+        } finally {
+            System.setOut(stdout);
+        }
+        log = out.toString();
+        assertTrue(log.contains(first));
+        assertTrue(log.contains(second));
+        assertTrue(ChangedPaths.fromFile().contains(second));
+
+        a.delete();
+        b.delete();
+    }
+
+    @Test
+    /** Test the path-limited log of a commit with an abbreviated parent id */
+    public void testLogPathAbbreviatedParent() throws IOException {
+        removeFoler(Repository.GITLET_DIR);
+
+        File a = new File("a.txt");
+        File b = new File("b.txt");
+        writeContents(a, "a1");
+        Repository.init();
+        Repository.add(a.getName());
+        Repository.commit("one");
+        String one = MyUtils.currentCommit().getId();
+        writeContents(b, "b1");
+        Repository.add(b.getName());
+        Repository.commit("two");
+        Commit two = MyUtils.currentCommit();
+
+        // older versions recorded the parent as typed in a reset
+        Codec.Encoder out = new Codec.Encoder(Codec.COMMIT);
+        out.writeId(two.getId());
+        out.writeVarLong(two.getTime());
+        out.writeVarInt(1);
+        out.writeId(one.substring(0, 8));
+        out.writeString(two.getMessage());
+        out.writeId(two.getTree().getId());
+        writeContents(Utils.join(Repository.OBJECTS_DIR, two.getId()), out.toByteArray());
+        ObjectCache.remove(two.getId());
+        Repository.CHANGED_PATHS_FILE.delete();
+
+        PrintStream stdout = System.out;
+        ByteArrayOutputStream log = new ByteArrayOutputStream();
+        System.setOut(new PrintStream(log));
+        try {
+            Repository.log(a.getName());
+        } finally {
+            System.setOut(stdout);
+        }
+        assertTrue(log.toString().contains(one));
+        assertFalse(log.toString().contains(two.getId()));
+
+        a.delete();
+        b.delete();
+    }
+
+    @Test
+    /** Test a torn record at the end of the changed-paths file is dropped */
+    public void testTornChangedPaths() throws IOException {
+        removeFoler(Repository.GITLET_DIR);
+
+        File f = new File("torn.txt");
+        writeContents(f, "v1");
+        Repository.init();
+        Repository.add(f.getName());
+        Repository.commit("v1");
+        String first = MyUtils.currentCommit().getId();
+        writeContents(f, "v2");
+        Repository.add(f.getName());
+        Repository.commit("v2");
+        String second = MyUtils.currentCommit().getId();
+
+        // an interrupted append leaves part of the last record
+        File file = Repository.CHANGED_PATHS_FILE;
+        try (RandomAccessFile raf = new RandomAccessFile(file, "rw")) {
+            raf.setLength(file.length() - 3);
+        }
+        assertTrue(ChangedPaths.fromFile().contains(first));
+        assertFalse(ChangedPaths.fromFile().contains(second));
+
+        writeContents(f, "v3");
+        Repository.add(f.getName());
+        Repository.commit("v3");
+        String third = MyUtils.currentCommit().getId();
+        ChangedPaths paths = ChangedPaths.fromFile();
+        assertTrue(paths.contains(third));
+        assertTrue(paths.mayHaveChanged(third, ChangedPaths.hashOf(f.getName())));
+
+        f.delete();
+    }
+
+    @Test
+    /** Test commands forwarded to a daemon, and the lock between commands */
+    public void testDaemon() throws Exception {
+        removeFoler(Repository.GITLET_DIR);
+
+        File a = new File("a.txt");
+        writeContents(a, "a");
+        Repository.init();
+        Thread daemon = new Thread(() -> {
+            try {
+                Daemon.serve();
+            } catch (IOException excp) {
+                throw new RuntimeException(excp);
+            }
+        });
+        daemon.start();
+        while (!Daemon.isServing()) {
+            Thread.sleep(10);
+        }
+
+        PrintStream stdout = System.out;
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        System.setOut(new PrintStream(out));
+        try {
+            assertTrue(Daemon.forward(new String[] {"add", a.getName()}));
+            assertTrue(Daemon.forward(new String[] {"commit", "a"}));
+            // a failing command ends, the daemon goes on
+            assertTrue(Daemon.forward(new String[] {"commit", "nothing"}));
+            assertTrue(Daemon.forward(new String[] {"daemon", "stop"}));
+        } finally {
+            System.setOut(stdout);
+        }
+        daemon.join();
+
+        assertEquals("Should be the same", "No changes added to the commit.\n"
+                + "Stopped the gitlet daemon.\n", out.toString());
+        assertFalse(Repository.DAEMON_SOCKET_FILE.exists());
+        assertFalse(Repository.LOCK_FILE.exists());
+        assertEquals("Should be the same", "a", MyUtils.currentCommit().getMessage());
+        assertFalse(Daemon.forward(new String[] {"status"}));
+
+        a.delete();
+    }
+
+    @Test
+    /** Test diff of the working directory, the stage and commits */
+    public void testDiff() throws IOException {
+        removeFoler(Repository.GITLET_DIR);
+
+        File a = new File("a.txt");
+        File b = new File("b.txt");
+        writeContents(a, "1\n2\n3\n4\n5\n6\n7\n8\n9\n");
+        writeContents(b, "b\n");
+        Repository.init();
+        Repository.add(a.getName());
+        Repository.add(b.getName());
+        Repository.commit("a b");
+        String first = MyUtils.currentCommit().getId();
+        writeContents(a, "1\n2\n3\n4\nfive\n6\n7\n8\n9\n");
+
+        PrintStream stdout = System.out;
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        System.setOut(new PrintStream(out));
+        try {
+            Repository.diff();
+            Repository.add(a.getName());
+            Repository.diffCached();
+            Repository.diff();
+        } finally {
+            System.setOut(stdout);
+        }
+        String change = "diff --git a/a.txt b/a.txt\n--- a/a.txt\n+++ b/a.txt\n"
+                + "@@ -2,7 +2,7 @@\n 2\n 3\n 4\n-5\n+five\n 6\n 7\n 8\n";
+        // the unchanged b.txt is not shown, nor the staged a.txt the second time
+        assertEquals("Should be the same", change + change, out.toString());
+
+        Repository.rm(b.getName());
+        Repository.commit("five");
+        out.reset();
+        System.setOut(new PrintStream(out));
+        try {
+            Repository.diff(first, "master");
+        } finally {
+            System.setOut(stdout);
+        }
+        String removal = "diff --git a/b.txt b/b.txt\n--- a/b.txt\n+++ /dev/null\n"
+                + "@@ -1 +0,0 @@\n-b\n";
+        assertEquals("Should be the same", change + removal, out.toString());
+
+        a.delete();
+    }
+
+    @Test
+    /** Test checkout only writes changed files, and only inside the sparse checkout */
+    public void testSparseCheckout() throws IOException {
+        removeFoler(Repository.GITLET_DIR);
+
+        File a = new File("a.txt");
+        File b = new File("b.java");
+        writeContents(a, "a");
+        writeContents(b, "b");
+        Repository.init();
+        Repository.add(a.getName());
+        Repository.add(b.getName());
+        Repository.commit("a and b");
+        Repository.branch("other");
+        writeContents(b, "b2");
+        Repository.add(b.getName());
+        Repository.commit("b2");
+
+        // an unchanged file is not rewritten
+        a.setLastModified(1000);
+        Repository.checkoutBranch("other");
+        assertEquals("Should be the same", 1000, a.lastModified());
+        assertEquals("Should be the same", "b", readContentsAsString(b));
+
+        // only the java files are materialized
+        Repository.sparseCheckout(List.of("*.java"));
+        assertFalse(a.exists());
+        assertTrue(b.exists());
+        Repository.checkoutBranch("master");
+        assertFalse(a.exists());
+        assertEquals("Should be the same", "b2", readContentsAsString(b));
+        assertTrue(Stage.fromFile().getTrackedFiles().containsKey(a.getName()));
+
+        // the files outside the sparse checkout are committed unchanged
+        writeContents(b, "b3");
+        Repository.add(b.getName());
+        Repository.commit("b3");
+        assertTrue(MyUtils.currentCommit().getTrackedFiles().containsKey(a.getName()));
+
+        Repository.sparseCheckout(List.of());
+        assertEquals("Should be the same", "a", readContentsAsString(a));
+
+        a.delete();
+        b.delete();
+    }
+
+    @Test
+    /** Test reset to the current commit restores edited and deleted files */
+    public void testResetRestoresWorkingFiles() throws IOException {
+        removeFoler(Repository.GITLET_DIR);
+
+        File f = new File("f.txt");
+        writeContents(f, "f");
+        Repository.init();
+        Repository.add(f.getName());
+        Repository.commit("f");
+        String head = MyUtils.currentCommit().getId();
+
+        writeContents(f, "dirty");
+        Repository.reset(head);
+        assertEquals("Should be the same", "f", readContentsAsString(f));
+
+        f.delete();
+        Repository.reset(head);
+        assertTrue(f.exists());
+        assertEquals("Should be the same", "f", readContentsAsString(f));
+
+        f.delete();
+    }
+
+    @Test
+    /** Test fetch from and push to a remote */
+    public void testRemote() throws IOException {
+        removeFoler(Repository.GITLET_DIR);
+        File remoteDir = new File("remote-test");
+        removeFoler(remoteDir);
+
+        File a = new File("a.txt");
+        File b = new File("b.txt");
+        writeContents(a, "a1");
+        Repository.init();
+        Repository.add(a.getName());
+        Repository.commit("a1");
+        writeContents(a, "a2");
+        Repository.add(a.getName());
+        Repository.commit("a2");
+        Commit remoteHead = MyUtils.currentCommit();
+        Repository.gc();
+
+        // the remote is this repository, and this repository starts over
+        copyFolder(Repository.GITLET_DIR, Utils.join(remoteDir, ".gitlet"));
+        removeFoler(Repository.GITLET_DIR);
+        a.delete();
+        Repository.init();
+        Repository.addRemote("r", "remote-test/.gitlet");
+        Repository.fetch("r", "master");
+        Lock.release();
+        assertEquals("Should be the same", remoteHead.getId(),
+                Branch.fromFile("r/master").getCommitId());
+        assertEquals("Should be the same", 3, MyUtils.commits().size());
+        Repository.checkoutFile(remoteHead.getId(), a.getName());
+        assertEquals("Should be the same", "a2", readContentsAsString(a));
+
+        // push a new commit back
+        a.delete();
+        Repository.reset(remoteHead.getId());
+        writeContents(b, "b");
+        Repository.add(b.getName());
+        Repository.commit("b");
+        Repository.push("r", "master");
+        Lock.release();
+        File remoteBranch = Utils.join(remoteDir, ".gitlet", "refs", "heads", "master");
+        assertEquals("Should be the same", MyUtils.currentCommit().getId(),
+                Branch.decode(Utils.readContents(remoteBranch)).getCommitId());
+        assertFalse(Utils.join(remoteDir, ".gitlet", "lock").exists());
+
+        a.delete();
+        b.delete();
+        removeFoler(remoteDir);
+    }
+
+    private static void copyFolder(File source, File target) throws IOException {
+        if (source.isDirectory()) {
+            target.mkdirs();
+            for (File subFile : source.listFiles()) {
+                copyFolder(subFile, new File(target, subFile.getName()));
+            }
+        } else {
+            java.nio.file.Files.copy(source.toPath(), target.toPath());
+        }
+    }
+
     private static void removeFoler(File file) {
         if (file.isDirectory()) {
             for (File subFile : file.listFiles()) {
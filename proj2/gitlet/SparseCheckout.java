@@ -0,0 +1,100 @@
+package gitlet;
+
+import static gitlet.Utils.readContentsAsString;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.FileSystems;
+import java.nio.file.Path;
+import java.nio.file.PathMatcher;
+import java.nio.file.Paths;
+import java.util.*;
+
+/**
+ * Represents the sparse-checkout patterns of the working directory. When
+ * they are set, only the tracked files whose names match one of the
+ * patterns are written to the working directory; the other files stay
+ * tracked, are committed unchanged, and are not reported as deleted, so a
+ * huge repository can materialize only the subset of files it works on.
+ *
+ * Without the patterns file every file is included.
+ *
+ * File format: one glob pattern per line (see
+ * {@link java.nio.file.FileSystem#getPathMatcher})
+ */
+public class SparseCheckout {
+    /** The matchers of the patterns */
+    private final List<PathMatcher> matchers;
+
+    private SparseCheckout(List<String> patterns) {
+        this.matchers = new ArrayList<PathMatcher>();
+        for (String pattern : patterns) {
+            try {
+                matchers.add(FileSystems.getDefault().getPathMatcher("glob:" + pattern));
+            } catch (IllegalArgumentException excp) {
+                MyUtils.exit("Invalid sparse-checkout pattern: %s", pattern);
+            }
+        }
+    }
+
+    /**
+     * Load the patterns from the sparse-checkout file.
+     *
+     * @return the patterns, which include every file if the file does not
+     *         exist
+     */
+    public static SparseCheckout fromFile() {
+        File file = Repository.SPARSE_CHECKOUT_FILE;
+        if (!file.exists()) {
+            return new SparseCheckout(Collections.emptyList());
+        }
+        List<String> patterns = new ArrayList<String>();
+        for (String line : readContentsAsString(file).split("\n")) {
+            if (!line.isBlank()) {
+                patterns.add(line.strip());
+            }
+        }
+        return new SparseCheckout(patterns);
+    }
+
+    /**
+     * Create the patterns, and save them to the sparse-checkout file. No
+     * pattern removes the file, so every file is included again.
+     *
+     * @param patterns the glob patterns
+     * @return the patterns
+     */
+    public static SparseCheckout save(List<String> patterns) throws IOException {
+        SparseCheckout sparse = new SparseCheckout(new ArrayList<String>(patterns));
+        File file = Repository.SPARSE_CHECKOUT_FILE;
+        if (patterns.isEmpty()) {
+            if (file.exists()) {
+                Journal.delete(file);
+            }
+        } else {
+            String contents = String.join("\n", patterns) + "\n";
+            Journal.write(file, contents.getBytes(StandardCharsets.UTF_8));
+        }
+        return sparse;
+    }
+
+    /**
+     * Check if the file is written to the working directory.
+     *
+     * @param fileName the file name
+     * @return true if no pattern is set, or the name matches a pattern
+     */
+    public boolean includes(String fileName) {
+        if (matchers.isEmpty()) {
+            return true;
+        }
+        Path path = Paths.get(fileName);
+        for (PathMatcher matcher : matchers) {
+            if (matcher.matches(path)) {
+                return true;
+            }
+        }
+        return false;
+    }
+}
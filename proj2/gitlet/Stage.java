@@ -1,13 +1,35 @@
 package gitlet;
 
-import static gitlet.Utils.readObject;
+import static gitlet.Utils.deserialize;
+import static gitlet.Utils.readContents;
 import static gitlet.Utils.restrictedDelete;
-import static gitlet.Utils.writeObject;
 
 import java.io.*;
+import java.nio.file.Files;
+import java.nio.file.attribute.BasicFileAttributes;
 import java.util.*;
-
+import java.util.zip.CRC32;
+
+/**
+ * Represents the stage: the tracked files of the current commit, and the
+ * files added and removed since.
+ * The STAGE file holds a full snapshot of the stage. Small changes (adding
+ * or removing a file, updating the stat cache) are appended to the stage log
+ * instead of rewriting the snapshot, and replayed when the stage is loaded.
+ * The log is compacted into a new snapshot once it grows longer than the
+ * stage itself, or when the tracked files change.
+ *
+ * Stage log format:
+ * batch*, where a batch is written by one saveStage and is
+ * length (int) | record* | CRC32 of the records (long)
+ * and a record is
+ * ADD | UNADD | REMOVE | UNREMOVE | STAT | UNSTAT (byte) | file name (UTF)
+ * | blob id (UTF, ADD only) | mtime, size, inode (longs), blob id (UTF, STAT
+ * only)
+ */
 public class Stage implements Dumpable {
+    /** The serialization version, kept so older stage files stay readable */
+    private static final long serialVersionUID = -8037243265764199987L;
 
     /** The tracked files */
     private Map<String, String> trackedFiles;
@@ -15,29 +37,140 @@ public class Stage implements Dumpable {
     private Map<String, String> addedFiles;
     /** The removed files */
     private Set<String> removedFileNames;
+    /** The [path:stat] cache of working files, used to avoid re-hashing */
+    private Map<String, StatEntry> statCache;
+    /** Whether the stat cache changed since the stage was loaded */
+    private transient boolean statCacheChanged;
+    /**
+     * The modification time of the STAGE file when it was loaded, files
+     * modified no earlier than this may change unnoticed and must be re-hashed
+     */
+    private transient long loadedTime;
+    /** The changes not saved yet, encoded as stage log records */
+    private transient ByteArrayOutputStream pendingLog;
+    /** The number of records in pendingLog */
+    private transient int pendingRecords;
+    /** The number of records in the stage log */
+    private transient int logRecords;
+    /** Whether the snapshot must be rewritten, e.g. the tracked files changed */
+    private transient boolean rewrite;
     /** The index file */
     private static final File FILE = Repository.STAGE_FILE;
+    /** The stage log */
+    private static final File LOG_FILE = Repository.STAGE_LOG_FILE;
+    /** The stage last loaded or saved by a daemon */
+    private static Stage cachedStage;
+    /** The modification stamp of the STAGE file and the log of the cached stage */
+    private static String cachedStamp;
+    /** The minimal number of log records before the log is compacted */
+    private static final int MIN_COMPACT_RECORDS = 256;
+
+    /** A file is added with the given blob id */
+    private static final byte ADD = 1;
+    /** A file is no longer added */
+    private static final byte UNADD = 2;
+    /** A file is removed */
+    private static final byte REMOVE = 3;
+    /** A file is no longer removed */
+    private static final byte UNREMOVE = 4;
+    /** The stat data of a file is cached */
+    private static final byte STAT = 5;
+    /** The stat data of a file is dropped */
+    private static final byte UNSTAT = 6;
 
     public Stage() {
         this.addedFiles = new HashMap<String, String>();
         this.removedFileNames = new HashSet<String>();
         this.trackedFiles = new HashMap<String, String>();
+        this.statCache = new HashMap<String, StatEntry>();
+        this.pendingLog = new ByteArrayOutputStream();
+        this.rewrite = true;
     }
 
     /**
-     * Create a new stage from the STAGE file.
+     * Create a new stage from the STAGE file and the stage log.
      * 
      * @return the new stage
      */
     public static Stage fromFile() {
-        return readObject(FILE, Stage.class);
+        // a daemon keeps the stage between commands, a command gets a copy it
+        // may change without saving
+        boolean caching = Daemon.isServing();
+        String stamp = caching ? stampOf() : null;
+        if (caching && cachedStage != null && stamp.equals(cachedStamp)) {
+            return cachedStage.copy();
+        }
+
+        Stage stage = decode(readContents(FILE));
+        if (stage.statCache == null) {
+            stage.statCache = new HashMap<String, StatEntry>();
+        }
+        stage.pendingLog = new ByteArrayOutputStream();
+        stage.replayLog();
+        stage.loadedTime = Math.max(FILE.lastModified(), LOG_FILE.lastModified());
+        if (caching) {
+            cachedStage = stage.copy();
+            cachedStamp = stamp;
+        }
+        return stage;
+    }
+
+    /**
+     * Get the modification stamp of the STAGE file and the stage log.
+     */
+    private static String stampOf() {
+        return FILE.lastModified() + ":" + FILE.length() + ":"
+                + LOG_FILE.lastModified() + ":" + LOG_FILE.length();
     }
 
     /**
-     * Save the stage to the STAGE file.
+     * Copy this stage, as saved: the copy has no pending changes.
+     */
+    private Stage copy() {
+        Stage stage = new Stage();
+        stage.trackedFiles.putAll(trackedFiles);
+        stage.addedFiles.putAll(addedFiles);
+        stage.removedFileNames.addAll(removedFileNames);
+        stage.statCache.putAll(statCache);
+        stage.loadedTime = loadedTime;
+        stage.logRecords = logRecords;
+        stage.rewrite = false;
+        return stage;
+    }
+
+    /**
+     * Save the stage. The changes since the stage was loaded are appended to
+     * the stage log, unless the snapshot has to be rewritten.
      */
     public void saveStage() {
-        writeObject(FILE, this);
+        try {
+            if (rewrite || logRecords + pendingRecords > compactThreshold()) {
+                Journal.write(FILE, encode());
+                Journal.delete(LOG_FILE);
+                logRecords = 0;
+            } else if (pendingRecords > 0) {
+                byte[] records = pendingLog.toByteArray();
+                CRC32 crc = new CRC32();
+                crc.update(records);
+                ByteArrayOutputStream batch = new ByteArrayOutputStream();
+                DataOutputStream out = new DataOutputStream(batch);
+                out.writeInt(records.length);
+                out.write(records);
+                out.writeLong(crc.getValue());
+                Journal.append(LOG_FILE, batch.toByteArray());
+                logRecords += pendingRecords;
+            }
+        } catch (IOException excp) {
+            throw Utils.error("Cannot save the stage: %s", excp.getMessage());
+        }
+        pendingLog.reset();
+        pendingRecords = 0;
+        rewrite = false;
+        statCacheChanged = false;
+        if (Daemon.isServing()) {
+            cachedStage = copy();
+            cachedStamp = stampOf();
+        }
     }
 
     /**
@@ -47,19 +180,70 @@ public class Stage implements Dumpable {
      * @return true if the file was added, false otherwise
      */
     public boolean addFile(File file) throws IOException {
+        String blobId = blobIdOf(file);
+        boolean changed = stageBlob(file.getName(), blobId);
+        if (changed && !Blob.exists(blobId)) {
+            new Blob(file).saveBlob();
+        }
+        return changed;
+    }
+
+    /**
+     * Add several files to the stage. The files are hashed, and the new blobs
+     * saved, by JOBS workers in parallel; the stage itself is updated in file
+     * name order, so the result does not depend on the scheduling.
+     * 
+     * @param files the files to add
+     * @param jobs  the number of workers
+     * @return true if any file was added, false otherwise
+     */
+    public boolean addFiles(Collection<File> files, int jobs) throws IOException {
+        Map<String, String> blobIds = blobIdsOf(files, jobs);
+        Map<String, File> byName = new HashMap<String, File>();
+        for (File file : files) {
+            byName.put(file.getName(), file);
+        }
+
         boolean changed = false;
+        List<File> toSave = new ArrayList<File>();
+        for (Map.Entry<String, String> entry : blobIds.entrySet()) {
+            String fileName = entry.getKey();
+            String blobId = entry.getValue();
+            if (stageBlob(fileName, blobId)) {
+                changed = true;
+                if (!Blob.exists(blobId)) {
+                    toSave.add(byName.get(fileName));
+                }
+            }
+        }
 
-        Blob blob = new Blob(file);
-        String fileName = blob.getFileName();
-        String blobId = blob.getId();
+        MyUtils.parallelFor(toSave.size(), jobs, i -> {
+            try {
+                new Blob(toSave.get(i)).saveBlob();
+            } catch (IOException excp) {
+                throw new UncheckedIOException(excp);
+            }
+        });
+        return changed;
+    }
+
+    /**
+     * Stage the blob as the new version of the file.
+     * 
+     * @return true if the stage changed, false otherwise
+     */
+    private boolean stageBlob(String fileName, String blobId) {
+        boolean changed = false;
 
         if (removedFileNames.remove(fileName)) {
+            logChange(UNREMOVE, fileName, null);
             changed = true;
         }
 
         if (trackedFiles.containsKey(fileName)) {
             if (trackedFiles.get(fileName).equals(blobId)) {
                 if (addedFiles.remove(fileName) != null) {
+                    logChange(UNADD, fileName, null);
                     changed = true;
                 }
                 return changed;
@@ -70,10 +254,8 @@ public class Stage implements Dumpable {
         if (prevBlobId != null && prevBlobId.equals(blobId)) {
             changed = false;
         } else {
+            logChange(ADD, fileName, blobId);
             changed = true;
-            if (!blob.getFile().exists()) {
-                blob.saveBlob();
-            }
         }
 
         return changed;
@@ -91,11 +273,13 @@ public class Stage implements Dumpable {
         String fileName = file.getName();
 
         if (addedFiles.remove(fileName) != null) {
+            logChange(UNADD, fileName, null);
             changed = true;
         }
 
         if (trackedFiles.containsKey(fileName)) {
             if (removedFileNames.add(fileName)) {
+                logChange(REMOVE, fileName, null);
                 changed = true;
             }
 
@@ -124,6 +308,7 @@ public class Stage implements Dumpable {
         }
 
         clearChanges();
+        rewrite = true;
 
         return true;
     }
@@ -164,6 +349,98 @@ public class Stage implements Dumpable {
         return trackedFiles;
     }
 
+    /**
+     * Get the blob id of a working file. The file is only hashed if its stat
+     * data (modification time, size and inode) differs from the cached one, or
+     * if it was modified so recently that a change could have gone unnoticed.
+     * 
+     * @param file the working file
+     * @return the blob id of the file
+     */
+    public String blobIdOf(File file) {
+        StatEntry stat = lookupStat(file);
+        cacheStat(file.getName(), stat);
+        return stat.blobId;
+    }
+
+    /**
+     * Get the blob ids of several working files, hashing the files whose stat
+     * data changed with JOBS workers in parallel.
+     * 
+     * @param files the working files
+     * @param jobs  the number of workers
+     * @return the [fileName:blobId] map, sorted by file name
+     */
+    public Map<String, String> blobIdsOf(Collection<File> files, int jobs) {
+        List<File> sorted = new ArrayList<File>(files);
+        sorted.sort(Comparator.comparing(File::getName));
+
+        // the workers only read the cache, the results are merged afterwards
+        StatEntry[] stats = new StatEntry[sorted.size()];
+        MyUtils.parallelFor(sorted.size(), jobs, i -> stats[i] = lookupStat(sorted.get(i)));
+
+        Map<String, String> blobIds = new TreeMap<String, String>();
+        for (int i = 0; i < stats.length; i++) {
+            String fileName = sorted.get(i).getName();
+            cacheStat(fileName, stats[i]);
+            blobIds.put(fileName, stats[i].blobId);
+        }
+        return blobIds;
+    }
+
+    /**
+     * Get the stat data of a working file with its blob id, either the cached
+     * one or a new one if the file has to be hashed. The cache is not changed.
+     */
+    private StatEntry lookupStat(File file) {
+        StatEntry stat = StatEntry.of(file);
+        StatEntry cached = statCache.get(file.getName());
+        if (cached != null && cached.sameStat(stat) && cached.mtime < loadedTime) {
+            return cached;
+        }
+
+        stat.blobId = Blob.idOf(file);
+        return stat;
+    }
+
+    /**
+     * Put the stat data in the cache, if it is not already there.
+     */
+    private void cacheStat(String fileName, StatEntry stat) {
+        if (statCache.get(fileName) != stat) {
+            statCache.put(fileName, stat);
+            logStat(fileName, stat);
+            statCacheChanged = true;
+        }
+    }
+
+    /**
+     * Drop the cached stat data of files which are not in the working
+     * directory anymore.
+     * 
+     * @param fileNames the names of the working files
+     */
+    public void retainStatCache(Set<String> fileNames) {
+        Iterator<String> cached = statCache.keySet().iterator();
+        while (cached.hasNext()) {
+            String fileName = cached.next();
+            if (!fileNames.contains(fileName)) {
+                cached.remove();
+                logChange(UNSTAT, fileName, null);
+                statCacheChanged = true;
+            }
+        }
+    }
+
+    /**
+     * Check if the stat cache changed and the stage should be saved.
+     * 
+     * @return true if the stat cache changed
+     */
+    public boolean isStatCacheChanged() {
+        return statCacheChanged;
+    }
+
     /**
      * Clear the stage.
      */
@@ -180,7 +457,9 @@ public class Stage implements Dumpable {
     public void clearForCheckoutCommit(Commit commit) {
         addedFiles.clear();
         removedFileNames.clear();
-        this.trackedFiles = commit.getTrackedFiles();
+        // the commit may be shared through the object cache, keep it intact
+        this.trackedFiles = new HashMap<String, String>(commit.getTrackedFiles());
+        rewrite = true;
     }
 
     /**
@@ -215,4 +494,238 @@ public class Stage implements Dumpable {
     public void dump() {
         System.out.println(this);
     }
+
+    /**
+     * Save the stage as a new snapshot, folding in the stage log.
+     */
+    void compactStage() {
+        rewrite = true;
+        saveStage();
+    }
+
+    /**
+     * Encode the stage (see {@link Codec}) as
+     * tracked files | added files | removed file names | stat cache
+     * where the files are a count (varint) followed by (name, blob id) pairs,
+     * the removed file names a count followed by names, and the stat cache a
+     * count followed by (name, mtime, size, inode, blob id) entries with
+     * varint stat data.
+     *
+     * @return the encoded stage
+     */
+    byte[] encode() {
+        Codec.Encoder out = new Codec.Encoder(Codec.STAGE);
+        encodeFiles(out, trackedFiles);
+        encodeFiles(out, addedFiles);
+        out.writeVarInt(removedFileNames.size());
+        for (String fileName : removedFileNames) {
+            out.writeString(fileName);
+        }
+        out.writeVarInt(statCache.size());
+        for (Map.Entry<String, StatEntry> entry : statCache.entrySet()) {
+            StatEntry stat = entry.getValue();
+            out.writeString(entry.getKey());
+            out.writeVarLong(stat.mtime);
+            out.writeVarLong(stat.size);
+            out.writeVarLong(stat.inode);
+            out.writeId(stat.blobId);
+        }
+        return out.toByteArray();
+    }
+
+    /**
+     * Decode a stage, either encoded or written by Java serialization.
+     *
+     * @param data the stored stage
+     * @return the stage, without the changes in the stage log
+     */
+    static Stage decode(byte[] data) {
+        if (Codec.isSerialized(data)) {
+            return deserialize(data, Stage.class);
+        }
+        Codec.Decoder in = new Codec.Decoder(data, Codec.STAGE);
+        Stage stage = new Stage();
+        stage.rewrite = false;
+        decodeFiles(in, stage.trackedFiles);
+        decodeFiles(in, stage.addedFiles);
+        int removedCount = in.readVarInt();
+        for (int k = 0; k < removedCount; k++) {
+            stage.removedFileNames.add(in.readString());
+        }
+        int statCount = in.readVarInt();
+        for (int k = 0; k < statCount; k++) {
+            String fileName = in.readString();
+            StatEntry stat = new StatEntry(in.readVarLong(), in.readVarLong(), in.readVarLong());
+            stat.blobId = in.readId();
+            stage.statCache.put(fileName, stat);
+        }
+        return stage;
+    }
+
+    private static void encodeFiles(Codec.Encoder out, Map<String, String> files) {
+        out.writeVarInt(files.size());
+        for (Map.Entry<String, String> entry : files.entrySet()) {
+            out.writeString(entry.getKey());
+            out.writeId(entry.getValue());
+        }
+    }
+
+    private static void decodeFiles(Codec.Decoder in, Map<String, String> files) {
+        int count = in.readVarInt();
+        for (int k = 0; k < count; k++) {
+            String fileName = in.readString();
+            files.put(fileName, in.readId());
+        }
+    }
+
+    /**
+     * Get the number of log records after which the log is compacted, so
+     * replaying the log never costs more than reading the snapshot.
+     */
+    private int compactThreshold() {
+        return Math.max(MIN_COMPACT_RECORDS, trackedFiles.size() + statCache.size());
+    }
+
+    /**
+     * Record a change of the added or removed files, or a dropped stat entry.
+     */
+    private void logChange(byte op, String fileName, String blobId) {
+        try {
+            DataOutputStream out = new DataOutputStream(pendingLog);
+            out.writeByte(op);
+            out.writeUTF(fileName);
+            if (op == ADD) {
+                out.writeUTF(blobId);
+            }
+        } catch (IOException excp) {
+            throw new UncheckedIOException(excp);
+        }
+        pendingRecords++;
+    }
+
+    /**
+     * Record a new stat entry.
+     */
+    private void logStat(String fileName, StatEntry stat) {
+        try {
+            DataOutputStream out = new DataOutputStream(pendingLog);
+            out.writeByte(STAT);
+            out.writeUTF(fileName);
+            out.writeLong(stat.mtime);
+            out.writeLong(stat.size);
+            out.writeLong(stat.inode);
+            out.writeUTF(stat.blobId);
+        } catch (IOException excp) {
+            throw new UncheckedIOException(excp);
+        }
+        pendingRecords++;
+    }
+
+    /**
+     * Apply the stage log to the snapshot. A torn or corrupted last batch,
+     * left by an interrupted write, is ignored.
+     */
+    private void replayLog() {
+        if (!LOG_FILE.exists()) {
+            return;
+        }
+        try (DataInputStream in = new DataInputStream(
+                new BufferedInputStream(new FileInputStream(LOG_FILE)))) {
+            while (true) {
+                byte[] records;
+                long checksum;
+                try {
+                    records = new byte[in.readInt()];
+                    in.readFully(records);
+                    checksum = in.readLong();
+                } catch (EOFException | NegativeArraySizeException excp) {
+                    break;
+                }
+                CRC32 crc = new CRC32();
+                crc.update(records);
+                if (crc.getValue() != checksum) {
+                    break;
+                }
+                applyRecords(records);
+            }
+        } catch (IOException excp) {
+            throw Utils.error("Cannot read the stage log: %s", excp.getMessage());
+        }
+    }
+
+    private void applyRecords(byte[] records) throws IOException {
+        DataInputStream in = new DataInputStream(new ByteArrayInputStream(records));
+        while (in.available() > 0) {
+            byte op = in.readByte();
+            String fileName = in.readUTF();
+            switch (op) {
+                case ADD:
+                    addedFiles.put(fileName, in.readUTF());
+                    break;
+                case UNADD:
+                    addedFiles.remove(fileName);
+                    break;
+                case REMOVE:
+                    removedFileNames.add(fileName);
+                    break;
+                case UNREMOVE:
+                    removedFileNames.remove(fileName);
+                    break;
+                case STAT:
+                    StatEntry stat = new StatEntry(in.readLong(), in.readLong(), in.readLong());
+                    stat.blobId = in.readUTF();
+                    statCache.put(fileName, stat);
+                    break;
+                case UNSTAT:
+                    statCache.remove(fileName);
+                    break;
+                default:
+                    throw Utils.error("Corrupted stage log.");
+            }
+            logRecords++;
+        }
+    }
+
+    /**
+     * The stat data of a working file together with its blob id.
+     */
+    private static class StatEntry implements Serializable {
+        /** The modification time in milliseconds */
+        private final long mtime;
+        /** The size in bytes */
+        private final long size;
+        /** The inode, or 0 if the file system does not expose one */
+        private final long inode;
+        /** The blob id of the file contents */
+        private String blobId;
+
+        private StatEntry(long mtime, long size, long inode) {
+            this.mtime = mtime;
+            this.size = size;
+            this.inode = inode;
+        }
+
+        /**
+         * Read the stat data of the given file.
+         */
+        private static StatEntry of(File file) {
+            try {
+                BasicFileAttributes attrs = Files.readAttributes(
+                        file.toPath(), BasicFileAttributes.class);
+                long inode = 0;
+                try {
+                    inode = ((Number) Files.getAttribute(file.toPath(), "unix:ino")).longValue();
+                } catch (UnsupportedOperationException | IllegalArgumentException excp) {
+                    // not a unix file system, compare modification time and size only
+                }
+                return new StatEntry(attrs.lastModifiedTime().toMillis(), attrs.size(), inode);
+            } catch (IOException excp) {
+                throw new IllegalArgumentException(excp.getMessage());
+            }
+        }
+
+        private boolean sameStat(StatEntry other) {
+            return mtime == other.mtime && size == other.size && inode == other.inode;
+        }
+    }
 }
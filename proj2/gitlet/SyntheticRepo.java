@@ -0,0 +1,174 @@
+package gitlet;
+
+import static gitlet.Utils.writeContents;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.*;
+
+/**
+ * Generates a synthetic repository in the current working directory, for
+ * the benchmarks.
+ *
+ * The repository starts with NFILE text files, whose sizes follow a
+ * log-normal distribution around the median file size, as the sizes of
+ * real source files do. Every later commit rewrites a line of a few random
+ * files. Every branchEvery commits, a topic branch is made, gets
+ * branchLength commits, and is merged back after one more commit on the
+ * master branch, so the history has real merge commits. The topic branches
+ * only change the first half of the files and the master branch the second
+ * half, so the merges never conflict.
+ *
+ * The generation is deterministic for a given seed.
+ */
+public class SyntheticRepo {
+    /** The length of a line of a generated file */
+    private static final int LINE_LENGTH = 40;
+    /** The spread (sigma of the logarithm) of the file sizes */
+    private static final double SIZE_SIGMA = 1.0;
+
+    /** The number of files */
+    private final int nfile;
+    /** The median file size in bytes */
+    private final int medianSize;
+    /** The number of commits after the first one */
+    private final int ncommit;
+    /** The number of commits between two topic branches, 0 for none */
+    private final int branchEvery;
+    /** The number of commits on a topic branch */
+    private final int branchLength;
+    /** The number of files changed by a commit */
+    private final int changesPerCommit;
+    /** The random source */
+    private final Random random;
+
+    /** The number of commits made so far */
+    private int commits;
+
+    /**
+     * Create a generator.
+     *
+     * @param nfile            the number of files
+     * @param medianSize       the median file size in bytes
+     * @param ncommit          the number of commits after the first one
+     * @param branchEvery      the number of commits between two topic
+     *                         branches, 0 for a linear history
+     * @param branchLength     the number of commits on a topic branch
+     * @param changesPerCommit the number of files changed by a commit
+     * @param seed             the random seed
+     */
+    public SyntheticRepo(int nfile, int medianSize, int ncommit, int branchEvery,
+            int branchLength, int changesPerCommit, long seed) {
+        this.nfile = nfile;
+        this.medianSize = medianSize;
+        this.ncommit = ncommit;
+        this.branchEvery = branchEvery;
+        this.branchLength = branchLength;
+        this.changesPerCommit = Math.min(changesPerCommit, Math.max(1, nfile / 2));
+        this.random = new Random(seed);
+    }
+
+    /**
+     * Generate the repository. The master branch is checked out at the end,
+     * and a branch named "half" points at the commit made half way.
+     */
+    public void generate() throws IOException {
+        Repository.init();
+        for (int i = 0; i < nfile; i++) {
+            File file = fileOf(i);
+            writeContents(file, randomText(sizeOf()));
+            Repository.add(file.getName());
+        }
+        Repository.commit("add " + nfile + " files");
+
+        int topics = 0;
+        while (commits < ncommit) {
+            if (commits >= ncommit / 2 && !MyUtils.branchExists("half")) {
+                Repository.branch("half");
+            }
+            if (branchEvery > 0 && commits % branchEvery == branchEvery - 1
+                    && commits + branchLength + 2 <= ncommit) {
+                String topic = "topic" + topics;
+                topics += 1;
+                Repository.branch(topic);
+                Repository.checkoutBranch(topic);
+                for (int k = 0; k < branchLength; k++) {
+                    commitChanges(0, nfile / 2);
+                }
+                Repository.checkoutBranch("master");
+                commitChanges(nfile / 2, nfile);
+                Repository.merge(topic);
+                commits += 1;
+            } else {
+                commitChanges(nfile / 2, nfile);
+            }
+        }
+    }
+
+    /**
+     * Rewrite a line of changesPerCommit random files with indices in
+     * [from, to), and commit them.
+     */
+    public void commitChanges(int from, int to) throws IOException {
+        for (int k = 0; k < changesPerCommit; k++) {
+            File file = fileOf(from + random.nextInt(Math.max(1, to - from)));
+            changeLine(file);
+            Repository.add(file.getName());
+        }
+        commits += 1;
+        Repository.commit("change " + commits);
+    }
+
+    /**
+     * Rewrite a random line of the file.
+     *
+     * @param file the file
+     */
+    public void changeLine(File file) {
+        String[] lines = Utils.readContentsAsString(file).split("\n", -1);
+        int line = random.nextInt(Math.max(1, lines.length - 1));
+        lines[line] = randomLine();
+        writeContents(file, String.join("\n", lines));
+    }
+
+    /**
+     * Get the file with the given index.
+     *
+     * @param i the index
+     * @return the file in the working directory
+     */
+    public File fileOf(int i) {
+        return new File("file" + i + ".txt");
+    }
+
+    /**
+     * Draw a file size from the log-normal distribution.
+     */
+    private int sizeOf() {
+        double size = medianSize * Math.exp(SIZE_SIGMA * random.nextGaussian());
+        return Math.max(LINE_LENGTH, (int) size);
+    }
+
+    /**
+     * Generate lines of random text of about SIZE bytes.
+     */
+    private String randomText(int size) {
+        StringBuilder sb = new StringBuilder(size + LINE_LENGTH);
+        while (sb.length() < size) {
+            sb.append(randomLine()).append('\n');
+        }
+        return sb.toString();
+    }
+
+    /**
+     * Generate a line of random lower case letters and spaces.
+     */
+    private String randomLine() {
+        char[] line = new char[LINE_LENGTH - 1];
+        for (int i = 0; i < line.length; i++) {
+            int c = random.nextInt(27);
+            line[i] = c == 26 ? ' ' : (char) ('a' + c);
+        }
+        return new String(line);
+    }
+}
@@ -0,0 +1,458 @@
+package gitlet;
+
+import static gitlet.Utils.join;
+import static gitlet.Utils.readContents;
+import static gitlet.Utils.sha1;
+
+import java.io.*;
+import java.util.*;
+
+/**
+ * Represents the tracked files of a commit as a tree of objects.
+ * Gitlet paths are flat file names, so instead of directories the tree is a
+ * hash trie: a node at depth d splits its files into 16 children by the d-th
+ * hex digit of the SHA-1 of their names, and a node with at most
+ * MAX_LEAF_SIZE files is a leaf listing them. The shape only depends on the
+ * files, so equal trees always have equal ids.
+ *
+ * Trees are immutable. Changing files creates new nodes along the changed
+ * paths and shares every other subtree, so saving a commit writes objects
+ * proportional to the change, and two trees can be compared by skipping the
+ * subtrees with equal ids.
+ *
+ * Object format:
+ * LEAF (byte) | count (int) | (name (UTF), blob id (UTF))* sorted by name
+ * NODE (byte) | size (int) | bitmap of children (short) | child ids (20 bytes
+ * each)
+ */
+public class Tree {
+    /** The maximal number of files in a leaf */
+    private static final int MAX_LEAF_SIZE = 64;
+    /** The number of children of a node */
+    private static final int FANOUT = 16;
+    /** The kind of leaf objects */
+    private static final byte LEAF = 0;
+    /** The kind of node objects */
+    private static final byte NODE = 1;
+
+    /** The [name:blobId] map of a leaf, null for a node */
+    private final SortedMap<String, String> entries;
+    /** The child ids of a node by digit, null for a leaf */
+    private final String[] childIds;
+    /** The loaded children of a node by digit */
+    private final Tree[] children;
+    /** The number of files in this tree */
+    private final int size;
+    /** The sha1 ID */
+    private final String id;
+    /** Whether the object of this tree is saved */
+    private boolean stored;
+
+    private Tree(SortedMap<String, String> entries) {
+        this.entries = entries;
+        this.childIds = null;
+        this.children = null;
+        this.size = entries.size();
+        this.id = sha1((Object) encode());
+    }
+
+    private Tree(String[] childIds, Tree[] children, int size) {
+        this.entries = null;
+        this.childIds = childIds;
+        this.children = children;
+        this.size = size;
+        this.id = sha1((Object) encode());
+    }
+
+    /**
+     * Get the empty tree.
+     *
+     * @return the empty tree
+     */
+    public static Tree empty() {
+        return new Tree(new TreeMap<String, String>());
+    }
+
+    /**
+     * Build a tree from the given files.
+     *
+     * @param files the [name:blobId] map
+     * @return the tree
+     */
+    public static Tree fromMap(Map<String, String> files) {
+        return build(new TreeMap<String, String>(files), 0);
+    }
+
+    /**
+     * Load the tree with the given id, loose or packed. Children are loaded
+     * when they are needed.
+     *
+     * @param id ID of the tree
+     * @return the tree
+     */
+    public static Tree fromFile(String id) {
+        Tree cached = ObjectCache.get(id, Tree.class);
+        if (cached != null) {
+            return cached;
+        }
+        File file = join(Repository.TREES_DIR, id);
+        byte[] data = file.exists() ? readContents(file) : Pack.read(id);
+        if (data == null) {
+            throw Utils.error("No tree with id %s exists.", id);
+        }
+        Tree tree = decode(data);
+        if (!tree.id.equals(id)) {
+            throw Utils.error("Corrupted tree %s.", id);
+        }
+        tree.stored = true;
+        ObjectCache.put(id, tree, data.length);
+        return tree;
+    }
+
+    /**
+     * Create the tree with the given files added or replaced and removed.
+     * Only the nodes along the changed paths are created.
+     *
+     * @param addedFiles       the [name:blobId] map of added or modified files
+     * @param removedFileNames the names of removed files
+     * @return the new tree
+     */
+    public Tree withChanges(Map<String, String> addedFiles, Set<String> removedFileNames) {
+        // a null blob id stands for a removed file
+        Map<String, String> changes = new HashMap<String, String>();
+        for (String fileName : removedFileNames) {
+            changes.put(fileName, null);
+        }
+        changes.putAll(addedFiles);
+        return apply(changes, 0);
+    }
+
+    /**
+     * Get the blob id of the given file, loading only the nodes on its path.
+     *
+     * @param fileName the file name
+     * @return the blob id, or null if the file is not in this tree
+     */
+    public String get(String fileName) {
+        Tree tree = this;
+        for (int depth = 0; tree != null; depth++) {
+            if (tree.isLeaf()) {
+                return tree.entries.get(fileName);
+            }
+            tree = tree.childAt(digitOf(fileName, depth));
+        }
+        return null;
+    }
+
+    /**
+     * Get all files of this tree, loading every node.
+     *
+     * @return the [name:blobId] map
+     */
+    public Map<String, String> toMap() {
+        Map<String, String> files = new HashMap<String, String>();
+        collect(files);
+        return files;
+    }
+
+    /**
+     * Find the files whose blob ids differ between this tree and the other
+     * tree, including files only in one of them. Subtrees with equal ids are
+     * skipped without being loaded.
+     *
+     * @param other the other tree
+     * @return the names of the changed files
+     */
+    public Set<String> changedFileNames(Tree other) {
+        Set<String> changed = new HashSet<String>();
+        diff(this, other, changed);
+        return changed;
+    }
+
+    /**
+     * Save the objects of this tree which are not saved yet. Unchanged
+     * subtrees shared with saved trees are not written again.
+     */
+    public void save() throws IOException {
+        if (stored) {
+            return;
+        }
+        if (!isLeaf()) {
+            for (Tree child : children) {
+                if (child != null) {
+                    child.save();
+                }
+            }
+        }
+        File file = join(Repository.TREES_DIR, id);
+        if (!file.exists() && !Pack.contains(id)) {
+            Journal.writeObject(file, encode());
+        }
+        stored = true;
+    }
+
+    /**
+     * Check if the tree with the given id is stored, loose or packed.
+     *
+     * @param id ID of the tree
+     * @return true if the tree exists
+     */
+    public static boolean exists(String id) {
+        return join(Repository.TREES_DIR, id).exists() || Pack.contains(id);
+    }
+
+    /**
+     * Get the ids of the objects a stored tree refers to, without loading
+     * them: the child trees of a node, or the blobs of a leaf.
+     *
+     * @param data     the stored tree
+     * @param childIds the list to add the child tree ids to
+     * @param blobIds  the list to add the blob ids to
+     */
+    static void referencesOf(byte[] data, List<String> childIds, List<String> blobIds) {
+        Tree tree = decode(data);
+        if (tree.isLeaf()) {
+            blobIds.addAll(tree.entries.values());
+            return;
+        }
+        for (String childId : tree.childIds) {
+            if (childId != null) {
+                childIds.add(childId);
+            }
+        }
+    }
+
+    /**
+     * Get the ID of this tree
+     *
+     * @return tree ID
+     */
+    public String getId() {
+        return id;
+    }
+
+    /**
+     * Get the number of files in this tree
+     *
+     * @return number of files
+     */
+    public int size() {
+        return size;
+    }
+
+    private boolean isLeaf() {
+        return entries != null;
+    }
+
+    /**
+     * Get the child with the given digit, loading it if necessary.
+     *
+     * @return the child, or null if there is no file with that digit
+     */
+    private Tree childAt(int digit) {
+        if (children[digit] == null && childIds[digit] != null) {
+            children[digit] = fromFile(childIds[digit]);
+        }
+        return children[digit];
+    }
+
+    /**
+     * Apply the changes to this tree at the given depth.
+     */
+    private Tree apply(Map<String, String> changes, int depth) {
+        if (changes.isEmpty()) {
+            return this;
+        }
+        if (isLeaf()) {
+            SortedMap<String, String> newEntries = new TreeMap<String, String>(entries);
+            for (Map.Entry<String, String> change : changes.entrySet()) {
+                if (change.getValue() == null) {
+                    newEntries.remove(change.getKey());
+                } else {
+                    newEntries.put(change.getKey(), change.getValue());
+                }
+            }
+            return build(newEntries, depth);
+        }
+
+        List<Map<String, String>> groups = groupByDigit(changes, depth);
+        String[] newChildIds = childIds.clone();
+        Tree[] newChildren = children.clone();
+        int newSize = size;
+        for (int digit = 0; digit < FANOUT; digit++) {
+            Map<String, String> group = groups.get(digit);
+            if (group == null) {
+                continue;
+            }
+            Tree child = childAt(digit);
+            if (child == null) {
+                child = empty();
+            }
+            Tree newChild = child.apply(group, depth + 1);
+            newSize += newChild.size - child.size;
+            newChildren[digit] = newChild.size == 0 ? null : newChild;
+            newChildIds[digit] = newChild.size == 0 ? null : newChild.id;
+        }
+
+        if (newSize <= MAX_LEAF_SIZE) {
+            // collapse into a leaf, so the shape only depends on the files
+            Map<String, String> files = new HashMap<String, String>();
+            for (Tree child : newChildren) {
+                if (child != null) {
+                    child.collect(files);
+                }
+            }
+            return new Tree(new TreeMap<String, String>(files));
+        }
+        return new Tree(newChildIds, newChildren, newSize);
+    }
+
+    /**
+     * Build the tree of the given files at the given depth.
+     */
+    private static Tree build(SortedMap<String, String> files, int depth) {
+        if (files.size() <= MAX_LEAF_SIZE || depth == Utils.UID_LENGTH) {
+            return new Tree(files);
+        }
+        String[] childIds = new String[FANOUT];
+        Tree[] children = new Tree[FANOUT];
+        List<Map<String, String>> groups = groupByDigit(files, depth);
+        for (int digit = 0; digit < FANOUT; digit++) {
+            Map<String, String> group = groups.get(digit);
+            if (group != null) {
+                children[digit] = build(new TreeMap<String, String>(group), depth + 1);
+                childIds[digit] = children[digit].id;
+            }
+        }
+        return new Tree(childIds, children, files.size());
+    }
+
+    /**
+     * Collect the files of this tree into the given map.
+     */
+    private void collect(Map<String, String> files) {
+        if (isLeaf()) {
+            files.putAll(entries);
+            return;
+        }
+        for (int digit = 0; digit < FANOUT; digit++) {
+            Tree child = childAt(digit);
+            if (child != null) {
+                child.collect(files);
+            }
+        }
+    }
+
+    /**
+     * Add the names of files which differ between the two trees to CHANGED.
+     * Either tree may be null, meaning no files.
+     */
+    private static void diff(Tree tree1, Tree tree2, Set<String> changed) {
+        String id1 = tree1 == null ? null : tree1.id;
+        String id2 = tree2 == null ? null : tree2.id;
+        if (Objects.equals(id1, id2)) {
+            return;
+        }
+        if (tree1 != null && tree2 != null && !tree1.isLeaf() && !tree2.isLeaf()) {
+            // both trees are split at the same depth, compare digit by digit
+            for (int digit = 0; digit < FANOUT; digit++) {
+                if (!Objects.equals(tree1.childIds[digit], tree2.childIds[digit])) {
+                    diff(tree1.childAt(digit), tree2.childAt(digit), changed);
+                }
+            }
+            return;
+        }
+
+        Map<String, String> files1 = tree1 == null ? new HashMap<String, String>() : tree1.toMap();
+        Map<String, String> files2 = tree2 == null ? new HashMap<String, String>() : tree2.toMap();
+        for (String fileName : MyUtils.unionSet(files1.keySet(), files2.keySet())) {
+            if (!Objects.equals(files1.get(fileName), files2.get(fileName))) {
+                changed.add(fileName);
+            }
+        }
+    }
+
+    /**
+     * Group the given [name:value] map by the digit of the names at the given
+     * depth.
+     *
+     * @return the groups by digit, null for digits without names
+     */
+    private static List<Map<String, String>> groupByDigit(Map<String, String> files, int depth) {
+        List<Map<String, String>> groups = new ArrayList<Map<String, String>>(
+                Collections.nCopies(FANOUT, (Map<String, String>) null));
+        for (Map.Entry<String, String> file : files.entrySet()) {
+            int digit = digitOf(file.getKey(), depth);
+            if (groups.get(digit) == null) {
+                groups.set(digit, new HashMap<String, String>());
+            }
+            groups.get(digit).put(file.getKey(), file.getValue());
+        }
+        return groups;
+    }
+
+    /**
+     * Get the hex digit of the SHA-1 of the file name at the given depth.
+     */
+    private static int digitOf(String fileName, int depth) {
+        return Character.digit(sha1(fileName).charAt(depth), 16);
+    }
+
+    private byte[] encode() {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (DataOutputStream out = new DataOutputStream(bytes)) {
+            if (isLeaf()) {
+                out.writeByte(LEAF);
+                out.writeInt(entries.size());
+                for (Map.Entry<String, String> entry : entries.entrySet()) {
+                    out.writeUTF(entry.getKey());
+                    out.writeUTF(entry.getValue());
+                }
+            } else {
+                out.writeByte(NODE);
+                out.writeInt(size);
+                int bitmap = 0;
+                for (int digit = 0; digit < FANOUT; digit++) {
+                    if (childIds[digit] != null) {
+                        bitmap |= 1 << digit;
+                    }
+                }
+                out.writeShort(bitmap);
+                for (int digit = 0; digit < FANOUT; digit++) {
+                    if (childIds[digit] != null) {
+                        out.write(ObjectIndex.toRaw(childIds[digit]));
+                    }
+                }
+            }
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+        return bytes.toByteArray();
+    }
+
+    private static Tree decode(byte[] data) {
+        try (DataInputStream in = new DataInputStream(new ByteArrayInputStream(data))) {
+            if (in.readByte() == LEAF) {
+                SortedMap<String, String> entries = new TreeMap<String, String>();
+                int count = in.readInt();
+                for (int i = 0; i < count; i++) {
+                    entries.put(in.readUTF(), in.readUTF());
+                }
+                return new Tree(entries);
+            }
+            int size = in.readInt();
+            int bitmap = in.readShort() & 0xffff;
+            String[] childIds = new String[FANOUT];
+            byte[] raw = new byte[ObjectIndex.ID_BYTES];
+            for (int digit = 0; digit < FANOUT; digit++) {
+                if ((bitmap & (1 << digit)) != 0) {
+                    in.readFully(raw);
+                    childIds[digit] = MyUtils.toHex(raw);
+                }
+            }
+            return new Tree(childIds, new Tree[FANOUT], size);
+        } catch (IOException excp) {
+            throw Utils.error("Corrupted tree.");
+        }
+    }
+}
@@ -0,0 +1,366 @@
+package gitlet;
+
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.util.*;
+
+/**
+ * Prints the differences between two versions of files as unified diffs.
+ *
+ * Both versions of a file are streamed line by line, and every line is
+ * interned to an int id: the distinct lines are stored once, back to back,
+ * in a byte pool, and looked up through an open addressing hash table, so a
+ * file costs an int per line plus its distinct bytes, with no object per
+ * line. The lines which occur in one version only are changed whatever the
+ * rest is, so they are marked before the remaining ids are compared by
+ * {@link Diff}; two unrelated files are therefore compared in linear time.
+ * The lines of the hunks are printed from the pool.
+ *
+ * Files whose blob ids are equal are skipped without being read.
+ *
+ * Output format, for every changed file:
+ * diff --git a/NAME b/NAME
+ * --- a/NAME (or /dev/null)
+ * +++ b/NAME (or /dev/null)
+ * and then hunks of CONTEXT lines of context, as in git.
+ */
+public class UnifiedDiff {
+    /** The number of unchanged lines printed around a change */
+    private static final int CONTEXT = 3;
+    /** The number of bytes looked at to tell binary files */
+    private static final int BINARY_PROBE = 8000;
+    /** The initial capacity of the pool and the tables */
+    private static final int INITIAL_CAPACITY = 1024;
+
+    /** The output */
+    private final PrintStream out;
+    /** The bytes of the distinct lines, back to back */
+    private byte[] pool;
+    /** The used length of the pool */
+    private int poolSize;
+    /** The start of every line in the pool, and the end of the last line */
+    private int[] lineStarts;
+    /** The hash of every line */
+    private int[] lineHashes;
+    /** The number of distinct lines */
+    private int lineCount;
+    /** The open addressing table of line ids + 1, 0 for an empty slot */
+    private int[] table;
+    /** Whether a file read so far looks binary */
+    private boolean binary;
+
+    private UnifiedDiff(PrintStream out) {
+        this.out = out;
+        this.pool = new byte[INITIAL_CAPACITY * 32];
+        this.lineStarts = new int[INITIAL_CAPACITY + 1];
+        this.lineHashes = new int[INITIAL_CAPACITY];
+        this.table = new int[INITIAL_CAPACITY * 2];
+    }
+
+    /**
+     * Print the diffs of the files which differ between the two versions.
+     *
+     * @param oldFiles         the [path:blobId] of the old version
+     * @param newFiles         the [path:blobId] of the new version
+     * @param newInWorkingTree whether the new version is read from the
+     *                         working directory rather than from blobs
+     */
+    public static void print(Map<String, String> oldFiles, Map<String, String> newFiles,
+            boolean newInWorkingTree) throws IOException {
+        SortedSet<String> fileNames = new TreeSet<String>(oldFiles.keySet());
+        fileNames.addAll(newFiles.keySet());
+        for (String fileName : fileNames) {
+            String oldId = oldFiles.get(fileName);
+            String newId = newFiles.get(fileName);
+            if (Objects.equals(oldId, newId)) {
+                continue;
+            }
+            try (InputStream oldIn = oldId == null ? null : Blob.fromFile(oldId).openContents();
+                    InputStream newIn = newId == null ? null : newInWorkingTree
+                            ? new FileInputStream(Utils.join(Repository.CWD, fileName))
+                            : Blob.fromFile(newId).openContents()) {
+                new UnifiedDiff(System.out).printFile(fileName, oldIn, newIn);
+            }
+        }
+        System.out.flush();
+    }
+
+    /**
+     * Print the diff of the two versions of the file.
+     *
+     * @param fileName the file name
+     * @param oldIn    the old version, null if the file is added
+     * @param newIn    the new version, null if the file is removed
+     */
+    private void printFile(String fileName, InputStream oldIn, InputStream newIn)
+            throws IOException {
+        int[] a = readLines(oldIn);
+        int[] b = readLines(newIn);
+
+        printLine(String.format("diff --git a/%s b/%s", fileName, fileName));
+        if (binary) {
+            printLine(String.format("Binary files %s and %s differ",
+                    oldIn == null ? "/dev/null" : "a/" + fileName,
+                    newIn == null ? "/dev/null" : "b/" + fileName));
+            return;
+        }
+        printLine("--- " + (oldIn == null ? "/dev/null" : "a/" + fileName));
+        printLine("+++ " + (newIn == null ? "/dev/null" : "b/" + fileName));
+
+        List<Diff.Hunk> hunks = hunksOf(a, b);
+        int first = 0;
+        while (first < hunks.size()) {
+            // hunks closer than twice the context are printed together
+            int last = first;
+            while (last + 1 < hunks.size()
+                    && hunks.get(last + 1).aStart - hunks.get(last).aEnd <= 2 * CONTEXT) {
+                last++;
+            }
+            printHunks(a, b, hunks.subList(first, last + 1));
+            first = last + 1;
+        }
+    }
+
+    /**
+     * Print the hunks, with their context, under one header.
+     */
+    private void printHunks(int[] a, int[] b, List<Diff.Hunk> hunks) {
+        Diff.Hunk first = hunks.get(0);
+        Diff.Hunk last = hunks.get(hunks.size() - 1);
+        int before = Math.min(CONTEXT, first.aStart);
+        int after = Math.min(CONTEXT, a.length - last.aEnd);
+        int aStart = first.aStart - before;
+        int bStart = first.bStart - before;
+        int aEnd = last.aEnd + after;
+        int bEnd = last.bEnd + after;
+        printLine(String.format("@@ -%s +%s @@", rangeOf(aStart, aEnd - aStart),
+                rangeOf(bStart, bEnd - bStart)));
+
+        int i = aStart;
+        for (Diff.Hunk hunk : hunks) {
+            for (; i < hunk.aStart; i++) {
+                printLine(' ', a[i]);
+            }
+            for (; i < hunk.aEnd; i++) {
+                printLine('-', a[i]);
+            }
+            for (int j = hunk.bStart; j < hunk.bEnd; j++) {
+                printLine('+', b[j]);
+            }
+        }
+        for (; i < aEnd; i++) {
+            printLine(' ', a[i]);
+        }
+    }
+
+    /**
+     * Format the range of a hunk header: the first line and the number of
+     * lines, or the line before the hunk if it is empty.
+     */
+    private static String rangeOf(int start, int count) {
+        if (count == 1) {
+            return String.valueOf(start + 1);
+        }
+        return (count == 0 ? start : start + 1) + "," + count;
+    }
+
+    /**
+     * Compute the hunks which turn A into B. The lines which do not occur on
+     * the other side are marked first, and only the others are diffed.
+     */
+    private List<Diff.Hunk> hunksOf(int[] a, int[] b) {
+        boolean[] inA = new boolean[lineCount];
+        boolean[] inB = new boolean[lineCount];
+        for (int id : a) {
+            inA[id] = true;
+        }
+        for (int id : b) {
+            inB[id] = true;
+        }
+
+        boolean[] deleted = new boolean[a.length];
+        boolean[] inserted = new boolean[b.length];
+        int[] aIndices = new int[a.length];
+        int[] bIndices = new int[b.length];
+        int n = 0;
+        for (int i = 0; i < a.length; i++) {
+            if (inB[a[i]]) {
+                aIndices[n++] = i;
+            } else {
+                deleted[i] = true;
+            }
+        }
+        int m = 0;
+        for (int j = 0; j < b.length; j++) {
+            if (inA[b[j]]) {
+                bIndices[m++] = j;
+            } else {
+                inserted[j] = true;
+            }
+        }
+
+        int[] ra = new int[n];
+        for (int k = 0; k < n; k++) {
+            ra[k] = a[aIndices[k]];
+        }
+        int[] rb = new int[m];
+        for (int k = 0; k < m; k++) {
+            rb[k] = b[bIndices[k]];
+        }
+        for (Diff.Hunk hunk : Diff.diff(ra, rb)) {
+            for (int k = hunk.aStart; k < hunk.aEnd; k++) {
+                deleted[aIndices[k]] = true;
+            }
+            for (int k = hunk.bStart; k < hunk.bEnd; k++) {
+                inserted[bIndices[k]] = true;
+            }
+        }
+
+        List<Diff.Hunk> hunks = new ArrayList<Diff.Hunk>();
+        int i = 0;
+        int j = 0;
+        while (i < a.length || j < b.length) {
+            if (i < a.length && j < b.length && !deleted[i] && !inserted[j]) {
+                i++;
+                j++;
+                continue;
+            }
+            int aStart = i;
+            int bStart = j;
+            while (i < a.length && deleted[i]) {
+                i++;
+            }
+            while (j < b.length && inserted[j]) {
+                j++;
+            }
+            hunks.add(new Diff.Hunk(aStart, i, bStart, j));
+        }
+        return hunks;
+    }
+
+    /**
+     * Read the lines of the stream, each keeping its '\n', as line ids.
+     *
+     * @param in the stream, or null for no line
+     * @return the line ids
+     */
+    private int[] readLines(InputStream in) throws IOException {
+        int[] ids = new int[0];
+        if (in == null) {
+            return ids;
+        }
+        ids = new int[INITIAL_CAPACITY];
+        int size = 0;
+        byte[] buffer = new byte[64 * 1024];
+        byte[] line = new byte[256];
+        int length = 0;
+        long offset = 0;
+        int n;
+        while ((n = in.read(buffer)) > 0) {
+            for (int k = 0; k < n; k++) {
+                byte c = buffer[k];
+                if (c == 0 && offset + k < BINARY_PROBE) {
+                    binary = true;
+                }
+                if (length == line.length) {
+                    line = Arrays.copyOf(line, line.length * 2);
+                }
+                line[length++] = c;
+                if (c == '\n') {
+                    if (size == ids.length) {
+                        ids = Arrays.copyOf(ids, size * 2);
+                    }
+                    ids[size++] = intern(line, length);
+                    length = 0;
+                }
+            }
+            offset += n;
+        }
+        if (length > 0) {
+            if (size == ids.length) {
+                ids = Arrays.copyOf(ids, size + 1);
+            }
+            ids[size++] = intern(line, length);
+        }
+        return Arrays.copyOf(ids, size);
+    }
+
+    /**
+     * Get the id of the line, adding it to the pool if it is new.
+     *
+     * @param line   the bytes of the line
+     * @param length the length of the line
+     * @return the line id
+     */
+    private int intern(byte[] line, int length) {
+        int hash = 0x811c9dc5;
+        for (int k = 0; k < length; k++) {
+            hash = (hash ^ line[k]) * 0x01000193;
+        }
+        int mask = table.length - 1;
+        int slot = hash & mask;
+        while (table[slot] != 0) {
+            int id = table[slot] - 1;
+            if (lineHashes[id] == hash && Arrays.equals(pool, lineStarts[id],
+                    lineStarts[id + 1], line, 0, length)) {
+                return id;
+            }
+            slot = (slot + 1) & mask;
+        }
+
+        int id = lineCount++;
+        if (lineCount == lineHashes.length) {
+            lineHashes = Arrays.copyOf(lineHashes, lineCount * 2);
+            lineStarts = Arrays.copyOf(lineStarts, lineCount * 2 + 1);
+        }
+        if (poolSize + length > pool.length) {
+            pool = Arrays.copyOf(pool, Math.max(pool.length + (pool.length >> 1), poolSize + length));
+        }
+        System.arraycopy(line, 0, pool, poolSize, length);
+        poolSize += length;
+        lineHashes[id] = hash;
+        lineStarts[id + 1] = poolSize;
+        table[slot] = id + 1;
+        if (lineCount * 2 > table.length) {
+            rehash();
+        }
+        return id;
+    }
+
+    /**
+     * Double the hash table.
+     */
+    private void rehash() {
+        table = new int[table.length * 2];
+        int mask = table.length - 1;
+        for (int id = 0; id < lineCount; id++) {
+            int slot = lineHashes[id] & mask;
+            while (table[slot] != 0) {
+                slot = (slot + 1) & mask;
+            }
+            table[slot] = id + 1;
+        }
+    }
+
+    /**
+     * Print the line with the given id after the prefix.
+     */
+    private void printLine(char prefix, int id) {
+        int start = lineStarts[id];
+        int end = lineStarts[id + 1];
+        out.write(prefix);
+        out.write(pool, start, end - start);
+        if (end == start || pool[end - 1] != '\n') {
+            out.write('\n');
+            printLine("\\ No newline at end of file");
+        }
+    }
+
+    /**
+     * Print a header line.
+     */
+    private void printLine(String line) {
+        byte[] bytes = (line + "\n").getBytes(StandardCharsets.UTF_8);
+        out.write(bytes, 0, bytes.length);
+    }
+}
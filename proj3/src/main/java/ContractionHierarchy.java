@@ -0,0 +1,703 @@
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * A contraction hierarchy over a GraphDB, for answering route queries
+ * without exploring most of the graph.
+ *
+ * The builder contracts the vertices one by one, in the order of their edge
+ * difference (the shortcuts a contraction adds, minus the edges it removes,
+ * plus the neighbors already contracted so the order stays spread out). When
+ * a vertex v is contracted, a shortcut u-w of length d(u, v) + d(v, w) is
+ * added between every two of its remaining neighbors, unless a witness
+ * search finds a path as short which avoids v. The rank of a vertex is its
+ * position in that order. Every edge, original or shortcut, is stored once,
+ * upward, in the CSR arrays of its lower ranked end, with the contracted
+ * vertex it skips.
+ *
+ * A query runs Dijkstra's upward from both ends and meets at the highest
+ * vertex of the shortest path; the shortcuts on the way are unpacked back
+ * into original edges, so the route is a list of vertex ids like the one of
+ * Router.shortestPath. Roads are two-way in GraphDB, so one upward graph
+ * serves both searches.
+ *
+ * Usage: java ContractionHierarchy [OSM file] [output file] builds the
+ * hierarchy of the OSM file and saves it.
+ */
+public class ContractionHierarchy {
+    private static final String OSM_DB_PATH = "../library-sp18/data/berkeley-2018.osm.xml";
+    /* The first int of a saved hierarchy, and the version of its format. */
+    private static final int MAGIC = 0x43484731;
+    private static final int VERSION = 3;
+    /*
+     * The number of vertices a witness search settles before it gives up,
+     * when a vertex is contracted and when its priority is estimated. A
+     * search which gives up only costs a needless shortcut.
+     */
+    private static final int WITNESS_SETTLE_LIMIT = 500;
+    private static final int ESTIMATE_SETTLE_LIMIT = 50;
+
+    /* The vertex ids, to check a saved hierarchy against its graph. */
+    private final long[] ids;
+    /* The fingerprint of the edges of the graph, see fingerprintOf. */
+    private final long fingerprint;
+    /* The upward edges of vertex i are targets[offsets[i]..offsets[i + 1]). */
+    private final int[] offsets;
+    private final int[] targets;
+    private final double[] weights;
+    /* The vertex a shortcut skips, -1 for an original edge. */
+    private final int[] middles;
+
+    private final ThreadLocal<Search> searches;
+
+    private ContractionHierarchy(long[] ids, long fingerprint, int[] offsets, int[] targets,
+            double[] weights, int[] middles) {
+        this.ids = ids;
+        this.fingerprint = fingerprint;
+        this.offsets = offsets;
+        this.targets = targets;
+        this.weights = weights;
+        this.middles = middles;
+        this.searches = ThreadLocal.withInitial(() -> new Search(ids.length));
+    }
+
+    /**
+     * Builds the contraction hierarchy of the graph.
+     */
+    public static ContractionHierarchy build(GraphDB g) {
+        return new Builder(g).build();
+    }
+
+    /**
+     * Loads the hierarchy saved in the file, if it is up to date with the
+     * graph, or builds it and saves it in the file.
+     */
+    public static ContractionHierarchy loadOrBuild(GraphDB g, String path) {
+        ContractionHierarchy ch = load(g, path);
+        if (ch == null) {
+            ch = build(g);
+            try {
+                ch.save(path);
+            } catch (IOException e) {
+                e.printStackTrace();
+            }
+        }
+        return ch;
+    }
+
+    /**
+     * Returns the hierarchy saved in the file, or null if there is none, or
+     * if it was built for another graph or by another version. The graph
+     * must have the same vertices, and edges of the same fingerprint.
+     */
+    public static ContractionHierarchy load(GraphDB g, String path) {
+        Path file = Paths.get(path);
+        if (!Files.isRegularFile(file)) {
+            return null;
+        }
+        try (FileChannel channel = FileChannel.open(file)) {
+            ByteBuffer in = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            if (in.getInt() != MAGIC || in.getInt() != VERSION) {
+                return null;
+            }
+            int n = in.getInt();
+            int m = in.getInt();
+            long fingerprint = in.getLong();
+            if (n != g.size() || fingerprint != fingerprintOf(g)) {
+                return null;
+            }
+            long[] ids = GraphDB.getLongs(in, n);
+            for (int i = 0; i < n; i++) {
+                if (ids[i] != g.idOf(i)) {
+                    return null;
+                }
+            }
+            int[] offsets = GraphDB.getInts(in, n + 1);
+            int[] targets = GraphDB.getInts(in, m);
+            double[] weights = GraphDB.getDoubles(in, m);
+            int[] middles = GraphDB.getInts(in, m);
+            return new ContractionHierarchy(ids, fingerprint, offsets, targets, weights,
+                    middles);
+        } catch (IOException | RuntimeException e) {
+            return null;
+        }
+    }
+
+    /**
+     * Saves the hierarchy in the file: a header, then the arrays one after
+     * the other, so load maps the file and copies them out in bulk. It is
+     * written to a temporary file first and moved in place, so a hierarchy
+     * is never read half written.
+     */
+    public void save(String path) throws IOException {
+        Path tmp = Paths.get(path + ".tmp");
+        try (DataOutputStream out = new DataOutputStream(
+                new BufferedOutputStream(new FileOutputStream(tmp.toFile())))) {
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            out.writeInt(ids.length);
+            out.writeInt(targets.length);
+            out.writeLong(fingerprint);
+            for (long id : ids) {
+                out.writeLong(id);
+            }
+            for (int offset : offsets) {
+                out.writeInt(offset);
+            }
+            for (int target : targets) {
+                out.writeInt(target);
+            }
+            for (double weight : weights) {
+                out.writeDouble(weight);
+            }
+            for (int middle : middles) {
+                out.writeInt(middle);
+            }
+        }
+        Files.move(tmp, Paths.get(path), StandardCopyOption.REPLACE_EXISTING,
+                StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    /**
+     * Returns a hash of the edges of the graph: their ends and the bits of
+     * their weights, so a hierarchy of an older version of the map is not
+     * used for a graph with the same vertices.
+     */
+    static long fingerprintOf(GraphDB g) {
+        long h = g.size();
+        for (int v = 0; v < g.size(); v++) {
+            h = h * 31 + g.edgeStart(v + 1);
+            for (int e = g.edgeStart(v); e < g.edgeStart(v + 1); e++) {
+                h = h * 31 + g.edgeTarget(e);
+                h = h * 31 + Double.doubleToLongBits(g.edgeWeight(e));
+            }
+        }
+        return h;
+    }
+
+    /**
+     * Returns the number of edges of the hierarchy, original and shortcuts.
+     */
+    public int edgeCount() {
+        return targets.length;
+    }
+
+    /**
+     * Return a List of longs representing the shortest path from the node
+     * closest to a start location and the node closest to the destination
+     * location, like Router.shortestPath.
+     *
+     * @param g       The graph the hierarchy was built for.
+     * @param stlon   The longitude of the start location.
+     * @param stlat   The latitude of the start location.
+     * @param destlon The longitude of the destination location.
+     * @param destlat The latitude of the destination location.
+     * @return A list of node id's in the order visited on the shortest path.
+     */
+    public List<Long> shortestPath(GraphDB g, double stlon, double stlat,
+            double destlon, double destlat) {
+        return shortestPath(g.indexOf(g.closest(stlon, stlat)),
+                g.indexOf(g.closest(destlon, destlat)));
+    }
+
+    /**
+     * Returns the shortest path between the vertices with dense indices s
+     * and t, as vertex ids.
+     */
+    List<Long> shortestPath(int s, int t) {
+        Search search = searches.get();
+        search.round++;
+        search.settled = 0;
+        search.forward.start(s, search.round);
+        search.backward.start(t, search.round);
+
+        double best = Double.POSITIVE_INFINITY;
+        int meet = -1;
+        while (true) {
+            double forwardMin = search.forward.minDist();
+            double backwardMin = search.backward.minDist();
+            if (Math.min(forwardMin, backwardMin) >= best) {
+                break;
+            }
+            Side side = forwardMin <= backwardMin ? search.forward : search.backward;
+            Side other = side == search.forward ? search.backward : search.forward;
+
+            double dist = side.toVisit.minDist();
+            int v = side.toVisit.pop();
+            if (dist > side.dist[v]) {
+                continue;
+            }
+            search.settled++;
+            if (other.reached(v) && dist + other.dist[v] < best) {
+                best = dist + other.dist[v];
+                meet = v;
+            }
+            if (stalled(side, v)) {
+                continue;
+            }
+            for (int e = offsets[v]; e < offsets[v + 1]; e++) {
+                int w = targets[e];
+                double newDist = dist + weights[e];
+                if (!side.reached(w) || newDist < side.dist[w]) {
+                    side.reach(w, newDist, v);
+                }
+            }
+        }
+
+        List<Long> path = new ArrayList<>();
+        if (meet < 0) {
+            return path;
+        }
+        // s up to the meeting vertex, then down to t
+        List<Integer> up = new ArrayList<>();
+        for (int v = meet; v != -1; v = search.forward.preNode[v]) {
+            up.add(v);
+        }
+        path.add(ids[s]);
+        for (int k = up.size() - 1; k > 0; k--) {
+            int from = up.get(k);
+            int to = up.get(k - 1);
+            unpack(from, to, middleOf(from, to), path);
+        }
+        for (int v = meet; v != t; v = search.backward.preNode[v]) {
+            int to = search.backward.preNode[v];
+            unpack(v, to, middleOf(to, v), path);
+        }
+        return path;
+    }
+
+    /**
+     * Returns the number of vertices settled by the last query of the
+     * calling thread, in both directions.
+     */
+    public int settledCount() {
+        return searches.get().settled;
+    }
+
+    /**
+     * Returns true if v is reached more shortly through a higher vertex,
+     * coming down an upward edge of v. The shortest path does not go up
+     * through v then, so its edges need not be relaxed (stall-on-demand).
+     */
+    private boolean stalled(Side side, int v) {
+        for (int e = offsets[v]; e < offsets[v + 1]; e++) {
+            int w = targets[e];
+            if (side.reached(w) && side.dist[w] + weights[e] < side.dist[v]) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Appends the vertices after from on the edge from - to, with those of
+     * the shortcuts it is made of.
+     */
+    private void unpack(int from, int to, int middle, List<Long> path) {
+        if (middle < 0) {
+            path.add(ids[to]);
+            return;
+        }
+        // the skipped vertex ranks below both ends
+        unpack(from, middle, middleOf(middle, from), path);
+        unpack(middle, to, middleOf(middle, to), path);
+    }
+
+    /**
+     * Returns the middle of the upward edge from lower to upper.
+     */
+    private int middleOf(int lower, int upper) {
+        for (int e = offsets[lower]; e < offsets[lower + 1]; e++) {
+            if (targets[e] == upper) {
+                return middles[e];
+            }
+        }
+        throw new IllegalStateException("no edge from " + ids[lower] + " to " + ids[upper]);
+    }
+
+    /**
+     * The state of one direction of a query. The arrays are reused between
+     * queries: an entry is valid only if its stamp is the current round.
+     */
+    private static class Side {
+        final double[] dist;
+        final int[] preNode;
+        final int[] stamps;
+        int round;
+        final VertexHeap toVisit = new VertexHeap();
+
+        Side(int n) {
+            dist = new double[n];
+            preNode = new int[n];
+            stamps = new int[n];
+        }
+
+        void start(int source, int newRound) {
+            round = newRound;
+            toVisit.clear();
+            reach(source, 0.0, -1);
+        }
+
+        boolean reached(int v) {
+            return stamps[v] == round;
+        }
+
+        void reach(int v, double newDist, int from) {
+            stamps[v] = round;
+            dist[v] = newDist;
+            preNode[v] = from;
+            toVisit.push(v, newDist);
+        }
+
+        double minDist() {
+            return toVisit.isEmpty() ? Double.POSITIVE_INFINITY : toVisit.minDist();
+        }
+    }
+
+    /**
+     * A binary min-heap of vertices by distance, for the searches over the
+     * dense vertex indices. Unlike IndexedMinHeap it keeps no position map:
+     * a vertex is pushed again when its distance drops, and the caller skips
+     * the stale entries when they are popped. It is cleared, not
+     * reallocated, between searches.
+     */
+    private static class VertexHeap {
+        private int[] vertices = new int[64];
+        private double[] dists = new double[64];
+        private int size;
+
+        boolean isEmpty() {
+            return size == 0;
+        }
+
+        void clear() {
+            size = 0;
+        }
+
+        /**
+         * Returns the smallest distance in the heap.
+         */
+        double minDist() {
+            return dists[0];
+        }
+
+        void push(int v, double dist) {
+            if (size == vertices.length) {
+                vertices = Arrays.copyOf(vertices, size * 2);
+                dists = Arrays.copyOf(dists, size * 2);
+            }
+            int i = size++;
+            while (i > 0 && dist < dists[(i - 1) / 2]) {
+                vertices[i] = vertices[(i - 1) / 2];
+                dists[i] = dists[(i - 1) / 2];
+                i = (i - 1) / 2;
+            }
+            vertices[i] = v;
+            dists[i] = dist;
+        }
+
+        /**
+         * Removes and returns the vertex with the smallest distance.
+         */
+        int pop() {
+            int min = vertices[0];
+            size--;
+            int v = vertices[size];
+            double dist = dists[size];
+            int i = 0;
+            while (2 * i + 1 < size) {
+                int child = 2 * i + 1;
+                if (child + 1 < size && dists[child + 1] < dists[child]) {
+                    child++;
+                }
+                if (dists[child] >= dist) {
+                    break;
+                }
+                vertices[i] = vertices[child];
+                dists[i] = dists[child];
+                i = child;
+            }
+            vertices[i] = v;
+            dists[i] = dist;
+            return min;
+        }
+    }
+
+    /**
+     * The state of the queries of one thread.
+     */
+    private static class Search {
+        final Side forward;
+        final Side backward;
+        int round;
+        int settled;
+
+        Search(int n) {
+            forward = new Side(n);
+            backward = new Side(n);
+        }
+    }
+
+    /**
+     * Contracts the vertices of a graph. The remaining graph is kept as one
+     * growable adjacency list per vertex, from which contracted vertices are
+     * removed, so the lists stay short.
+     */
+    private static class Builder {
+        private final GraphDB g;
+        private final int n;
+
+        private final int[][] adjTargets;
+        private final double[][] adjWeights;
+        private final int[][] adjMiddles;
+        private final int[] degrees;
+
+        private final int[] contractedNeighbors;
+        /* The upward edges of every vertex, set when it is contracted. */
+        private final int[][] upTargets;
+        private final double[][] upWeights;
+        private final int[][] upMiddles;
+
+        /* The witness searches, stamped like the query sides. */
+        private final double[] witnessDist;
+        private final int[] witnessStamps;
+        /* The neighbors of the contracted vertex not settled yet. */
+        private final int[] targetStamps;
+        private final VertexHeap witnessHeap = new VertexHeap();
+        private int witnessRound;
+
+        Builder(GraphDB g) {
+            this.g = g;
+            n = g.size();
+            adjTargets = new int[n][];
+            adjWeights = new double[n][];
+            adjMiddles = new int[n][];
+            degrees = new int[n];
+            contractedNeighbors = new int[n];
+            upTargets = new int[n][];
+            upWeights = new double[n][];
+            upMiddles = new int[n][];
+            witnessDist = new double[n];
+            witnessStamps = new int[n];
+            targetStamps = new int[n];
+        }
+
+        ContractionHierarchy build() {
+            for (int v = 0; v < n; v++) {
+                int degree = g.edgeStart(v + 1) - g.edgeStart(v);
+                adjTargets[v] = new int[Math.max(degree, 1)];
+                adjWeights[v] = new double[Math.max(degree, 1)];
+                adjMiddles[v] = new int[Math.max(degree, 1)];
+                for (int e = g.edgeStart(v); e < g.edgeStart(v + 1); e++) {
+                    if (g.edgeTarget(e) != v) {
+                        setEdge(v, g.edgeTarget(e), g.edgeWeight(e), -1);
+                    }
+                }
+            }
+
+            IndexedMinHeap queue = new IndexedMinHeap();
+            for (int v = 0; v < n; v++) {
+                queue.insert(v, priorityOf(v));
+            }
+            // the priorities are updated lazily: a vertex whose priority has
+            // gone up since it was queued is queued again
+            while (!queue.isEmpty()) {
+                int v = (int) queue.removeMin();
+                double priority = priorityOf(v);
+                if (!queue.isEmpty() && priority > queue.minPriority()) {
+                    queue.insert(v, priority);
+                    continue;
+                }
+                contract(v);
+            }
+
+            int[] offsets = new int[n + 1];
+            for (int v = 0; v < n; v++) {
+                offsets[v + 1] = offsets[v] + upTargets[v].length;
+            }
+            int[] targets = new int[offsets[n]];
+            double[] weights = new double[offsets[n]];
+            int[] middles = new int[offsets[n]];
+            long[] ids = new long[n];
+            for (int v = 0; v < n; v++) {
+                ids[v] = g.idOf(v);
+                System.arraycopy(upTargets[v], 0, targets, offsets[v], upTargets[v].length);
+                System.arraycopy(upWeights[v], 0, weights, offsets[v], upWeights[v].length);
+                System.arraycopy(upMiddles[v], 0, middles, offsets[v], upMiddles[v].length);
+            }
+            return new ContractionHierarchy(ids, fingerprintOf(g), offsets, targets, weights,
+                    middles);
+        }
+
+        /**
+         * Returns the edge difference of v, plus its contracted neighbors.
+         */
+        private double priorityOf(int v) {
+            return shortcuts(v, false) - degrees[v] + contractedNeighbors[v];
+        }
+
+        /**
+         * Contracts v: adds its shortcuts, keeps its remaining edges as its
+         * upward edges and removes it from the remaining graph.
+         */
+        private void contract(int v) {
+            shortcuts(v, true);
+            int degree = degrees[v];
+            upTargets[v] = Arrays.copyOf(adjTargets[v], degree);
+            upWeights[v] = Arrays.copyOf(adjWeights[v], degree);
+            upMiddles[v] = Arrays.copyOf(adjMiddles[v], degree);
+            for (int k = 0; k < degree; k++) {
+                int u = adjTargets[v][k];
+                removeEdge(u, v);
+                contractedNeighbors[u]++;
+            }
+            adjTargets[v] = null;
+            adjWeights[v] = null;
+            adjMiddles[v] = null;
+            degrees[v] = 0;
+        }
+
+        /**
+         * Returns the number of shortcuts the contraction of v needs, and
+         * adds them if add is true.
+         */
+        private int shortcuts(int v, boolean add) {
+            int count = 0;
+            int degree = degrees[v];
+            for (int a = 0; a < degree; a++) {
+                int u = adjTargets[v][a];
+                double maxVia = 0;
+                for (int b = a + 1; b < degree; b++) {
+                    maxVia = Math.max(maxVia, adjWeights[v][a] + adjWeights[v][b]);
+                }
+                if (a + 1 == degree) {
+                    break;
+                }
+                witnessRound++;
+                for (int b = a + 1; b < degree; b++) {
+                    targetStamps[adjTargets[v][b]] = witnessRound;
+                }
+                witnessSearch(u, v, maxVia, degree - a - 1,
+                        add ? WITNESS_SETTLE_LIMIT : ESTIMATE_SETTLE_LIMIT);
+                for (int b = a + 1; b < degree; b++) {
+                    int w = adjTargets[v][b];
+                    double via = adjWeights[v][a] + adjWeights[v][b];
+                    if (witnessStamps[w] == witnessRound && witnessDist[w] <= via) {
+                        continue;
+                    }
+                    count++;
+                    if (add) {
+                        setEdge(u, w, via, v);
+                        setEdge(w, u, via, v);
+                    }
+                }
+            }
+            return count;
+        }
+
+        /**
+         * Runs Dijkstra's from u in the remaining graph without v, until the
+         * targets (the vertices stamped in targetStamps) are settled, or up
+         * to the distance maxDist or settleLimit settled vertices.
+         */
+        private void witnessSearch(int u, int v, double maxDist, int targets, int settleLimit) {
+            witnessStamps[u] = witnessRound;
+            witnessDist[u] = 0.0;
+            witnessHeap.clear();
+            witnessHeap.push(u, 0.0);
+            int settled = 0;
+            while (!witnessHeap.isEmpty() && targets > 0 && settled < settleLimit) {
+                if (witnessHeap.minDist() > maxDist) {
+                    break;
+                }
+                double dist = witnessHeap.minDist();
+                int x = witnessHeap.pop();
+                if (dist > witnessDist[x]) {
+                    continue;
+                }
+                settled++;
+                if (targetStamps[x] == witnessRound) {
+                    targets--;
+                }
+                for (int k = 0; k < degrees[x]; k++) {
+                    int y = adjTargets[x][k];
+                    if (y == v) {
+                        continue;
+                    }
+                    double newDist = witnessDist[x] + adjWeights[x][k];
+                    if (witnessStamps[y] != witnessRound || newDist < witnessDist[y]) {
+                        witnessStamps[y] = witnessRound;
+                        witnessDist[y] = newDist;
+                        witnessHeap.push(y, newDist);
+                    }
+                }
+            }
+        }
+
+        /**
+         * Sets the edge from u to w, unless there is one as short already.
+         */
+        private void setEdge(int u, int w, double weight, int middle) {
+            for (int k = 0; k < degrees[u]; k++) {
+                if (adjTargets[u][k] == w) {
+                    if (weight < adjWeights[u][k]) {
+                        adjWeights[u][k] = weight;
+                        adjMiddles[u][k] = middle;
+                    }
+                    return;
+                }
+            }
+            if (degrees[u] == adjTargets[u].length) {
+                int capacity = adjTargets[u].length * 2;
+                adjTargets[u] = Arrays.copyOf(adjTargets[u], capacity);
+                adjWeights[u] = Arrays.copyOf(adjWeights[u], capacity);
+                adjMiddles[u] = Arrays.copyOf(adjMiddles[u], capacity);
+            }
+            adjTargets[u][degrees[u]] = w;
+            adjWeights[u][degrees[u]] = weight;
+            adjMiddles[u][degrees[u]] = middle;
+            degrees[u]++;
+        }
+
+        /**
+         * Removes the edge from u to w, moving the last edge of u in its
+         * place.
+         */
+        private void removeEdge(int u, int w) {
+            for (int k = 0; k < degrees[u]; k++) {
+                if (adjTargets[u][k] == w) {
+                    int last = degrees[u] - 1;
+                    adjTargets[u][k] = adjTargets[u][last];
+                    adjWeights[u][k] = adjWeights[u][last];
+                    adjMiddles[u][k] = adjMiddles[u][last];
+                    degrees[u] = last;
+                    return;
+                }
+            }
+        }
+    }
+
+    public static void main(String[] args) throws IOException {
+        String dbPath = args.length > 0 ? args[0] : OSM_DB_PATH;
+        String chPath = args.length > 1 ? args[1] : dbPath + ".ch";
+        GraphDB g = new GraphDB(dbPath);
+
+        long start = System.nanoTime();
+        ContractionHierarchy ch = build(g);
+        double seconds = (System.nanoTime() - start) / 1e9;
+        ch.save(chPath);
+        System.out.printf("%d vertices, %d upward edges, built in %.1f s, saved to %s\n",
+                g.size(), ch.edgeCount(), seconds, chPath);
+    }
+}
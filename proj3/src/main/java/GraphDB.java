@@ -1,19 +1,33 @@
 import org.xml.sax.SAXException;
 
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
 import java.io.File;
 import java.io.FileInputStream;
+import java.io.FileOutputStream;
 import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
 
 import javax.xml.parsers.ParserConfigurationException;
 import javax.xml.parsers.SAXParser;
 import javax.xml.parsers.SAXParserFactory;
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Random;
 import java.util.Set;
 import java.util.Iterator;
 import java.util.List;
-import java.util.LinkedList;;
+import java.util.LinkedList;
 
 /**
  * Graph for storing all of the intersection (vertex) and road (edge)
@@ -29,6 +43,19 @@ public class GraphDB {
     /**
      * Your instance variables for storing the graph. You should consider
      * creating helper classes, e.g. Node, Edge, etc.
+     *
+     * While the XML file is parsed, nodes and edges are appended to flat
+     * arrays. The graph is then frozen into a compressed sparse row (CSR)
+     * layout: the vertices left by clean() get dense int indices, the edges
+     * of vertex i are targets[offsets[i]..offsets[i + 1]), and the weights,
+     * way names and coordinates are parallel primitive arrays. Way names are
+     * interned, so an edge costs three ints and a double, and no object is
+     * kept per vertex or edge. Node and Edge objects are only made on
+     * demand, and for the named locations.
+     *
+     * The frozen graph, the locations, the KDTree and the landmarks can be
+     * written to a binary snapshot, which load() maps at start-up instead of
+     * parsing the XML file again.
      */
     public class Node {
         private final String name;
@@ -61,16 +88,16 @@ public class GraphDB {
     }
 
     public class Edge {
-        private String name;
-        private long from;
-        private long to;
-        private double weight;
+        private final String name;
+        private final long from;
+        private final long to;
+        private final double weight;
 
-        Edge(String edgeName, long from, long to) {
+        Edge(String edgeName, long from, long to, double weight) {
             this.name = edgeName;
             this.from = from;
             this.to = to;
-            this.weight = distance(from, to);
+            this.weight = weight;
         }
 
         public String name() {
@@ -90,10 +117,38 @@ public class GraphDB {
         }
     }
 
-    private Map<Long, Set<Edge>> graph = new HashMap<Long, Set<Edge>>();
-    private Map<Long, Node> idToNode = new HashMap<Long, Node>();
+    /* The nodes and ways seen by the parser, dropped once the graph is frozen. */
+    private LongIntMap parsedIndex = new LongIntMap();
+    private long[] parsedIds = new long[1024];
+    private double[] parsedLons = new double[1024];
+    private double[] parsedLats = new double[1024];
+    private int parsedCount;
+    /* (from, to, way name) triples of parsed node indices. */
+    private int[] parsedEdges = new int[3 * 1024];
+    private int parsedEdgeCount;
+    private Map<String, Integer> wayNameIds = new HashMap<>();
+    private List<String> wayNameList = new ArrayList<>();
+
+    /* The frozen graph: vertex ids, coordinates and the CSR adjacency. */
+    private LongIntMap index;
+    private long[] ids;
+    private double[] lons;
+    private double[] lats;
+    private int[] offsets;
+    private int[] targets;
+    private double[] weights;
+    private int[] edgeWays;
+    private String[] wayNames;
+
     private TrieMap<Set<Node>> locations = new TrieMap<Set<Node>>();
     private KDTree nodeKDTree = new KDTree();
+    /* The number of ALT landmarks, 4 bytes per vertex each. */
+    private static final int LANDMARK_COUNT = 16;
+    /* The first int of a snapshot, and the version of its format. */
+    private static final int SNAPSHOT_MAGIC = 0x47444231;
+    private static final int SNAPSHOT_VERSION = 1;
+    /* Built on the first lowerBound, as routing on the hierarchy needs none. */
+    private volatile Landmarks landmarks;
 
     /**
      * Example constructor shows how to create and start an XML parser.
@@ -119,15 +174,277 @@ public class GraphDB {
         buildKDTree();
     }
 
+    /**
+     * Creates an empty graph, for readSnapshot to fill.
+     */
+    private GraphDB() {
+    }
+
+    /**
+     * Returns the graph of the XML file, read from the snapshot if it was
+     * written from the current version of the file, else parsed from the
+     * file and written to the snapshot for the next start.
+     *
+     * @param dbPath       Path to the XML file.
+     * @param snapshotPath Path to the snapshot.
+     */
+    public static GraphDB load(String dbPath, String snapshotPath) {
+        GraphDB g = readSnapshot(dbPath, snapshotPath);
+        if (g != null) {
+            return g;
+        }
+        g = new GraphDB(dbPath);
+        try {
+            g.writeSnapshot(dbPath, snapshotPath);
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+        return g;
+    }
+
+    /**
+     * Writes the graph to the snapshot, tagged with the length and the
+     * modification time of the XML file. It is written to a temporary file
+     * first and moved in place, so a snapshot is never read half written.
+     *
+     * Layout, big-endian: the header (magic, version, XML length and time,
+     * LANDMARK_COUNT), the counts of vertices, edges, way names, location
+     * names and KDTree points, then the CSR arrays, the way names, the
+     * locations, the landmarks and the KDTree points in preorder. The
+     * landmarks are only written if they were built, else their count is 0.
+     */
+    void writeSnapshot(String dbPath, String snapshotPath) throws IOException {
+        File source = new File(dbPath);
+        Path target = Paths.get(snapshotPath);
+        Path tmp = Paths.get(snapshotPath + ".tmp");
+        Set<String> locationNames = locations.keySet();
+        int n = ids.length;
+        int m = targets.length;
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(
+                new FileOutputStream(tmp.toFile()), 1 << 16))) {
+            out.writeInt(SNAPSHOT_MAGIC);
+            out.writeInt(SNAPSHOT_VERSION);
+            out.writeLong(source.length());
+            out.writeLong(source.lastModified());
+            out.writeInt(LANDMARK_COUNT);
+            out.writeInt(n);
+            out.writeInt(m);
+            out.writeInt(wayNames.length);
+            out.writeInt(locationNames.size());
+            out.writeInt(nodeKDTree.size());
+
+            for (int v = 0; v < n; v++) {
+                out.writeLong(ids[v]);
+            }
+            for (int v = 0; v < n; v++) {
+                out.writeDouble(lons[v]);
+            }
+            for (int v = 0; v < n; v++) {
+                out.writeDouble(lats[v]);
+            }
+            for (int v = 0; v <= n; v++) {
+                out.writeInt(offsets[v]);
+            }
+            for (int e = 0; e < m; e++) {
+                out.writeInt(targets[e]);
+            }
+            for (int e = 0; e < m; e++) {
+                out.writeDouble(weights[e]);
+            }
+            for (int e = 0; e < m; e++) {
+                out.writeInt(edgeWays[e]);
+            }
+            for (String way : wayNames) {
+                writeString(out, way);
+            }
+
+            for (String locationName : locationNames) {
+                Set<Node> nodes = locations.get(locationName);
+                writeString(out, locationName);
+                out.writeInt(nodes.size());
+                for (Node node : nodes) {
+                    out.writeLong(node.id);
+                    writeString(out, node.name);
+                    out.writeDouble(node.lon);
+                    out.writeDouble(node.lat);
+                }
+            }
+
+            Landmarks built = landmarks;
+            if (built == null) {
+                out.writeInt(0);
+            } else {
+                out.writeInt(built.count());
+                for (int landmark : built.vertices()) {
+                    out.writeInt(landmark);
+                }
+                for (float distance : built.distances()) {
+                    out.writeFloat(distance);
+                }
+            }
+
+            int size = nodeKDTree.size();
+            long[] pointIds = new long[size];
+            double[] pointLons = new double[size];
+            double[] pointLats = new double[size];
+            byte[] children = new byte[size];
+            nodeKDTree.preorder(pointIds, pointLons, pointLats, children);
+            for (int i = 0; i < size; i++) {
+                out.writeLong(pointIds[i]);
+            }
+            for (int i = 0; i < size; i++) {
+                out.writeDouble(pointLons[i]);
+            }
+            for (int i = 0; i < size; i++) {
+                out.writeDouble(pointLats[i]);
+            }
+            out.write(children);
+        }
+        Files.move(tmp, target, StandardCopyOption.REPLACE_EXISTING,
+                StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    /**
+     * Returns the graph of the snapshot, or null if there is no snapshot, or
+     * if it is stale: written by another version, with another number of
+     * landmarks, or from another version of the XML file. The snapshot is
+     * memory-mapped, and its arrays are copied out in bulk.
+     */
+    private static GraphDB readSnapshot(String dbPath, String snapshotPath) {
+        File source = new File(dbPath);
+        Path path = Paths.get(snapshotPath);
+        if (!Files.isRegularFile(path)) {
+            return null;
+        }
+        try (FileChannel channel = FileChannel.open(path)) {
+            ByteBuffer in = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            if (in.getInt() != SNAPSHOT_MAGIC || in.getInt() != SNAPSHOT_VERSION
+                    || in.getLong() != source.length() || in.getLong() != source.lastModified()
+                    || in.getInt() != LANDMARK_COUNT) {
+                return null;
+            }
+            int n = in.getInt();
+            int m = in.getInt();
+            int wayCount = in.getInt();
+            int locationCount = in.getInt();
+            int pointCount = in.getInt();
+
+            GraphDB g = new GraphDB();
+            g.ids = getLongs(in, n);
+            g.lons = getDoubles(in, n);
+            g.lats = getDoubles(in, n);
+            g.offsets = getInts(in, n + 1);
+            g.targets = getInts(in, m);
+            g.weights = getDoubles(in, m);
+            g.edgeWays = getInts(in, m);
+            g.wayNames = new String[wayCount];
+            for (int k = 0; k < wayCount; k++) {
+                g.wayNames[k] = getString(in);
+            }
+            g.index = new LongIntMap(n);
+            for (int v = 0; v < n; v++) {
+                g.index.put(g.ids[v], v);
+            }
+
+            g.locations = new TrieMap<Set<Node>>();
+            for (int k = 0; k < locationCount; k++) {
+                String locationName = getString(in);
+                int size = in.getInt();
+                Set<Node> nodes = new HashSet<>();
+                for (int j = 0; j < size; j++) {
+                    long id = in.getLong();
+                    String name = getString(in);
+                    nodes.add(g.createNode(id, name, in.getDouble(), in.getDouble()));
+                }
+                g.locations.put(locationName, nodes);
+            }
+
+            int[] landmarkVertices = getInts(in, in.getInt());
+            if (landmarkVertices.length > 0) {
+                g.landmarks = new Landmarks(landmarkVertices,
+                        getFloats(in, n * landmarkVertices.length));
+            }
+
+            long[] pointIds = getLongs(in, pointCount);
+            double[] pointLons = getDoubles(in, pointCount);
+            double[] pointLats = getDoubles(in, pointCount);
+            byte[] children = new byte[pointCount];
+            in.get(children);
+            g.nodeKDTree = KDTree.fromPreorder(pointIds, pointLons, pointLats, children);
+
+            g.parsedIndex = null;
+            g.parsedIds = null;
+            g.parsedLons = null;
+            g.parsedLats = null;
+            g.parsedEdges = null;
+            g.wayNameIds = null;
+            g.wayNameList = null;
+            return g;
+        } catch (IOException | RuntimeException e) {
+            // a truncated or corrupt snapshot is as good as none
+            return null;
+        }
+    }
+
+    /*
+     * The helpers of the snapshots: strings are written as their length and
+     * UTF-8 bytes, and arrays are copied out of a mapped buffer in bulk.
+     */
+    static void writeString(DataOutputStream out, String s) throws IOException {
+        byte[] bytes = s.getBytes(StandardCharsets.UTF_8);
+        out.writeInt(bytes.length);
+        out.write(bytes);
+    }
+
+    static String getString(ByteBuffer in) {
+        byte[] bytes = new byte[in.getInt()];
+        in.get(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    static long[] getLongs(ByteBuffer in, int length) {
+        long[] values = new long[length];
+        in.asLongBuffer().get(values);
+        in.position(in.position() + Long.BYTES * length);
+        return values;
+    }
+
+    static double[] getDoubles(ByteBuffer in, int length) {
+        double[] values = new double[length];
+        in.asDoubleBuffer().get(values);
+        in.position(in.position() + Double.BYTES * length);
+        return values;
+    }
+
+    static int[] getInts(ByteBuffer in, int length) {
+        int[] values = new int[length];
+        in.asIntBuffer().get(values);
+        in.position(in.position() + Integer.BYTES * length);
+        return values;
+    }
+
+    static float[] getFloats(ByteBuffer in, int length) {
+        float[] values = new float[length];
+        in.asFloatBuffer().get(values);
+        in.position(in.position() + Float.BYTES * length);
+        return values;
+    }
+
     public void addNode(long id, String name, double lon, double lat) {
-        if (graph.containsKey(id)) {
+        if (parsedIndex.get(id) >= 0) {
             return;
         }
 
-        graph.put(id, new HashSet<Edge>());
-
-        Node node = createNode(id, name, lon, lat);
-        idToNode.put(id, node);
+        if (parsedCount == parsedIds.length) {
+            parsedIds = Arrays.copyOf(parsedIds, parsedCount * 2);
+            parsedLons = Arrays.copyOf(parsedLons, parsedCount * 2);
+            parsedLats = Arrays.copyOf(parsedLats, parsedCount * 2);
+        }
+        parsedIds[parsedCount] = id;
+        parsedLons[parsedCount] = lon;
+        parsedLats[parsedCount] = lat;
+        parsedIndex.put(id, parsedCount);
+        parsedCount++;
     }
 
     public void addLocation(String name, long id) {
@@ -135,18 +452,32 @@ public class GraphDB {
         if (!locations.containsKey(cleanName)) {
             locations.put(cleanName, new HashSet<>());
         }
-        Node node = idToNode.get(id);
+        int i = parsedIndex.get(id);
+        Node node = createNode(id, name, parsedLons[i], parsedLats[i]);
         locations.get(cleanName).add(node);
     }
 
     public void addEdge(String name, long v, long w) {
-        if (!graph.containsKey(v) || !graph.containsKey(w)) {
+        int from = parsedIndex.get(v);
+        int to = parsedIndex.get(w);
+        if (from < 0 || to < 0) {
             throw new IllegalArgumentException(
                     "nodes are not added into graph yet, but try to add their edge");
         }
 
-        graph.get(v).add(createEdge(name, v, w));
-        graph.get(w).add(createEdge(name, w, v));
+        Integer way = wayNameIds.get(name);
+        if (way == null) {
+            way = wayNameList.size();
+            wayNameIds.put(name, way);
+            wayNameList.add(name);
+        }
+        if (3 * parsedEdgeCount + 3 > parsedEdges.length) {
+            parsedEdges = Arrays.copyOf(parsedEdges, parsedEdges.length * 2);
+        }
+        parsedEdges[3 * parsedEdgeCount] = from;
+        parsedEdges[3 * parsedEdgeCount + 1] = to;
+        parsedEdges[3 * parsedEdgeCount + 2] = way;
+        parsedEdgeCount++;
     }
 
     public void addWay(String name, long[] vs) {
@@ -194,21 +525,90 @@ public class GraphDB {
      * While this does not guarantee that any two nodes in the remaining graph are
      * connected,
      * we can reasonably assume this since typically roads are connected.
+     *
+     * This also freezes the parsed graph into the CSR arrays: the remaining
+     * nodes are numbered in the order they were parsed, and every way segment
+     * becomes an edge in both directions.
      */
     private void clean() {
-        Iterator<Map.Entry<Long, Set<Edge>>> itr = graph.entrySet().iterator();
-        while (itr.hasNext()) {
-            Map.Entry<Long, Set<Edge>> entry = itr.next();
-            if (entry.getValue().size() <= 0) {
-                itr.remove();
+        int[] degrees = new int[parsedCount];
+        for (int k = 0; k < parsedEdgeCount; k++) {
+            degrees[parsedEdges[3 * k]]++;
+            degrees[parsedEdges[3 * k + 1]]++;
+        }
+
+        int[] dense = new int[parsedCount];
+        int n = 0;
+        for (int i = 0; i < parsedCount; i++) {
+            dense[i] = degrees[i] > 0 ? n++ : -1;
+        }
+        index = new LongIntMap();
+        ids = new long[n];
+        lons = new double[n];
+        lats = new double[n];
+        offsets = new int[n + 1];
+        for (int i = 0; i < parsedCount; i++) {
+            int v = dense[i];
+            if (v >= 0) {
+                ids[v] = parsedIds[i];
+                lons[v] = parsedLons[i];
+                lats[v] = parsedLats[i];
+                index.put(ids[v], v);
+                offsets[v + 1] = degrees[i];
             }
         }
+        for (int v = 0; v < n; v++) {
+            offsets[v + 1] += offsets[v];
+        }
+
+        int m = offsets[n];
+        targets = new int[m];
+        weights = new double[m];
+        edgeWays = new int[m];
+        int[] next = Arrays.copyOf(offsets, n);
+        for (int k = 0; k < parsedEdgeCount; k++) {
+            int v = dense[parsedEdges[3 * k]];
+            int w = dense[parsedEdges[3 * k + 1]];
+            int way = parsedEdges[3 * k + 2];
+            double weight = distance(lons[v], lats[v], lons[w], lats[w]);
+            addFrozenEdge(next[v]++, w, weight, way);
+            addFrozenEdge(next[w]++, v, weight, way);
+        }
+        wayNames = wayNameList.toArray(new String[0]);
+
+        parsedIndex = null;
+        parsedIds = null;
+        parsedLons = null;
+        parsedLats = null;
+        parsedEdges = null;
+        wayNameIds = null;
+        wayNameList = null;
+    }
+
+    private void addFrozenEdge(int e, int target, double weight, int way) {
+        targets[e] = target;
+        weights[e] = weight;
+        edgeWays[e] = way;
     }
 
+    /**
+     * Insert the vertices into the KDTree in a shuffled order, since the
+     * order of the file is often spatial and would unbalance the tree.
+     */
     private void buildKDTree() {
-        for (long id : graph.keySet()) {
-            Node node = idToNode.get(id);
-            nodeKDTree.insert(node.id, node.lon, node.lat);
+        int[] order = new int[ids.length];
+        for (int v = 0; v < order.length; v++) {
+            order[v] = v;
+        }
+        Random random = new Random(0);
+        for (int k = order.length - 1; k > 0; k--) {
+            int j = random.nextInt(k + 1);
+            int tmp = order[k];
+            order[k] = order[j];
+            order[j] = tmp;
+        }
+        for (int v : order) {
+            nodeKDTree.insert(ids[v], lons[v], lats[v]);
         }
     }
 
@@ -218,8 +618,20 @@ public class GraphDB {
      * @return An iterable of id's of all vertices in the graph.
      */
     Iterable<Long> vertices() {
-        // YOUR CODE HERE, this currently returns only an empty list.
-        return graph.keySet();
+        return () -> new Iterator<Long>() {
+            private int v = 0;
+
+            public boolean hasNext() {
+                return v < ids.length;
+            }
+
+            public Long next() {
+                if (!hasNext()) {
+                    throw new NoSuchElementException();
+                }
+                return ids[v++];
+            }
+        };
     }
 
     /**
@@ -230,28 +642,115 @@ public class GraphDB {
      */
     Iterable<Long> adjacent(long v) {
         Set<Long> adjVertex = new HashSet<>();
-        for (Edge e : graph.get(v)) {
-            adjVertex.add(e.to());
+        int i = indexOf(v);
+        for (int e = offsets[i]; e < offsets[i + 1]; e++) {
+            adjVertex.add(ids[targets[e]]);
         }
 
         return adjVertex;
     }
 
     public Iterable<Edge> adjEdges(long v) {
-        return graph.get(v);
+        int i = indexOf(v);
+        List<Edge> edges = new ArrayList<>(offsets[i + 1] - offsets[i]);
+        for (int e = offsets[i]; e < offsets[i + 1]; e++) {
+            edges.add(createEdge(e, v));
+        }
+        return edges;
     }
 
     public Edge edge(long v, long w) {
-        Iterable<Edge> edges = graph.get(v);
-        for (Edge edge : edges) {
-            if (edge.to() == w) {
-                return edge;
+        int i = indexOf(v);
+        for (int e = offsets[i]; e < offsets[i + 1]; e++) {
+            if (ids[targets[e]] == w) {
+                return createEdge(e, v);
             }
         }
 
         return null;
     }
 
+    /**
+     * Returns the number of vertices, the dense indices are 0 to size() - 1.
+     */
+    int size() {
+        return ids.length;
+    }
+
+    /**
+     * Returns the dense index of the vertex with the given id.
+     */
+    int indexOf(long v) {
+        int i = index.get(v);
+        if (i < 0) {
+            throw new IllegalArgumentException("vertex " + v + " is not in the graph");
+        }
+        return i;
+    }
+
+    /**
+     * Returns the id of the vertex with the given dense index.
+     */
+    long idOf(int i) {
+        return ids[i];
+    }
+
+    /**
+     * Returns the first edge of the vertex with dense index i. Its edges are
+     * edgeStart(i) to edgeStart(i + 1) - 1.
+     */
+    int edgeStart(int i) {
+        return offsets[i];
+    }
+
+    /**
+     * Returns the dense index of the target of edge e.
+     */
+    int edgeTarget(int e) {
+        return targets[e];
+    }
+
+    /**
+     * Returns the length of edge e in miles.
+     */
+    double edgeWeight(int e) {
+        return weights[e];
+    }
+
+    /**
+     * Returns the great-circle distance between the vertices with dense
+     * indices i and j in miles.
+     */
+    double distanceAt(int i, int j) {
+        return distance(lons[i], lats[i], lons[j], lats[j]);
+    }
+
+    /**
+     * Returns a lower bound of the length of the shortest route between the
+     * vertices with dense indices i and t in miles: the best of their
+     * great-circle distance and the bound of the landmarks.
+     */
+    double lowerBound(int i, int t) {
+        return Math.max(distanceAt(i, t), landmarks().lowerBound(i, t));
+    }
+
+    /**
+     * Returns the landmarks, building them on the first call.
+     */
+    private Landmarks landmarks() {
+        Landmarks built = landmarks;
+        if (built == null) {
+            synchronized (this) {
+                built = landmarks;
+                if (built == null) {
+                    built = Landmarks.build(this, LANDMARK_COUNT);
+                    landmarks = built;
+                }
+            }
+        }
+        return built;
+    }
+
     /**
      * Returns the great-circle distance between vertices v and w in miles.
      * Assumes the lon/lat methods are implemented properly.
@@ -323,8 +822,7 @@ public class GraphDB {
      * @return The longitude of the vertex.
      */
     double lon(long v) {
-        Node node = idToNode.get(v);
-        return node.lon;
+        return lons[indexOf(v)];
     }
 
     /**
@@ -334,15 +832,88 @@ public class GraphDB {
      * @return The latitude of the vertex.
      */
     double lat(long v) {
-        Node node = idToNode.get(v);
-        return node.lat;
+        return lats[indexOf(v)];
     }
 
     private Node createNode(long id, String name, double lon, double lat) {
         return new Node(id, name, lon, lat);
     }
 
-    private Edge createEdge(String name, long from, long to) {
-        return new Edge(name, from, to);
+    private Edge createEdge(int e, long from) {
+        return new Edge(wayNames[edgeWays[e]], from, ids[targets[e]], weights[e]);
+    }
+
+    /**
+     * An open addressing hash map from long keys to non-negative ints, without
+     * boxing.
+     */
+    private static class LongIntMap {
+        private long[] keys;
+        private int[] values;
+        private boolean[] used;
+        private int size;
+
+        LongIntMap() {
+            this(256);
+        }
+
+        /**
+         * Creates a map which holds the expected number of keys without
+         * rehashing.
+         */
+        LongIntMap(int expected) {
+            int capacity = Integer.highestOneBit(Math.max(expected, 256)) * 4;
+            keys = new long[capacity];
+            values = new int[capacity];
+            used = new boolean[capacity];
+        }
+
+        /**
+         * Returns the value of the key, or -1 if there is none.
+         */
+        int get(long key) {
+            int slot = slotOf(key);
+            return used[slot] ? values[slot] : -1;
+        }
+
+        void put(long key, int value) {
+            int slot = slotOf(key);
+            if (!used[slot]) {
+                used[slot] = true;
+                keys[slot] = key;
+                size++;
+            }
+            values[slot] = value;
+            if (size * 2 > keys.length) {
+                rehash();
+            }
+        }
+
+        private int slotOf(long key) {
+            int mask = keys.length - 1;
+            long h = key * 0x9E3779B97F4A7C15L;
+            int slot = (int) (h ^ (h >>> 32)) & mask;
+            while (used[slot] && keys[slot] != key) {
+                slot = (slot + 1) & mask;
+            }
+            return slot;
+        }
+
+        private void rehash() {
+            long[] oldKeys = keys;
+            int[] oldValues = values;
+            boolean[] oldUsed = used;
+            keys = new long[oldKeys.length * 2];
+            values = new int[oldKeys.length * 2];
+            used = new boolean[oldKeys.length * 2];
+            for (int k = 0; k < oldKeys.length; k++) {
+                if (oldUsed[k]) {
+                    int slot = slotOf(oldKeys[k]);
+                    used[slot] = true;
+                    keys[slot] = oldKeys[k];
+                    values[slot] = oldValues[k];
+                }
+            }
+        }
     }
 }
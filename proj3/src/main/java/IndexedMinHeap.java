@@ -0,0 +1,209 @@
+import java.util.Arrays;
+import java.util.NoSuchElementException;
+
+/**
+ * A binary min-heap of long items (vertex ids) with double priorities, which
+ * knows the position of every item. Unlike ArrayHeap, changePriority finds
+ * the item through the position map instead of scanning the heap, so every
+ * operation is O(log n), and no item or priority is boxed.
+ *
+ * The position map is an open addressing hash table from item to heap
+ * position. Removed items stay in the table with position 0, since a heap
+ * lives for one search and items rarely come back.
+ */
+public class IndexedMinHeap {
+    private static final int INITIAL_CAPACITY = 16;
+
+    /* The heap, 1-based like ArrayHeap so the index arithmetic is simple. */
+    private long[] items;
+    private double[] priorities;
+    private int size;
+
+    /* The position map: keys, their heap positions (0 if not in the heap). */
+    private long[] keys;
+    private int[] positions;
+    private boolean[] used;
+    private int keyCount;
+
+    public IndexedMinHeap() {
+        items = new long[INITIAL_CAPACITY];
+        priorities = new double[INITIAL_CAPACITY];
+        keys = new long[INITIAL_CAPACITY * 2];
+        positions = new int[INITIAL_CAPACITY * 2];
+        used = new boolean[INITIAL_CAPACITY * 2];
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public boolean isEmpty() {
+        return size == 0;
+    }
+
+    /**
+     * Returns true if the item is in the heap.
+     */
+    public boolean contains(long item) {
+        return positions[slotOf(item)] > 0;
+    }
+
+    /**
+     * Inserts the item with the given priority. The item must not be in the
+     * heap.
+     */
+    public void insert(long item, double priority) {
+        if (size + 1 == items.length) {
+            items = Arrays.copyOf(items, items.length * 2);
+            priorities = Arrays.copyOf(priorities, priorities.length * 2);
+        }
+        size++;
+        items[size] = item;
+        priorities[size] = priority;
+        setPosition(item, size);
+        swim(size);
+    }
+
+    /**
+     * Returns the item with the smallest priority, without removing it.
+     */
+    public long peek() {
+        if (size == 0) {
+            throw new NoSuchElementException("heap is empty");
+        }
+        return items[1];
+    }
+
+    /**
+     * Returns the smallest priority.
+     */
+    public double minPriority() {
+        if (size == 0) {
+            throw new NoSuchElementException("heap is empty");
+        }
+        return priorities[1];
+    }
+
+    /**
+     * Removes and returns the item with the smallest priority.
+     */
+    public long removeMin() {
+        long min = peek();
+        move(size, 1);
+        size--;
+        positions[slotOf(min)] = 0;
+        if (size > 0) {
+            sink(1);
+        }
+        return min;
+    }
+
+    /**
+     * Changes the priority of the item, or inserts it if it is not in the
+     * heap, like ArrayHeap.changePriority.
+     */
+    public void changePriority(long item, double priority) {
+        int slot = slotOf(item);
+        int i = positions[slot];
+        if (i == 0) {
+            insert(item, priority);
+            return;
+        }
+        double prevPriority = priorities[i];
+        priorities[i] = priority;
+        if (priority < prevPriority) {
+            swim(i);
+        } else {
+            sink(i);
+        }
+    }
+
+    private void swim(int i) {
+        long item = items[i];
+        double priority = priorities[i];
+        while (i > 1 && priority < priorities[i / 2]) {
+            move(i / 2, i);
+            i /= 2;
+        }
+        items[i] = item;
+        priorities[i] = priority;
+        setPosition(item, i);
+    }
+
+    private void sink(int i) {
+        long item = items[i];
+        double priority = priorities[i];
+        while (2 * i <= size) {
+            int child = 2 * i;
+            if (child < size && priorities[child + 1] < priorities[child]) {
+                child++;
+            }
+            if (priorities[child] >= priority) {
+                break;
+            }
+            move(child, i);
+            i = child;
+        }
+        items[i] = item;
+        priorities[i] = priority;
+        setPosition(item, i);
+    }
+
+    /**
+     * Moves the node at position from to position to.
+     */
+    private void move(int from, int to) {
+        items[to] = items[from];
+        priorities[to] = priorities[from];
+        setPosition(items[to], to);
+    }
+
+    private void setPosition(long item, int position) {
+        int slot = slotOf(item);
+        if (!used[slot]) {
+            used[slot] = true;
+            keys[slot] = item;
+            keyCount++;
+            if (keyCount * 2 > keys.length) {
+                rehash();
+                slot = slotOf(item);
+            }
+        }
+        positions[slot] = position;
+    }
+
+    /**
+     * Returns the slot of the item in the position map, or the empty slot
+     * where it belongs.
+     */
+    private int slotOf(long item) {
+        int mask = keys.length - 1;
+        int slot = hash(item) & mask;
+        while (used[slot] && keys[slot] != item) {
+            slot = (slot + 1) & mask;
+        }
+        return slot;
+    }
+
+    private static int hash(long item) {
+        long h = item * 0x9E3779B97F4A7C15L;
+        return (int) (h ^ (h >>> 32));
+    }
+
+    private void rehash() {
+        long[] oldKeys = keys;
+        int[] oldPositions = positions;
+        boolean[] oldUsed = used;
+        keys = new long[oldKeys.length * 2];
+        positions = new int[oldKeys.length * 2];
+        used = new boolean[oldKeys.length * 2];
+        for (int k = 0; k < oldKeys.length; k++) {
+            if (oldUsed[k]) {
+                int slot = slotOf(oldKeys[k]);
+                used[slot] = true;
+                keys[slot] = oldKeys[k];
+                positions[slot] = oldPositions[k];
+            }
+        }
+    }
+}
@@ -56,6 +56,8 @@ public class KDTree {
 
     private double minDistance;
     private Point bestPoint;
+    /* The next point of preorder and fromPreorder. */
+    private int cursor;
 
     KDTree() {
         root = null;
@@ -151,6 +153,57 @@ public class KDTree {
         }
     }
 
+    /**
+     * Stores the points in preorder into the arrays, of length size(), with
+     * the children of every point: bit 1 is set if it has a left child, and
+     * bit 2 if it has a right child. fromPreorder rebuilds the same tree.
+     */
+    void preorder(long[] ids, double[] lons, double[] lats, byte[] children) {
+        cursor = 0;
+        preorder(root, ids, lons, lats, children);
+    }
+
+    private void preorder(Node node, long[] ids, double[] lons, double[] lats,
+            byte[] children) {
+        if (node == null) {
+            return;
+        }
+        int i = cursor++;
+        ids[i] = node.point.id;
+        lons[i] = node.point.lon;
+        lats[i] = node.point.lat;
+        children[i] = (byte) ((node.left != null ? 1 : 0) | (node.right != null ? 2 : 0));
+        preorder(node.left, ids, lons, lats, children);
+        preorder(node.right, ids, lons, lats, children);
+    }
+
+    /**
+     * Returns the tree whose points are stored in preorder by preorder,
+     * linked as they were, without comparing a point.
+     */
+    static KDTree fromPreorder(long[] ids, double[] lons, double[] lats, byte[] children) {
+        KDTree tree = new KDTree();
+        tree.cursor = 0;
+        if (ids.length > 0) {
+            tree.root = tree.fromPreorder(ids, lons, lats, children, true);
+        }
+        tree.size = ids.length;
+        return tree;
+    }
+
+    private Node fromPreorder(long[] ids, double[] lons, double[] lats, byte[] children,
+            boolean isLon) {
+        int i = cursor++;
+        Node node = new Node(new Point(ids[i], lons[i], lats[i], isLon));
+        if ((children[i] & 1) != 0) {
+            node.left = fromPreorder(ids, lons, lats, children, !isLon);
+        }
+        if ((children[i] & 2) != 0) {
+            node.right = fromPreorder(ids, lons, lats, children, !isLon);
+        }
+        return node;
+    }
+
     public int size() {
         return size;
     }
@@ -0,0 +1,212 @@
+import java.util.Arrays;
+import java.util.stream.IntStream;
+
+/**
+ * Landmarks for the ALT (A*, landmarks, triangle inequality) heuristic.
+ *
+ * For a landmark L and vertices v and t, the triangle inequality gives
+ * d(v, t) >= |d(L, t) - d(L, v)|, since roads are two-way. With the road
+ * distances from a few landmarks on the edge of the map precomputed, the
+ * best of these bounds is much closer to d(v, t) than the great-circle
+ * distance when the road has to go around a river or a hill, so A* settles
+ * fewer vertices.
+ *
+ * The landmarks are picked by farthest-point selection on the great-circle
+ * distance, among the vertices of the largest connected component: every
+ * landmark is the vertex farthest from those picked so far. Their distances
+ * are then computed by one Dijkstra's run per landmark, in parallel. They
+ * are stored as floats, vertex by vertex, so the bounds of a vertex are read
+ * from one run of memory.
+ */
+public class Landmarks {
+    /* The dense indices of the landmarks. */
+    private final int[] vertices;
+    /* The distance from landmark k to vertex v is distances[v * count + k]. */
+    private final float[] distances;
+    private final int count;
+
+    Landmarks(int[] vertices, float[] distances) {
+        this.vertices = vertices;
+        this.distances = distances;
+        this.count = vertices.length;
+    }
+
+    /**
+     * Picks count landmarks of the graph and computes their distances.
+     */
+    public static Landmarks build(GraphDB g, int count) {
+        int n = g.size();
+        boolean[] candidates = largestComponent(g);
+        int[] vertices = new int[Math.min(count, n)];
+        if (vertices.length == 0) {
+            return new Landmarks(vertices, new float[0]);
+        }
+        double[] closest = new double[n];
+        // the first landmark is the vertex farthest from an arbitrary one
+        Arrays.fill(closest, Double.POSITIVE_INFINITY);
+        vertices[0] = farthest(g, candidates, closest, firstCandidate(candidates));
+        Arrays.fill(closest, Double.POSITIVE_INFINITY);
+        for (int k = 1; k < vertices.length; k++) {
+            vertices[k] = farthest(g, candidates, closest, vertices[k - 1]);
+        }
+        return fromVertices(g, vertices);
+    }
+
+    /**
+     * Computes the distances of the given landmarks, one Dijkstra's run per
+     * landmark, in parallel.
+     */
+    static Landmarks fromVertices(GraphDB g, int[] vertices) {
+        int n = g.size();
+        float[] distances = new float[n * vertices.length];
+        IntStream.range(0, vertices.length).parallel().forEach(k -> {
+            double[] distTo = dijkstra(g, vertices[k]);
+            for (int v = 0; v < n; v++) {
+                distances[v * vertices.length + k] = (float) distTo[v];
+            }
+        });
+        return new Landmarks(vertices, distances);
+    }
+
+    /**
+     * Returns the number of landmarks.
+     */
+    public int count() {
+        return count;
+    }
+
+    /**
+     * Returns the dense indices of the landmarks.
+     */
+    int[] vertices() {
+        return vertices;
+    }
+
+    /**
+     * Returns the distances, those of vertex v are distances()[v * count()]
+     * to distances()[v * count() + count() - 1].
+     */
+    float[] distances() {
+        return distances;
+    }
+
+    /**
+     * Returns a lower bound of the length of the shortest path between the
+     * vertices with dense indices v and t. The distances were rounded to
+     * floats, so the bound is lowered by their rounding error to stay below
+     * the exact distance.
+     */
+    double lowerBound(int v, int t) {
+        double bound = 0;
+        int vBase = v * count;
+        int tBase = t * count;
+        for (int k = 0; k < count; k++) {
+            float dv = distances[vBase + k];
+            float dt = distances[tBase + k];
+            // a landmark which cannot reach both vertices bounds nothing
+            if (dv == Float.POSITIVE_INFINITY || dt == Float.POSITIVE_INFINITY) {
+                continue;
+            }
+            double diff = Math.abs((double) dt - dv) - Math.ulp(dv) - Math.ulp(dt);
+            if (diff > bound) {
+                bound = diff;
+            }
+        }
+        return bound;
+    }
+
+    /**
+     * Returns the distances from the vertex with dense index s to every
+     * vertex, infinite for the vertices it cannot reach.
+     */
+    private static double[] dijkstra(GraphDB g, int s) {
+        double[] distTo = new double[g.size()];
+        Arrays.fill(distTo, Double.POSITIVE_INFINITY);
+        distTo[s] = 0.0;
+
+        IndexedMinHeap toVisit = new IndexedMinHeap();
+        toVisit.insert(s, 0.0);
+        while (!toVisit.isEmpty()) {
+            int node = (int) toVisit.removeMin();
+            for (int e = g.edgeStart(node); e < g.edgeStart(node + 1); e++) {
+                int neighbor = g.edgeTarget(e);
+                double dist = distTo[node] + g.edgeWeight(e);
+                if (dist < distTo[neighbor]) {
+                    distTo[neighbor] = dist;
+                    toVisit.changePriority(neighbor, dist);
+                }
+            }
+        }
+        return distTo;
+    }
+
+    /**
+     * Returns which vertices are in the largest connected component.
+     */
+    private static boolean[] largestComponent(GraphDB g) {
+        int n = g.size();
+        int[] components = new int[n];
+        Arrays.fill(components, -1);
+        int[] stack = new int[n];
+        int largest = -1;
+        int largestSize = 0;
+        for (int root = 0; root < n; root++) {
+            if (components[root] >= 0) {
+                continue;
+            }
+            int size = 0;
+            int top = 0;
+            stack[top++] = root;
+            components[root] = root;
+            while (top > 0) {
+                int v = stack[--top];
+                size++;
+                for (int e = g.edgeStart(v); e < g.edgeStart(v + 1); e++) {
+                    int w = g.edgeTarget(e);
+                    if (components[w] < 0) {
+                        components[w] = root;
+                        stack[top++] = w;
+                    }
+                }
+            }
+            if (size > largestSize) {
+                largest = root;
+                largestSize = size;
+            }
+        }
+
+        boolean[] inLargest = new boolean[n];
+        for (int v = 0; v < n; v++) {
+            inLargest[v] = components[v] == largest;
+        }
+        return inLargest;
+    }
+
+    /**
+     * Lowers the distances to the closest landmark with the distances to
+     * the new landmark, and returns the candidate farthest from all.
+     */
+    private static int farthest(GraphDB g, boolean[] candidates, double[] closest,
+            int landmark) {
+        int farthest = -1;
+        for (int v = 0; v < candidates.length; v++) {
+            if (!candidates[v]) {
+                continue;
+            }
+            closest[v] = Math.min(closest[v], g.distanceAt(v, landmark));
+            if (farthest < 0 || closest[v] > closest[farthest]) {
+                farthest = v;
+            }
+        }
+        return farthest;
+    }
+
+    private static int firstCandidate(boolean[] candidates) {
+        for (int v = 0; v < candidates.length; v++) {
+            if (candidates[v]) {
+                return v;
+            }
+        }
+        return -1;
+    }
+}
@@ -55,6 +55,16 @@ public class MapServer {
      * using custom region selection.
      **/
     private static final String OSM_DB_PATH = "../library-sp18/data/berkeley-2018.osm.xml";
+    /**
+     * The contraction hierarchy of the OSM file, built by
+     * java ContractionHierarchy, or at start-up if it is missing or stale.
+     **/
+    private static final String CH_PATH = OSM_DB_PATH + ".ch";
+    /**
+     * The binary snapshot of the graph, written when the OSM file is parsed,
+     * and read at start-up instead of the OSM file while it is up to date.
+     **/
+    private static final String SNAPSHOT_PATH = OSM_DB_PATH + ".snapshot";
     /**
      * Each raster request to the server will have the following parameters
      * as keys in the params map accessible by,
@@ -88,6 +98,7 @@ public class MapServer {
 
     private static Rasterer rasterer;
     private static GraphDB graph;
+    private static ContractionHierarchy hierarchy;
     private static List<Long> route = new LinkedList<>();
     /*
      * Define any static variables here. Do not define any instance variables of
@@ -102,7 +113,8 @@ public class MapServer {
      * This is for testing purposes, and you may fail tests otherwise.
      **/
     public static void initialize() {
-        graph = new GraphDB(OSM_DB_PATH);
+        graph = GraphDB.load(OSM_DB_PATH, SNAPSHOT_PATH);
+        hierarchy = ContractionHierarchy.loadOrBuild(graph, CH_PATH);
         rasterer = new Rasterer();
     }
 
@@ -146,7 +158,7 @@ public class MapServer {
         /* Define the routing endpoint for HTTP GET requests. */
         get("/route", (req, res) -> {
             HashMap<String, Double> params = getRequestParams(req, REQUIRED_ROUTE_REQUEST_PARAMS);
-            route = Router.shortestPath(graph, params.get("start_lon"), params.get("start_lat"),
+            route = hierarchy.shortestPath(graph, params.get("start_lon"), params.get("start_lat"),
                     params.get("end_lon"), params.get("end_lat"));
             String directions = getDirectionsText();
             Map<String, Object> routeParams = new HashMap<>();
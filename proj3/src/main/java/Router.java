@@ -1,8 +1,7 @@
+import java.util.Arrays;
 import java.util.Objects;
-import java.util.HashMap;
 import java.util.LinkedList;
 import java.util.List;
-import java.util.Map;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 
@@ -20,6 +19,9 @@ import java.util.regex.Pattern;
  * down to the priority you use to order your vertices.
  */
 public class Router {
+    /* The number of vertices settled by the last search of each thread. */
+    private static final ThreadLocal<Integer> SETTLED = ThreadLocal.withInitial(() -> 0);
+
     /**
      * Return a List of longs representing the shortest path from the node
      * closest to a start location and the node closest to the destination
@@ -34,45 +36,59 @@ public class Router {
      */
     public static List<Long> shortestPath(GraphDB g, double stlon, double stlat,
             double destlon, double destlat) {
-        final long s = g.closest(stlon, stlat);
-        final long t = g.closest(destlon, destlat);
+        final int s = g.indexOf(g.closest(stlon, stlat));
+        final int t = g.indexOf(g.closest(destlon, destlat));
 
-        Map<Long, Double> distTo = new HashMap<>();
-        Map<Long, Long> preNode = new HashMap<>();
-        distTo.put(s, 0.0);
-        preNode.put(s, null);
+        // indexed by the dense vertex indices of the graph
+        double[] distTo = new double[g.size()];
+        int[] preNode = new int[g.size()];
+        Arrays.fill(distTo, Double.POSITIVE_INFINITY);
+        Arrays.fill(preNode, -1);
+        distTo[s] = 0.0;
 
-        ArrayHeap<Long> toVisit = new ArrayHeap<>();
+        IndexedMinHeap toVisit = new IndexedMinHeap();
 
-        toVisit.insert(s, distTo.get(s) + g.distance(s, t));
+        // the landmarks bound the rest of the route more tightly than the
+        // great-circle distance, see GraphDB.lowerBound
+        int settled = 0;
+        toVisit.insert(s, distTo[s] + g.lowerBound(s, t));
         while (!toVisit.isEmpty()) {
-            long node = toVisit.removeMin();
+            int node = (int) toVisit.removeMin();
+            settled++;
             if (node == t) {
                 break;
             }
 
-            for (GraphDB.Edge e : g.adjEdges(node)) {
-                long neighbor = e.to();
-                double weight = e.weight();
-                if (!distTo.containsKey(neighbor)
-                        || distTo.get(node) + weight < distTo.get(neighbor)) {
-                    distTo.put(neighbor, distTo.get(node) + weight);
-                    preNode.put(neighbor, node);
+            for (int e = g.edgeStart(node); e < g.edgeStart(node + 1); e++) {
+                int neighbor = g.edgeTarget(e);
+                double weight = g.edgeWeight(e);
+                if (distTo[node] + weight < distTo[neighbor]) {
+                    distTo[neighbor] = distTo[node] + weight;
+                    preNode[neighbor] = node;
 
                     toVisit.changePriority(
-                            neighbor, distTo.get(neighbor) + g.distance(neighbor, t));
+                            neighbor, distTo[neighbor] + g.lowerBound(neighbor, t));
                 }
             }
         }
+        SETTLED.set(settled);
 
         LinkedList<Long> path = new LinkedList<>();
-        for (Long node = t; node != null; node = preNode.get(node)) {
-            path.addFirst(node);
+        for (int node = t; node != -1; node = preNode[node]) {
+            path.addFirst(g.idOf(node));
         }
 
         return path;
     }
 
+    /**
+     * Returns the number of vertices settled by the last shortestPath of the
+     * calling thread, to measure how well the heuristic guides the search.
+     */
+    public static int settledCount() {
+        return SETTLED.get();
+    }
+
     /**
      * Create the list of directions corresponding to a route on the graph.
      * 
@@ -0,0 +1,151 @@
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+/**
+ * This class provides a main method for timing random route queries.
+ * Usage: java RouterBenchmark [OSM file] [number of queries]
+ *
+ * Every query is routed by Router.shortestPath and by the A* search of
+ * before the IndexedMinHeap, on an ArrayHeap whose changePriority scans the
+ * heap, and by the ContractionHierarchy of the graph, built first; all
+ * must find routes of the same length. The ArrayHeap search keeps the
+ * great-circle heuristic, so the settled vertices per query also compare it
+ * with the landmarks of Router.
+ */
+public class RouterBenchmark {
+    private static final String OSM_DB_PATH = "../library-sp18/data/berkeley-2018.osm.xml";
+    /* The number of vertices settled by the ArrayHeap search. */
+    private static int arrayHeapSettled;
+
+    public static void main(String[] args) {
+        String dbPath = args.length > 0 ? args[0] : OSM_DB_PATH;
+        int nquery = args.length > 1 ? Integer.parseInt(args[1]) : 200;
+        GraphDB g = new GraphDB(dbPath);
+        long buildStart = System.nanoTime();
+        ContractionHierarchy ch = ContractionHierarchy.build(g);
+        System.out.printf("contraction hierarchy: %d upward edges, built in %.1f s\n",
+                ch.edgeCount(), (System.nanoTime() - buildStart) / 1e9);
+
+        List<Long> vertices = new ArrayList<>();
+        for (long v : g.vertices()) {
+            vertices.add(v);
+        }
+        Random random = new Random(0);
+        double[][] queries = new double[nquery][];
+        for (int i = 0; i < nquery; i++) {
+            long s = vertices.get(random.nextInt(vertices.size()));
+            long t = vertices.get(random.nextInt(vertices.size()));
+            queries[i] = new double[] {g.lon(s), g.lat(s), g.lon(t), g.lat(t)};
+        }
+
+        // warm up the searches
+        for (int i = 0; i < Math.min(nquery, 20); i++) {
+            double[] q = queries[i];
+            Router.shortestPath(g, q[0], q[1], q[2], q[3]);
+            arrayHeapShortestPath(g, q[0], q[1], q[2], q[3]);
+            ch.shortestPath(g, q[0], q[1], q[2], q[3]);
+        }
+
+        double before = 0;
+        double after = 0;
+        double contracted = 0;
+        long settledBefore = 0;
+        long settledAfter = 0;
+        long settledContracted = 0;
+        for (double[] q : queries) {
+            long start = System.nanoTime();
+            List<Long> expected = arrayHeapShortestPath(g, q[0], q[1], q[2], q[3]);
+            before += (System.nanoTime() - start) / 1e6;
+            settledBefore += arrayHeapSettled;
+
+            start = System.nanoTime();
+            List<Long> actual = Router.shortestPath(g, q[0], q[1], q[2], q[3]);
+            after += (System.nanoTime() - start) / 1e6;
+            settledAfter += Router.settledCount();
+
+            start = System.nanoTime();
+            List<Long> shortcut = ch.shortestPath(g, q[0], q[1], q[2], q[3]);
+            contracted += (System.nanoTime() - start) / 1e6;
+            settledContracted += ch.settledCount();
+
+            checkSameLength(g, expected, actual);
+            checkSameLength(g, expected, shortcut);
+        }
+
+        System.out.printf("%-16s %12s %12s %12s %16s\n", "search", "# queries", "ms/query",
+                "speedup", "settled/query");
+        System.out.printf("------------------------------------------------------"
+                + "-----------------\n");
+        System.out.printf("%-16s %12d %12.3f %12.2f %16d\n", "ArrayHeap", nquery,
+                before / nquery, 1.0, settledBefore / nquery);
+        System.out.printf("%-16s %12d %12.3f %12.2f %16d\n", "Router", nquery,
+                after / nquery, before / after, settledAfter / nquery);
+        System.out.printf("%-16s %12d %12.3f %12.2f %16d\n", "CH", nquery,
+                contracted / nquery, before / contracted, settledContracted / nquery);
+    }
+
+    private static void checkSameLength(GraphDB g, List<Long> expected, List<Long> actual) {
+        if (Math.abs(lengthOf(g, expected) - lengthOf(g, actual)) > 1e-9) {
+            throw new IllegalStateException("routes of different lengths: "
+                    + expected + " " + actual);
+        }
+    }
+
+    private static double lengthOf(GraphDB g, List<Long> route) {
+        double length = 0;
+        for (int i = 1; i < route.size(); i++) {
+            length += g.distance(route.get(i - 1), route.get(i));
+        }
+        return length;
+    }
+
+    /**
+     * The A* search of Router.shortestPath on an ArrayHeap.
+     */
+    private static List<Long> arrayHeapShortestPath(GraphDB g, double stlon, double stlat,
+            double destlon, double destlat) {
+        final long s = g.closest(stlon, stlat);
+        final long t = g.closest(destlon, destlat);
+
+        Map<Long, Double> distTo = new HashMap<>();
+        Map<Long, Long> preNode = new HashMap<>();
+        distTo.put(s, 0.0);
+        preNode.put(s, null);
+
+        ArrayHeap<Long> toVisit = new ArrayHeap<>();
+
+        arrayHeapSettled = 0;
+        toVisit.insert(s, distTo.get(s) + g.distance(s, t));
+        while (!toVisit.isEmpty()) {
+            long node = toVisit.removeMin();
+            arrayHeapSettled++;
+            if (node == t) {
+                break;
+            }
+
+            for (GraphDB.Edge e : g.adjEdges(node)) {
+                long neighbor = e.to();
+                double weight = e.weight();
+                if (!distTo.containsKey(neighbor)
+                        || distTo.get(node) + weight < distTo.get(neighbor)) {
+                    distTo.put(neighbor, distTo.get(node) + weight);
+                    preNode.put(neighbor, node);
+
+                    toVisit.changePriority(
+                            neighbor, distTo.get(neighbor) + g.distance(neighbor, t));
+                }
+            }
+        }
+
+        LinkedList<Long> path = new LinkedList<>();
+        for (Long node = t; node != null; node = preNode.get(node)) {
+            path.addFirst(node);
+        }
+
+        return path;
+    }
+}
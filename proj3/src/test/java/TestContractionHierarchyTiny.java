@@ -0,0 +1,67 @@
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+
+/**
+ * The routes of TestRouterTiny, through a contraction hierarchy of the tiny
+ * graph, built and saved then loaded.
+ */
+public class TestContractionHierarchyTiny {
+    private static final String OSM_DB_PATH_TINY = "../library-sp18/data/tiny-clean.osm.xml";
+    private static GraphDB graphTiny;
+    private static ContractionHierarchy built;
+    private static ContractionHierarchy loaded;
+    private static boolean initialized = false;
+
+    @Before
+    public void setUp() throws Exception {
+        if (initialized) {
+            return;
+        }
+        graphTiny = new GraphDB(OSM_DB_PATH_TINY);
+        built = ContractionHierarchy.build(graphTiny);
+        File file = File.createTempFile("tiny", ".ch");
+        file.deleteOnExit();
+        built.save(file.getPath());
+        loaded = ContractionHierarchy.load(graphTiny, file.getPath());
+        initialized = true;
+    }
+
+    private void checkRoute(List<Long> expected, double stlon, double stlat,
+            double destlon, double destlat) {
+        assertEquals(expected, built.shortestPath(graphTiny, stlon, stlat, destlon, destlat));
+        assertNotNull(loaded);
+        assertEquals(expected, loaded.shortestPath(graphTiny, stlon, stlat, destlon, destlat));
+    }
+
+    @Test
+    public void test22to66() {
+        checkRoute(Arrays.asList(22L, 46L, 66L), 0.2, 38.2, 0.6, 38.6);
+    }
+
+    @Test
+    public void test22to11() {
+        checkRoute(Arrays.asList(22L, 11L), 0.2, 38.2, 0.1, 38.1);
+    }
+
+    @Test
+    public void test41to46() {
+        checkRoute(Arrays.asList(41L, 63L, 66L, 46L), 0.4, 38.1, 0.4, 38.6);
+    }
+
+    @Test
+    public void test66to55() {
+        checkRoute(Arrays.asList(66L, 63L, 55L), 0.6, 38.6, 0.5, 38.5);
+    }
+
+    @Test
+    public void testSameStartAndDestination() {
+        checkRoute(Arrays.asList(22L), 0.2, 38.2, 0.2, 38.2);
+    }
+}
@@ -0,0 +1,101 @@
+import org.junit.Test;
+import static org.junit.Assert.*;
+import java.util.PriorityQueue;
+import java.util.Map;
+import java.util.HashMap;
+import java.util.Random;
+
+public class TestIndexedMinHeap {
+    @Test
+    public void testInsertAndRemove() {
+        IndexedMinHeap pq = new IndexedMinHeap();
+        long[] items = {30, 90, 70, 40, 10, 80, 50, 20};
+        for (long item : items) {
+            pq.insert(item, item / 10.0);
+        }
+        assertEquals(8, pq.size());
+        assertTrue(pq.contains(70));
+
+        long[] expected = {10, 20, 30, 40, 50, 70, 80, 90};
+        for (long item : expected) {
+            assertEquals(item, pq.removeMin());
+            assertFalse(pq.contains(item));
+        }
+        assertTrue(pq.isEmpty());
+    }
+
+    @Test
+    public void testChangePriority() {
+        IndexedMinHeap pq = new IndexedMinHeap();
+        pq.insert(1L << 40, 5);
+        pq.insert(-7, 3);
+        pq.insert(2, 4);
+        pq.changePriority(1L << 40, 1);
+        assertEquals(1L << 40, pq.peek());
+        pq.changePriority(1L << 40, 10);
+        assertEquals(-7, pq.peek());
+        // changePriority inserts items which are not in the heap
+        pq.changePriority(3, 0);
+        assertEquals(3, pq.removeMin());
+        assertEquals(-7, pq.removeMin());
+        assertEquals(2, pq.removeMin());
+        assertEquals(1L << 40, pq.removeMin());
+    }
+
+    @Test
+    /**
+     * difference test with IndexedMinHeap and PriorityQueue:
+     * insert, removeMin/poll, size, changePriority/remove+add
+     */
+    public void testDifference() {
+        Map<Long, Double> priorityMap = new HashMap<>();
+        PriorityQueue<Long> pq = new PriorityQueue<>(
+                (o1, o2) -> Double.compare(priorityMap.get(o1), priorityMap.get(o2)));
+        IndexedMinHeap myPq = new IndexedMinHeap();
+
+        Random random = new Random(0);
+        int numRange = 5000;
+        for (int i = 0; i < 200000; i++) {
+            long num = random.nextInt(numRange) * 1000003L;
+            double priority = random.nextDouble() * numRange;
+            switch (random.nextInt(4)) {
+                case 0: {
+                    // handle insert
+                    if (priorityMap.containsKey(num)) {
+                        break;
+                    }
+                    priorityMap.put(num, priority);
+                    pq.add(num);
+                    myPq.insert(num, priority);
+                    break;
+                }
+                case 1: {
+                    // handle removeMin/poll
+                    if (pq.isEmpty()) {
+                        break;
+                    }
+                    long expected = pq.poll();
+                    priorityMap.remove(expected);
+                    assertEquals(expected, myPq.removeMin());
+                    break;
+                }
+                case 2: {
+                    // handle size
+                    assertEquals(pq.size(), myPq.size());
+                    break;
+                }
+                default: {
+                    // handle changePriority/remove+add
+                    if (!priorityMap.containsKey(num)) {
+                        break;
+                    }
+                    pq.remove(num);
+                    priorityMap.put(num, priority);
+                    pq.add(num);
+                    myPq.changePriority(num, priority);
+                    break;
+                }
+            }
+        }
+    }
+}
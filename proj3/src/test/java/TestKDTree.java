@@ -3,7 +3,9 @@ import org.junit.Test;
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertTrue;
 
+import java.util.Arrays;
 import java.util.HashSet;
+import java.util.Random;
 import java.util.Set;
 
 public class TestKDTree {
@@ -93,6 +95,39 @@ public class TestKDTree {
 
     }
 
+    @Test
+    /** Test that fromPreorder rebuilds the tree stored by preorder */
+    public void testPreorder() {
+        KDTree t = new KDTree();
+        Random random = new Random(0);
+        for (int i = 0; i < 1000; i++) {
+            t.insert(i, -122.3 + random.nextDouble() * 0.1, 37.8 + random.nextDouble() * 0.1);
+        }
+
+        int n = t.size();
+        long[] ids = new long[n];
+        double[] lons = new double[n];
+        double[] lats = new double[n];
+        byte[] children = new byte[n];
+        t.preorder(ids, lons, lats, children);
+        KDTree copy = KDTree.fromPreorder(ids, lons, lats, children);
+
+        assertEquals(n, copy.size());
+        for (int i = 0; i < 1000; i++) {
+            double lon = -122.31 + random.nextDouble() * 0.12;
+            double lat = 37.79 + random.nextDouble() * 0.12;
+            assertEquals(t.nearest(lon, lat), copy.nearest(lon, lat));
+        }
+
+        long[] copyIds = new long[n];
+        double[] copyLons = new double[n];
+        double[] copyLats = new double[n];
+        byte[] copyChildren = new byte[n];
+        copy.preorder(copyIds, copyLons, copyLats, copyChildren);
+        assertTrue(Arrays.equals(ids, copyIds));
+        assertTrue(Arrays.equals(children, copyChildren));
+    }
+
     private long nearest(Set<Point> set, double lon, double lat) {
         long nearestId = -1;
         double minDistance = Double.MAX_VALUE;